@@ -0,0 +1,346 @@
+package edu.ucsf.io;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Alpha diversity of each sample of a BIOM table. All requested indices are computed together from a single pass over the nonzero entries of each sample, and samples are split across threads with fork-join. Supported indices are:
+ * <p>
+ * <ul>
+ * <li>richness = number of observations with positive counts (S).
+ * <li>shannon = Shannon diversity, -sum p*ln(p), where p are the relative abundances within the sample.
+ * <li>simpson = Gini-Simpson diversity, 1 - sum p^2.
+ * <li>chao1 = Chao1 richness estimate, S + F1^2/(2*F2), where F1 and F2 are the numbers of singletons and doubletons; the bias-corrected form S + F1*(F1-1)/2 is used if there are no doubletons.
+ * <li>ace = Abundance-based coverage estimate of richness, with observations with counts of 10 or less treated as rare. NaN if all rare observations are singletons.
+ * <li>pielou = Pielou's evenness, shannon/ln(S). NaN if S is less than 2.
+ * <li>goods_coverage = Good's coverage, 1 - F1/N, where N is the total count. NaN if N is 0.
+ * </ul>
+ * <p>
+ * Chao1, ACE, and Good's coverage assume integer counts: non-integer values are not counted as singletons, doubletons, or rare observations.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class AlphaDiversity{
+
+	//bio1 = table
+	//rgsIndices = indices to compute, in output order
+	//rgiIndices = code of each index to compute
+	//rgdOut = output: value of each index (first dimension) for each sample (second dimension)
+
+	/**Names of supported indices.**/
+	public static final String[] INDICES = new String[]{"richness","shannon","simpson","chao1","ace","pielou","goods_coverage"};
+
+	/**Maximum count of rare observations for ACE.**/
+	private static final int ACE_RARE_THRESHOLD = 10;
+
+	/**Minimum number of samples processed by a single task.**/
+	private static final int MIN_TASK_SIZE = 256;
+
+	/**Table.**/
+	private BiomIO bio1;
+
+	/**Indices to compute, in output order.**/
+	private String[] rgsIndices;
+
+	/**Code (position in INDICES) of each index to compute.**/
+	private int[] rgiIndices;
+
+	/**Output: value of each index (first dimension) for each sample (second dimension).**/
+	private double[][] rgdOut;
+
+	/**
+	 * Constructor.
+	 * @param bio1 Table. Samples are columns of the table.
+	 * @param rgsIndices Indices to compute; see class documentation for names.
+	 */
+	public AlphaDiversity(BiomIO bio1, String[] rgsIndices) throws Exception{
+
+		this.bio1 = bio1;
+		this.rgsIndices = rgsIndices.clone();
+		rgiIndices = new int[rgsIndices.length];
+		for(int k=0;k<rgsIndices.length;k++){
+			rgiIndices[k] = -1;
+			for(int l=0;l<INDICES.length;l++){
+				if(INDICES[l].equals(rgsIndices[k])){
+					rgiIndices[k] = l;
+				}
+			}
+			if(rgiIndices[k]==-1){
+				throw new Exception("Unknown alpha diversity index: " + rgsIndices[k]);
+			}
+		}
+	}
+
+	/**
+	 * Computes abundance-based coverage estimate.
+	 * @param dS Number of observations with positive counts.
+	 * @param dSRare Number of rare observations.
+	 * @param dNRare Total count of rare observations.
+	 * @param rgiFreq Number of observations with each count from 0 to ACE_RARE_THRESHOLD.
+	 * @return ACE; NaN if all rare observations are singletons.
+	 */
+	private double ace(double dS, double dSRare, double dNRare, int[] rgiFreq){
+
+		//dCoverage = sample coverage of rare observations
+		//dSum = sum of i*(i-1)*F_i
+		//dGamma = squared coefficient of variation
+
+		double dCoverage;
+		double dSum;
+		double dGamma;
+
+		if(dSRare==0){
+			return dS;
+		}
+		if(rgiFreq[1]==dNRare){
+			return Double.NaN;
+		}
+		dCoverage = 1.-rgiFreq[1]/dNRare;
+		dSum = 0;
+		for(int i=2;i<rgiFreq.length;i++){
+			dSum+=((double) i)*(i-1)*rgiFreq[i];
+		}
+		dGamma = Math.max(dSRare/dCoverage*dSum/(dNRare*(dNRare-1.))-1., 0.);
+		return dS-dSRare+dSRare/dCoverage+rgiFreq[1]/dCoverage*dGamma;
+	}
+
+	/**
+	 * Computes indices for all samples.
+	 * @param iThreads Number of threads to use; 1 to compute on the calling thread.
+	 * @return Value of each index (first dimension, in the order given to the constructor) for each sample (second dimension, in sample index order).
+	 */
+	public double[][] compute(int iThreads){
+
+		//pol1 = fork-join pool
+
+		ForkJoinPool pol1;
+
+		rgdOut = new double[rgsIndices.length][bio1.axsSample.size()];
+
+		//building column-major copy of table before tasks read it
+		bio1.getCursor(bio1.axsSample);
+
+		if(iThreads<=1){
+			new SampleRangeTask(0, bio1.axsSample.size()).compute();
+		}else{
+			pol1 = new ForkJoinPool(iThreads);
+			try{
+				pol1.invoke(new SampleRangeTask(0, bio1.axsSample.size()));
+			}finally{
+				pol1.shutdown();
+			}
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Computes a single index for all samples.
+	 * @param iThreads Number of threads to use; 1 to compute on the calling thread.
+	 * @return Map from sample IDs to values of the first index given to the constructor.
+	 */
+	public HashMap<String,Double> computeMap(int iThreads){
+
+		//mapOut = output
+		//rgd1 = values
+
+		HashMap<String,Double> mapOut;
+		double rgd1[][];
+
+		rgd1 = compute(iThreads);
+		mapOut = new HashMap<String,Double>(bio1.axsSample.size());
+		for(int j=0;j<bio1.axsSample.size();j++){
+			mapOut.put(bio1.axsSample.getID(j), rgd1[0][j]);
+		}
+		return mapOut;
+	}
+
+	/**
+	 * Computes requested indices from the sums of one sample.
+	 * @param sms1 Sums of sample.
+	 * @param rgdOut Output: value of each index, in the order given to the constructor.
+	 */
+	void computeIndices(SampleSums sms1, double[] rgdOut){
+
+		//dShannon = Shannon diversity
+
+		double dShannon;
+
+		dShannon = (sms1.dN>0) ? Math.log(sms1.dN)-sms1.dXLogX/sms1.dN : 0;
+		for(int k=0;k<rgiIndices.length;k++){
+			switch(rgiIndices[k]){
+				case 0:
+					rgdOut[k] = sms1.dS;
+					break;
+				case 1:
+					rgdOut[k] = dShannon;
+					break;
+				case 2:
+					rgdOut[k] = (sms1.dN>0) ? 1.-sms1.dX2/(sms1.dN*sms1.dN) : 0;
+					break;
+				case 3:
+					if(sms1.rgiFreq[2]>0){
+						rgdOut[k] = sms1.dS+((double) sms1.rgiFreq[1])*sms1.rgiFreq[1]/(2.*sms1.rgiFreq[2]);
+					}else{
+						rgdOut[k] = sms1.dS+((double) sms1.rgiFreq[1])*(sms1.rgiFreq[1]-1.)/2.;
+					}
+					break;
+				case 4:
+					rgdOut[k] = ace(sms1.dS, sms1.dSRare, sms1.dNRare, sms1.rgiFreq);
+					break;
+				case 5:
+					rgdOut[k] = (sms1.dS>1) ? dShannon/Math.log(sms1.dS) : Double.NaN;
+					break;
+				case 6:
+					rgdOut[k] = (sms1.dN>0) ? 1.-sms1.rgiFreq[1]/sms1.dN : Double.NaN;
+					break;
+				default:
+					rgdOut[k] = Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Computes indices for one sample from its nonzero entries and saves them to the output.
+	 * @param cur1 Cursor over samples.
+	 * @param j Sample index.
+	 * @param sms1 Reused sums.
+	 * @param rgd1 Reused array for values of indices.
+	 */
+	private void computeSample(BiomIO.NonzeroCursor cur1, int j, SampleSums sms1, double[] rgd1){
+		sms1.clear();
+		cur1.seek(j);
+		while(cur1.next()){
+			sms1.add(cur1.getValue());
+		}
+		computeIndices(sms1, rgd1);
+		for(int k=0;k<rgd1.length;k++){
+			rgdOut[k][j] = rgd1[k];
+		}
+	}
+
+	/**
+	 * Gets number of indices computed.
+	 * @return Number of indices given to the constructor.
+	 */
+	int getIndexCount(){
+		return rgiIndices.length;
+	}
+
+	/**
+	 * Task computing indices for a range of samples. Ranges larger than MIN_TASK_SIZE are split in half.
+	 */
+	private class SampleRangeTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		/**First sample in range.**/
+		private int iStart;
+
+		/**Sample after last sample in range.**/
+		private int iEnd;
+
+		/**
+		 * Constructor.
+		 * @param iStart First sample in range.
+		 * @param iEnd Sample after last sample in range.
+		 */
+		private SampleRangeTask(int iStart, int iEnd){
+			this.iStart = iStart;
+			this.iEnd = iEnd;
+		}
+
+		@Override
+		protected void compute(){
+
+			//iMid = midpoint of range
+			//cur1 = cursor over samples
+			//sms1 = sums of current sample
+			//rgd1 = values of indices for current sample
+
+			int iMid;
+			BiomIO.NonzeroCursor cur1;
+			SampleSums sms1;
+			double rgd1[];
+
+			if(iEnd-iStart>MIN_TASK_SIZE && getPool()!=null && getPool().getParallelism()>1){
+				iMid = (iStart+iEnd)>>>1;
+				invokeAll(new SampleRangeTask(iStart, iMid), new SampleRangeTask(iMid, iEnd));
+				return;
+			}
+			cur1 = bio1.getCursor(bio1.axsSample);
+			sms1 = new SampleSums();
+			rgd1 = new double[rgiIndices.length];
+			for(int j=iStart;j<iEnd;j++){
+				computeSample(cur1, j, sms1, rgd1);
+			}
+		}
+	}
+
+	/**
+	 * Sums and frequency counts of the entries of one sample, from which all indices are computed.
+	 */
+	static class SampleSums{
+
+		/**Total count.**/
+		private double dN;
+
+		/**Number of observations with positive counts.**/
+		private double dS;
+
+		/**Sum of x*ln(x).**/
+		private double dXLogX;
+
+		/**Sum of x^2.**/
+		private double dX2;
+
+		/**Total count of rare observations.**/
+		private double dNRare;
+
+		/**Number of rare observations.**/
+		private double dSRare;
+
+		/**Number of observations with each count from 0 to ACE_RARE_THRESHOLD.**/
+		private int[] rgiFreq = new int[ACE_RARE_THRESHOLD+1];
+
+		/**
+		 * Adds entry. Entries that are not positive are ignored.
+		 * @param d1 Value of entry.
+		 */
+		void add(double d1){
+
+			//i1 = value as integer
+
+			int i1;
+
+			if(d1>0){
+				dN+=d1;
+				dS++;
+				dXLogX+=d1*Math.log(d1);
+				dX2+=d1*d1;
+				if(d1<=ACE_RARE_THRESHOLD){
+					dNRare+=d1;
+					dSRare++;
+					i1 = (int) d1;
+					if(i1==d1){
+						rgiFreq[i1]++;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Clears sums.
+		 */
+		void clear(){
+			dN = 0;
+			dS = 0;
+			dXLogX = 0;
+			dX2 = 0;
+			dNRare = 0;
+			dSRare = 0;
+			Arrays.fill(rgiFreq, 0);
+		}
+	}
+}
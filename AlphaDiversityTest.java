@@ -0,0 +1,92 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.util.HashMap;
+import org.junit.Test;
+
+import edu.ucsf.io.AlphaDiversity;
+import edu.ucsf.io.BiomIO;
+
+public class AlphaDiversityTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**
+	 * Constructor.
+	 */
+	public AlphaDiversityTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+
+	@Test
+	public void AlphaDiversity_UnknownIndexGiven_ExceptionThrown(){
+		try{
+			new AlphaDiversity(bio1, new String[]{"shannon","berger_parker"});
+			fail();
+		}catch(Exception e){
+		}
+	}
+
+	@Test
+	public void compute_IndicesComputed_ValuesAreCorrect(){
+
+		//rgd1 = values
+
+		double rgd1[][] = null;
+
+		try{
+			rgd1 = new AlphaDiversity(bio1, AlphaDiversity.INDICES).compute(1);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertArrayEquals(new double[]{2,3,4,2,1,3},rgd1[0],0.0000000001);
+		assertArrayEquals(new double[]{0.59826958858526,1.09861228866811,1.38629436111989,0.63651416829481,0.,1.03972077083992},rgd1[1],0.0000000001);
+		assertArrayEquals(new double[]{20./49.,2./3.,0.75,16./36.,0.,0.625},rgd1[2],0.0000000001);
+		assertArrayEquals(new double[]{2,6,10,2,1,5},rgd1[3],0.0000000001);
+		assertArrayEquals(new double[]{2,Double.NaN,Double.NaN,2,1,6},rgd1[4],0.0000000001);
+		assertArrayEquals(new double[]{0.86312056856663,1.,1.,0.91829583405449,Double.NaN,0.94639463035719},rgd1[5],0.00000001);
+		assertArrayEquals(new double[]{1,0,0,1,1,0.5},rgd1[6],0.0000000001);
+	}
+
+	@Test
+	public void compute_IndicesComputedOnSeveralThreads_ValuesMatchSingleThread(){
+
+		//alp1 = alpha diversity engine
+
+		AlphaDiversity alp1;
+
+		try{
+			alp1 = new AlphaDiversity(bio1, AlphaDiversity.INDICES);
+			assertArrayEquals(alp1.compute(1),alp1.compute(4));
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void computeMap_ShannonComputed_MatchesBiomIO(){
+
+		//map1 = values
+
+		HashMap<String,Double> map1 = null;
+
+		try{
+			map1 = new AlphaDiversity(bio1, new String[]{"shannon"}).computeMap(2);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		bio1.normalize();
+		for(String s:map1.keySet()){
+			assertEquals(bio1.getShannon().get(s),map1.get(s),0.0000000001);
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package edu.ucsf.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pairwise beta diversity (distance) between all samples of a BIOM table. Distances are computed from the column-major copy of the table: the sample pairs are split into square tiles of TILE_SIZE by TILE_SIZE samples, so that the columns of a tile stay in cache while the tile is computed, and the tiles are taken in turn by a pool of threads. Each pair is computed by a merge of the sorted row indices of the two columns, which visits only the observations present in either sample. Supported metrics are:
+ * <p>
+ * <ul>
+ * <li>braycurtis = Bray-Curtis dissimilarity, 1 - 2*sum min(x,y)/(sum x + sum y).
+ * <li>braycurtis_unweighted = Bray-Curtis dissimilarity of presence-absence data (Sorensen dissimilarity), 1 - 2*|A and B|/(|A| + |B|).
+ * <li>jaccard = Jaccard distance of presence-absence data, 1 - |A and B|/|A or B|.
+ * <li>jaccard_weighted = Weighted Jaccard (Ruzicka) distance, 1 - sum min(x,y)/sum max(x,y).
+ * </ul>
+ * <p>
+ * Values are assumed to be non-negative. Distances between two samples that are both empty are NaN. Output is in condensed form: the distance between samples i and j (i less than j) is entry n*i - i*(i+1)/2 + j - i - 1, where n is the number of samples.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class BetaDiversity{
+
+	//bio1 = table
+	//iMetric = code of metric
+	//iSamples = number of samples
+	//rgdSum = sum of each sample
+	//rgiCount = number of positive entries in each sample
+
+	/**Names of supported metrics.**/
+	public static final String[] METRICS = new String[]{"braycurtis","braycurtis_unweighted","jaccard","jaccard_weighted"};
+
+	/**Number of samples along each side of a tile.**/
+	private static final int TILE_SIZE = 64;
+
+	/**Table.**/
+	private BiomIO bio1;
+
+	/**Code (position in METRICS) of metric.**/
+	private int iMetric;
+
+	/**Number of samples.**/
+	private int iSamples;
+
+	/**Sum of each sample.**/
+	private double[] rgdSum;
+
+	/**Number of positive entries in each sample.**/
+	private int[] rgiCount;
+
+	/**
+	 * Constructor.
+	 * @param bio1 Table. Samples are columns of the table.
+	 * @param sMetric Metric to compute; see class documentation for names.
+	 */
+	public BetaDiversity(BiomIO bio1, String sMetric) throws Exception{
+
+		this.bio1 = bio1;
+		iMetric = -1;
+		for(int l=0;l<METRICS.length;l++){
+			if(METRICS[l].equals(sMetric)){
+				iMetric = l;
+			}
+		}
+		if(iMetric==-1){
+			throw new Exception("Unknown beta diversity metric: " + sMetric);
+		}
+		iSamples = bio1.axsSample.size();
+	}
+
+	/**
+	 * Computes distances between all pairs of samples.
+	 * @param iThreads Number of threads to use.
+	 * @return Distances in condensed form (see class documentation).
+	 */
+	public double[] compute(int iThreads) throws Exception{
+
+		//rgdOut = output
+
+		double rgdOut[];
+
+		if(getCondensedSize(iSamples)>Integer.MAX_VALUE-8){
+			throw new Exception("Too many samples for in-memory distance matrix: " + iSamples + ". Write distances to a file instead.");
+		}
+		rgdOut = new double[(int) getCondensedSize(iSamples)];
+		compute(new CondensedOutput(rgdOut), iThreads);
+		return rgdOut;
+	}
+
+	/**
+	 * Computes distances between all pairs of samples and writes them to a distance matrix file (see DistanceMatrixFile), so that the distance matrix does not need to fit on the heap. Tiles are marked in the file as they are completed. If the file already holds a matrix for the same samples and metric, for instance from an interrupted run, only the tiles that are not yet complete are computed.
+	 * @param sPath Path to output file.
+	 * @param iThreads Number of threads to use.
+	 */
+	public void compute(String sPath, int iThreads) throws Exception{
+
+		//rgsIDs = sample IDs
+		//dmf1 = output file
+
+		String rgsIDs[];
+		DistanceMatrixFile dmf1;
+
+		rgsIDs = new String[iSamples];
+		for(int j=0;j<iSamples;j++){
+			rgsIDs[j] = bio1.axsSample.getID(j);
+		}
+		dmf1 = new DistanceMatrixFile(sPath, METRICS[iMetric], rgsIDs, TILE_SIZE);
+		try{
+			compute(new CondensedOutput(dmf1), iThreads);
+		}finally{
+			dmf1.close();
+		}
+	}
+
+	/**
+	 * Computes distances for all tiles.
+	 * @param out1 Output.
+	 * @param iThreads Number of threads to use.
+	 */
+	private void compute(final CondensedOutput out1, int iThreads) throws Exception{
+
+		//iTiles = number of tiles along each side of the distance matrix
+		//lstTiles = row and column block of each tile on or above the diagonal
+		//iNext = next tile to compute
+		//exc1 = thread pool
+		//lstFutures = task results
+
+		int iTiles;
+		final ArrayList<int[]> lstTiles;
+		final AtomicInteger iNext;
+		ExecutorService exc1;
+		ArrayList<Future<Object>> lstFutures;
+
+		loadSampleSummaries();
+		iTiles = (iSamples+TILE_SIZE-1)/TILE_SIZE;
+		lstTiles = new ArrayList<int[]>();
+		for(int i=0;i<iTiles;i++){
+			for(int j=i;j<iTiles;j++){
+				lstTiles.add(new int[]{i,j});
+			}
+		}
+		iNext = new AtomicInteger(0);
+
+		//computing on calling thread
+		if(iThreads<=1 || lstTiles.size()<2){
+			computeTiles(lstTiles, iNext, out1);
+			return;
+		}
+
+		//computing on thread pool: each thread takes tiles in turn
+		exc1 = Executors.newFixedThreadPool(Math.min(iThreads, lstTiles.size()));
+		lstFutures = new ArrayList<Future<Object>>();
+		try{
+			for(int t=0;t<Math.min(iThreads, lstTiles.size());t++){
+				lstFutures.add(exc1.submit(new Callable<Object>(){
+					public Object call() throws Exception{
+						computeTiles(lstTiles, iNext, out1);
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> fut1:lstFutures){
+				fut1.get();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch(ExecutionException e){
+			throw new IOException(e.getCause());
+		}finally{
+			exc1.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes distance between two samples by merging their sorted nonzero entries.
+	 * @param cur1 Cursor over samples, for first sample.
+	 * @param cur2 Cursor over samples, for second sample.
+	 * @param iSample1 First sample.
+	 * @param iSample2 Second sample.
+	 * @return Distance.
+	 */
+	private double computePair(BiomIO.NonzeroCursor cur1, BiomIO.NonzeroCursor cur2, int iSample1, int iSample2){
+
+		//dMin = sum over shared observations of smaller value
+		//iShared = number of shared observations
+		//b1, b2 = true if cursor is on an entry
+		//i1, i2 = observation of current entry of each cursor
+
+		double dMin;
+		int iShared;
+		boolean b1;
+		boolean b2;
+		int i1;
+		int i2;
+
+		dMin = 0;
+		iShared = 0;
+		cur1.seek(iSample1);
+		cur2.seek(iSample2);
+		b1 = cur1.next();
+		b2 = cur2.next();
+		while(b1 && b2){
+			i1 = cur1.getIndex();
+			i2 = cur2.getIndex();
+			if(i1<i2){
+				b1 = cur1.next();
+			}else if(i2<i1){
+				b2 = cur2.next();
+			}else{
+				if(cur1.getValue()>0 && cur2.getValue()>0){
+					dMin+=Math.min(cur1.getValue(), cur2.getValue());
+					iShared++;
+				}
+				b1 = cur1.next();
+				b2 = cur2.next();
+			}
+		}
+		switch(iMetric){
+			case 0:
+				return 1.-2.*dMin/(rgdSum[iSample1]+rgdSum[iSample2]);
+			case 1:
+				return 1.-2.*iShared/((double) rgiCount[iSample1]+rgiCount[iSample2]);
+			case 2:
+				return 1.-iShared/((double) rgiCount[iSample1]+rgiCount[iSample2]-iShared);
+			case 3:
+				return 1.-dMin/(rgdSum[iSample1]+rgdSum[iSample2]-dMin);
+			default:
+				return Double.NaN;
+		}
+	}
+
+	/**
+	 * Computes tiles until none remain.
+	 * @param lstTiles Row and column block of each tile.
+	 * @param iNext Next tile to compute; shared between threads.
+	 * @param out1 Output.
+	 */
+	private void computeTiles(ArrayList<int[]> lstTiles, AtomicInteger iNext, CondensedOutput out1){
+
+		//cur1, cur2 = cursors over samples
+		//iTile = current tile
+		//iEnd1, iEnd2 = ends of row and column blocks of current tile
+		//iStart2 = first sample paired with current sample of row block
+		//lPos = position in output of current distance; consecutive pairs within a row of a tile are stored consecutively
+
+		BiomIO.NonzeroCursor cur1;
+		BiomIO.NonzeroCursor cur2;
+		int iTile;
+		int iEnd1;
+		int iEnd2;
+		int iStart2;
+		long lPos;
+
+		cur1 = bio1.getCursor(bio1.axsSample);
+		cur2 = bio1.getCursor(bio1.axsSample);
+		while((iTile = iNext.getAndIncrement())<lstTiles.size()){
+			if(out1.isTileComplete(iTile)){
+				continue;
+			}
+			iEnd1 = Math.min(iSamples, (lstTiles.get(iTile)[0]+1)*TILE_SIZE);
+			iEnd2 = Math.min(iSamples, (lstTiles.get(iTile)[1]+1)*TILE_SIZE);
+			for(int i=lstTiles.get(iTile)[0]*TILE_SIZE;i<iEnd1;i++){
+				iStart2 = Math.max(i+1, lstTiles.get(iTile)[1]*TILE_SIZE);
+				if(iStart2>=iEnd2){
+					continue;
+				}
+				lPos = getCondensedIndex(i, iStart2, iSamples);
+				for(int j=iStart2;j<iEnd2;j++){
+					out1.put(lPos, computePair(cur1, cur2, i, j));
+					lPos++;
+				}
+			}
+			out1.setTileComplete(iTile);
+		}
+	}
+
+	/**
+	 * Gets position of a pair of samples in condensed form.
+	 * @param i First sample.
+	 * @param j Second sample; must be greater than i.
+	 * @param iSamples Number of samples.
+	 * @return Position of pair.
+	 */
+	public static long getCondensedIndex(int i, int j, int iSamples){
+		return DistanceMatrixFile.getCondensedIndex(i, j, iSamples);
+	}
+
+	/**
+	 * Gets number of distances in condensed form.
+	 * @param iSamples Number of samples.
+	 * @return Number of pairs of samples.
+	 */
+	public static long getCondensedSize(int iSamples){
+		return DistanceMatrixFile.getCondensedSize(iSamples);
+	}
+
+	/**
+	 * Loads sum and number of positive entries of each sample. Also builds column-major copy of table before threads read it.
+	 */
+	private void loadSampleSummaries(){
+
+		//cur1 = cursor over samples
+
+		BiomIO.NonzeroCursor cur1;
+
+		rgdSum = new double[iSamples];
+		rgiCount = new int[iSamples];
+		cur1 = bio1.getCursor(bio1.axsSample);
+		for(int j=0;j<iSamples;j++){
+			cur1.seek(j);
+			while(cur1.next()){
+				if(cur1.getValue()>0){
+					rgdSum[j]+=cur1.getValue();
+					rgiCount[j]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Distances in condensed form, held in an array or in a distance matrix file.
+	 */
+	private class CondensedOutput{
+
+		/**Distances; null if output is a file.**/
+		private double[] rgdOut = null;
+
+		/**Distance matrix file; null if output is an array.**/
+		private DistanceMatrixFile dmf1 = null;
+
+		/**
+		 * Constructor for array output.
+		 * @param rgdOut Output array.
+		 */
+		private CondensedOutput(double[] rgdOut){
+			this.rgdOut = rgdOut;
+		}
+
+		/**
+		 * Constructor for file output.
+		 * @param dmf1 Distance matrix file, open for writing.
+		 */
+		private CondensedOutput(DistanceMatrixFile dmf1){
+			this.dmf1 = dmf1;
+		}
+
+		/**
+		 * Checks whether tile has already been computed.
+		 * @param iTile Tile index.
+		 * @return True if tile is marked complete in output file; false otherwise, and always false for array output.
+		 */
+		private boolean isTileComplete(int iTile){
+			return dmf1!=null && dmf1.isTileComplete(iTile);
+		}
+
+		/**
+		 * Saves distance. Distinct positions may be written from different threads.
+		 * @param lPos Position in condensed form.
+		 * @param dValue Distance.
+		 */
+		private void put(long lPos, double dValue){
+			if(rgdOut!=null){
+				rgdOut[(int) lPos] = dValue;
+			}else{
+				dmf1.put(lPos, dValue);
+			}
+		}
+
+		/**
+		 * Marks tile as computed.
+		 * @param iTile Tile index.
+		 */
+		private void setTileComplete(int iTile){
+			if(dmf1!=null){
+				dmf1.setTileComplete(iTile);
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import org.junit.Test;
+
+import edu.ucsf.io.BetaDiversity;
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.DistanceMatrixFile;
+
+public class BetaDiversityTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**
+	 * Constructor.
+	 */
+	public BetaDiversityTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+
+	@Test
+	public void BetaDiversity_UnknownMetricGiven_ExceptionThrown(){
+		try{
+			new BetaDiversity(bio1, "euclidean");
+			fail();
+		}catch(Exception e){
+		}
+	}
+
+	@Test
+	public void compute_BrayCurtisComputed_ValuesAreCorrect(){
+
+		//rgd1 = distances
+
+		double rgd1[] = null;
+
+		try{
+			rgd1 = new BetaDiversity(bio1, "braycurtis").compute(1);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(15,rgd1.length);
+		assertEquals(0.6,rgd1[(int) BetaDiversity.getCondensedIndex(0, 1, 6)],0.0000000001);
+		assertEquals(1.-2./11.,rgd1[(int) BetaDiversity.getCondensedIndex(0, 2, 6)],0.0000000001);
+		assertEquals(0.4,rgd1[(int) BetaDiversity.getCondensedIndex(0, 4, 6)],0.0000000001);
+		assertEquals(1.-2.*3./10.,rgd1[(int) BetaDiversity.getCondensedIndex(3, 5, 6)],0.0000000001);
+	}
+
+	@Test
+	public void compute_MetricsComputed_ValuesMatchDenseComputation(){
+
+		//rgd1 = distances
+		//rgdX, rgdY = sample vectors
+		//dMin, dMax, dX, dY = sums of smaller values, larger values, and values of each sample
+		//dShared, dX0, dY0 = numbers of shared observations and of observations in each sample
+		//rgdCorrect = correct distance for each metric
+
+		double rgd1[];
+		double rgdX[];
+		double rgdY[];
+		double dMin;
+		double dMax;
+		double dX;
+		double dY;
+		double dShared;
+		double dX0;
+		double dY0;
+		double rgdCorrect[];
+
+		for(int m=0;m<BetaDiversity.METRICS.length;m++){
+			try{
+				rgd1 = new BetaDiversity(bio1, BetaDiversity.METRICS[m]).compute(1);
+			}catch(Exception e){
+				fail(e.getMessage());
+				return;
+			}
+			for(int i=0;i<6;i++){
+				for(int j=i+1;j<6;j++){
+					rgdX = new double[5];
+					rgdY = new double[5];
+					dMin=0; dMax=0; dX=0; dY=0; dShared=0; dX0=0; dY0=0;
+					for(int k=0;k<5;k++){
+						rgdX[k] = bio1.getValueByIndices(k, i);
+						rgdY[k] = bio1.getValueByIndices(k, j);
+						dMin+=Math.min(rgdX[k], rgdY[k]);
+						dMax+=Math.max(rgdX[k], rgdY[k]);
+						dX+=rgdX[k];
+						dY+=rgdY[k];
+						dX0+=(rgdX[k]>0 ? 1 : 0);
+						dY0+=(rgdY[k]>0 ? 1 : 0);
+						dShared+=(rgdX[k]>0 && rgdY[k]>0 ? 1 : 0);
+					}
+					rgdCorrect = new double[]{1.-2.*dMin/(dX+dY), 1.-2.*dShared/(dX0+dY0), 1.-dShared/(dX0+dY0-dShared), 1.-dMin/dMax};
+					assertEquals(rgdCorrect[m],rgd1[(int) BetaDiversity.getCondensedIndex(i, j, 6)],0.0000000001);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void compute_DistancesWrittenToFile_FileMatchesArray(){
+
+		//rgd1 = distances in memory
+		//sPath = output path
+		//dmf1 = distance matrix file
+
+		double rgd1[];
+		String sPath;
+		DistanceMatrixFile dmf1;
+
+		sPath = "/tmp/BetaDiversityTest.dist";
+		try{
+			new File(sPath).delete();
+			rgd1 = new BetaDiversity(bio1, "jaccard").compute(1);
+			new BetaDiversity(bio1, "jaccard").compute(sPath, 2);
+			dmf1 = new DistanceMatrixFile(sPath);
+			assertTrue(dmf1.isComplete());
+			assertEquals("jaccard",dmf1.getMetric());
+			for(int i=0;i<6;i++){
+				for(int j=i+1;j<6;j++){
+					assertEquals(rgd1[(int) BetaDiversity.getCondensedIndex(i, j, 6)],dmf1.getDistance(i, j),0.);
+				}
+			}
+			dmf1.close();
+			new File(sPath).delete();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+}
@@ -1,18 +1,40 @@
 package edu.ucsf.io;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.TreeMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
 import ucar.nc2.Group;
 import ucar.nc2.NetcdfFile;
@@ -55,6 +77,21 @@ public class BiomIO {
 	/**Sparse matrix object.**/
 	private SparseMatrix spm1;
 	
+	/**Missing data value.**/
+	private static final String MISSING_DATA_VALUE="NA";
+	
+	/**Number of vectors subsampled together by one thread.**/
+	private static final int SUBSAMPLE_BLOCK_SIZE=64;
+	
+	/**Number of new rows collapsed together by one thread.**/
+	private static final int COLLAPSE_BLOCK_SIZE=256;
+	
+	/**Reducers accepted when collapsing.**/
+	public static final String[] COLLAPSE_REDUCERS = new String[]{"sum","mean","max","count"};
+	
+	/**Taxonomic ranks, in order; used as metadata keys for taxonomy.**/
+	private static final String[] TAXONOMIC_RANKS = new String[]{"kingdom","phylum","class","order","family","genus","species"};
+	
 
 	/**
 	 * Constructor that performs specified initial operations on the BIOM table.
@@ -95,7 +132,17 @@ public class BiomIO {
 	 *                   <li>bPresenceAbsence [boolean] = Flag for whether data should be reduced to presence-absence data.
 	 *                   <p>
 	 *                   <li>iRarefactionTotal [integer] = Total count to which to rarefy samples.
+	 *                   <p>
+	 *                   <li>bLoadSampleMatrix [boolean] = Flag for whether to load the column-major copy of the matrix stored in the sample/matrix group. If disabled, the column-major copy is built from the observation/matrix group on first per-sample access.
+	 *                   <p>
+	 *                   <li>bUseCache [boolean] = Flag for whether to use a binary sidecar cache of the BIOM file. The cache is written on the first open and read (through memory-mapped buffers) on later opens, unless the BIOM file has changed since the cache was written. By default the cache is written next to the BIOM file.
+	 *                   <p>
+	 *                   <li>sCacheDirectory [string] = Directory in which to keep cache files. Implies bUseCache.
+	 *                   <p>
+	 *                   <li>iLoadThreads [integer] = Number of threads used to read and decompress the matrix arrays. Arrays are split into chunk-aligned sections that are read concurrently, each thread using its own file handle. Default is 1 (sections are read on the calling thread).
 	 *                   </ul>
+	 *                   <p>
+	 *                   When they do not change the result, sSamplesToKeepPath, sObservationsToKeepPath, rgsRequiredSampleMetadata, and rgsRequiredObservationMetadata are applied while the BIOM file is read, so that only the selected ranges of the matrix and metadata variables are loaded. Observation selections are applied while reading only if the table is not collapsed by taxon, rarefied, or checked for rarefaction; required sample metadata is applied while reading only if samples are not rarefied or checked for rarefaction and sample metadata is not loaded from a text file. Selections are not applied while reading if a cache is used, so that the cache holds the full table.
 	 */
 	
 	/**
@@ -148,47 +195,21 @@ public class BiomIO {
 	}
 	
 	/**
-	 * Constructor.
+	 * Constructor. Metadata values are read from the BIOM file the first time they are accessed, so the file should not be moved or modified while the object is in use.
 	 * @param sBiomPath Absolute path to BIOM file.
 	 */
 	public BiomIO(String sBiomPath){
-		
-		//fil1  = File object
-		
-		NetcdfFile fil1;
-		
-		//loading file
-		fil1 = null;
-		try {
-			fil1 = NetcdfFile.open(sBiomPath);
-			//fil1 = NetcdfDataset.openFile(sBiomPath,null);
+		try{
+			load(sBiomPath, null);
 		}catch(IOException e){
 			e.printStackTrace();
 		}
-		
-		//loading global variables
-		loadGlobalVariables(fil1);
-		
-		//loading axes
-		loadAxes(fil1);
-		
-		//loading taxonomy metadata
-		loadTaxonomicMetadata(fil1);
-		
-		//loading other metadata
-		loadMetadata(fil1);
-		
-		//loading sparse matrix object
-		loadSparseMatrix(fil1);
-		
-		//closing file
-		close(fil1);
 	}
 	
 	public BiomIO(String sBiomPath, Map<String,String> mapOptions) throws Exception{
 		
-		//running constructor
-		this(sBiomPath);
+		//loading file
+		load(sBiomPath, mapOptions);
 		
 		//collapsing by taxon if requested
 		if(mapOptions.containsKey("sTaxonRank") && axsObservation.hasMetadataField("taxonomy") && !mapOptions.get("sTaxonRank").equals("otu")){
@@ -297,21 +318,14 @@ public class BiomIO {
 	 */
 	public boolean checkRarefied(){
 		
-		//map1 = map of sums within samples
-		//d1 = first sum value
+		//rgd1 = sums within samples
 		
-		HashMap<String,Double> map1;
-		double d1;
+		double rgd1[];
 		
-		map1 = this.sum(axsSample);
-		d1 = Double.NaN;
-		for(String s:map1.keySet()){
-			if(Double.isNaN(d1)){
-				d1 = map1.get(s);
-			}else{
-				if(map1.get(s)!=d1){
-					return false;
-				}
+		rgd1 = this.sumByIndex(axsSample);
+		for(int j=1;j<rgd1.length;j++){
+			if(rgd1[j]!=rgd1[0]){
+				return false;
 			}
 		}
 		return true;
@@ -352,19 +366,64 @@ public class BiomIO {
 	 * @return A new BIOM object with axis collapsed by the specified metadata.
 	 */
 	public BiomIO collapse(String sMetadataKey, Axis axs1, boolean bOutputNew){
+		try{
+			return collapse(sMetadataKey, axs1, 0, 1, bOutputNew);
+		}catch(IOException e){
+			
+			//not thrown: no thread pool is used on one thread
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Collapses table by specified metadata field: axis elements are combined if they share a given metadata value, and the entries combined into each new entry are reduced to a single value. Each axis element is mapped to the integer index of its group, and the matrix is aggregated over primitive arrays, on several threads if requested.
+	 * @param sMetadataKey Key to use for metadata collapsing (elements that share the same value of this metadata will be combined).
+	 * @param axs1 Axis to collapse along.
+	 * @param sReducer Reducer (see COLLAPSE_REDUCERS): "sum" of entries; "mean" of entries over all combined elements, including those with zero values; "max" of entries, including zero values; or "count" of nonzero entries.
+	 * @param iThreads Number of threads to use.
+	 * @param bOutputNew Output new BIOM object (versus modify current object).
+	 * @return A new BIOM object with axis collapsed by the specified metadata.
+	 */
+	public BiomIO collapse(String sMetadataKey, Axis axs1, String sReducer, int iThreads, boolean bOutputNew) throws Exception{
 		
-		//axsSampleNew = new axis
-		//spmNew = new sampling matrix
+		//iReducer = index of reducer
+		
+		int iReducer;
+		
+		iReducer = Arrays.asList(COLLAPSE_REDUCERS).indexOf(sReducer);
+		if(iReducer==-1){
+			throw new Exception("Unknown collapse reducer: " + sReducer);
+		}
+		return collapse(sMetadataKey, axs1, iReducer, iThreads, bOutputNew);
+	}
+	
+	/**
+	 * Collapses table by specified metadata field.
+	 * @param sMetadataKey Key to use for metadata collapsing.
+	 * @param axs1 Axis to collapse along.
+	 * @param iReducer Index of reducer in COLLAPSE_REDUCERS.
+	 * @param iThreads Number of threads to use.
+	 * @param bOutputNew Output new BIOM object (versus modify current object).
+	 * @return A new BIOM object with axis collapsed by the specified metadata.
+	 */
+	private BiomIO collapse(String sMetadataKey, Axis axs1, int iReducer, int iThreads, boolean bOutputNew) throws IOException{
+		
+		//axsNew = new axis
+		//spmNew = new sparse matrix
+		//rgiGroup = index of new axis element for each current axis element
 		
 		Axis axsNew;
 		SparseMatrix spmNew;
+		int rgiGroup[];
 		
 		if(!axs1.hasMetadataField(sMetadataKey)){
 			return this;
 		}
-		axsNew = axs1.collapse(sMetadataKey);
+		rgiGroup = new int[axs1.size()];
+		axsNew = axs1.collapse(sMetadataKey, rgiGroup);
 		if(axsNew.sName.equals("sample")){
-			spmNew = spm1.collapse(null, axsNew.mapCollapse);
+			spmNew = spm1.collapse(null, 0, rgiGroup, axsNew.size(), iReducer, iThreads);
 			if(bOutputNew){	
 				return new BiomIO(axsObservation,axsNew,spmNew);
 			}else{
@@ -373,7 +432,7 @@ public class BiomIO {
 				iNNZ = spmNew.getNNZ();
 			}
 		}else if(axsNew.sName.equals("observation")){
-			spmNew = spm1.collapse(axsNew.mapCollapse, null);
+			spmNew = spm1.collapse(rgiGroup, axsNew.size(), null, 0, iReducer, iThreads);
 			if(bOutputNew){
 				return new BiomIO(axsNew,axsSample,spmNew);
 			}else{
@@ -389,13 +448,7 @@ public class BiomIO {
 	 * Converts table to presence-absence data.
 	 */
 	public void convertToPresenceAbsence(){
-		for(String s:axsObservation.getIDs()){
-			for(String t:axsSample.getIDs()){
-				if(spm1.getPresenceAbsence(s, t)==1){
-					spm1.setValue(s, t, 1);
-				}
-			}
-		}
+		spm1.convertToPresenceAbsence();
 	}
 	
 	/**
@@ -406,8 +459,14 @@ public class BiomIO {
 	public boolean equals(Object obj1){
 		
 		//bio1 = BIOM object
+		//rgiCol = index in bio1 of each sample
+		//i1 = index in bio1 of current observation
+		//cur1 = cursor over observations
 		
 		BiomIO bio1;
+		int rgiCol[];
+		int i1;
+		NonzeroCursor cur1;
 		
 		if(obj1 instanceof BiomIO){
 			bio1 = (BiomIO) obj1;
@@ -421,19 +480,29 @@ public class BiomIO {
 		if(axsSample.size()!=bio1.axsSample.size()){
 			return false;
 		}
-		for(String s:axsObservation.getIDs()){
-			if(!bio1.axsObservation.getIDs().contains(s)){
+		for(int i=0;i<axsObservation.size();i++){
+			if(!bio1.axsObservation.contains(axsObservation.getID(i))){
 				return false;
 			}
 		}
-		for(String s:axsSample.getIDs()){
-			if(!bio1.axsSample.getIDs().contains(s)){
+		rgiCol = new int[axsSample.size()];
+		for(int j=0;j<axsSample.size();j++){
+			if(!bio1.axsSample.contains(axsSample.getID(j))){
 				return false;
 			}
+			rgiCol[j] = bio1.axsSample.getIndex(axsSample.getID(j));
 		}
-		for(String s:axsObservation.getIDs()){
-			for(String t:axsSample.getIDs()){
-				if(this.getValueByIDs(s, t)!=bio1.getValueByIDs(s,t)){
+		
+		//neither matrix stores zeros, so comparing stored entries in one direction suffices once counts agree
+		if(spm1.getNNZ()!=bio1.spm1.getNNZ()){
+			return false;
+		}
+		cur1 = getCursor(axsObservation);
+		for(int i=0;i<axsObservation.size();i++){
+			i1 = bio1.axsObservation.getIndex(axsObservation.getID(i));
+			cur1.seek(i);
+			while(cur1.next()){
+				if(cur1.getValue()!=bio1.spm1.getValue(i1, rgiCol[cur1.getIndex()])){
 					return false;
 				}
 			}
@@ -448,16 +517,33 @@ public class BiomIO {
 	 */
 	public void filter(HashSet<String> setIDsToKeep, Axis axs1) throws Exception{
 		
+		//rgiKeep = indices of axis elements to keep
+		//iCount = number of elements kept
+		
+		int rgiKeep[];
+		int iCount;
+		
 		//checking if empty
 		if(setIDsToKeep==null || setIDsToKeep.size()==0){
 			throw new Exception("Filter will not allow any elements to pass.");
 		}
 		
+		//loading indices to keep
+		rgiKeep = new int[axs1.size()];
+		iCount = 0;
+		for(int i=0;i<axs1.size();i++){
+			if(setIDsToKeep.contains(axs1.getID(i))){
+				rgiKeep[iCount] = i;
+				iCount++;
+			}
+		}
+		rgiKeep = Arrays.copyOf(rgiKeep, iCount);
+		
 		//filtering data matrix	
 		if(axs1.sName.equals("sample")){	
-			spm1.filterColumns(setIDsToKeep);
+			spm1.filterColumns(rgiKeep);
 		}else if(axs1.sName.equals("observation")){
-			spm1.filterRows(setIDsToKeep);
+			spm1.filterRows(rgiKeep);
 		}
 		
 		//filtering axes
@@ -480,11 +566,12 @@ public class BiomIO {
 		
 		HashSet<String> setKeep;
 		
+		axs1.loadPendingMetadata(Arrays.asList(rgsMetadataKeys));
 		setKeep = axs1.getIDs();
-		for(AxisObject a:axs1.getObjects()){
+		for(int k=0;k<axs1.size();k++){
 			for(int i=0;i<rgsMetadataKeys.length;i++){
-				if(!a.hasMetadata(rgsMetadataKeys[i])){
-					setKeep.remove(a.sID);
+				if(!axs1.hasMetadata(k, rgsMetadataKeys[i])){
+					setKeep.remove(axs1.getID(k));
 					break;
 				}
 			}
@@ -533,23 +620,10 @@ public class BiomIO {
 	public void filterFromFile(String sElementsToKeepPath, Axis axs1) throws Exception{
 		
 		//setOut = output
-		//bfr1 = buffered reader
-		//s1 = current line
 		
 		HashSet<String> setOut;
-		BufferedReader bfr1;
-		String s1;
 		
-		setOut = new HashSet<String>(1000);
-		try {
-			bfr1 = new BufferedReader(new FileReader(sElementsToKeepPath));
-			while((s1 = bfr1.readLine()) != null) {
-				setOut.add(s1);
-			}
-			bfr1.close();
-		}catch (Exception e){
-			e.printStackTrace();
-		}
+		setOut = loadIDsFromFile(sElementsToKeepPath);
 		try{
 			filter(setOut,axs1);
 		}catch(Exception e){
@@ -558,6 +632,74 @@ public class BiomIO {
 		}
 	}
 	
+	/**
+	 * Visits all nonzero entries of the table, row by row. Within each row, entries are visited in order of increasing column index. No objects are allocated per entry.
+	 * @param vis1 Visitor to call for each entry.
+	 */
+	public void forEachNonzero(NonzeroVisitor vis1){
+		spm1.forEachNonzero(vis1);
+	}
+	
+	/**
+	 * Visits the nonzero entries of a single row or column, in order of increasing index along the other axis.
+	 * @param axs1 Axis of element: observation axis for a row, sample axis for a column.
+	 * @param iIndex Index of observation or sample.
+	 * @param vis1 Visitor to call for each entry.
+	 */
+	public void forEachNonzero(Axis axs1, int iIndex, NonzeroVisitor vis1){
+		
+		//cur1 = cursor along element
+		
+		NonzeroCursor cur1;
+		
+		cur1 = getCursor(axs1);
+		cur1.seek(iIndex);
+		if(axs1.sName.equals("sample")){
+			while(cur1.next()){
+				vis1.visit(cur1.getIndex(), iIndex, cur1.getValue());
+			}
+		}else{
+			while(cur1.next()){
+				vis1.visit(iIndex, cur1.getIndex(), cur1.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Creates table with the same observations as this table and a subset of its samples, with values given in column-major form. Used for tables derived from this table, such as mean rarefied tables. The observation axis is shared with this table; sample metadata is not copied.
+	 * @param rgiSamples Index in this table of each sample of new table.
+	 * @param rgiColPtr Column pointers.
+	 * @param rgiRowIndex Observation index of each entry; increasing within each column.
+	 * @param rgdColData Value of each entry.
+	 * @return New table.
+	 */
+	BiomIO fromSampleColumns(int[] rgiSamples, int[] rgiColPtr, int[] rgiRowIndex, double[] rgdColData){
+		
+		//rgsIDs = sample IDs of new table
+		
+		String rgsIDs[];
+		
+		rgsIDs = new String[rgiSamples.length];
+		for(int j=0;j<rgiSamples.length;j++){
+			rgsIDs[j] = axsSample.getID(rgiSamples[j]);
+		}
+		return new BiomIO(axsObservation, new Axis("sample", rgsIDs), spm1.fromColumnMajor(axsObservation.size(), rgiSamples.length, rgiColPtr, rgiRowIndex, rgdColData).removeZeros());
+	}
+	
+	/**
+	 * Gets a cursor over the nonzero entries of rows or columns. The cursor can be moved to any row or column with seek() and reused, so iterating over all elements of an axis allocates a single object. The cursor reads the table as it is when the cursor is created; a new cursor should be obtained after the table is modified.
+	 * @param axs1 Axis along which to iterate: observation axis for row cursors, sample axis for column cursors.
+	 * @return Cursor; positioned before the first element.
+	 */
+	public NonzeroCursor getCursor(Axis axs1){
+		if(axs1.sName.equals("sample")){
+			spm1.loadColumnMajor();
+			return new NonzeroCursor(spm1.rgiColPtr, spm1.rgiRowIndex, spm1.rgdColData);
+		}else{
+			return new NonzeroCursor(spm1.rgiRowPtr, spm1.rgiColIndex, spm1.rgdRowData);
+		}
+	}
+	
 	/**
 	 * Gets row or column from matrix.
 	 * @param axs1 Axis from which to get row or column.
@@ -567,17 +709,29 @@ public class BiomIO {
 	public HashMap<String,Double> getItem(Axis axs1, String sID){
 		
 		//mapOut = output
+		//rgd1 = values in row or column
 		
 		HashMap<String,Double> mapOut;
+		double rgd1[];
 		
 		mapOut = new HashMap<String,Double>(axs1.size());
 		if(axs1.sName.equals("sample")){
-			for(AxisObject a:axsObservation.getObjects()){
-				mapOut.put(a.sID, spm1.getValue(a.sID, sID));
+			if(axs1.contains(sID)){
+				rgd1 = spm1.getColumn(axs1.getIndex(sID));
+			}else{
+				rgd1 = new double[axsObservation.size()];
+			}
+			for(int i=0;i<axsObservation.size();i++){
+				mapOut.put(axsObservation.getID(i), rgd1[i]);
 			}
 		}else if(axs1.sName.equals("observation")){
-			for(AxisObject a:axsSample.getObjects()){
-				mapOut.put(a.sID, spm1.getValue(sID, a.sID));
+			if(axs1.contains(sID)){
+				rgd1 = spm1.getRow(axs1.getIndex(sID));
+			}else{
+				rgd1 = new double[axsSample.size()];
+			}
+			for(int j=0;j<axsSample.size();j++){
+				mapOut.put(axsSample.getID(j), rgd1[j]);
 			}
 		}
 		return mapOut;
@@ -602,16 +756,13 @@ public class BiomIO {
 		dCount = 0.;
 		
 		//loading values
+		if(axs1.contains(sID)){
+			dOut = spm1.getMarginalSum(axs1.sName, axs1.getIndex(sID));
+		}
 		if(axs1.sName.equals("sample")){
-			for(AxisObject a:axsObservation.getObjects()){
-				dOut+=this.getValueByIDs(a.sID, sID);
-				dCount++;
-			}
+			dCount = axsObservation.size();
 		}else if(axs1.sName.equals("observation")){
-			for(AxisObject a:axsSample.getObjects()){
-				dOut+=this.getValueByIDs(sID, a.sID);
-				dCount++;
-			}	
+			dCount = axsSample.size();
 		}
 		return dOut/dCount;
 	}
@@ -622,21 +773,32 @@ public class BiomIO {
 	 * @return Mean values.
 	 */
 	public HashMap<String,Double> getMeans(Axis axs1){
+		return toMap(axs1, getMeansByIndex(axs1));
+	}
+	
+	/**
+	 * Get mean values along an axis.
+	 * @param axs1 Axis for which to find means.
+	 * @return Mean value for each axis element, in axis index order.
+	 */
+	public double[] getMeansByIndex(Axis axs1){
 		
-		//map1 = output
-		
-		HashMap<String,Double> map1;
+		//rgdOut = output
+		//dCount = number of entries in each element
 		
-		//initializing output
-		map1 = new HashMap<String,Double>(axs1.size());
+		double rgdOut[];
+		double dCount;
 		
-		//saving results
-		for(String s:axs1.getIDs()){
-			map1.put(s, this.getMean(axs1,s));
+		rgdOut = sumByIndex(axs1);
+		if(axs1.sName.equals("sample")){
+			dCount = axsObservation.size();
+		}else{
+			dCount = axsSample.size();
 		}
-		
-		//outputting
-		return map1;
+		for(int i=0;i<rgdOut.length;i++){
+			rgdOut[i]/=dCount;
+		}
+		return rgdOut;
 	}
 	
 	/**
@@ -647,28 +809,10 @@ public class BiomIO {
 	 */
 	public int getNonzeroCount(Axis axs1, String sID){
 		
-		//iOut = output
-		
-		int iOut;
-		
-		//initializing output
-		iOut = 0;
-		
-		//loading values
-		if(axs1.sName.equals("sample")){
-			for(AxisObject a:axsObservation.getObjects()){
-				if(this.getValueByIDs(a.sID, sID)>0){
-					iOut++;
-				}
-			}
-		}else if(axs1.sName.equals("observation")){
-			for(AxisObject a:axsSample.getObjects()){
-				if(this.getValueByIDs(sID, a.sID)>0){
-					iOut++;
-				}
-			}	
+		if(!axs1.contains(sID)){
+			return 0;
 		}
-		return iOut;
+		return spm1.getNonzeroCount(axs1.sName, axs1.getIndex(sID));
 	}
 	
 	/**
@@ -679,39 +823,54 @@ public class BiomIO {
 	public HashMap<String,Integer> getNonzeroCounts(Axis axs1){
 		
 		//map1 = output
+		//rgi1 = counts in axis index order
 		
 		HashMap<String,Integer> map1;
+		int rgi1[];
 		
-		//initializing output
+		rgi1 = getNonzeroCountsByIndex(axs1);
 		map1 = new HashMap<String,Integer>(axs1.size());
-		
-		//saving results
-		for(String s:axs1.getIDs()){
-			map1.put(s, this.getNonzeroCount(axs1,s));
+		for(int i=0;i<rgi1.length;i++){
+			map1.put(axs1.getID(i), rgi1[i]);
 		}
-		
-		//outputting
 		return map1;
 	}
 	
+	/**
+	 * Get number of positive entries for each element of an axis. Computed in a single pass over the matrix.
+	 * @param axs1 Axis for which to find counts.
+	 * @return Number of positive entries for each axis element, in axis index order.
+	 */
+	public int[] getNonzeroCountsByIndex(Axis axs1){
+		return spm1.getNonzeroCounts(axs1.sName);
+	}
+	
 	/**
 	 * Gets richness observed in each sample.
 	 * @return Richnesses observed in each sample
 	 */
 	public HashMap<String,Double> getRichness(){
+		return toMap(axsSample, getRichnessByIndex());
+	}
+	
+	/**
+	 * Gets richness observed in each sample.
+	 * @return Richness of each sample, in sample index order.
+	 */
+	public double[] getRichnessByIndex(){
 		
-		//map1 = output map in integer format
-		//map1 = output map in double format
+		//rgi1 = nonzero counts
+		//rgdOut = output
 		
-		HashMap<String,Integer> map1;
-		HashMap<String,Double> map2;
+		int rgi1[];
+		double rgdOut[];
 		
-		map1 = getNonzeroCounts(axsSample);
-		map2 = new HashMap<String,Double>(map1.size());
-		for(String s:map1.keySet()){
-			map2.put(s, (double) map1.get(s));
+		rgi1 = getNonzeroCountsByIndex(axsSample);
+		rgdOut = new double[rgi1.length];
+		for(int j=0;j<rgi1.length;j++){
+			rgdOut[j] = rgi1[j];
 		}
-		return map2;
+		return rgdOut;
 	}
 	
 	/**
@@ -719,27 +878,15 @@ public class BiomIO {
 	 * @return Shannon diversity for each sample
 	 */
 	public HashMap<String,Double> getShannon(){
-		
-		//mapOut = output
-		//d1 = current shannon diversity
-		//d2 = current value
-		
-		HashMap<String,Double> mapOut;
-		double d1;
-		double d2;
-		
-		mapOut = new HashMap<String,Double>(axsSample.size());
-		for(String s:axsSample.getIDs()){
-			d1 = 0;
-			for(String t:axsObservation.getIDs()){
-				d2 = this.getValueByIDs(t, s);
-				if(d2>0){
-					d1 -= d2*Math.log(d2);
-				}
-			}
-			mapOut.put(s, d1);
-		}
-		return mapOut;
+		return toMap(axsSample, getShannonByIndex());
+	}
+	
+	/**
+	 * Gets Shannon diversity. Computed in a single pass over the matrix.
+	 * @return Shannon diversity of each sample, in sample index order.
+	 */
+	public double[] getShannonByIndex(){
+		return spm1.getShannon();
 	}
 	
 	/**
@@ -757,7 +904,10 @@ public class BiomIO {
 	 * @return Value for given observation and sample.
 	 */
 	public double getValueByIDs(String sObservationID, String sSampleID){
-		return spm1.getValue(sObservationID, sSampleID);
+		if(!axsObservation.contains(sObservationID) || !axsSample.contains(sSampleID)){
+			return 0;
+		}
+		return spm1.getValue(axsObservation.getIndex(sObservationID), axsSample.getIndex(sSampleID));
 	}
 	
 	/**
@@ -767,22 +917,97 @@ public class BiomIO {
 	 * @return Value for given observation and sample.
 	 */
 	public double getValueByIndices(int iRow, int iCol){
+		return spm1.getValue(iRow, iCol);
+	}
+	
+	
+	/**
+	 * Loads BIOM file.
+	 * @param sBiomPath Absolute path to BIOM file.
+	 * @param mapOptions Selected options (see options constructor); null if none.
+	 * @throws IOException If the matrix arrays cannot be read; the cache is not written in this case.
+	 */
+	private void load(String sBiomPath, Map<String,String> mapOptions) throws IOException{
 		
-		//sRowID = row ID
-		//sColID = column ID
-				
-		String sRowID;
-		String sColID;
+		//fil1  = File object
+		//cch1 = sidecar cache; null if not used
+		//rdr1 = reader for matrix arrays
+		//rgiRows = file indices of observations to load; null if all observations are loaded
+		//rgiCols = file indices of samples to load; null if all samples are loaded
+		
+		NetcdfFile fil1;
+		Cache cch1 = null;
+		SectionReader rdr1;
+		int rgiRows[] = null;
+		int rgiCols[] = null;
+		
+		//loading from cache if available
+		if(mapOptions!=null && (mapOptions.containsKey("sCacheDirectory") || (mapOptions.containsKey("bUseCache") && Boolean.parseBoolean(mapOptions.get("bUseCache"))))){
+			cch1 = new Cache(sBiomPath, mapOptions.get("sCacheDirectory"));
+			if(cch1.read()){
+				return;
+			}
+		}
+		
+		//loading file
+		fil1 = null;
+		try {
+			fil1 = NetcdfFile.open(sBiomPath);
+			//fil1 = NetcdfDataset.openFile(sBiomPath,null);
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		
+		//loading global variables
+		loadGlobalVariables(fil1);
+		
+		//loading axes
+		loadAxes(fil1);
+		
+		//loading selections to apply while reading
+		if(mapOptions!=null && cch1==null){
+			rgiRows = loadSelection(fil1, mapOptions, axsObservation);
+			rgiCols = loadSelection(fil1, mapOptions, axsSample);
+		}
+		
+		//loading metadata keys: values are read on first access
+		loadMetadataKeys(fil1, sBiomPath);
+		
+		//loading sparse matrix object
+		if(mapOptions!=null && mapOptions.containsKey("iLoadThreads")){
+			rdr1 = new SectionReader(sBiomPath, Integer.parseInt(mapOptions.get("iLoadThreads")));
+		}else{
+			rdr1 = new SectionReader(sBiomPath, 1);
+		}
+		try{
+			loadSparseMatrix(fil1, rgiRows, rgiCols, rdr1);
+		}catch(IOException e){
+			close(fil1);
+			throw e;
+		}
+		
+		//loading column-major copy of sparse matrix if requested: copy from file only applies to the full matrix
+		if(mapOptions!=null && mapOptions.containsKey("bLoadSampleMatrix") && Boolean.parseBoolean(mapOptions.get("bLoadSampleMatrix"))){
+			if(rgiRows==null && rgiCols==null){
+				spm1.loadColumnMajor(fil1.findVariable("sample/matrix/indices"),fil1.findVariable("sample/matrix/indptr"),fil1.findVariable("sample/matrix/data"),rdr1);
+			}else if(spm1.rgiColPtr==null){
+				spm1.loadColumnMajor();
+			}
+		}
 		
-		//loading row and column indices
-		sRowID = this.axsObservation.getID(iRow);
-		sColID = this.axsSample.getID(iCol);
+		//closing file
+		close(fil1);
 		
-		//returning result
-		return getValueByIDs(sRowID,sColID);
+		//writing cache if axes match the matrix: a partial read is not cached
+		if(cch1!=null){
+			if(axsObservation.size()==spm1.iRows && axsSample.size()==spm1.iCols){
+				cch1.write();
+			}else{
+				System.out.println("Warning: table read from " + sBiomPath + " is inconsistent; cache not written.");
+			}
+		}
 	}
 	
-	
 	/**
 	 * Loads axes.
 	 * @param fil1 Netcdf file object.
@@ -834,121 +1059,379 @@ public class BiomIO {
 	
 	
 	/**
-	 * Loads all metadata with the exception of taxonomy metadata.
+	 * Loads metadata keys and the variables that hold them. Values are not read: each variable is read the first time one of its keys is accessed (see Axis.loadPendingMetadata).
 	 * @param fil1 Netcdf file object.
+	 * @param sBiomPath Path to BIOM file, used to read metadata values on demand.
 	 */
-	private void loadMetadata(NetcdfFile fil1){
+	private void loadMetadataKeys(NetcdfFile fil1, String sBiomPath){
 		
-		//lstVars = list of metadata variables
-		//grp1 = root group
-		//grp2 = sample or observation group
-		//grp3 = metadata group
+		//grp1 = metadata group
+		//var1 = current variable
+		//axs1 = current axis
 		
-		List<Variable> lstVars;
 		Group grp1;
-		Group grp2;
-		Group grp3;
+		Variable var1;
+		Axis axs1;
 		
-		grp1 = fil1.getRootGroup();
-		grp2 = grp1.findGroup("sample");
-		grp3 = grp2.findGroup("metadata");
-		lstVars=grp3.getVariables();
-		for(int i=0;i<lstVars.size();i++){
-			loadMetadataFromVariable(lstVars.get(i),axsSample);
-		}
-		grp2 = grp1.findGroup("observation");
-		grp3 = grp2.findGroup("metadata");
-		lstVars=grp3.getVariables();
-		for(int i=0;i<lstVars.size();i++){
-			if(!lstVars.get(i).getFullName().equals("taxonomy")){
-				loadMetadataFromVariable(lstVars.get(i),axsObservation);
+		for(String s:new String[]{"sample","observation"}){
+			axs1 = (s.equals("sample") ? axsSample : axsObservation);
+			axs1.sBiomPath = sBiomPath;
+			grp1 = fil1.findGroup(s + "/metadata");
+			if(grp1==null){
+				continue;
+			}
+			for(int i=0;i<grp1.getVariables().size();i++){
+				var1 = grp1.getVariables().get(i);
+				
+				//taxonomy keys
+				if(var1.getFullName().equals("observation/metadata/taxonomy") && var1.getRank()==2){
+					for(String t:TAXONOMIC_RANKS){
+						axs1.addPendingMetadata(t, var1.getFullName());
+					}
+					axs1.addPendingMetadata("taxonomy", var1.getFullName());
+				}
+				
+				//keys from one- and two-dimensional variables
+				if(var1.getRank()==1){
+					axs1.addPendingMetadata(var1.getShortName(), var1.getFullName());
+				}else if(var1.getRank()==2){
+					for(int j=0;j<var1.getShape()[1];j++){
+						axs1.addPendingMetadata(var1.getShortName() + "." + j, var1.getFullName());
+					}
+				}
 			}
 		}
 	}
 
 	/**
-	 * Loads metadata from variable.
+	 * Loads metadata from variable for elements of axis that were read from file.
 	 * @param var1 Variable from which to load metadata.
 	 * @param axs1 Axis to add metadata to.
 	 */
 	private void loadMetadataFromVariable(Variable var1, Axis axs1){
 		
-		//ary1 = array of metadata
-		//rgo1 = current metadata
-		//rgo2 = current metadata
+		//rgiFileRows = file indices of axis elements
+		//rgo1 = metadata for each file index
+		//rgo2 = current metadata (two-dimensional variables)
+		//o1 = metadata for current axis element
 		
-		Array ary1 = null;
-		Object rgo1[][];
+		int rgiFileRows[];
+		Object rgo1[];
 		Object rgo2[];
+		Object o1;
 		
 		try{
 			
 			//reading string array
-			ary1 = var1.read();
-			rgo1 = (Object[][]) ary1.copyToNDJavaArray();
+			rgiFileRows = axs1.getFileIndices();
+			rgo1 = readRows(var1, rgiFileRows);
 
 			//saving metadata
-			for(int i=0;i<rgo1.length;i++){
-				sID=axs1.getID(i);
-				for(int j=0;j<rgo1[0].length;j++){
-					axs1.setMetadata(sID, var1.getShortName() + "." + j, (String) rgo1[i][j]);
+			for(int k=0;k<axs1.size();k++){
+				if(axs1.rgiFileIndex[k]<0){
+					continue;
 				}
-			}
-		}catch(Exception e){
-			
-			try{
-				rgo2 = (Object[]) ary1.copyTo1DJavaArray();
-				
-				//saving metadata
-				for(int i=0;i<rgo2.length;i++){
-					sID=axs1.getID(i);
-					axs1.setMetadata(sID, var1.getShortName(), (String) rgo2[i]);
+				o1 = rgo1[Arrays.binarySearch(rgiFileRows, axs1.rgiFileIndex[k])];
+				if(o1 instanceof Object[]){
+					rgo2 = (Object[]) o1;
+					for(int j=0;j<rgo2.length;j++){
+						axs1.setMetadata(k, var1.getShortName() + "." + j, (String) rgo2[j]);
+					}
+				}else{
+					axs1.setMetadata(k, var1.getShortName(), (String) o1);
 				}
-			}catch(Exception e2){
-				e2.printStackTrace();
 			}
+		}catch(Exception e){
+			e.printStackTrace();
 		}
 	}
 	
 	/**
-	 * Loads sparse matrix object.
-	 * @param fil1 Netcdf file object.
+	 * Checks whether metadata value is non-missing.
+	 * @param sValue Metadata value.
+	 * @return True if value is not null, empty, or the missing data value; false otherwise.
 	 */
-	private void loadSparseMatrix(NetcdfFile fil1){
-		spm1 = new SparseMatrix(fil1.findVariable("observation/matrix/indices"),fil1.findVariable("observation/matrix/indptr"),fil1.findVariable("observation/matrix/data"), axsObservation, axsSample);
+	private static boolean isMetadataValue(String sValue){
+		return sValue!=null && !sValue.equals("") && !sValue.equals(MISSING_DATA_VALUE);
 	}
 	
 	/**
-	 * Loads taxonomy metadata.
+	 * Loads IDs listed in a text file (one per line).
+	 * @param sPath Path to file.
+	 * @return Set of IDs.
+	 */
+	private HashSet<String> loadIDsFromFile(String sPath){
+		
+		//setOut = output
+		//bfr1 = buffered reader
+		//s1 = current line
+		
+		HashSet<String> setOut;
+		BufferedReader bfr1;
+		String s1;
+		
+		setOut = new HashSet<String>(1000);
+		try {
+			bfr1 = new BufferedReader(new FileReader(sPath));
+			while((s1 = bfr1.readLine()) != null) {
+				setOut.add(s1);
+			}
+			bfr1.close();
+		}catch (Exception e){
+			e.printStackTrace();
+		}
+		return setOut;
+	}
+	
+	/**
+	 * Loads the index of the original axis element for each element of a resampled axis.
+	 * @param axsOld Axis before resampling.
+	 * @param axsNew Resampled axis.
+	 * @return Index in axsOld of each element of axsNew.
+	 */
+	private int[] loadResampleIndices(Axis axsOld, Axis axsNew){
+		
+		//rgiOut = output
+		
+		int rgiOut[];
+		
+		rgiOut = new int[axsNew.size()];
+		for(int i=0;i<axsNew.size();i++){
+			rgiOut[i] = axsOld.getIndex(axsNew.mapResample.get(axsNew.getID(i)));
+		}
+		return rgiOut;
+	}
+	
+	/**
+	 * Loads the elements of an axis that are selected by the keep-list and required-metadata options, when these selections can be applied while reading without changing the result of the options constructor. Axis is filtered to the selected elements.
+	 * @param fil1 Netcdf file object.
+	 * @param mapOptions Selected options.
+	 * @param axs1 Axis, as read from file.
+	 * @return File indices of selected elements, in increasing order; null if no selection is applied while reading.
+	 */
+	private int[] loadSelection(NetcdfFile fil1, Map<String,String> mapOptions, Axis axs1){
+		
+		//rgbKeep = flags for whether each element is kept
+		//bSelected = true if a selection has been applied
+		//setIDs = current list of IDs to keep
+		//bRarefy = true if samples will be rarefied or checked for rarefaction
+		//sKeepPathKey = option key for keep-list
+		//sRequiredKey = option key for required metadata
+		//sMetadataPathKey = option key for metadata text file
+		//var1 = current metadata variable
+		//rgo1 = current metadata values
+		//rgiOut = output
+		//setOut = IDs of selected elements
+		//iCount = number of elements selected
+		
+		boolean rgbKeep[];
+		boolean bSelected;
+		HashSet<String> setIDs;
+		boolean bRarefy;
+		String sKeepPathKey;
+		String sRequiredKey;
+		String sMetadataPathKey;
+		Variable var1;
+		Object rgo1[];
+		int rgiOut[];
+		HashSet<String> setOut;
+		int iCount;
+		
+		bRarefy = mapOptions.containsKey("iRarefactionTotal") || (mapOptions.containsKey("bCheckRarefied") && Boolean.parseBoolean(mapOptions.get("bCheckRarefied")));
+		if(axs1.sName.equals("sample")){
+			sKeepPathKey = "sSamplesToKeepPath";
+			sRequiredKey = "rgsRequiredSampleMetadata";
+			sMetadataPathKey = "sSampleMetadataPath";
+		}else{
+			if(bRarefy || (mapOptions.containsKey("sTaxonRank") && !mapOptions.get("sTaxonRank").equals("otu"))){
+				return null;
+			}
+			sKeepPathKey = "sObservationsToKeepPath";
+			sRequiredKey = "rgsRequiredObservationMetadata";
+			sMetadataPathKey = "sObservationMetadataPath";
+		}
+		
+		rgbKeep = new boolean[axs1.size()];
+		Arrays.fill(rgbKeep, true);
+		bSelected = false;
+		
+		//applying keep-list
+		if(mapOptions.containsKey(sKeepPathKey)){
+			setIDs = loadIDsFromFile(mapOptions.get(sKeepPathKey));
+			for(int i=0;i<axs1.size();i++){
+				if(!setIDs.contains(axs1.getID(i))){
+					rgbKeep[i] = false;
+				}
+			}
+			bSelected = true;
+		}
+		
+		//applying required metadata: only keys stored directly as one-dimensional variables are checked here
+		if(mapOptions.containsKey(sRequiredKey) && !mapOptions.containsKey(sMetadataPathKey) && !(axs1.sName.equals("sample") && bRarefy)){
+			for(String s:mapOptions.get(sRequiredKey).split(",")){
+				var1 = fil1.findVariable(axs1.sName + "/metadata/" + s);
+				if(var1==null || var1.getRank()!=1){
+					continue;
+				}
+				try{
+					rgo1 = readRows(var1, null);
+				}catch(Exception e){
+					continue;
+				}
+				for(int i=0;i<axs1.size();i++){
+					if(!isMetadataValue((String) rgo1[i])){
+						rgbKeep[i] = false;
+					}
+				}
+				bSelected = true;
+			}
+		}
+		if(!bSelected){
+			return null;
+		}
+		
+		//loading indices: selection is not applied while reading if it would remove all elements, so that the usual error is reported later
+		rgiOut = new int[axs1.size()];
+		iCount = 0;
+		setOut = new HashSet<String>();
+		for(int i=0;i<axs1.size();i++){
+			if(rgbKeep[i]){
+				rgiOut[iCount] = i;
+				setOut.add(axs1.getID(i));
+				iCount++;
+			}
+		}
+		if(iCount==0){
+			return null;
+		}
+		if(iCount==axs1.size()){
+			return null;
+		}
+		try{
+			axs1.filter(setOut);
+		}catch(Exception e){
+			return null;
+		}
+		return Arrays.copyOf(rgiOut, iCount);
+	}
+	
+	/**
+	 * Loads sparse matrix object. If rows or columns are selected, only the ranges of the compressed arrays that hold the selected rows (observation/matrix group) or columns (sample/matrix group) are read, whichever are fewer entries; the other dimension is then filtered in memory.
 	 * @param fil1 Netcdf file object.
+	 * @param rgiRows File indices of observations to load, in increasing order; null to load all observations.
+	 * @param rgiCols File indices of samples to load, in increasing order; null to load all samples.
+	 * @param rdr1 Reader for matrix arrays.
+	 * @throws IOException If the index or data arrays cannot be read.
+	 */
+	private void loadSparseMatrix(NetcdfFile fil1, int[] rgiRows, int[] rgiCols, SectionReader rdr1) throws IOException{
+		
+		//rgiRowPtr = row pointers in file
+		//rgiColPtr = column pointers in file; null if not available
+		//lRowEntries = number of entries in selected rows
+		//lColEntries = number of entries in selected columns
+		//iRowsFile = number of rows in file
+		//iColsFile = number of columns in file
+		
+		int rgiRowPtr[];
+		int rgiColPtr[] = null;
+		long lRowEntries;
+		long lColEntries;
+		int iRowsFile;
+		int iColsFile;
+		
+		//loading pointers
+		rgiRowPtr = readInts(fil1.findVariable("observation/matrix/indptr"));
+		iRowsFile = rgiRowPtr.length-1;
+		iColsFile = fil1.findVariable("sample/ids").getShape()[0];
+		if(rgiCols!=null && fil1.findVariable("sample/matrix/indptr")!=null){
+			rgiColPtr = readInts(fil1.findVariable("sample/matrix/indptr"));
+		}
+		
+		//loading full matrix
+		if(rgiRows==null && rgiCols==null){
+			spm1 = new SparseMatrix(rgiRowPtr, fil1.findVariable("observation/matrix/indices"), fil1.findVariable("observation/matrix/data"), iRowsFile, iColsFile, null, false, rdr1);
+			return;
+		}
+		
+		//choosing group from which to read
+		lRowEntries = countEntries(rgiRowPtr, rgiRows);
+		if(rgiColPtr!=null){
+			lColEntries = countEntries(rgiColPtr, rgiCols);
+		}else{
+			lColEntries = Long.MAX_VALUE;
+		}
+		
+		//reading selected rows
+		if(lRowEntries<=lColEntries){
+			spm1 = new SparseMatrix(rgiRowPtr, fil1.findVariable("observation/matrix/indices"), fil1.findVariable("observation/matrix/data"), iRowsFile, iColsFile, rgiRows, false, rdr1);
+			if(rgiCols!=null){
+				spm1.filterColumns(rgiCols);
+			}
+			
+		//reading selected columns
+		}else{
+			spm1 = new SparseMatrix(rgiColPtr, fil1.findVariable("sample/matrix/indices"), fil1.findVariable("sample/matrix/data"), iColsFile, iRowsFile, rgiCols, true, rdr1);
+			if(rgiRows!=null){
+				spm1.filterRows(rgiRows);
+			}
+		}
+		iNNZ = spm1.getNNZ();
+	}
+	
+	/**
+	 * Counts entries of compressed sparse arrays that belong to selected major elements.
+	 * @param rgiPtr Pointers.
+	 * @param rgiSelected Indices of selected elements; null if all are selected.
+	 * @return Number of entries.
+	 */
+	private long countEntries(int[] rgiPtr, int[] rgiSelected){
+		
+		//lOut = output
+		
+		long lOut;
+		
+		if(rgiSelected==null){
+			return rgiPtr[rgiPtr.length-1]-rgiPtr[0];
+		}
+		lOut = 0;
+		for(int i=0;i<rgiSelected.length;i++){
+			lOut+=rgiPtr[rgiSelected[i]+1]-rgiPtr[rgiSelected[i]];
+		}
+		return lOut;
+	}
+	
+	/**
+	 * Loads taxonomy metadata for elements of axis that were read from file. Lineages are stored in a taxonomy trie, with each observation pointing to its leaf node; values for each rank and for the full lineage ("taxonomy" key) are produced from the trie when accessed.
+	 * @param var1 Taxonomy variable.
+	 * @param axs1 Observation axis.
 	 */
-	private void loadTaxonomicMetadata(NetcdfFile fil1){
+	private void loadTaxonomicMetadata(Variable var1, Axis axs1){
 		
-		//var1 = variable
-		//rgs1 = taxonomy
-		//ary1 = array of taxonomy data
-		//sID = id
+		//rgiFileRows = file indices of observations
+		//rgs1 = taxonomy for each file index
+		//rgo1 = rows of taxonomy data
 		//rgsClades = clades in order
 		//rgsTaxa = current taxonomic assignments
 		//rgsAliases = aliases
-		//sbl1 = current taxon
 		//sPrefix = current prefix
 		//mapIndex(sPrefix) = returns index for current prefix
+		//i = row of current observation
+		//trt1 = taxonomy trie
+		//rgiLeaf = leaf node of each observation; -1 if observation has no taxonomy
 		
+		int i;
 		String rgsClades[];
 		String rgsTaxa[];
 		String rgsAliases[];
-		StringBuilder sbl1;
 		String rgs1[][] = null;
-		Variable var1;
-		Array ary1;
-		String sID;
+		int rgiFileRows[] = null;
+		Object rgo1[];
 		String sPrefix;
 		HashMap<String,Integer> mapIndex;
+		TaxonomyTrie trt1;
+		int rgiLeaf[];
 		
-		var1 = fil1.findVariable("observation/metadata/taxonomy");
-		
-		rgsClades = new String[]{"kingdom","phylum","class","order","family","genus","species"};
+		rgsClades = TAXONOMIC_RANKS;
 		rgsAliases = new String[]{"k__","p__","c__","o__","f__","g__","s__"};
 		mapIndex = new HashMap<String,Integer>();
 		mapIndex.put("k__",0);
@@ -961,8 +1444,12 @@ public class BiomIO {
 		try{
 			
 			//reading string array
-			ary1 = var1.read();
-			rgs1 = (String[][]) ary1.copyToNDJavaArray();
+			rgiFileRows = axs1.getFileIndices();
+			rgo1 = readRows(var1, rgiFileRows);
+			rgs1 = new String[rgo1.length][];
+			for(int k=0;k<rgo1.length;k++){
+				rgs1[k] = (String[]) rgo1[k];
+			}
 			
 		}catch(Exception e){
 			//System.out.println("Taxonomy metadata not found.");
@@ -976,10 +1463,15 @@ public class BiomIO {
 		}
 		
 		//looping through observations
-		for(int i=0;i<rgs1.length;i++){
+		trt1 = new TaxonomyTrie();
+		rgiLeaf = new int[axs1.size()];
+		Arrays.fill(rgiLeaf, -1);
+		for(int k=0;k<axs1.size();k++){
 			
-			sID=axsObservation.getID(i);
-			sbl1 = new StringBuilder();
+			if(axs1.rgiFileIndex[k]<0){
+				continue;
+			}
+			i = Arrays.binarySearch(rgiFileRows, axs1.rgiFileIndex[k]);
 			rgsTaxa = new String[7];
 			
 			//loading taxonomy data
@@ -1016,40 +1508,21 @@ public class BiomIO {
 			}
 			
 			//saving taxonomy data
-			sbl1 = new StringBuilder();
-			for(int j=0;j<7;j++){
-				if(j>0){
-					sbl1.append(";");
-				}
-				sbl1.append(rgsTaxa[j]);
-				if(rgsTaxa[j].length()>3){
-					this.axsObservation.setMetadata(sID, rgsClades[j], sbl1.toString());
-				}else{
-					this.axsObservation.setMetadata(sID, rgsClades[j], "unclassified");
-				}
-			}
-			this.axsObservation.setMetadata(sID, "taxonomy", sbl1.toString());
+			rgiLeaf[k] = trt1.add(rgsTaxa);
+		}
+		
+		//saving columns: ranks lacking a taxon have value "unclassified"
+		for(int j=0;j<7;j++){
+			axs1.setMetadataColumn(rgsClades[j], new MetadataColumn(trt1, rgiLeaf, j+1, false));
 		}
+		axs1.setMetadataColumn("taxonomy", new MetadataColumn(trt1, rgiLeaf, 7, true));
 	}
 	
 	/**
 	 * Normalizes counts within samples: i.e., transforms data to relative abundance.
 	 */
 	public void normalize(){
-		
-		//mapSum = sum across samples
-		
-		HashMap<String,Double> mapSum;
-		
-		mapSum = this.sum(axsSample);
-		for(String s:axsSample.getIDs()){
-			if(mapSum.get(s)==0){
-				continue;
-			}
-			for(String t:axsObservation.getIDs()){
-				spm1.setValue(t, s, spm1.getValue(t, s)/mapSum.get(s));
-			}
-		}
+		spm1.normalizeColumns();
 	}
 	
 	/**
@@ -1085,11 +1558,11 @@ public class BiomIO {
 		lstOut.add(sbl1.toString());
 		
 		//outputting data
-		for(AxisObject a:axs1.getObjects()){
+		for(int k=0;k<axs1.size();k++){
 			sbl1 = new StringBuilder();
-			sbl1.append(a.sID);
+			sbl1.append(axs1.getID(k));
 			for(int i=0;i<lstKeys.size();i++){
-				sbl1.append("," + a.getMetadata(lstKeys.get(i)));
+				sbl1.append("," + axs1.getMetadata(k, lstKeys.get(i)));
 			}
 			lstOut.add(sbl1.toString());
 		}
@@ -1106,9 +1579,13 @@ public class BiomIO {
 		
 		//lstOut = output
 		//sbl1 = current line
+		//cur1 = cursor over observations
+		//rgd1 = values in current row
 		
 		ArrayList<String> lstOut;
 		StringBuilder sbl1;
+		NonzeroCursor cur1;
+		double rgd1[];
 		
 		//outputting headers
 		lstOut = new ArrayList<String>(axsObservation.size()+2);
@@ -1121,11 +1598,18 @@ public class BiomIO {
 		lstOut.add(sbl1.toString());
 		
 		//outputting data
+		cur1 = getCursor(axsObservation);
+		rgd1 = new double[axsSample.size()];
 		for(int i=0;i<axsObservation.size();i++){
+			Arrays.fill(rgd1, 0.);
+			cur1.seek(i);
+			while(cur1.next()){
+				rgd1[cur1.getIndex()] = cur1.getValue();
+			}
 			sbl1 = new StringBuilder();
 			sbl1.append(axsObservation.getID(i));
 			for(int j=0;j<axsSample.size();j++){
-				sbl1.append("," + this.getValueByIndices(i, j));
+				sbl1.append("," + rgd1[j]);
 			}
 			lstOut.add(sbl1.toString());
 		}
@@ -1141,52 +1625,70 @@ public class BiomIO {
 	 * @param iRandomSeed Random seed for rarefaction.
 	 */
 	public void rarefy(int iTotal, int iRandomSeed) throws Exception{
-		this.subsample(iTotal, iRandomSeed, axsSample);
+		this.subsample(iTotal, iRandomSeed, axsSample, 1);
 	}
 	
 	/**
-	 * Rarefies vector.
-	 * @param iTotal Total to which to rarefy.
-	 * @param iVectorTotal Total observations in vector.
-	 * @param mapVector Map in which keys are cumulative counts, values are axis element (sample or observation) IDs.
-	 * @param iRandomSeed Random seed to use for resampling.
-	 * @return Map in which keys are axis element IDs (i.e., sample or observation IDs), values are frequencies.
+	 * Rarefies samples to specified total, rarefying several samples at once.
+	 * @param iTotal Total to rarefy to.
+	 * @param iRandomSeed Random seed for rarefaction.
+	 * @param iThreads Number of threads to use. Results do not depend on the number of threads.
 	 */
-	private HashMap<String,Integer> rarefyVector(int iTotal, TreeMap<Integer,String> mapVector, int iVectorTotal, int iRandomSeed){
-		
-		//i2 = current count
-		//set1 = contains indices for selected values
-		//mapOut = output; gives the frequency of each object
-		//s1 = current object
-		
-		int i2;
-		HashSet<Integer> set1;
-		HashMap<String,Integer> mapOut;
-		String s1;
-		
-		//checking if total for vector is too small
-		if(iVectorTotal<iTotal){
+	public void rarefy(int iTotal, int iRandomSeed, int iThreads) throws Exception{
+		this.subsample(iTotal, iRandomSeed, axsSample, iThreads);
+	}
+	
+	/**
+	 * Reads integer variable.
+	 * @param var1 Variable to read.
+	 * @return Backing storage of variable if it is stored as integers; otherwise a converted copy.
+	 */
+	private int[] readInts(Variable var1){
+		try{
+			return (int[]) var1.read().get1DJavaArray(int.class);
+		}catch(IOException e){
+			e.printStackTrace();
 			return null;
 		}
-		
-		//getting rarefied indices
-		set1 = sampleWithoutReplacement(iTotal,iVectorTotal, iRandomSeed);
-		
-		//initializing output
-		mapOut = new HashMap<String,Integer>(mapVector.size());
-		for(Integer i:set1){
-			s1 = mapVector.get(mapVector.floorKey(i));
-			if(!mapOut.containsKey(s1)){
-				mapOut.put(s1, 1);
-			}else{
-				i2 = mapOut.get(s1);
-				i2++;
-				mapOut.put(s1, i2);
+	}
+	
+	/**
+	 * Reads selected rows (first dimension) of a string variable. Consecutive rows are read together.
+	 * @param var1 Variable to read.
+	 * @param rgiRows Indices of rows to read, in increasing order; null to read all rows.
+	 * @return Array with an entry for each row read: strings for one-dimensional variables, arrays of strings for two-dimensional variables.
+	 */
+	private Object[] readRows(Variable var1, int[] rgiRows) throws IOException, InvalidRangeException{
+		
+		//rgoOut = output
+		//rgo1 = current run of rows
+		//rgiOrigin = origin of current run
+		//rgiShape = shape of current run
+		//iEnd = end of current run of consecutive rows
+		
+		Object rgoOut[];
+		Object rgo1[];
+		int rgiOrigin[];
+		int rgiShape[];
+		int iEnd;
+		
+		if(rgiRows==null){
+			return (Object[]) var1.read().copyToNDJavaArray();
+		}
+		rgoOut = new Object[rgiRows.length];
+		rgiOrigin = new int[var1.getRank()];
+		rgiShape = var1.getShape();
+		for(int i=0;i<rgiRows.length;i=iEnd){
+			iEnd = i+1;
+			while(iEnd<rgiRows.length && rgiRows[iEnd]==rgiRows[iEnd-1]+1){
+				iEnd++;
 			}
+			rgiOrigin[0] = rgiRows[i];
+			rgiShape[0] = iEnd-i;
+			rgo1 = (Object[]) var1.read(rgiOrigin, rgiShape).copyToNDJavaArray();
+			System.arraycopy(rgo1, 0, rgoOut, i, rgo1.length);
 		}
-		
-		//returning result
-		return mapOut;
+		return rgoOut;
 	}
 	
 	/**
@@ -1198,17 +1700,20 @@ public class BiomIO {
 	public HashMap<String,String> resampleWithReplacement(int iRandomSeed){
 		
 		//mapOut = output. Keys are sample IDs, values indicate whether sample was included or excluded.
+		//axsNew = new axis
 		
 		HashMap<String,String> mapOut;
+		Axis axsNew;
 		
 		mapOut = new HashMap<String,String>();
-		for(String s:axsSample.getIDs()){
-			mapOut.put(s, "excluded");
+		for(int j=0;j<axsSample.size();j++){
+			mapOut.put(axsSample.getID(j), "excluded");
 		}
-		axsSample = axsSample.resampleWithReplacement(iRandomSeed);
-		spm1 = spm1.resample(axsSample.mapResample);
-		for(String s:axsSample.getIDs()){
-			mapOut.put(s, "included");
+		axsNew = axsSample.resampleWithReplacement(iRandomSeed);
+		spm1 = spm1.resample(loadResampleIndices(axsSample, axsNew));
+		axsSample = axsNew;
+		for(int j=0;j<axsSample.size();j++){
+			mapOut.put(axsSample.getID(j), "included");
 		}
 		return mapOut;
 	}
@@ -1228,117 +1733,108 @@ public class BiomIO {
 		SparseMatrix spmNew;
 		
 		axsNew = axsSample.resampleWithReplacement(iRandomSeed);
-		spmNew = spm1.resample(axsNew.mapResample);
+		spmNew = spm1.resample(loadResampleIndices(axsSample, axsNew));
 		return new BiomIO(axsObservation,axsNew,spmNew);
 	}
 
 	/**
-	 * Samples without replacement from the set 0,1,...,n.
-	 * @param iSampleSize Total number of elements to sample.
-	 * @param iPopulationSize Total number of elements from which to sample.
-	 * @param iRandomSeed Random seed to use.
-	 * @return A set of integers giving the subsample.
-	 */
-	private HashSet<Integer> sampleWithoutReplacement(int iSampleSize, int iPopulationSize, int iRandomSeed){
-		
-		//setOut = output
-		//n, N = Knuth's variable names
-		//t = total input records dealt with
-		//m = number of items selected so far
-		//u = random number 
-		//rnd1 = random number generator
-		
-		HashSet<Integer> setOut;
-		int n;
-	    int N;
-	    int t = 0; 
-	    int m = 0; 
-	    double u;
-	    Random rnd1;
-	    
-	    setOut = new HashSet<Integer>(iSampleSize);
-	    n = iSampleSize;
-	    N = iPopulationSize;
-	    rnd1 = new Random(iRandomSeed);
-	    while (m < n){
-	        u = rnd1.nextDouble(); // call a uniform(0,1) random number generator
-	        if( (N - t)*u >= n - m ){
-	            t++;
-	        }else{
-	            setOut.add(t);
-	            t++; 
-	            m++;
-	        }
-	    }
-		return setOut;
-	}
-
-	/**
-	 * Randomly subsample (rarefy) without replacement.
+	 * Randomly subsample (rarefy) without replacement. Each vector is rarefied with sequential conditional hypergeometric draws over its nonzero counts (see Rarefaction); values are taken to be integer counts.
 	 * @param iTotal Total for each subsampling.
 	 * @param axs1 Axis along which to subsample.
 	 * @param iRandomSeed Random seed for resampling.
 	*/
 	public void subsample(int iTotal, int iRandomSeed, Axis axs1) throws Exception{
+		subsample(iTotal, iRandomSeed, axs1, 1);
+	}
+	
+	/**
+	 * Randomly subsample (rarefy) without replacement, subsampling several vectors at once. Each vector draws from its own random stream, keyed by the random seed and the index of the vector (see Rarefaction.getRandom), and is written to its own range of a new copy of the data, so results are identical for any number of threads.
+	 * @param iTotal Total for each subsampling.
+	 * @param iRandomSeed Random seed for resampling.
+	 * @param axs1 Axis along which to subsample.
+	 * @param iThreads Number of threads to use.
+	*/
+	public void subsample(final int iTotal, final int iRandomSeed, Axis axs1, int iThreads) throws Exception{
 		
-		//map1 = current vector of data
-		//map2 = current cumulative vector of data
-		//map3 = rarefied vector
-		//i1 = current cumulant
+		//rgiPtr = pointers for compressed vectors along axis (columns for samples, rows for observations)
+		//rgiIndex = indices of entries within compressed vectors
+		//rgdData = values of entries; copied so that rarefied values can be written in place
+		//rgbKeep = true for vectors with enough data for subsampling
 		//setKeep = set of rows or columns to keep
-		//dValue = value being input
-		//iRandomSeedCur = current random seed
+		//iBlocks = number of blocks of vectors
+		//iNext = next block of vectors to subsample
+		//exc1 = thread pool
+		//lstFutures = task results
 
-		TreeMap<Integer,String> map2;
-		HashMap<String,Double> map1;
-		HashMap<String,Integer> map3;
-		int i1;
-		int iRandomSeedCur;
+		final int rgiPtr[];
+		int rgiIndex[];
+		final double rgdData[];
+		final boolean rgbKeep[];
 		HashSet<String> setKeep;
-		double dValue;
+		int iBlocks;
+		final AtomicInteger iNext;
+		ExecutorService exc1;
+		ArrayList<Future<Object>> lstFutures;
 		
-		setKeep = new HashSet<String>(axs1.size());
-		iRandomSeedCur=iRandomSeed;
-		for(AxisObject a:axs1.getObjects()){
+		if(axs1.sName.equals("sample")){
+			spm1.loadColumnMajor();
+			rgiPtr = spm1.rgiColPtr;
+			rgiIndex = spm1.rgiRowIndex;
+			rgdData = Arrays.copyOf(spm1.rgdColData, spm1.rgdColData.length);
+		}else{
+			rgiPtr = Arrays.copyOf(spm1.rgiRowPtr, spm1.rgiRowPtr.length);
+			rgiIndex = Arrays.copyOf(spm1.rgiColIndex, spm1.rgiColIndex.length);
+			rgdData = Arrays.copyOf(spm1.rgdRowData, spm1.rgdRowData.length);
+		}
+		rgbKeep = new boolean[axs1.size()];
+		iBlocks = (axs1.size()+SUBSAMPLE_BLOCK_SIZE-1)/SUBSAMPLE_BLOCK_SIZE;
+		iNext = new AtomicInteger(0);
+		
+		//subsampling on calling thread
+		if(iThreads<=1 || iBlocks<2){
+			subsampleBlocks(iTotal, iRandomSeed, rgiPtr, rgdData, rgbKeep, iNext);
+		}else{
 			
-			//loading vectors
-			map1 = this.getItem(axs1, a.sID);
-			map2 = new TreeMap<Integer,String>();
-			i1=0;
-			for(String s:map1.keySet()){
-				if(map1.get(s)>0){
-					map2.put(i1, s);
-					i1+=map1.get(s);
+			//subsampling on thread pool: each thread takes blocks in turn
+			exc1 = Executors.newFixedThreadPool(Math.min(iThreads, iBlocks));
+			lstFutures = new ArrayList<Future<Object>>();
+			try{
+				for(int t=0;t<Math.min(iThreads, iBlocks);t++){
+					lstFutures.add(exc1.submit(new Callable<Object>(){
+						public Object call() throws Exception{
+							subsampleBlocks(iTotal, iRandomSeed, rgiPtr, rgdData, rgbKeep, iNext);
+							return null;
+						}
+					}));
 				}
-			}
-			
-			//rarefying vector
-			iRandomSeedCur+=10;
-			map3 = rarefyVector(iTotal,map2,i1,iRandomSeedCur);
-			
-			//rarefaction not possible
-			if(map3!=null){
-				
-				//updating sparse matrix
-				for(String s:map1.keySet()){
-					
-					if(map3.containsKey(s)){
-						dValue=map3.get(s);
-					}else{
-						dValue=0;
-					}
-					if(axs1.sName.equals("sample")){
-						this.spm1.setValue(s, a.sID, dValue);
-					}else if(axs1.sName.equals("observation")){
-						this.spm1.setValue(a.sID, s, dValue);
-					}
+				for(Future<Object> fut1:lstFutures){
+					fut1.get();
 				}
-				
-				//saving element to keep
-				setKeep.add(a.sID);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}catch(ExecutionException e){
+				throw new IOException(e.getCause());
+			}finally{
+				exc1.shutdownNow();
+			}
+		}
+		
+		//saving elements to keep
+		setKeep = new HashSet<String>(axs1.size());
+		for(int i=0;i<axs1.size();i++){
+			if(rgbKeep[i]){
+				setKeep.add(axs1.getID(i));
 			}
 		}
 		
+		//updating sparse matrix
+		if(axs1.sName.equals("sample")){
+			spm1 = spm1.fromColumnMajor(axsObservation.size(), axsSample.size(), rgiPtr, rgiIndex, rgdData).removeZeros();
+		}else{
+			spm1 = new SparseMatrix(axsObservation.size(), axsSample.size(), rgiPtr, rgiIndex, rgdData).removeZeros();
+		}
+		
 		//filtering matrix to remove rows or column that didn't have enough observations
 		try{	
 			this.filter(setKeep, axs1);
@@ -1348,22 +1844,64 @@ public class BiomIO {
 		}
 	}
 	
+	/**
+	 * Subsamples blocks of vectors until none remain.
+	 * @param iTotal Total for each subsampling.
+	 * @param iRandomSeed Random seed for resampling.
+	 * @param rgiPtr Pointers for compressed vectors.
+	 * @param rgdData Values of entries; rarefied values are written in place.
+	 * @param rgbKeep Set to true for vectors with enough data for subsampling.
+	 * @param iNext Next block to subsample; shared between threads.
+	 */
+	private void subsampleBlocks(int iTotal, int iRandomSeed, int[] rgiPtr, double[] rgdData, boolean[] rgbKeep, AtomicInteger iNext){
+		
+		//iStart = first vector of block
+		//rgi2 = counts of current vector
+		//rgi3 = rarefied vector
+		
+		int iStart;
+		int rgi2[];
+		int rgi3[];
+		
+		while((iStart = iNext.getAndIncrement()*SUBSAMPLE_BLOCK_SIZE)<rgbKeep.length){
+			for(int i=iStart;i<Math.min(rgbKeep.length, iStart+SUBSAMPLE_BLOCK_SIZE);i++){
+				
+				//loading counts
+				rgi2 = new int[rgiPtr[i+1]-rgiPtr[i]];
+				for(int k=rgiPtr[i];k<rgiPtr[i+1];k++){
+					if(rgdData[k]>0){
+						rgi2[k-rgiPtr[i]]=(int) rgdData[k];
+					}
+				}
+				
+				//rarefying vector; null if rarefaction not possible
+				rgi3 = Rarefaction.rarefy(rgi2, iTotal, Rarefaction.getRandom(iRandomSeed, i));
+				if(rgi3!=null){
+					for(int k=rgiPtr[i];k<rgiPtr[i+1];k++){
+						rgdData[k]=rgi3[k-rgiPtr[i]];
+					}
+					rgbKeep[i]=true;
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Returns row or column sums.
 	 * @param axs1 Axis for which to find sums.
 	 * @return Sums of observations.
 	 */
 	public HashMap<String,Double> sum(Axis axs1){
-		
-		//mapOut = output
-		
-		HashMap<String,Double> mapOut;
+		return toMap(axs1, sumByIndex(axs1));
+	}
 	
-		mapOut = new HashMap<String,Double>();
-		for(String s:axs1.getIDs()){
-			mapOut.put(s, spm1.getMarginalSum(axs1.sName, s));
-		}
-		return mapOut;
+	/**
+	 * Returns row or column sums.
+	 * @param axs1 Axis for which to find sums.
+	 * @return Sum for each axis element, in axis index order.
+	 */
+	public double[] sumByIndex(Axis axs1){
+		return spm1.getMarginalSums(axs1.sName);
 	}
 
 	/**
@@ -1387,13 +1925,13 @@ public class BiomIO {
 		Random rnd1;
 		
 		mapOut = new HashMap<String,String>();
-		for(String s:axs1.getIDs()){
-			mapOut.put(s, "excluded");
+		for(int i=0;i<axs1.size();i++){
+			mapOut.put(axs1.getID(i), "excluded");
 		}
 		
 		if(iSubsetSize>axs1.size()){
-			for(String s:axs1.getIDs()){
-				mapOut.put(s, "included");
+			for(int i=0;i<axs1.size();i++){
+				mapOut.put(axs1.getID(i), "included");
 			}
 			return mapOut;
 		}
@@ -1405,7 +1943,7 @@ public class BiomIO {
 		
 		lst1 = new ArrayList<String>(axs1.size());
 		for(int i=0;i<axs1.size();i++){
-			if(spm1.getMarginalSum(axs1.sName, axs1.getID(i))>0){
+			if(spm1.getMarginalSum(axs1.sName, i)>0){
 				lst1.add(axs1.getID(i));
 			}
 		}
@@ -1422,6 +1960,25 @@ public class BiomIO {
 		}
 		return mapOut;
 	}
+	
+	/**
+	 * Converts values in axis index order to map.
+	 * @param axs1 Axis.
+	 * @param rgd1 Value for each axis element.
+	 * @return Map from axis element IDs to values.
+	 */
+	private HashMap<String,Double> toMap(Axis axs1, double[] rgd1){
+		
+		//mapOut = output
+		
+		HashMap<String,Double> mapOut;
+		
+		mapOut = new HashMap<String,Double>(axs1.size());
+		for(int i=0;i<rgd1.length;i++){
+			mapOut.put(axs1.getID(i), rgd1[i]);
+		}
+		return mapOut;
+	}
 
 	/**
 	 * Axis object.
@@ -1429,10 +1986,12 @@ public class BiomIO {
 	public class Axis{
 		
 		//sName = name of axis; either 'sample' or 'observation'
-		//lstObjects(i) = returns the ith object
-		//mapIndex(sID) = returns the index of the specified object id
-		//mapCollapse(iIndexOld) = returns new index (for axes that have been collapsed; null otherwise)
+		//idd1 = IDs of axis elements
+		//rgiFileIndex = index in BIOM file of each axis element
 		//setMetadataKeys = metadata keys
+		//mapMetadata(sKey) = returns the column of values for metadata key
+		//mapPendingMetadata(sKey) = returns the file variable holding metadata key, for keys whose values have not been loaded
+		//sBiomPath = path to BIOM file from which pending metadata are read
 		
 		/**Name of axis; either "sample" or "observation".**/
 		public String sName;
@@ -1440,32 +1999,37 @@ public class BiomIO {
 		/**Set of all metadata keys.**/
 		private HashSet<String> setMetadataKeys;
 		
-		/**Returns the index of the specified object ID.**/
-		private HashMap<String,Integer> mapIndex;
-		
-		/**Returns new ID (for axes that have been collapsed; null otherwise).**/
-		private HashMap<String,String> mapCollapse = null;
+		/**IDs of axis elements; gives the index of each ID and the ID at each index.**/
+		private IDDictionary idd1;
 		
 		/**Returns old ID (for axes that have been resampled; null otherwise).**/
 		private HashMap<String,String> mapResample = null;
 		
-		/**Returns the ith object.**/
-		private ArrayList<AxisObject> lstObjects;
+		/**Index in BIOM file of each axis element; -1 if element was not read from file.**/
+		private int[] rgiFileIndex;
+		
+		/**Returns the column of values for each metadata key that has been loaded.**/
+		private HashMap<String,MetadataColumn> mapMetadata = new HashMap<String,MetadataColumn>();
+		
+		/**Returns the file variable holding each metadata key whose values have not yet been loaded.**/
+		private HashMap<String,String> mapPendingMetadata = new HashMap<String,String>();
+		
+		/**Path to BIOM file from which pending metadata are read; null if axis was not read from file.**/
+		private String sBiomPath = null;
 	
 		/**
 		 * Internal constructor.
 		 * @param sName Axis name: either "observation" or "sample".
-		 * @param mapIndex Index map.
-		 * @param lstObjects Objects list.
+		 * @param idd1 IDs of axis elements.
+		 * @param rgiFileIndex Index in BIOM file of each axis element.
 		 * @param setMetadataKeys Metadata keys.
-		 * @param mapCollapse Collapse map.
+		 * @param mapResample Resample map.
 		 */
-		private Axis(String sName, HashMap<String,Integer> mapIndex, ArrayList<AxisObject> lstObjects, HashSet<String> setMetadataKeys, HashMap<String,String> mapCollapse, HashMap<String,String> mapResample){
+		private Axis(String sName, IDDictionary idd1, int[] rgiFileIndex, HashSet<String> setMetadataKeys, HashMap<String,String> mapResample){
 			this.sName=sName;
-			this.mapIndex = mapIndex;
-			this.lstObjects = lstObjects;
+			this.idd1 = idd1;
+			this.rgiFileIndex = rgiFileIndex;
 			this.setMetadataKeys = setMetadataKeys;
-			this.mapCollapse = mapCollapse;
 			this.mapResample = mapResample;
 		}
 	
@@ -1480,6 +2044,17 @@ public class BiomIO {
 			this.setMetadataKeys = new HashSet<String>();
 		}
 		
+		/**
+		 * Constructor.
+		 * @param sName Axis name: either "observation" or "sample".
+		 * @param rgsIDs IDs of axis elements.
+		 */
+		private Axis(String sName, String[] rgsIDs){
+			this.sName=sName;
+			this.initializeObjects(rgsIDs);
+			this.setMetadataKeys = new HashSet<String>();
+		}
+		
 		/**
 		 * Take a dictionary of metadata and add it to axis.
 		 * @param mapMetadata Map in which keys are axis element IDs, values are maps between metadata headings and values.
@@ -1544,95 +2119,105 @@ public class BiomIO {
 		/**
 		 * Collapses axis on specified metadata field.
 		 * @param sMetadataKey Metadata field to use for collapse.
+		 * @param rgiElementGroup Set to the index of the new element for each element; length must equal the number of elements.
 		 * @return New axis object with elements combined by metadata key.
 		 */
-		private Axis collapse(String sMetadataKey){
+		private Axis collapse(String sMetadataKey, int[] rgiElementGroup){
 			
-			//lstObjectsNew = new set of objects
-			//mapIndexNew = new index map
-			//mapCollapseNew = new collapse map
+			//iddNew = new IDs
 			//sIDNew = new id
 			//iCounter = new counter
+			//rgiFileIndexNew = file indices of new elements (none are read from file)
 			//setMetadataKeysNew = new set of metadata keys
+			//mcl1 = metadata column
+			//rgiGroup = new index for each metadata code (last entry for missing values); -1 if not yet assigned. For taxonomy keys, codes are nodes of the taxonomy trie
+			//iCode = current metadata code
 			
 			int iCounter;
-			HashMap<String,Integer> mapIndexNew;
-			HashMap<String,String> mapCollapseNew;
-			ArrayList<AxisObject> lstObjectsNew;
+			IDDictionary iddNew;
 			String sIDNew;
+			int rgiFileIndexNew[];
 			HashSet<String> setMetadataKeysNew;
+			MetadataColumn mcl1;
+			int rgiGroup[];
+			int iCode;
 			
-			lstObjectsNew = new ArrayList<AxisObject>(lstObjects.size());
-			mapIndexNew = new HashMap<String,Integer>();
-			mapCollapseNew = new HashMap<String,String>();
+			loadPendingMetadata(Collections.singleton(sMetadataKey));
+			iddNew = new IDDictionary(1000);
 			setMetadataKeysNew = new HashSet<String>();
 			setMetadataKeysNew.add(sMetadataKey);
+			mcl1 = mapMetadata.get(sMetadataKey);
+			rgiGroup = new int[(mcl1==null ? 0 : mcl1.getDictionarySize())+1];
+			Arrays.fill(rgiGroup, -1);
 			iCounter = 0;
-			for(AxisObject a:lstObjects){
-				sIDNew = a.getMetadata(sMetadataKey);
-				if(!mapIndexNew.containsKey(sIDNew)){
-					lstObjectsNew.add(new AxisObject(sIDNew));
-					mapIndexNew.put(sIDNew, iCounter);
+			
+			//grouping by metadata code
+			for(int i=0;i<size();i++){
+				iCode = (mcl1==null ? -1 : mcl1.getCode(i));
+				if(iCode==-1){
+					iCode = rgiGroup.length-1;
+				}
+				if(rgiGroup[iCode]==-1){
+					sIDNew = (mcl1==null ? null : mcl1.get(i));
+					iddNew.add(sIDNew);
+					rgiGroup[iCode] = iCounter;
 					iCounter++;
 				}
-				mapCollapseNew.put(a.sID, sIDNew);
+				rgiElementGroup[i] = rgiGroup[iCode];
 			}
-			return new Axis(sName, mapIndexNew, lstObjectsNew, setMetadataKeysNew, mapCollapseNew, null);
+			rgiFileIndexNew = new int[iCounter];
+			Arrays.fill(rgiFileIndexNew, -1);
+			return new Axis(sName, iddNew, rgiFileIndexNew, setMetadataKeysNew, null);
 		}
 		
 		/**
-		 * Resamples axis with replacement. Useful for bootstrap resampling
+		 * Resamples axis with replacement. Useful for bootstrap resampling. Metadata that have not been loaded remain pending on the new axis.
 		 * @param iRandomSeed Random seed.
 		 * @return New axis object with resampled elements.
 		 */
 		private Axis resampleWithReplacement(int iRandomSeed){
 			
-			//lstObjectsNew = new set of objects
-			//mapIndexNew = new index map
+			//iddNew = new IDs
 			//mapResampleNew = resampled map
-			//sIDNew = new id
 			//rnd1 = random number generator
 			//i1 = current random index
-			//i2 = current counter
-			//mapIndex(sID) = returns the current index for string
-			//sID = current object ID
-			//axo = current new axis object
+			//rgiCount = number of times each element has been drawn
+			//sID = current element ID
+			//rgiFileIndexNew = file indices of new elements
+			//axsNew = output
+			//rgiSource = index of original element for each new element
 			
-			HashMap<String,Integer> mapIndex;
-			int i2;
+			Axis axsNew;
+			int rgiSource[];
+			int rgiCount[];
 			int i1;
 			Random rnd1;
-			HashMap<String,Integer> mapIndexNew;
+			IDDictionary iddNew;
 			HashMap<String,String> mapResampleNew;
-			ArrayList<AxisObject> lstObjectsNew;
+			int rgiFileIndexNew[];
 			String sID;
-			AxisObject axo1;
 			
-			lstObjectsNew = new ArrayList<AxisObject>(lstObjects.size());
-			mapIndexNew = new HashMap<String,Integer>();
+			iddNew = new IDDictionary(this.size());
 			rnd1 = new Random(iRandomSeed);
-			mapIndex = new HashMap<String,Integer>();
+			rgiCount = new int[this.size()];
 			mapResampleNew = new HashMap<String,String>();
+			rgiSource = new int[this.size()];
+			rgiFileIndexNew = new int[this.size()];
 			for(int i=0;i<this.size();i++){
 				
 				i1 = rnd1.nextInt(this.size());
-				sID = lstObjects.get(i1).sID;
-				if(!mapIndex.containsKey(sID)){
-					mapIndex.put(sID, 1);
-				}
-				i2 = mapIndex.get(sID);
-				i2++;
-				mapIndex.put(sID, i2);
-				sID = sID + "." + (mapIndex.get(sID)-1);
-				axo1 = new AxisObject(sID);
-				for(String s:lstObjects.get(i1).getAllMetadata().keySet()){
-					axo1.addMetadata(s, lstObjects.get(i1).getAllMetadata().get(s));
-				}
-				lstObjectsNew.add(axo1);
-				mapResampleNew.put(sID, lstObjects.get(i1).sID);
-				mapIndexNew.put(sID, i);
+				rgiSource[i] = i1;
+				rgiCount[i1]++;
+				sID = getID(i1) + "." + rgiCount[i1];
+				iddNew.add(sID);
+				rgiFileIndexNew[i] = rgiFileIndex[i1];
+				mapResampleNew.put(sID, getID(i1));
 			}
-			return new Axis(sName, mapIndexNew, lstObjectsNew, setMetadataKeys, null, mapResampleNew);
+			axsNew = new Axis(sName, iddNew, rgiFileIndexNew, new HashSet<String>(setMetadataKeys), mapResampleNew);
+			axsNew.mapPendingMetadata.putAll(mapPendingMetadata);
+			axsNew.mapMetadata = selectMetadata(rgiSource);
+			axsNew.sBiomPath = sBiomPath;
+			return axsNew;
 		}
 
 		/**
@@ -1642,34 +2227,89 @@ public class BiomIO {
 		 */
 		private void filter(HashSet<String> setIDsToKeep) throws Exception{
 			
-			HashMap<String,Integer> mapIndex;
-			ArrayList<AxisObject> lstObjects;
+			//rgiKeep = indices of elements kept
 			
-			mapIndex = new HashMap<String,Integer>(this.mapIndex.size());
-			lstObjects = new ArrayList<AxisObject>(this.lstObjects.size());
+			//iCount = number of elements kept
 			
-			for(int i=0;i<this.lstObjects.size();i++){			
-				if(setIDsToKeep.contains(this.lstObjects.get(i).sID)){
-					lstObjects.add(this.lstObjects.get(i));
-					mapIndex.put(this.lstObjects.get(i).sID, lstObjects.size()-1);
+			int rgiKeep[];
+			int iCount;
+			
+			rgiKeep = new int[this.size()];
+			iCount = 0;
+			for(int i=0;i<this.size();i++){			
+				if(setIDsToKeep.contains(getID(i))){
+					rgiKeep[iCount] = i;
+					iCount++;
 				}
 			}
-			this.mapCollapse=null;
-			this.lstObjects = lstObjects;
-			this.mapIndex=mapIndex;
-			if(lstObjects.size()==0){
+			rgiKeep = Arrays.copyOf(rgiKeep, iCount);
+			mapMetadata = selectMetadata(rgiKeep);
+			this.idd1 = idd1.select(rgiKeep);
+			this.rgiFileIndex = selectFileIndices(rgiKeep);
+			if(iCount==0){
 				throw new Exception();
 			}
 		}
 		
 		
+		/**
+		 * Adds metadata key whose values will be read from file when first accessed.
+		 * @param sKey Metadata key.
+		 * @param sVariable Full name of file variable holding metadata values.
+		 */
+		private void addPendingMetadata(String sKey, String sVariable){
+			mapPendingMetadata.put(sKey, sVariable);
+		}
+		
+		/**
+		 * Gets the file indices of axis elements that were read from file.
+		 * @return Distinct file indices, in increasing order.
+		 */
+		private int[] getFileIndices(){
+			
+			//rgiOut = output
+			//iCount = number of indices
+			//iDistinct = number of distinct indices
+			
+			int rgiOut[];
+			int iCount;
+			int iDistinct;
+			
+			rgiOut = new int[size()];
+			iCount = 0;
+			for(int i=0;i<size();i++){
+				if(rgiFileIndex[i]>=0){
+					rgiOut[iCount] = rgiFileIndex[i];
+					iCount++;
+				}
+			}
+			Arrays.sort(rgiOut, 0, iCount);
+			iDistinct = 0;
+			for(int i=0;i<iCount;i++){
+				if(iDistinct==0 || rgiOut[i]!=rgiOut[iDistinct-1]){
+					rgiOut[iDistinct] = rgiOut[i];
+					iDistinct++;
+				}
+			}
+			return Arrays.copyOf(rgiOut, iDistinct);
+		}
+		
 		/**
 		 * Gets the ID of the axis element associated with the specified index.
 		 * @param iIndex Index of axis element.
 		 * @return ID of observation or sample.
 		 */
 		public String getID(int iIndex){
-			return lstObjects.get(iIndex).sID;
+			return idd1.getID(iIndex);
+		}
+		
+		/**
+		 * Checks whether axis has element with given ID.
+		 * @param sID ID of axis element.
+		 * @return True if element is on axis; false otherwise.
+		 */
+		private boolean contains(String sID){
+			return idd1.getIndex(sID)!=-1;
 		}
 		
 		/**
@@ -1692,10 +2332,10 @@ public class BiomIO {
 		/**
 		 * Get the index of a specified sample or observation along axis.
 		 * @param sID Identity of the sample or observation whose index will be returned.
-		 * @return Index of sample or observation.
+		 * @return Index of sample or observation; -1 if not found.
 		 */
 		public int getIndex(String sID){
-			return mapIndex.get(sID);
+			return idd1.getIndex(sID);
 		}
 		
 		
@@ -1705,7 +2345,35 @@ public class BiomIO {
 		 * @return Map in which keys are metadata headings, values are metadata values.
 		 */
 		public HashMap<String,String> getMetadata(int iIndex){
-			return lstObjects.get(iIndex).getAllMetadata();
+			
+			//mapOut = output
+			
+			HashMap<String,String> mapOut;
+			
+			loadPendingMetadata();
+			mapOut = new HashMap<String,String>();
+			for(String s:mapMetadata.keySet()){
+				if(mapMetadata.get(s).has(iIndex)){
+					mapOut.put(s, mapMetadata.get(s).get(iIndex));
+				}
+			}
+			return mapOut;
+		}
+		
+		/**
+		 * Gets metadata value.
+		 * @param iIndex Index of axis element.
+		 * @param sKey Metadata field.
+		 * @return Metadata value for specified field; null if not found.
+		 */
+		private String getMetadata(int iIndex, String sKey){
+			if(mapPendingMetadata.containsKey(sKey)){
+				loadPendingMetadata(Collections.singleton(sKey));
+			}
+			if(!mapMetadata.containsKey(sKey)){
+				return null;
+			}
+			return mapMetadata.get(sKey).get(iIndex);
 		}
 		
 		/**
@@ -1714,7 +2382,7 @@ public class BiomIO {
 		 * @return Map in which keys are metadata headings, values are metadata values.
 		 */
 		public HashMap<String,String> getMetadata(String sID){
-			return lstObjects.get(mapIndex.get(sID)).getAllMetadata();
+			return getMetadata(idd1.getIndex(sID));
 		}
 		
 		/**
@@ -1722,17 +2390,11 @@ public class BiomIO {
 		 * @return Set of all metadata keys for axis.
 		 */
 		public HashSet<String> getMetadataKeys(){
+			loadPendingMetadata();
 			return this.setMetadataKeys;
 		}
 		
-		/**
-		 * Gets list of axis objects.
-		 * @return List of all axis elements.
-		 */
-		private ArrayList<AxisObject> getObjects(){
-			return this.lstObjects;
-		}
-		
+
 		
 		/**
 		 * Checks whether elements of axis have specified type of metadata.
@@ -1740,6 +2402,9 @@ public class BiomIO {
 		 * @return True if elements have metadata field; false otherwise.
 		 */
 		public boolean hasMetadataField(String sKey){
+			if(mapPendingMetadata.containsKey(sKey)){
+				loadPendingMetadata(Collections.singleton(sKey));
+			}
 			if(setMetadataKeys.contains(sKey)){
 				return true;
 			}else{
@@ -1747,6 +2412,22 @@ public class BiomIO {
 			}
 		}
 		
+		/**
+		 * Checks if axis element has metadata with given key.
+		 * @param iIndex Index of axis element.
+		 * @param sKey Key.
+		 * @return True if metadata key found; false otherwise.
+		 */
+		private boolean hasMetadata(int iIndex, String sKey){
+			if(mapPendingMetadata.containsKey(sKey)){
+				loadPendingMetadata(Collections.singleton(sKey));
+			}
+			if(!mapMetadata.containsKey(sKey)){
+				return false;
+			}
+			return mapMetadata.get(sKey).has(iIndex);
+		}
+		
 		/**
 		 * Initializes axis elements.
 		 * @param var1 Netcdf variable with IDs of axis elements.
@@ -1759,20 +2440,89 @@ public class BiomIO {
 			Array ary1;
 			String rgs1[];
 			
-			//initializing maps
-			mapIndex = new HashMap<String,Integer>(1000);
-			lstObjects = new ArrayList<AxisObject>(1000);
-	
 			//loading axis objects
 			try{
 				ary1 = var1.read();
 				rgs1 = (String[]) ary1.copyToNDJavaArray();
-				for(int i=0;i<rgs1.length;i++){
-					mapIndex.put(rgs1[i], i);
-					lstObjects.add(new AxisObject(rgs1[i]));
-				}
+				initializeObjects(rgs1);
 			}catch(Exception e){
+				idd1 = new IDDictionary(1000);
+				rgiFileIndex = new int[0];
+				e.printStackTrace();
+			}
+		}
+		
+		/**
+		 * Initializes axis elements.
+		 * @param rgsIDs IDs of axis elements.
+		 */
+		private void initializeObjects(String[] rgsIDs){
+			
+			//initializing dictionary
+			idd1 = new IDDictionary(rgsIDs.length);
+			rgiFileIndex = new int[rgsIDs.length];
+	
+			//loading axis objects
+			for(int i=0;i<rgsIDs.length;i++){
+				idd1.add(rgsIDs[i]);
+				rgiFileIndex[i] = i;
+			}
+		}
+		
+		/**
+		 * Loads values of all metadata keys that have not yet been loaded.
+		 */
+		private void loadPendingMetadata(){
+			if(mapPendingMetadata.size()>0){
+				loadPendingMetadata(new ArrayList<String>(mapPendingMetadata.keySet()));
+			}
+		}
+		
+		/**
+		 * Loads values of metadata keys that have not yet been loaded. Each file variable holding one or more of the keys is read once, for the axis elements currently on the axis, and all keys from that variable are loaded.
+		 * @param lstKeys Metadata keys to load; keys that are already loaded are ignored.
+		 */
+		private void loadPendingMetadata(Collection<String> lstKeys){
+			
+			//setVariables = variables to read
+			//fil1 = netcdf file
+			//itr1 = iterator over pending keys
+			
+			LinkedHashSet<String> setVariables;
+			NetcdfFile fil1 = null;
+			Iterator<Map.Entry<String,String>> itr1;
+			
+			setVariables = new LinkedHashSet<String>();
+			for(String s:lstKeys){
+				if(mapPendingMetadata.containsKey(s)){
+					setVariables.add(mapPendingMetadata.get(s));
+				}
+			}
+			if(setVariables.size()==0){
+				return;
+			}
+			
+			//removing pending keys first so that loaded values are not reloaded
+			itr1 = mapPendingMetadata.entrySet().iterator();
+			while(itr1.hasNext()){
+				if(setVariables.contains(itr1.next().getValue())){
+					itr1.remove();
+				}
+			}
+			
+			//reading variables
+			try{
+				fil1 = NetcdfFile.open(sBiomPath);
+				for(String s:setVariables){
+					if(s.equals("observation/metadata/taxonomy")){
+						loadTaxonomicMetadata(fil1.findVariable(s), this);
+					}
+					loadMetadataFromVariable(fil1.findVariable(s), this);
+				}
+			}catch(IOException e){
 				e.printStackTrace();
+			}finally{
+				close(fil1);
 			}
 		}
 		
@@ -1780,9 +2530,8 @@ public class BiomIO {
 		 * Clears all metadata.
 		 */
 		public void removeAllMetadata(){
-			for(AxisObject a:this.getObjects()){
-				a.removeMetadata();
-			}
+			mapPendingMetadata.clear();
+			mapMetadata.clear();
 		}
 		
 		/**
@@ -1793,453 +2542,2645 @@ public class BiomIO {
 		 */
 		private void setMetadata(String sID, String sKey, String sValue){
 			
-			if(!mapIndex.containsKey(sID)){
+			if(mapPendingMetadata.containsKey(sKey)){
+				loadPendingMetadata(Collections.singleton(sKey));
+			}
+			if(!contains(sID)){
 				return;
 			}else{		
-				if(lstObjects.get(mapIndex.get(sID)).addMetadata(sKey, sValue)==1){
+				setMetadata(idd1.getIndex(sID), sKey, sValue);
+			}
+		}
+		
+		/**
+		 * Sets all values of a metadata key.
+		 * @param sKey Metadata field.
+		 * @param mcl1 Column of values; must have an entry for each axis element.
+		 */
+		private void setMetadataColumn(String sKey, MetadataColumn mcl1){
+			mapMetadata.put(sKey, mcl1);
+			for(int i=0;i<size();i++){
+				if(mcl1.has(i)){
 					setMetadataKeys.add(sKey);
+					break;
 				}
 			}
 		}
 		
+		/**
+		 * Sets metadata. Missing values (null, empty, or the missing data value) are ignored.
+		 * @param iIndex Index of axis element.
+		 * @param sKey Metadata field.
+		 * @param sValue Metadata value.
+		 */
+		private void setMetadata(int iIndex, String sKey, String sValue){
+			
+			//mcl1 = metadata column
+			
+			MetadataColumn mcl1;
+			
+			if(!isMetadataValue(sValue)){
+				return;
+			}
+			if(mapPendingMetadata.containsKey(sKey)){
+				loadPendingMetadata(Collections.singleton(sKey));
+			}
+			mcl1 = mapMetadata.get(sKey);
+			if(mcl1==null){
+				mcl1 = new MetadataColumn(size());
+				mapMetadata.put(sKey, mcl1);
+			}else if(mcl1.trt1!=null){
+				mcl1 = mcl1.decode();
+				mapMetadata.put(sKey, mcl1);
+			}
+			mcl1.set(iIndex, sValue);
+			setMetadataKeys.add(sKey);
+		}
+		
 		/**
 		 * Return the length of an axis.
 		 * @return Number of elements along axis.
 		 */		
 		public int size(){
-			return lstObjects.size();
+			return idd1.size();
+		}
+		
+		/**
+		 * Selects file indices of axis elements.
+		 * @param rgiSource Indices of axis elements to select.
+		 * @return File index of each selected element.
+		 */
+		private int[] selectFileIndices(int[] rgiSource){
+			
+			//rgiOut = output
+			
+			int rgiOut[];
+			
+			rgiOut = new int[rgiSource.length];
+			for(int i=0;i<rgiSource.length;i++){
+				rgiOut[i] = rgiFileIndex[rgiSource[i]];
+			}
+			return rgiOut;
+		}
+		
+		/**
+		 * Selects loaded metadata of axis elements. Leaf arrays of taxonomy columns are selected once and shared by all taxonomy columns of the new axis.
+		 * @param rgiSource Indices of axis elements to select.
+		 * @return Map from each loaded metadata key to the column of values of the selected elements.
+		 */
+		private HashMap<String,MetadataColumn> selectMetadata(int[] rgiSource){
+			
+			//mapOut = output
+			//mapSelectedLeaves = selected leaf array for each leaf array of a taxonomy column
+			
+			HashMap<String,MetadataColumn> mapOut;
+			IdentityHashMap<int[],int[]> mapSelectedLeaves;
+			
+			mapOut = new HashMap<String,MetadataColumn>();
+			mapSelectedLeaves = new IdentityHashMap<int[],int[]>();
+			for(String s:mapMetadata.keySet()){
+				mapOut.put(s, mapMetadata.get(s).select(rgiSource, mapSelectedLeaves));
+			}
+			return mapOut;
 		}
 	}
 
 	/**
-	 * Element of axis.
+	 * Binary sidecar cache for a BIOM file. Holds global variables, axis IDs, metadata, and compressed sparse arrays in a layout that is read back through memory-mapped buffers, so that repeated opens of an unchanged file skip HDF5 decoding. Axis IDs are stored as the packed arena and hash table of the ID dictionary and loaded metadata as codes and dictionaries, so they are read without decoding each element; metadata that are still pending when the cache is written stay pending and are read from the BIOM file on first access. Matrix arrays are copied from the mapped buffers into heap arrays, since the sparse matrix works on arrays. The cache is only written after a complete read whose axes match the matrix. Cache files record the canonical path, size, and modification time of the BIOM file and are ignored (and rewritten) if any of these change.
 	 */
-	private class AxisObject{
+	private class Cache{
+		
+		/**Identifies cache files.**/
+		private static final long MAGIC=0x42494F4D43414348L;
 		
-		/**Missing data value.**/
-		private static final String MISSING_DATA_VALUE="NA";
+		/**Cache format version.**/
+		private static final int VERSION=2;
 		
-		/**Metadata map.**/
-		private HashMap<String,String> mapMetadata;
+		/**Size of mapped windows used for reading.**/
+		private static final int READ_WINDOW_SIZE=1<<28;
 		
-		/**ID of axis object.**/
-		private String sID;
+		/**Size of staging buffer used for writing.**/
+		private static final int WRITE_BUFFER_SIZE=1<<20;
+		
+		/**BIOM file.**/
+		private File filBiom;
+		
+		/**Path to BIOM file, as given; pending metadata of cached axes are read from this path.**/
+		private String sBiomPath;
+		
+		/**Cache file.**/
+		private File filCache;
+		
+		/**Channel for reading or writing cache file.**/
+		private FileChannel chn1;
+		
+		/**Current buffer: mapped window of cache file when reading; staging buffer when writing.**/
+		private ByteBuffer bbf1;
+		
+		/**Position in cache file of start of current mapped window.**/
+		private long lOffset;
 		
 		/**
 		 * Constructor.
-		 * @param sID ID of axis element.
+		 * @param sBiomPath Path to BIOM file.
+		 * @param sCacheDirectory Directory in which to keep cache file; null to keep cache file next to BIOM file.
 		 */
-		private AxisObject(String sID){
-			this.sID = sID;
-			mapMetadata = new HashMap<String,String>();
+		private Cache(String sBiomPath, String sCacheDirectory){
+			this.sBiomPath = sBiomPath;
+			filBiom = new File(sBiomPath);
+			if(sCacheDirectory==null){
+				filCache = new File(sBiomPath + ".cache");
+			}else{
+				filCache = new File(sCacheDirectory, filBiom.getName() + "." + Integer.toHexString(filBiom.getAbsolutePath().hashCode()) + ".cache");
+			}
 		}
 		
 		/**
-		 * Adds metadata value.
-		 * @param sKey Metadata field.
-		 * @param sValue Metadata value.
-		 * @return 1 if successful, 0 otherwise.
+		 * Ensures that current mapped window has at least specified number of bytes remaining.
+		 * @param iBytes Number of bytes needed.
 		 */
-		private int addMetadata(String sKey, String sValue){
-			if(sValue!=null && !sValue.equals("") && !sValue.equals(MISSING_DATA_VALUE)){
-				mapMetadata.put(sKey, sValue);
-				return 1;
+		private void ensureReadable(int iBytes) throws IOException{
+			if(bbf1==null || bbf1.remaining()<iBytes){
+				mapWindow(bbf1==null ? 0 : lOffset + bbf1.position());
 			}
-			return 0;
 		}
 		
 		/**
-		 * Gets all metadata.
-		 * @return Map between all metadata fields and values.
+		 * Ensures that staging buffer has at least specified number of bytes free, writing buffered bytes to file if necessary.
+		 * @param iBytes Number of bytes needed.
 		 */
-		private HashMap<String,String> getAllMetadata(){
-			return mapMetadata;
+		private void ensureWritable(int iBytes) throws IOException{
+			if(bbf1.remaining()<iBytes){
+				flush();
+			}
 		}
 		
 		/**
-		 * Gets metadata value.
-		 * @param sKey Metadata field.
-		 * @return Metadata value for specified field; null if field not found.
+		 * Writes buffered bytes to file.
 		 */
-		private String getMetadata(String sKey){
-			if(!mapMetadata.containsKey(sKey)){
-				return null;
-			}else{
-				return mapMetadata.get(sKey);
+		private void flush() throws IOException{
+			bbf1.flip();
+			while(bbf1.hasRemaining()){
+				chn1.write(bbf1);
 			}
+			bbf1.clear();
 		}
 		
 		/**
-		 * Checks if axis element has metadata with given key.
-		 * @param sKey Key.
-		 * @return True if metadata key found; false otherwise.
+		 * Maps window of cache file.
+		 * @param lPosition Position in file at which window starts.
 		 */
-		private boolean hasMetadata(String sKey){
-			if(!mapMetadata.containsKey(sKey)){
+		private void mapWindow(long lPosition) throws IOException{
+			lOffset = lPosition;
+			bbf1 = chn1.map(FileChannel.MapMode.READ_ONLY, lPosition, Math.min(READ_WINDOW_SIZE, chn1.size()-lPosition));
+		}
+		
+		/**
+		 * Loads table from cache file into this BIOM object.
+		 * @return True if a valid cache file was found and loaded; false otherwise.
+		 */
+		private boolean read(){
+			
+			//i1 = current length
+			
+			int i1;
+			
+			if(!filCache.exists()){
 				return false;
-			}else{
-				return true;
+			}
+			try{
+				chn1 = new RandomAccessFile(filCache, "r").getChannel();
+				bbf1 = null;
+				
+				//checking header
+				if(readLong()!=MAGIC || readInt()!=VERSION){
+					return false;
+				}
+				if(!filBiom.getCanonicalPath().equals(readString()) || readLong()!=filBiom.length() || readLong()!=filBiom.lastModified()){
+					return false;
+				}
+				
+				//loading global variables
+				iNNZ = readInt();
+				sID = readString();
+				sType = readString();
+				sFormatURL = readString();
+				i1 = readInt();
+				if(i1>=0){
+					lstFormatVersion = new ArrayList<Integer>(i1);
+					for(int i=0;i<i1;i++){
+						lstFormatVersion.add(readInt());
+					}
+				}
+				sGeneratedBy = readString();
+				sCreationDate = readString();
+				
+				//loading axes and sparse matrix
+				axsObservation = readAxis("observation");
+				axsSample = readAxis("sample");
+				spm1 = readSparseMatrix();
+				return axsObservation.size()==spm1.iRows && axsSample.size()==spm1.iCols;
+			}catch(Exception e){
+				return false;
+			}finally{
+				closeChannel();
 			}
 		}
 		
 		/**
-		 * Clears metadata.
+		 * Reads axis. IDs are read as the packed arena and hash table of the ID dictionary, and loaded metadata columns as their codes and dictionaries, so no value is decoded per element.
+		 * @param sName Name of axis.
+		 * @return Axis object with IDs and metadata.
 		 */
-		private void removeMetadata(){
-			mapMetadata = new HashMap<String,String>();
+		private Axis readAxis(String sName) throws IOException{
+			
+			//iSize = number of elements
+			//iNullIndex = index of element with null ID
+			//rgbArena = ID arena
+			//rgiOffsets = ID offsets
+			//rgiTable = ID hash table
+			//bstNull = elements with null IDs
+			//axs1 = output
+			//iCount = number of keys or columns
+			//sKey = current metadata key
+			//rgiCodes = codes of current column
+			//bstMissing = missing values of current column
+			//lstValues = dictionary values of current column
+			//mapCodes = dictionary codes of current column
+			//iValues = number of dictionary values of current column
+			
+			int iSize;
+			int iNullIndex;
+			byte rgbArena[];
+			int rgiOffsets[];
+			int rgiTable[];
+			BitSet bstNull;
+			Axis axs1;
+			int iCount;
+			String sKey;
+			int rgiCodes[];
+			BitSet bstMissing;
+			ArrayList<String> lstValues;
+			HashMap<String,Integer> mapCodes;
+			int iValues;
+			
+			//loading IDs
+			iSize = readInt();
+			iNullIndex = readInt();
+			rgbArena = readBytes(readInt());
+			rgiOffsets = readInts(iSize+1);
+			rgiTable = readInts(readInt());
+			bstNull = BitSet.valueOf(readLongs());
+			axs1 = new Axis(sName, new IDDictionary(rgbArena, rgiOffsets, iSize, rgiTable, bstNull, iNullIndex), readInts(iSize), new HashSet<String>(), null);
+			axs1.sBiomPath = sBiomPath;
+			
+			//loading metadata keys and pending metadata
+			iCount = readInt();
+			for(int k=0;k<iCount;k++){
+				axs1.setMetadataKeys.add(readString());
+			}
+			iCount = readInt();
+			for(int k=0;k<iCount;k++){
+				sKey = readString();
+				axs1.addPendingMetadata(sKey, readString());
+			}
+			
+			//loading dictionary-encoded columns
+			iCount = readInt();
+			for(int k=0;k<iCount;k++){
+				sKey = readString();
+				rgiCodes = readInts(iSize);
+				bstMissing = BitSet.valueOf(readLongs());
+				iValues = readInt();
+				lstValues = new ArrayList<String>(iValues);
+				mapCodes = new HashMap<String,Integer>(2*iValues);
+				for(int i=0;i<iValues;i++){
+					lstValues.add(readString());
+					mapCodes.put(lstValues.get(i), i);
+				}
+				axs1.mapMetadata.put(sKey, new MetadataColumn(rgiCodes, bstMissing, lstValues, mapCodes));
+			}
+			return axs1;
 		}
 		
-		public String toString(){
-			return sID;
+		/**
+		 * Reads array of bytes.
+		 * @param iLength Length of array.
+		 * @return Array.
+		 */
+		private byte[] readBytes(int iLength) throws IOException{
+			
+			//rgbOut = output
+			//i1 = number of bytes read from current window
+			
+			byte rgbOut[];
+			int i1;
+			
+			rgbOut = new byte[iLength];
+			for(int i=0;i<iLength;i+=i1){
+				ensureReadable(1);
+				i1 = Math.min(iLength-i, bbf1.remaining());
+				bbf1.get(rgbOut, i, i1);
+			}
+			return rgbOut;
 		}
-	}
-
-	/**
-	 * Sparse matrix: used for looking up values.
-	 */
-	private class SparseMatrix{
 		
-		/**Returns hashmap: keys are column IDs with occurrences, values data values**/
-		private HashMap<String,HashMap<String,Double>> mapValue;
-		
-		/**Returns row sum for given observation**/
-		private HashMap<String,Double> mapRowSum;
+		/**
+		 * Reads array of doubles.
+		 * @param iLength Length of array.
+		 * @return Array.
+		 */
+		private double[] readDoubles(int iLength) throws IOException{
+			
+			//rgdOut = output
+			//i1 = number of values read from current window
+			
+			double rgdOut[];
+			int i1;
+			
+			rgdOut = new double[iLength];
+			for(int i=0;i<iLength;i+=i1){
+				ensureReadable(8);
+				i1 = Math.min(iLength-i, bbf1.remaining()/8);
+				bbf1.asDoubleBuffer().get(rgdOut, i, i1);
+				bbf1.position(bbf1.position()+8*i1);
+			}
+			return rgdOut;
+		}
 		
-		/**Returns column sum for given sample**/
-		private HashMap<String,Double> mapColSum;
-	
 		/**
-		 * Internal constructor.
-		 * @param mapValue Value map for new sparse matrix object.
+		 * Reads integer.
+		 * @return Integer.
 		 */
-		private SparseMatrix(HashMap<String,HashMap<String,Double>> mapValue){
-			this.mapValue = mapValue;
-			mapColSum=null;
-			mapRowSum=null;
+		private int readInt() throws IOException{
+			ensureReadable(4);
+			return bbf1.getInt();
 		}
 		
 		/**
-		 * Constructor.
-		 * @param varColIndices Netcdf variable with column indices.
-		 * @param varRowPtrs Netcdf variable with row pointers.
-		 * @param varData Netcdf variable with data.
-		 * @param axsObservation Observation axis.
-		 * @param axsSample Sample axis.
-		 */		
-		private SparseMatrix(Variable varColIndices, Variable varRowPtrs, Variable varData, Axis axsObservation, Axis axsSample){
-			
-			//aryColIndices = column indices array
-			//aryRowPtrs = row pointers array
-			//mapPtr(iIndex) = returns specified pointer
-			//sRowID = current row
-			//sColID = current column
-			//aryData = data
-			
-			TreeMap<Integer,Integer> mapPtr;
-			String sRowID; String sColID;
-			Array aryColIndices = null;
-			Array aryRowPtrs = null;
-			Array aryData = null;
-			
-			//loading arrays
-			try{
-				aryColIndices = varColIndices.read();
-				aryRowPtrs = varRowPtrs.read();
-				aryData = varData.read();
-			}catch(Exception e){
-				e.printStackTrace();
-			}
+		 * Reads array of integers.
+		 * @param iLength Length of array.
+		 * @return Array.
+		 */
+		private int[] readInts(int iLength) throws IOException{
+			
+			//rgiOut = output
+			//i1 = number of values read from current window
+			
+			int rgiOut[];
+			int i1;
 			
-			//loading pointer map
-			mapPtr = new TreeMap<Integer,Integer>();
-			for(int i=0;i<aryRowPtrs.getSize();i++){
-				mapPtr.put(aryRowPtrs.getInt(i),i);
+			rgiOut = new int[iLength];
+			for(int i=0;i<iLength;i+=i1){
+				ensureReadable(4);
+				i1 = Math.min(iLength-i, bbf1.remaining()/4);
+				bbf1.asIntBuffer().get(rgiOut, i, i1);
+				bbf1.position(bbf1.position()+4*i1);
 			}
+			return rgiOut;
+		}
 		
-			//loading value map
-			mapValue = new HashMap<String,HashMap<String,Double>>();
-			for(int i=0;i<aryColIndices.getSize();i++){
-				sRowID = axsObservation.getID(mapPtr.get(mapPtr.floorKey(i)));
-				sColID = axsSample.getID(aryColIndices.getInt(i));
-				if(!mapValue.containsKey(sRowID)){
-					mapValue.put(sRowID, new HashMap<String,Double>());
-				}
-				mapValue.get(sRowID).put(sColID, aryData.getDouble(i));
-			}
-			
-			//clearning marginal sums
-			mapRowSum=null;
-			mapColSum=null;
+		/**
+		 * Reads long integer.
+		 * @return Long integer.
+		 */
+		private long readLong() throws IOException{
+			ensureReadable(8);
+			return bbf1.getLong();
 		}
 		
 		/**
-		 * Collapses matrix.
-		 * @param mapRow Map from old observation IDs to new observation IDs; null if no collapsing to be done on observations.
-		 * @param mapCol Map from old sample IDs to new sample IDs; null if no collapsing to be done on samples.
-		 * @return Sparse matrix object with collapsed rows and columns.
+		 * Reads array of long integers, preceded by its length.
+		 * @return Array.
 		 */
-		private SparseMatrix collapse(HashMap<String,String> mapRow, HashMap<String,String> mapCol){
+		private long[] readLongs() throws IOException{
 			
-			//mapOut = output value map
-			//sRowIDNew = new row
-			//sColIDNew = new column
-			//d1 = current value
+			//rglOut = output
 			
-			HashMap<String,HashMap<String,Double>> mapOut;
-			String sRowIDNew;
-			String sColIDNew;
-			double d1;
+			long rglOut[];
 			
-			mapOut = new HashMap<String,HashMap<String,Double>>();
-			for(String s:mapValue.keySet()){
-				if(mapRow!=null){	
-					sRowIDNew = mapRow.get(s);
-				}else{
-					sRowIDNew=s;
-				}
-				if(!mapOut.containsKey(sRowIDNew)){
-					mapOut.put(sRowIDNew, new HashMap<String,Double>());
-				}
-				for(String t:mapValue.get(s).keySet()){
-					if(mapCol!=null){
-						sColIDNew = mapCol.get(t);
-					}else{
-						sColIDNew=t;
-					}
-					if(mapOut.get(sRowIDNew).containsKey(sColIDNew)){
-						d1 = mapOut.get(sRowIDNew).get(sColIDNew);
-					}else{
-						d1=0;
-					}
-					d1+=mapValue.get(s).get(t);
-					mapOut.get(sRowIDNew).put(sColIDNew,d1);
-				}
+			rglOut = new long[readInt()];
+			for(int i=0;i<rglOut.length;i++){
+				rglOut[i] = readLong();
 			}
-			return new SparseMatrix(mapOut);
+			return rglOut;
 		}
 		
 		/**
-		 * Resamples matrix.
-		 * @param mapResample Map from new sample IDs to old sample IDs.
-		 * @return Sparse matrix object with resampled columns.
+		 * Reads sparse matrix.
+		 * @return Sparse matrix object.
 		 */
-		private SparseMatrix resample(HashMap<String,String> mapResample){
+		private SparseMatrix readSparseMatrix() throws IOException{
 			
-			//mapOut = output value map
+			//iRows = number of rows
+			//iCols = number of columns
+			//iEntries = number of entries
+			//spm2 = output
 			
-			HashMap<String,HashMap<String,Double>> mapOut;
+			int iRows;
+			int iCols;
+			int iEntries;
+			SparseMatrix spm2;
 			
-			mapOut = new HashMap<String,HashMap<String,Double>>();
-			for(String s:mapValue.keySet()){
-				mapOut.put(s, new HashMap<String,Double>());
-				for(String t:mapResample.keySet()){
-					if(mapValue.get(s).containsKey(mapResample.get(t))){
-						mapOut.get(s).put(t, mapValue.get(s).get(mapResample.get(t)));
-					}
-				}
+			iRows = readInt();
+			iCols = readInt();
+			iEntries = readInt();
+			spm2 = new SparseMatrix(iRows, iCols, readInts(iRows+1), readInts(iEntries), readDoubles(iEntries));
+			if(readInt()==1){
+				spm2.rgiColPtr = readInts(iCols+1);
+				spm2.rgiRowIndex = readInts(iEntries);
+				spm2.rgdColData = readDoubles(iEntries);
 			}
-			return new SparseMatrix(mapOut);
+			return spm2;
 		}
 		
 		/**
-		 * Filters columns of matrix.
-		 * @param setColumnsToKeep Set of IDs of samples to keep.
+		 * Reads string.
+		 * @return String; null if null string was written.
 		 */
-		private void filterColumns(HashSet<String> setColumnsToKeep){
+		private String readString() throws IOException{
 			
-			//map1 = replacement map
+			//iLength = number of bytes
 			
-			HashMap<String,HashMap<String,Double>> map1;
-	
-			map1 = new HashMap<String,HashMap<String,Double>>(mapValue.size());
-			for(String s:mapValue.keySet()){
-				for(String t:mapValue.get(s).keySet()){
-					if(setColumnsToKeep.contains(t)){
-						if(!map1.containsKey(s)){
-							map1.put(s, new HashMap<String,Double>(mapValue.get(s).size()));
-						}
-						map1.get(s).put(t, mapValue.get(s).get(t));
-					}
-				}
+			int iLength;
+			
+			iLength = readInt();
+			if(iLength<0){
+				return null;
 			}
-			mapValue=map1;
-			mapColSum=null;
-			mapRowSum=null;
+			return new String(readBytes(iLength), StandardCharsets.UTF_8);
 		}
 		
 		/**
-		 * Filters rows of matrix.
-		 * @param setRowsToKeep Set of IDs of observations to keep.
+		 * Closes channel.
 		 */
-		private void filterRows(HashSet<String> setRowsToKeep){
-			
-			//map1 = replacement map
-			
-			HashMap<String,HashMap<String,Double>> map1;
-	
-			map1 = new HashMap<String,HashMap<String,Double>>(setRowsToKeep.size());
-			for(String s:setRowsToKeep){
-				if(mapValue.containsKey(s)){
-					map1.put(s, mapValue.get(s));
+		private void closeChannel(){
+			bbf1 = null;
+			if(chn1!=null){
+				try{
+					chn1.close();
+				}catch(IOException e){
+					e.printStackTrace();
 				}
 			}
-			mapValue=map1;
-			mapRowSum=null;
-			mapColSum=null;
+		}
+		
+		/**
+		 * Writes cache file for this BIOM object. The file is written to a temporary file and then moved into place.
+		 */
+		private void write(){
+			
+			//filTemp = temporary file
+			
+			File filTemp = null;
+			
+			try{
+				if(filCache.getAbsoluteFile().getParentFile()!=null){
+					filCache.getAbsoluteFile().getParentFile().mkdirs();
+				}
+				filTemp = File.createTempFile(filCache.getName(), ".tmp", filCache.getAbsoluteFile().getParentFile());
+				chn1 = new FileOutputStream(filTemp).getChannel();
+				bbf1 = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+				
+				//writing header
+				writeLong(MAGIC);
+				writeInt(VERSION);
+				writeString(filBiom.getCanonicalPath());
+				writeLong(filBiom.length());
+				writeLong(filBiom.lastModified());
+				
+				//writing global variables
+				writeInt(iNNZ);
+				writeString(sID);
+				writeString(sType);
+				writeString(sFormatURL);
+				if(lstFormatVersion==null){
+					writeInt(-1);
+				}else{
+					writeInt(lstFormatVersion.size());
+					for(int i=0;i<lstFormatVersion.size();i++){
+						writeInt(lstFormatVersion.get(i));
+					}
+				}
+				writeString(sGeneratedBy);
+				writeString(sCreationDate);
+				
+				//writing axes and sparse matrix
+				writeAxis(axsObservation);
+				writeAxis(axsSample);
+				writeSparseMatrix(spm1);
+				
+				flush();
+				closeChannel();
+				Files.move(filTemp.toPath(), filCache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}catch(IOException e){
+				System.out.println("Warning: could not write cache file " + filCache.getPath() + ".");
+				closeChannel();
+				if(filTemp!=null){
+					filTemp.delete();
+				}
+			}
+		}
+		
+		/**
+		 * Writes axis. IDs are written as the packed arena and hash table of the ID dictionary, and loaded metadata columns as their codes and dictionaries. Pending metadata are written as pending, so writing does not load them; taxonomy columns that have been loaded are written as pending keys of the taxonomy variable.
+		 * @param axs1 Axis to write.
+		 */
+		private void writeAxis(Axis axs1) throws IOException{
+			
+			//idd1 = IDs
+			//mapPending = pending metadata keys and variables to write
+			//lstColumns = dictionary-encoded columns to write
+			//mcl1 = current column
+			
+			IDDictionary idd1;
+			LinkedHashMap<String,String> mapPending;
+			ArrayList<String> lstColumns;
+			MetadataColumn mcl1;
+			
+			//writing IDs
+			idd1 = axs1.idd1;
+			writeInt(idd1.iSize);
+			writeInt(idd1.iNullIndex);
+			writeInt(idd1.iArenaSize);
+			writeBytes(idd1.rgbArena, idd1.iArenaSize);
+			writeInts(idd1.rgiOffsets, idd1.iSize+1);
+			writeInt(idd1.rgiTable.length);
+			writeInts(idd1.rgiTable, idd1.rgiTable.length);
+			writeLongs(idd1.bstNull.toLongArray());
+			writeInts(axs1.rgiFileIndex, idd1.iSize);
+			
+			//sorting metadata into pending keys and dictionary-encoded columns
+			mapPending = new LinkedHashMap<String,String>(axs1.mapPendingMetadata);
+			lstColumns = new ArrayList<String>();
+			for(String s:axs1.mapMetadata.keySet()){
+				if(axs1.mapMetadata.get(s).trt1!=null){
+					mapPending.put(s, "observation/metadata/taxonomy");
+				}else{
+					lstColumns.add(s);
+				}
+			}
+			
+			//writing metadata keys and pending metadata
+			writeInt(axs1.setMetadataKeys.size());
+			for(String s:axs1.setMetadataKeys){
+				writeString(s);
+			}
+			writeInt(mapPending.size());
+			for(String s:mapPending.keySet()){
+				writeString(s);
+				writeString(mapPending.get(s));
+			}
+			
+			//writing dictionary-encoded columns
+			writeInt(lstColumns.size());
+			for(String s:lstColumns){
+				mcl1 = axs1.mapMetadata.get(s);
+				writeString(s);
+				writeInts(mcl1.rgiCodes, idd1.iSize);
+				writeLongs(mcl1.bstMissing.toLongArray());
+				writeInt(mcl1.lstValues.size());
+				for(int i=0;i<mcl1.lstValues.size();i++){
+					writeString(mcl1.lstValues.get(i));
+				}
+			}
+		}
+		
+		/**
+		 * Writes array of bytes.
+		 * @param rgb1 Array.
+		 * @param iLength Number of bytes to write.
+		 */
+		private void writeBytes(byte[] rgb1, int iLength) throws IOException{
+			
+			//i1 = number of bytes written to current buffer
+			
+			int i1;
+			
+			for(int i=0;i<iLength;i+=i1){
+				ensureWritable(1);
+				i1 = Math.min(iLength-i, bbf1.remaining());
+				bbf1.put(rgb1, i, i1);
+			}
+		}
+		
+		/**
+		 * Writes array of doubles.
+		 * @param rgd1 Array.
+		 * @param iLength Number of values to write.
+		 */
+		private void writeDoubles(double[] rgd1, int iLength) throws IOException{
+			
+			//i1 = number of values written to current buffer
+			
+			int i1;
+			
+			for(int i=0;i<iLength;i+=i1){
+				ensureWritable(8);
+				i1 = Math.min(iLength-i, bbf1.remaining()/8);
+				bbf1.asDoubleBuffer().put(rgd1, i, i1);
+				bbf1.position(bbf1.position()+8*i1);
+			}
+		}
+		
+		/**
+		 * Writes integer.
+		 * @param i1 Integer.
+		 */
+		private void writeInt(int i1) throws IOException{
+			ensureWritable(4);
+			bbf1.putInt(i1);
+		}
+		
+		/**
+		 * Writes array of integers.
+		 * @param rgi1 Array.
+		 * @param iLength Number of values to write.
+		 */
+		private void writeInts(int[] rgi1, int iLength) throws IOException{
+			
+			//i1 = number of values written to current buffer
+			
+			int i1;
+			
+			for(int i=0;i<iLength;i+=i1){
+				ensureWritable(4);
+				i1 = Math.min(iLength-i, bbf1.remaining()/4);
+				bbf1.asIntBuffer().put(rgi1, i, i1);
+				bbf1.position(bbf1.position()+4*i1);
+			}
+		}
+		
+		/**
+		 * Writes long integer.
+		 * @param l1 Long integer.
+		 */
+		private void writeLong(long l1) throws IOException{
+			ensureWritable(8);
+			bbf1.putLong(l1);
+		}
+		
+		/**
+		 * Writes array of long integers, preceded by its length.
+		 * @param rgl1 Array.
+		 */
+		private void writeLongs(long[] rgl1) throws IOException{
+			writeInt(rgl1.length);
+			for(int i=0;i<rgl1.length;i++){
+				writeLong(rgl1[i]);
+			}
+		}
+		
+		/**
+		 * Writes sparse matrix.
+		 * @param spm2 Sparse matrix to write.
+		 */
+		private void writeSparseMatrix(SparseMatrix spm2) throws IOException{
+			writeInt(spm2.iRows);
+			writeInt(spm2.iCols);
+			writeInt(spm2.getNNZ());
+			writeInts(spm2.rgiRowPtr, spm2.iRows+1);
+			writeInts(spm2.rgiColIndex, spm2.getNNZ());
+			writeDoubles(spm2.rgdRowData, spm2.getNNZ());
+			if(spm2.rgiColPtr==null){
+				writeInt(0);
+			}else{
+				writeInt(1);
+				writeInts(spm2.rgiColPtr, spm2.iCols+1);
+				writeInts(spm2.rgiRowIndex, spm2.getNNZ());
+				writeDoubles(spm2.rgdColData, spm2.getNNZ());
+			}
+		}
+		
+		/**
+		 * Writes string.
+		 * @param s1 String; may be null.
+		 */
+		private void writeString(String s1) throws IOException{
+			
+			//rgb1 = bytes
+			
+			byte rgb1[];
+			
+			if(s1==null){
+				writeInt(-1);
+				return;
+			}
+			rgb1 = s1.getBytes(StandardCharsets.UTF_8);
+			writeInt(rgb1.length);
+			writeBytes(rgb1, rgb1.length);
+		}
+	}
+	
+	/**
+	 * IDs of the elements of an axis. IDs are stored as UTF-8 bytes packed into a single array with an offset for each element, and are indexed by an open-addressing hash table of element indices, so that large axes do not need a String and a map entry per element. If an ID is added more than once, lookups return the index of the last copy.
+	 */
+	private class IDDictionary{
+		
+		/**UTF-8 bytes of all IDs, concatenated.**/
+		private byte[] rgbArena;
+		
+		/**Number of bytes used in arena.**/
+		private int iArenaSize;
+		
+		/**Start of the ID of each element in arena; entry i+1 is the end of the ID of element i.**/
+		private int[] rgiOffsets;
+		
+		/**Number of elements.**/
+		private int iSize;
+		
+		/**Hash table: element index plus one in each slot; zero if slot is empty. Length is a power of two.**/
+		private int[] rgiTable;
+		
+		/**Index of element with null ID; -1 if none.**/
+		private int iNullIndex = -1;
+		
+		/**Marks elements with null IDs.**/
+		private BitSet bstNull;
+		
+		/**
+		 * Constructor.
+		 * @param iCapacity Expected number of elements.
+		 */
+		private IDDictionary(int iCapacity){
+			iCapacity = Math.max(16, iCapacity);
+			rgbArena = new byte[8*iCapacity];
+			rgiOffsets = new int[iCapacity+1];
+			rgiTable = new int[tableSize(iCapacity)];
+			bstNull = new BitSet();
+		}
+		
+		/**
+		 * Constructor from encoded arrays (as written to a cache file). Arrays are used without copying or rehashing.
+		 * @param rgbArena UTF-8 bytes of all IDs; fully used.
+		 * @param rgiOffsets Start of the ID of each element in arena; length is number of elements plus one.
+		 * @param iSize Number of elements.
+		 * @param rgiTable Hash table.
+		 * @param bstNull Marks elements with null IDs.
+		 * @param iNullIndex Index of element with null ID; -1 if none.
+		 */
+		private IDDictionary(byte[] rgbArena, int[] rgiOffsets, int iSize, int[] rgiTable, BitSet bstNull, int iNullIndex){
+			this.rgbArena = rgbArena;
+			this.iArenaSize = rgbArena.length;
+			this.rgiOffsets = rgiOffsets;
+			this.iSize = iSize;
+			this.rgiTable = rgiTable;
+			this.bstNull = bstNull;
+			this.iNullIndex = iNullIndex;
+		}
+		
+		/**
+		 * Adds an ID.
+		 * @param sID ID; may be null.
+		 * @return Index of new element.
+		 */
+		private int add(String sID){
+			
+			//rgb1 = bytes of ID
+			
+			byte rgb1[];
+			
+			if(sID==null){
+				rgb1 = new byte[0];
+				bstNull.set(iSize);
+				iNullIndex = iSize;
+			}else{
+				rgb1 = sID.getBytes(StandardCharsets.UTF_8);
+			}
+			appendBytes(rgb1, 0, rgb1.length);
+			if(sID!=null){
+				insert(iSize-1);
+			}
+			return iSize-1;
+		}
+		
+		/**
+		 * Appends the bytes of a new element to the arena.
+		 * @param rgb1 Source bytes.
+		 * @param iStart Start of ID in source.
+		 * @param iLength Length of ID in bytes.
+		 */
+		private void appendBytes(byte[] rgb1, int iStart, int iLength){
+			if(iArenaSize+iLength>rgbArena.length){
+				rgbArena = Arrays.copyOf(rgbArena, Math.max(2*rgbArena.length, iArenaSize+iLength));
+			}
+			if(iSize+2>rgiOffsets.length){
+				rgiOffsets = Arrays.copyOf(rgiOffsets, 2*rgiOffsets.length);
+			}
+			System.arraycopy(rgb1, iStart, rgbArena, iArenaSize, iLength);
+			iArenaSize+=iLength;
+			iSize++;
+			rgiOffsets[iSize] = iArenaSize;
+		}
+		
+		/**
+		 * Checks whether the ID of an element equals a byte sequence.
+		 * @param iIndex Element index.
+		 * @param rgb1 Bytes.
+		 * @return True if equal.
+		 */
+		private boolean equalsBytes(int iIndex, byte[] rgb1){
+			
+			//iStart = start of element in arena
+			
+			int iStart;
+			
+			iStart = rgiOffsets[iIndex];
+			if(rgiOffsets[iIndex+1]-iStart!=rgb1.length){
+				return false;
+			}
+			for(int i=0;i<rgb1.length;i++){
+				if(rgbArena[iStart+i]!=rgb1[i]){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Gets the ID of an element.
+		 * @param iIndex Element index.
+		 * @return ID.
+		 */
+		private String getID(int iIndex){
+			if(bstNull.get(iIndex)){
+				return null;
+			}
+			return new String(rgbArena, rgiOffsets[iIndex], rgiOffsets[iIndex+1]-rgiOffsets[iIndex], StandardCharsets.UTF_8);
+		}
+		
+		/**
+		 * Gets the index of an ID.
+		 * @param sID ID; may be null.
+		 * @return Index of element with ID; -1 if not found.
+		 */
+		private int getIndex(String sID){
+			
+			//rgb1 = bytes of ID
+			//iMask = hash table mask
+			//iSlot = current hash table slot
+			
+			byte rgb1[];
+			int iMask;
+			int iSlot;
+			
+			if(sID==null){
+				return iNullIndex;
+			}
+			rgb1 = sID.getBytes(StandardCharsets.UTF_8);
+			iMask = rgiTable.length-1;
+			iSlot = hash(rgb1, 0, rgb1.length) & iMask;
+			while(rgiTable[iSlot]!=0){
+				if(equalsBytes(rgiTable[iSlot]-1, rgb1)){
+					return rgiTable[iSlot]-1;
+				}
+				iSlot = (iSlot+1) & iMask;
+			}
+			return -1;
+		}
+		
+		/**
+		 * Computes hash of a byte sequence.
+		 * @param rgb1 Bytes.
+		 * @param iStart Start of sequence.
+		 * @param iEnd End of sequence (exclusive).
+		 * @return Hash code.
+		 */
+		private int hash(byte[] rgb1, int iStart, int iEnd){
+			
+			//iOut = output
+			
+			int iOut;
+			
+			iOut = 0x811c9dc5;
+			for(int i=iStart;i<iEnd;i++){
+				iOut = (iOut ^ (rgb1[i] & 0xff))*0x01000193;
+			}
+			return iOut ^ (iOut>>>16);
+		}
+		
+		/**
+		 * Adds an element to the hash table, replacing an earlier element with the same ID. Grows the table if needed.
+		 * @param iIndex Element index.
+		 */
+		private void insert(int iIndex){
+			
+			//iMask = hash table mask
+			//iSlot = current hash table slot
+			//iStart, iEnd = bounds of ID in arena
+			//iOther = index of element in current slot
+			
+			int iMask;
+			int iSlot;
+			int iStart;
+			int iEnd;
+			int iOther;
+			
+			if(2*iSize>rgiTable.length){
+				rgiTable = new int[2*rgiTable.length];
+				for(int i=0;i<iSize-1;i++){
+					if(!bstNull.get(i)){
+						insert(i);
+					}
+				}
+			}
+			iMask = rgiTable.length-1;
+			iStart = rgiOffsets[iIndex];
+			iEnd = rgiOffsets[iIndex+1];
+			iSlot = hash(rgbArena, iStart, iEnd) & iMask;
+			while(rgiTable[iSlot]!=0){
+				iOther = rgiTable[iSlot]-1;
+				if(equalsRange(iOther, iStart, iEnd)){
+					break;
+				}
+				iSlot = (iSlot+1) & iMask;
+			}
+			rgiTable[iSlot] = iIndex+1;
+		}
+		
+		/**
+		 * Checks whether the ID of an element equals a range of the arena.
+		 * @param iIndex Element index.
+		 * @param iStart Start of range.
+		 * @param iEnd End of range (exclusive).
+		 * @return True if equal.
+		 */
+		private boolean equalsRange(int iIndex, int iStart, int iEnd){
+			
+			//iOffset = start of element in arena
+			
+			int iOffset;
+			
+			iOffset = rgiOffsets[iIndex];
+			if(rgiOffsets[iIndex+1]-iOffset!=iEnd-iStart){
+				return false;
+			}
+			for(int i=0;i<iEnd-iStart;i++){
+				if(rgbArena[iOffset+i]!=rgbArena[iStart+i]){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Selects a subset of elements. IDs are copied as bytes without decoding.
+		 * @param rgiSource Index of source element for each new element.
+		 * @return New dictionary.
+		 */
+		private IDDictionary select(int[] rgiSource){
+			
+			//iddOut = output
+			
+			IDDictionary iddOut;
+			
+			iddOut = new IDDictionary(rgiSource.length);
+			for(int i=0;i<rgiSource.length;i++){
+				if(bstNull.get(rgiSource[i])){
+					iddOut.add(null);
+				}else{
+					iddOut.appendBytes(rgbArena, rgiOffsets[rgiSource[i]], rgiOffsets[rgiSource[i]+1]-rgiOffsets[rgiSource[i]]);
+					iddOut.insert(iddOut.iSize-1);
+				}
+			}
+			return iddOut;
+		}
+		
+		/**
+		 * Gets number of elements.
+		 * @return Number of elements.
+		 */
+		private int size(){
+			return iSize;
+		}
+		
+		/**
+		 * Gets hash table length for a number of elements.
+		 * @param iCapacity Number of elements.
+		 * @return Smallest power of two at least twice the number of elements.
+		 */
+		private int tableSize(int iCapacity){
+			return Integer.highestOneBit(Math.max(16, 2*iCapacity)-1)<<1;
+		}
+	}
+	
+	/**
+	 * Values of one metadata key for all elements of an axis. Values are stored as integer codes into a dictionary of distinct strings, with a bitmap marking elements that have no value, so that repeated values are stored once and can be compared as integers. Taxonomy columns instead store the leaf node of each element in a taxonomy trie; values are produced from the node path and codes are the trie nodes at the column's rank.
+	 */
+	private class MetadataColumn{
+		
+		/**Taxonomy trie; null if column is dictionary-encoded.**/
+		private TaxonomyTrie trt1 = null;
+		
+		/**Depth in taxonomy trie of values (1 for kingdom through 7 for species); taxonomy columns only.**/
+		private int iDepth;
+		
+		/**True if values are full lineages (never "unclassified"); taxonomy columns only.**/
+		private boolean bLineage;
+		
+		/**Dictionary code of the value of each axis element. For taxonomy columns, leaf node of each axis element; -1 if missing.**/
+		private int[] rgiCodes;
+		
+		/**Marks axis elements without a value.**/
+		private BitSet bstMissing;
+		
+		/**Returns the value for each dictionary code; entries are only appended. Copied when a column is selected, so that columns of different tables never share a dictionary.**/
+		private ArrayList<String> lstValues;
+		
+		/**Returns the dictionary code of each value.**/
+		private HashMap<String,Integer> mapCodes;
+		
+		/**
+		 * Constructor. All elements are initially missing.
+		 * @param iSize Number of axis elements.
+		 */
+		private MetadataColumn(int iSize){
+			rgiCodes = new int[iSize];
+			bstMissing = new BitSet(iSize);
+			bstMissing.set(0, iSize);
+			lstValues = new ArrayList<String>();
+			mapCodes = new HashMap<String,Integer>();
+		}
+		
+		/**
+		 * Constructor for taxonomy column.
+		 * @param trt1 Taxonomy trie.
+		 * @param rgiLeaf Leaf node of each axis element; -1 if missing. May be shared between columns.
+		 * @param iDepth Depth of values in trie (1 for kingdom through 7 for species).
+		 * @param bLineage True if values are full lineages; false if values are "unclassified" when the taxon at this rank is missing.
+		 */
+		private MetadataColumn(TaxonomyTrie trt1, int[] rgiLeaf, int iDepth, boolean bLineage){
+			this.trt1 = trt1;
+			this.rgiCodes = rgiLeaf;
+			this.iDepth = iDepth;
+			this.bLineage = bLineage;
+		}
+		
+		/**
+		 * Internal constructor.
+		 * @param rgiCodes Codes.
+		 * @param bstMissing Missing value bitmap.
+		 * @param lstValues Dictionary values.
+		 * @param mapCodes Dictionary codes.
+		 */
+		private MetadataColumn(int[] rgiCodes, BitSet bstMissing, ArrayList<String> lstValues, HashMap<String,Integer> mapCodes){
+			this.rgiCodes = rgiCodes;
+			this.bstMissing = bstMissing;
+			this.lstValues = lstValues;
+			this.mapCodes = mapCodes;
+		}
+		
+		/**
+		 * Gets value.
+		 * @param iIndex Index of axis element.
+		 * @return Value; null if missing.
+		 */
+		private String get(int iIndex){
+			
+			//iNode = node at depth of column
+			
+			int iNode;
+			
+			if(trt1!=null){
+				if(rgiCodes[iIndex]<0){
+					return null;
+				}
+				iNode = trt1.getAncestor(rgiCodes[iIndex], iDepth);
+				if(!bLineage && !trt1.isClassified(iNode)){
+					return "unclassified";
+				}
+				return trt1.getLineage(iNode);
+			}
+			if(bstMissing.get(iIndex)){
+				return null;
+			}
+			return lstValues.get(rgiCodes[iIndex]);
+		}
+		
+		/**
+		 * Creates dictionary-encoded copy of column.
+		 * @return This column if it is dictionary-encoded; otherwise a dictionary-encoded column with the same values.
+		 */
+		private MetadataColumn decode(){
+			
+			//mclOut = output
+			
+			MetadataColumn mclOut;
+			
+			if(trt1==null){
+				return this;
+			}
+			mclOut = new MetadataColumn(rgiCodes.length);
+			for(int i=0;i<rgiCodes.length;i++){
+				if(has(i)){
+					mclOut.set(i, get(i));
+				}
+			}
+			return mclOut;
+		}
+		
+		/**
+		 * Gets dictionary code of value.
+		 * @param iIndex Index of axis element.
+		 * @return Code; -1 if value is missing.
+		 */
+		private int getCode(int iIndex){
+			
+			//iNode = node at depth of column
+			
+			int iNode;
+			
+			if(trt1!=null){
+				if(rgiCodes[iIndex]<0){
+					return -1;
+				}
+				iNode = trt1.getAncestor(rgiCodes[iIndex], iDepth);
+				if(!bLineage && !trt1.isClassified(iNode)){
+					return trt1.size();
+				}
+				return iNode;
+			}
+			if(bstMissing.get(iIndex)){
+				return -1;
+			}
+			return rgiCodes[iIndex];
+		}
+		
+		/**
+		 * Gets number of distinct values in dictionary.
+		 * @return Dictionary size; codes are less than this value.
+		 */
+		private int getDictionarySize(){
+			if(trt1!=null){
+				
+				//trie nodes and "unclassified"
+				return trt1.size()+1;
+			}
+			return lstValues.size();
+		}
+		
+		/**
+		 * Checks whether element has value.
+		 * @param iIndex Index of axis element.
+		 * @return True if value is present; false otherwise.
+		 */
+		private boolean has(int iIndex){
+			if(trt1!=null){
+				return rgiCodes[iIndex]>=0;
+			}
+			return !bstMissing.get(iIndex);
+		}
+		
+		/**
+		 * Creates column with values of selected elements. Dictionary is copied, so that values set on either column do not change the other; a taxonomy trie is shared, since it is not modified after loading.
+		 * @param rgiSource Index in this column of each element of new column.
+		 * @param mapSelectedLeaves Returns the selected leaf array for each leaf array already selected with the same source indices; taxonomy columns add their selection, so that columns that shared a leaf array continue to share one. Only used by taxonomy columns.
+		 * @return New column.
+		 */
+		private MetadataColumn select(int[] rgiSource, IdentityHashMap<int[],int[]> mapSelectedLeaves){
+			
+			//rgiCodesNew = new codes
+			//bstMissingNew = new missing value bitmap
+			
+			int rgiCodesNew[];
+			BitSet bstMissingNew;
+			
+			if(trt1!=null){
+				rgiCodesNew = mapSelectedLeaves.get(rgiCodes);
+				if(rgiCodesNew==null){
+					rgiCodesNew = new int[rgiSource.length];
+					for(int i=0;i<rgiSource.length;i++){
+						rgiCodesNew[i] = rgiCodes[rgiSource[i]];
+					}
+					mapSelectedLeaves.put(rgiCodes, rgiCodesNew);
+				}
+				return new MetadataColumn(trt1, rgiCodesNew, iDepth, bLineage);
+			}
+			rgiCodesNew = new int[rgiSource.length];
+			bstMissingNew = new BitSet(rgiSource.length);
+			for(int i=0;i<rgiSource.length;i++){
+				rgiCodesNew[i] = rgiCodes[rgiSource[i]];
+				if(bstMissing.get(rgiSource[i])){
+					bstMissingNew.set(i);
+				}
+			}
+			return new MetadataColumn(rgiCodesNew, bstMissingNew, new ArrayList<String>(lstValues), new HashMap<String,Integer>(mapCodes));
+		}
+		
+		/**
+		 * Sets value.
+		 * @param iIndex Index of axis element.
+		 * @param sValue Value.
+		 */
+		private void set(int iIndex, String sValue){
+			
+			//i1 = dictionary code
+			
+			Integer i1;
+			
+			i1 = mapCodes.get(sValue);
+			if(i1==null){
+				i1 = lstValues.size();
+				lstValues.add(sValue);
+				mapCodes.put(sValue, i1);
+			}
+			rgiCodes[iIndex] = i1;
+			bstMissing.clear(iIndex);
+		}
+	}
+	
+	/**
+	 * Cursor over the nonzero entries of the rows or columns of a table. The cursor is moved to a row or column with seek() and then advanced with next(); a single cursor can be reused for every element of an axis.
+	 */
+	public class NonzeroCursor{
+		
+		/**Pointers of compressed arrays.**/
+		private int[] rgiPtr;
+		
+		/**Index along other axis of each entry.**/
+		private int[] rgiIndex;
+		
+		/**Value of each entry.**/
+		private double[] rgdData;
+		
+		/**Position of first entry of current element.**/
+		private int iStart;
+		
+		/**Position of current entry.**/
+		private int iPos;
+		
+		/**Position after last entry of current element.**/
+		private int iEnd;
+		
+		/**
+		 * Constructor.
+		 * @param rgiPtr Pointers.
+		 * @param rgiIndex Indices along other axis.
+		 * @param rgdData Values.
+		 */
+		private NonzeroCursor(int[] rgiPtr, int[] rgiIndex, double[] rgdData){
+			this.rgiPtr = rgiPtr;
+			this.rgiIndex = rgiIndex;
+			this.rgdData = rgdData;
+			iStart = 0;
+			iPos = 0;
+			iEnd = 0;
+		}
+		
+		/**
+		 * Gets number of nonzero entries in current row or column.
+		 * @return Number of entries.
+		 */
+		public int getCount(){
+			return iEnd-iStart;
+		}
+		
+		/**
+		 * Gets index along the other axis of current entry (sample index for row cursors, observation index for column cursors).
+		 * @return Index of current entry.
+		 */
+		public int getIndex(){
+			return rgiIndex[iPos];
+		}
+		
+		/**
+		 * Gets value of current entry.
+		 * @return Value of current entry.
+		 */
+		public double getValue(){
+			return rgdData[iPos];
+		}
+		
+		/**
+		 * Advances to next entry.
+		 * @return True if cursor is on an entry; false if there are no more entries in current row or column.
+		 */
+		public boolean next(){
+			iPos++;
+			return iPos<iEnd;
+		}
+		
+		/**
+		 * Moves cursor before first entry of a row or column.
+		 * @param iElement Index of row (observation) or column (sample).
+		 */
+		public void seek(int iElement){
+			iStart = rgiPtr[iElement];
+			iPos = iStart-1;
+			iEnd = rgiPtr[iElement+1];
+		}
+	}
+	
+	/**
+	 * Visitor for nonzero entries of a table.
+	 */
+	public interface NonzeroVisitor{
+		
+		/**
+		 * Called for each entry.
+		 * @param iRow Observation index.
+		 * @param iCol Sample index.
+		 * @param dValue Value.
+		 */
+		public void visit(int iRow, int iCol, double dValue);
+	}
+	
+	/**
+	 * Reads one-dimensional matrix arrays (indices and data) from the BIOM file. Arrays are split into sections aligned with HDF5 chunks; if more than one thread is used, sections are read and decompressed concurrently, with each thread opening its own handle on the file, and are then assembled into a single array.
+	 */
+	private class SectionReader{
+		
+		//sBiomPath = path to BIOM file
+		//iThreads = number of threads
+		
+		/**Minimum number of entries in a section; smaller chunks are grouped.**/
+		private static final int MIN_SECTION_SIZE=1<<16;
+		
+		/**Path to BIOM file.**/
+		private String sBiomPath;
+		
+		/**Number of threads.**/
+		private int iThreads;
+		
+		/**
+		 * Constructor.
+		 * @param sBiomPath Path to BIOM file.
+		 * @param iThreads Number of threads used to read sections.
+		 */
+		private SectionReader(String sBiomPath, int iThreads){
+			this.sBiomPath = sBiomPath;
+			this.iThreads = Math.max(1, iThreads);
+		}
+		
+		/**
+		 * Gets length of sections for variable: a multiple of the HDF5 chunk size so that each chunk is decompressed by a single thread.
+		 * @param var1 Variable.
+		 * @param lTotal Total number of entries to read.
+		 * @return Section length.
+		 */
+		private int getSectionLength(Variable var1, long lTotal){
+			
+			//att1 = chunk size attribute
+			//iChunk = chunk size
+			//lOut = output
+			
+			Attribute att1;
+			int iChunk;
+			long lOut;
+			
+			att1 = var1.findAttribute("_ChunkSizes");
+			if(att1!=null && att1.getNumericValue()!=null && att1.getNumericValue().intValue()>0){
+				iChunk = att1.getNumericValue().intValue();
+			}else{
+				iChunk = MIN_SECTION_SIZE;
+			}
+			
+			//using several sections per thread for load balancing
+			lOut = Math.max(MIN_SECTION_SIZE, lTotal/(4L*iThreads)+1);
+			lOut = ((lOut+iChunk-1)/iChunk)*iChunk;
+			return (int) Math.min(lOut, Integer.MAX_VALUE-iChunk);
+		}
+		
+		/**
+		 * Reads ranges of a variable into a single array.
+		 * @param var1 Variable to read.
+		 * @param lstStart Start of each range.
+		 * @param lstLength Length of each range.
+		 * @param cls1 Element type of output: int.class or double.class.
+		 * @return Concatenated ranges.
+		 */
+		private Object read(final Variable var1, List<Integer> lstStart, List<Integer> lstLength, final Class<?> cls1) throws IOException{
+			
+			//iTotal = total number of entries
+			//iSection = section length
+			//lstSections = sections: start in file, length, and start in output
+			//iPos = current position in output
+			//iEnd = end of current section in file
+			//ary1 = output
+			//iNext = next section to read
+			//exc1 = thread pool
+			//lstFutures = results of threads
+			
+			int iTotal;
+			int iSection;
+			final ArrayList<int[]> lstSections;
+			int iPos;
+			int iEnd;
+			final Object ary1;
+			final AtomicInteger iNext;
+			ExecutorService exc1;
+			ArrayList<Future<Object>> lstFutures;
+			
+			iTotal = 0;
+			for(int i=0;i<lstLength.size();i++){
+				iTotal+=lstLength.get(i);
+			}
+			
+			//single range covering variable read on calling thread: backing storage is used without copying
+			if(iThreads==1 && lstStart.size()==1 && lstStart.get(0)==0 && iTotal==var1.getSize()){
+				return var1.read().get1DJavaArray(cls1);
+			}
+			ary1 = java.lang.reflect.Array.newInstance(cls1, iTotal);
+			
+			//splitting ranges into sections at multiples of the section length
+			iSection = getSectionLength(var1, iTotal);
+			lstSections = new ArrayList<int[]>();
+			iPos = 0;
+			for(int i=0;i<lstStart.size();i++){
+				for(int k=lstStart.get(i);k<lstStart.get(i)+lstLength.get(i);k=iEnd){
+					iEnd = (int) Math.min((long) lstStart.get(i)+lstLength.get(i), ((long) k/iSection+1)*iSection);
+					lstSections.add(new int[]{k, iEnd-k, iPos});
+					iPos+=iEnd-k;
+				}
+			}
+			
+			//reading on calling thread
+			if(iThreads==1 || lstSections.size()<2){
+				readSections(var1, lstSections, new AtomicInteger(0), ary1, cls1);
+				return ary1;
+			}
+			
+			//reading on thread pool: each thread opens its own handle and takes sections in turn
+			iNext = new AtomicInteger(0);
+			exc1 = Executors.newFixedThreadPool(Math.min(iThreads, lstSections.size()));
+			lstFutures = new ArrayList<Future<Object>>();
+			try{
+				for(int t=0;t<Math.min(iThreads, lstSections.size());t++){
+					lstFutures.add(exc1.submit(new Callable<Object>(){
+						public Object call() throws Exception{
+							
+							//fil1 = file handle for this thread
+							
+							NetcdfFile fil1 = null;
+							
+							try{
+								fil1 = NetcdfFile.open(sBiomPath);
+								readSections(fil1.findVariable(var1.getFullName()), lstSections, iNext, ary1, cls1);
+							}finally{
+								close(fil1);
+							}
+							return null;
+						}
+					}));
+				}
+				for(Future<Object> fut1:lstFutures){
+					fut1.get();
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}catch(ExecutionException e){
+				throw new IOException(e.getCause());
+			}finally{
+				exc1.shutdownNow();
+			}
+			return ary1;
+		}
+		
+		/**
+		 * Reads double variable.
+		 * @param var1 Variable to read.
+		 * @return Values.
+		 */
+		private double[] readDoubles(Variable var1) throws IOException{
+			return (double[]) read(var1, Collections.singletonList(0), Collections.singletonList((int) var1.getSize()), double.class);
+		}
+		
+		/**
+		 * Reads ranges of double variable.
+		 * @param var1 Variable to read.
+		 * @param lstStart Start of each range.
+		 * @param lstLength Length of each range.
+		 * @return Concatenated ranges.
+		 */
+		private double[] readDoubles(Variable var1, List<Integer> lstStart, List<Integer> lstLength) throws IOException{
+			return (double[]) read(var1, lstStart, lstLength, double.class);
+		}
+		
+		/**
+		 * Reads integer variable.
+		 * @param var1 Variable to read.
+		 * @return Values.
+		 */
+		private int[] readInts(Variable var1) throws IOException{
+			return (int[]) read(var1, Collections.singletonList(0), Collections.singletonList((int) var1.getSize()), int.class);
+		}
+		
+		/**
+		 * Reads ranges of integer variable.
+		 * @param var1 Variable to read.
+		 * @param lstStart Start of each range.
+		 * @param lstLength Length of each range.
+		 * @return Concatenated ranges.
+		 */
+		private int[] readInts(Variable var1, List<Integer> lstStart, List<Integer> lstLength) throws IOException{
+			return (int[]) read(var1, lstStart, lstLength, int.class);
+		}
+		
+		/**
+		 * Reads sections until none remain.
+		 * @param var1 Variable to read.
+		 * @param lstSections Sections: start in file, length, and start in output.
+		 * @param iNext Index of next section to read; shared between threads.
+		 * @param ary1 Output array.
+		 * @param cls1 Element type of output.
+		 */
+		private void readSections(Variable var1, List<int[]> lstSections, AtomicInteger iNext, Object ary1, Class<?> cls1) throws IOException{
+			
+			//rgi1 = current section
+			
+			int rgi1[];
+			
+			for(int i=iNext.getAndIncrement();i<lstSections.size();i=iNext.getAndIncrement()){
+				rgi1 = lstSections.get(i);
+				try{
+					System.arraycopy(var1.read(new int[]{rgi1[0]}, new int[]{rgi1[1]}).get1DJavaArray(cls1), 0, ary1, rgi1[2], rgi1[1]);
+				}catch(InvalidRangeException e){
+					throw new IOException(e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sparse matrix: used for looking up values. Nonzero values are stored in compressed sparse row (CSR) form, with rows indexed by observation and columns indexed by sample. A compressed sparse column (CSC) copy is built from the row-major arrays when column access is first needed.
+	 */
+	private class SparseMatrix{
+		
+		/**Number of rows (observations).**/
+		private int iRows;
+		
+		/**Number of columns (samples).**/
+		private int iCols;
+		
+		/**Row pointers: entries for row i are stored in positions rgiRowPtr[i] through rgiRowPtr[i+1]-1 of the row-major arrays.**/
+		private int[] rgiRowPtr;
+		
+		/**Column index of each entry in row-major order. Sorted within each row.**/
+		private int[] rgiColIndex;
+		
+		/**Value of each entry in row-major order.**/
+		private double[] rgdRowData;
+		
+		/**Column pointers: entries for column j are stored in positions rgiColPtr[j] through rgiColPtr[j+1]-1 of the column-major arrays. Null if column-major copy has not been built.**/
+		private int[] rgiColPtr;
+		
+		/**Row index of each entry in column-major order. Sorted within each column.**/
+		private int[] rgiRowIndex;
+		
+		/**Value of each entry in column-major order.**/
+		private double[] rgdColData;
+		
+		/**Row sums; null if not loaded.**/
+		private double[] rgdRowSum;
+		
+		/**Column sums; null if not loaded.**/
+		private double[] rgdColSum;
+		
+		/**
+		 * Internal constructor.
+		 * @param iRows Number of rows.
+		 * @param iCols Number of columns.
+		 * @param rgiRowPtr Row pointers.
+		 * @param rgiColIndex Column indices, sorted within rows.
+		 * @param rgdRowData Values.
+		 */
+		private SparseMatrix(int iRows, int iCols, int[] rgiRowPtr, int[] rgiColIndex, double[] rgdRowData){
+			this.iRows = iRows;
+			this.iCols = iCols;
+			this.rgiRowPtr = rgiRowPtr;
+			this.rgiColIndex = rgiColIndex;
+			this.rgdRowData = rgdRowData;
+			clearColumnMajor();
+		}
+		
+		/**
+		 * Constructor.
+		 * @param rgiPtr Pointers from file (row pointers for row-major arrays, column pointers for column-major arrays).
+		 * @param varIndices Netcdf variable with minor indices.
+		 * @param varData Netcdf variable with data.
+		 * @param iMajor Number of major elements in file.
+		 * @param iMinor Number of minor elements in file.
+		 * @param rgiMajorToKeep Indices of major elements to load, in increasing order; null to load all major elements. Only the ranges of the arrays holding these elements are read.
+		 * @param bColumnMajor True if arrays are column-major (sample/matrix group); false if row-major (observation/matrix group).
+		 * @param rdr1 Reader for matrix arrays.
+		 * @throws IOException If the index or data arrays cannot be read.
+		 */		
+		private SparseMatrix(int[] rgiPtr, Variable varIndices, Variable varData, int iMajor, int iMinor, int[] rgiMajorToKeep, boolean bColumnMajor, SectionReader rdr1) throws IOException{
+			
+			//iNNZ = number of nonzero entries kept
+			//bSorted = true if minor indices are strictly increasing within each major element
+			//rgiIndex = minor indices
+			//rgdData = values
+			//rgiPtrNew = pointers for loaded major elements
+			//iEnd = end of current run of consecutive major elements
+			//lstStart = start of each run of consecutive major elements in file
+			//lstLength = number of entries in each run
+			
+			int iNNZ;
+			boolean bSorted;
+			int rgiIndex[];
+			double rgdData[];
+			int rgiPtrNew[];
+			int iEnd;
+			ArrayList<Integer> lstStart;
+			ArrayList<Integer> lstLength;
+			
+			//loading arrays: no copy is made if stored types are int and double and arrays are read on a single thread
+			if(rgiMajorToKeep==null){
+				rgiIndex = rdr1.readInts(varIndices);
+				rgdData = rdr1.readDoubles(varData);
+			
+			//loading sections holding selected major elements: consecutive elements are read together
+			}else{
+				rgiPtrNew = new int[rgiMajorToKeep.length+1];
+				lstStart = new ArrayList<Integer>();
+				lstLength = new ArrayList<Integer>();
+				for(int i=0;i<rgiMajorToKeep.length;i++){
+					rgiPtrNew[i+1] = rgiPtrNew[i]+rgiPtr[rgiMajorToKeep[i]+1]-rgiPtr[rgiMajorToKeep[i]];
+				}
+				for(int i=0;i<rgiMajorToKeep.length;i=iEnd){
+					iEnd = i+1;
+					while(iEnd<rgiMajorToKeep.length && rgiMajorToKeep[iEnd]==rgiMajorToKeep[iEnd-1]+1){
+						iEnd++;
+					}
+					if(rgiPtrNew[iEnd]>rgiPtrNew[i]){
+						lstStart.add(rgiPtr[rgiMajorToKeep[i]]);
+						lstLength.add(rgiPtrNew[iEnd]-rgiPtrNew[i]);
+					}
+				}
+				rgiIndex = rdr1.readInts(varIndices, lstStart, lstLength);
+				rgdData = rdr1.readDoubles(varData, lstStart, lstLength);
+				rgiPtr = rgiPtrNew;
+				iMajor = rgiMajorToKeep.length;
+			}
+			
+			//removing explicit zeros in place and checking that major elements are sorted in a single pass
+			bSorted = compact(iMajor, rgiPtr, rgiIndex, rgdData);
+			iNNZ = rgiPtr[iMajor];
+			if(iNNZ<rgiIndex.length){
+				rgiIndex = Arrays.copyOf(rgiIndex, iNNZ);
+				rgdData = Arrays.copyOf(rgdData, iNNZ);
+			}
+			
+			//saving arrays
+			if(!bColumnMajor){
+				iRows = iMajor;
+				iCols = iMinor;
+				rgiRowPtr = rgiPtr;
+				rgiColIndex = rgiIndex;
+				rgdRowData = rgdData;
+				clearColumnMajor();
+			}else{
+				iRows = iMinor;
+				iCols = iMajor;
+				rgiRowPtr = new int[iRows+1];
+				rgiColIndex = new int[iNNZ];
+				rgdRowData = new double[iNNZ];
+				transpose(iCols, iRows, rgiPtr, rgiIndex, rgdData, rgiRowPtr, rgiColIndex, rgdRowData);
+				clearColumnMajor();
+				
+				//keeping column-major arrays as column-major copy if they are sorted
+				if(bSorted){
+					rgiColPtr = rgiPtr;
+					rgiRowIndex = rgiIndex;
+					rgdColData = rgdData;
+				}
+			}
+			
+			//sorting if necessary
+			if(!bSorted){
+				mergeDuplicates();
+			}
+		}
+		
+		/**
+		 * Clears column-major copy and marginal sums. Called whenever row-major arrays are modified.
+		 */
+		private void clearColumnMajor(){
+			rgiColPtr = null;
+			rgiRowIndex = null;
+			rgdColData = null;
+			rgdRowSum = null;
+			rgdColSum = null;
+		}
+		
+		/**
+		 * Removes explicit zeros from compressed sparse arrays in place and checks whether indices are sorted. Pointers are updated to the compacted positions, so that the number of entries kept is given by the last pointer.
+		 * @param iMajor Number of major elements (rows for row-major arrays).
+		 * @param rgiPtr Pointers; length iMajor+1.
+		 * @param rgiIndex Minor indices.
+		 * @param rgdData Values.
+		 * @return True if minor indices are strictly increasing within each major element; false otherwise.
+		 */
+		private boolean compact(int iMajor, int[] rgiPtr, int[] rgiIndex, double[] rgdData){
+			
+			//iNNZ = number of nonzero entries kept
+			//iStart = start of current major element before removing zeros
+			//bSorted = output
+			
+			int iNNZ;
+			int iStart;
+			boolean bSorted;
+			
+			iNNZ = 0;
+			iStart = rgiPtr[0];
+			rgiPtr[0] = 0;
+			bSorted = true;
+			for(int i=0;i<iMajor;i++){
+				for(int k=iStart;k<rgiPtr[i+1];k++){
+					if(rgdData[k]!=0){
+						if(iNNZ>rgiPtr[i] && rgiIndex[iNNZ-1]>=rgiIndex[k]){
+							bSorted = false;
+						}
+						rgiIndex[iNNZ] = rgiIndex[k];
+						rgdData[iNNZ] = rgdData[k];
+						iNNZ++;
+					}
+				}
+				iStart = rgiPtr[i+1];
+				rgiPtr[i+1] = iNNZ;
+			}
+			return bSorted;
+		}
+		
+		/**
+		 * Collapses matrix. Old rows are ordered by new row, and the entries of each new row are reduced into a dense array over new columns, so that entries are combined by integer index rather than by hashing. Blocks of new rows are reduced on several threads and concatenated in order.
+		 * @param rgiRowGroup Index of new row for each current row; null if no collapsing to be done on observations.
+		 * @param iRowsNew Number of new rows.
+		 * @param rgiColGroup Index of new column for each current column; null if no collapsing to be done on samples.
+		 * @param iColsNew Number of new columns.
+		 * @param iReducer Index of reducer in COLLAPSE_REDUCERS.
+		 * @param iThreads Number of threads to use.
+		 * @return Sparse matrix object with collapsed rows and columns.
+		 */
+		private SparseMatrix collapse(int[] rgiRowGroup, int iRowsNew, final int[] rgiColGroup, int iColsNew, final int iReducer, int iThreads) throws IOException{
+			
+			//iRowsOut = number of new rows
+			//iColsOut = number of new columns
+			//rgiGroupPtr = pointers into rgiGroupRows for each new row
+			//rgiGroupRows = current rows, ordered by new row
+			//rgiColGroupSize = number of current columns in each new column
+			//rgiPos = current insertion position for each new row
+			//i1 = current new row
+			//rgiRowCount = number of entries in each new row
+			//rgiBlockIndex = column indices of entries of each block of new rows
+			//rgdBlockData = values of entries of each block of new rows
+			//iBlocks = number of blocks of new rows
+			//iNext = next block of new rows to collapse
+			//exc1 = thread pool
+			//lstFutures = task results
+			//rgiPtr = row pointers of output
+			//rgiIndex = column indices of output
+			//rgdData = values of output
+			//iStart = first new row of current block
+			//iEnd = end of current block
+			
+			final int iRowsOut;
+			final int iColsOut;
+			final int rgiGroupPtr[];
+			final int rgiGroupRows[];
+			final int rgiColGroupSize[];
+			int rgiPos[];
+			int i1;
+			final int rgiRowCount[];
+			final int rgiBlockIndex[][];
+			final double rgdBlockData[][];
+			int iBlocks;
+			final AtomicInteger iNext;
+			ExecutorService exc1;
+			ArrayList<Future<Object>> lstFutures;
+			int rgiPtr[];
+			int rgiIndex[];
+			double rgdData[];
+			int iStart;
+			int iEnd;
+			
+			iRowsOut = (rgiRowGroup==null) ? iRows : iRowsNew;
+			iColsOut = (rgiColGroup==null) ? iCols : iColsNew;
+			
+			//ordering current rows by new row
+			rgiGroupPtr = new int[iRowsOut+1];
+			for(int i=0;i<iRows;i++){
+				i1 = (rgiRowGroup==null) ? i : rgiRowGroup[i];
+				rgiGroupPtr[i1+1]++;
+			}
+			for(int i=0;i<iRowsOut;i++){
+				rgiGroupPtr[i+1]+=rgiGroupPtr[i];
+			}
+			rgiPos = Arrays.copyOf(rgiGroupPtr, iRowsOut);
+			rgiGroupRows = new int[iRows];
+			for(int i=0;i<iRows;i++){
+				i1 = (rgiRowGroup==null) ? i : rgiRowGroup[i];
+				rgiGroupRows[rgiPos[i1]] = i;
+				rgiPos[i1]++;
+			}
+			
+			//counting current columns in each new column
+			rgiColGroupSize = new int[iColsOut];
+			for(int j=0;j<iCols;j++){
+				rgiColGroupSize[(rgiColGroup==null) ? j : rgiColGroup[j]]++;
+			}
+			
+			rgiRowCount = new int[iRowsOut];
+			iBlocks = (iRowsOut+COLLAPSE_BLOCK_SIZE-1)/COLLAPSE_BLOCK_SIZE;
+			rgiBlockIndex = new int[iBlocks][];
+			rgdBlockData = new double[iBlocks][];
+			iNext = new AtomicInteger(0);
+			
+			//collapsing on calling thread
+			if(iThreads<=1 || iBlocks<2){
+				collapseBlocks(rgiGroupPtr, rgiGroupRows, rgiColGroup, rgiColGroupSize, iReducer, rgiRowCount, rgiBlockIndex, rgdBlockData, iNext);
+			}else{
+				
+				//collapsing on thread pool: each thread takes blocks of new rows in turn
+				exc1 = Executors.newFixedThreadPool(Math.min(iThreads, iBlocks));
+				lstFutures = new ArrayList<Future<Object>>();
+				try{
+					for(int t=0;t<Math.min(iThreads, iBlocks);t++){
+						lstFutures.add(exc1.submit(new Callable<Object>(){
+							public Object call() throws Exception{
+								collapseBlocks(rgiGroupPtr, rgiGroupRows, rgiColGroup, rgiColGroupSize, iReducer, rgiRowCount, rgiBlockIndex, rgdBlockData, iNext);
+								return null;
+							}
+						}));
+					}
+					for(Future<Object> fut1:lstFutures){
+						fut1.get();
+					}
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}catch(ExecutionException e){
+					throw new IOException(e.getCause());
+				}finally{
+					exc1.shutdownNow();
+				}
+			}
+			
+			//concatenating blocks
+			rgiPtr = new int[iRowsOut+1];
+			for(int i=0;i<iRowsOut;i++){
+				rgiPtr[i+1]=rgiPtr[i]+rgiRowCount[i];
+			}
+			rgiIndex = new int[rgiPtr[iRowsOut]];
+			rgdData = new double[rgiPtr[iRowsOut]];
+			for(int b=0;b<iBlocks;b++){
+				iStart = rgiPtr[b*COLLAPSE_BLOCK_SIZE];
+				iEnd = rgiPtr[Math.min(iRowsOut, (b+1)*COLLAPSE_BLOCK_SIZE)];
+				System.arraycopy(rgiBlockIndex[b], 0, rgiIndex, iStart, iEnd-iStart);
+				System.arraycopy(rgdBlockData[b], 0, rgdData, iStart, iEnd-iStart);
+			}
+			return new SparseMatrix(iRowsOut, iColsOut, rgiPtr, rgiIndex, rgdData);
+		}
+		
+		/**
+		 * Collapses blocks of new rows until none remain.
+		 * @param rgiGroupPtr Pointers into rgiGroupRows for each new row.
+		 * @param rgiGroupRows Current rows, ordered by new row.
+		 * @param rgiColGroup Index of new column for each current column; null if columns are not collapsed.
+		 * @param rgiColGroupSize Number of current columns in each new column.
+		 * @param iReducer Index of reducer in COLLAPSE_REDUCERS.
+		 * @param rgiRowCount Set to the number of entries in each new row.
+		 * @param rgiBlockIndex Set to the column indices of the entries of each block; may be longer than needed.
+		 * @param rgdBlockData Set to the values of the entries of each block; may be longer than needed.
+		 * @param iNext Next block to collapse; shared between threads.
+		 */
+		private void collapseBlocks(int[] rgiGroupPtr, int[] rgiGroupRows, int[] rgiColGroup, int[] rgiColGroupSize, int iReducer, int[] rgiRowCount, int[][] rgiBlockIndex, double[][] rgdBlockData, AtomicInteger iNext){
+			
+			//rgdValue = reduced value of each new column in current new row
+			//rgiHits = number of entries reduced into each new column in current new row
+			//rgiTouched = new columns with entries in current new row
+			//iTouched = number of new columns with entries in current new row
+			//rgiIndex = column indices of entries of current block
+			//rgdData = values of entries of current block
+			//iNNZ = number of entries of current block
+			//iStart = first new row of block
+			//j1 = current new column
+			//d1 = current reduced value
+			
+			double rgdValue[];
+			int rgiHits[];
+			int rgiTouched[];
+			int iTouched;
+			int rgiIndex[];
+			double rgdData[];
+			int iNNZ;
+			int iStart;
+			int j1;
+			double d1;
+			
+			rgdValue = new double[rgiColGroupSize.length];
+			rgiHits = new int[rgiColGroupSize.length];
+			rgiTouched = new int[rgiColGroupSize.length];
+			while((iStart = iNext.getAndIncrement()*COLLAPSE_BLOCK_SIZE)<rgiRowCount.length){
+				rgiIndex = new int[16];
+				rgdData = new double[16];
+				iNNZ = 0;
+				for(int i=iStart;i<Math.min(rgiRowCount.length, iStart+COLLAPSE_BLOCK_SIZE);i++){
+					
+					//reducing entries of current rows in group
+					iTouched = 0;
+					for(int m=rgiGroupPtr[i];m<rgiGroupPtr[i+1];m++){
+						for(int k=rgiRowPtr[rgiGroupRows[m]];k<rgiRowPtr[rgiGroupRows[m]+1];k++){
+							j1 = (rgiColGroup==null) ? rgiColIndex[k] : rgiColGroup[rgiColIndex[k]];
+							if(rgiHits[j1]==0){
+								rgiTouched[iTouched] = j1;
+								iTouched++;
+								rgdValue[j1] = rgdRowData[k];
+							}else if(iReducer==2){
+								rgdValue[j1] = Math.max(rgdValue[j1], rgdRowData[k]);
+							}else{
+								rgdValue[j1]+=rgdRowData[k];
+							}
+							rgiHits[j1]++;
+						}
+					}
+					
+					//saving reduced values in column order
+					Arrays.sort(rgiTouched, 0, iTouched);
+					if(iNNZ+iTouched>rgiIndex.length){
+						rgiIndex = Arrays.copyOf(rgiIndex, Math.max(2*rgiIndex.length, iNNZ+iTouched));
+						rgdData = Arrays.copyOf(rgdData, rgiIndex.length);
+					}
+					for(int t=0;t<iTouched;t++){
+						j1 = rgiTouched[t];
+						if(iReducer==1){
+							d1 = rgdValue[j1]/(((double) rgiGroupPtr[i+1]-rgiGroupPtr[i])*rgiColGroupSize[j1]);
+						}else if(iReducer==2 && rgdValue[j1]<0 && rgiHits[j1]<((long) rgiGroupPtr[i+1]-rgiGroupPtr[i])*rgiColGroupSize[j1]){
+							d1 = 0;
+						}else if(iReducer==3){
+							d1 = rgiHits[j1];
+						}else{
+							d1 = rgdValue[j1];
+						}
+						rgiHits[j1] = 0;
+						if(d1!=0){
+							rgiIndex[iNNZ] = j1;
+							rgdData[iNNZ] = d1;
+							iNNZ++;
+							rgiRowCount[i]++;
+						}
+					}
+				}
+				rgiBlockIndex[iStart/COLLAPSE_BLOCK_SIZE] = rgiIndex;
+				rgdBlockData[iStart/COLLAPSE_BLOCK_SIZE] = rgdData;
+			}
+		}
+		
+		/**
+		 * Converts all entries to 1.
+		 */
+		private void convertToPresenceAbsence(){
+			Arrays.fill(rgdRowData, 1.);
+			clearColumnMajor();
+		}
+		
+		/**
+		 * Visits all entries in row-major order.
+		 * @param vis1 Visitor to call for each entry.
+		 */
+		private void forEachNonzero(NonzeroVisitor vis1){
+			for(int i=0;i<iRows;i++){
+				for(int k=rgiRowPtr[i];k<rgiRowPtr[i+1];k++){
+					vis1.visit(i, rgiColIndex[k], rgdRowData[k]);
+				}
+			}
+		}
+		
+		/**
+		 * Gets row.
+		 * @param iRow Index of row.
+		 * @return Dense array of row values.
+		 */
+		private double[] getRow(int iRow){
+			
+			//rgdOut = output
+			
+			double rgdOut[];
+			
+			rgdOut = new double[iCols];
+			for(int k=rgiRowPtr[iRow];k<rgiRowPtr[iRow+1];k++){
+				rgdOut[rgiColIndex[k]]=rgdRowData[k];
+			}
+			return rgdOut;
+		}
+		
+		/**
+		 * Gets column.
+		 * @param iCol Index of column.
+		 * @return Dense array of column values.
+		 */
+		private double[] getColumn(int iCol){
+			
+			//rgdOut = output
+			
+			double rgdOut[];
+			
+			loadColumnMajor();
+			rgdOut = new double[iRows];
+			for(int k=rgiColPtr[iCol];k<rgiColPtr[iCol+1];k++){
+				rgdOut[rgiRowIndex[k]]=rgdColData[k];
+			}
+			return rgdOut;
+		}
+		
+		/**
+		 * Resamples matrix.
+		 * @param rgiColSource Index of original column for each new column.
+		 * @return Sparse matrix object with resampled columns.
+		 */
+		private SparseMatrix resample(int[] rgiColSource){
+			
+			//rgiPtr = new column pointers
+			//rgiIndex = new row indices
+			//rgdData = new values
+			//i1 = current source column
+			
+			int rgiPtr[];
+			int rgiIndex[];
+			double rgdData[];
+			int i1;
+			
+			loadColumnMajor();
+			rgiPtr = new int[rgiColSource.length+1];
+			for(int j=0;j<rgiColSource.length;j++){
+				i1 = rgiColSource[j];
+				rgiPtr[j+1] = rgiPtr[j]+rgiColPtr[i1+1]-rgiColPtr[i1];
+			}
+			rgiIndex = new int[rgiPtr[rgiColSource.length]];
+			rgdData = new double[rgiPtr[rgiColSource.length]];
+			for(int j=0;j<rgiColSource.length;j++){
+				i1 = rgiColSource[j];
+				System.arraycopy(rgiRowIndex, rgiColPtr[i1], rgiIndex, rgiPtr[j], rgiColPtr[i1+1]-rgiColPtr[i1]);
+				System.arraycopy(rgdColData, rgiColPtr[i1], rgdData, rgiPtr[j], rgiColPtr[i1+1]-rgiColPtr[i1]);
+			}
+			return fromColumnMajor(iRows, rgiColSource.length, rgiPtr, rgiIndex, rgdData);
+		}
+		
+		/**
+		 * Filters columns of matrix.
+		 * @param rgiColumnsToKeep Indices of columns to keep, in increasing order.
+		 */
+		private void filterColumns(int[] rgiColumnsToKeep){
+			
+			//rgiNew = new index for each column; -1 if column removed
+			//iNNZ = number of entries kept
+			//iStart = start of current row before filtering
+			
+			int rgiNew[];
+			int iNNZ;
+			int iStart;
+			
+			rgiNew = new int[iCols];
+			Arrays.fill(rgiNew, -1);
+			for(int j=0;j<rgiColumnsToKeep.length;j++){
+				rgiNew[rgiColumnsToKeep[j]]=j;
+			}
+			iNNZ = 0;
+			iStart = 0;
+			for(int i=0;i<iRows;i++){
+				for(int k=iStart;k<rgiRowPtr[i+1];k++){
+					if(rgiNew[rgiColIndex[k]]!=-1){
+						rgiColIndex[iNNZ] = rgiNew[rgiColIndex[k]];
+						rgdRowData[iNNZ] = rgdRowData[k];
+						iNNZ++;
+					}
+				}
+				iStart = rgiRowPtr[i+1];
+				rgiRowPtr[i+1] = iNNZ;
+			}
+			rgiColIndex = Arrays.copyOf(rgiColIndex, iNNZ);
+			rgdRowData = Arrays.copyOf(rgdRowData, iNNZ);
+			iCols = rgiColumnsToKeep.length;
+			clearColumnMajor();
+		}
+		
+		/**
+		 * Filters rows of matrix.
+		 * @param rgiRowsToKeep Indices of rows to keep, in increasing order.
+		 */
+		private void filterRows(int[] rgiRowsToKeep){
+			
+			//rgiPtr = new row pointers
+			//i1 = current row
+			//iLength = number of entries in current row
+			
+			int rgiPtr[];
+			int i1;
+			int iLength;
+			
+			rgiPtr = new int[rgiRowsToKeep.length+1];
+			for(int i=0;i<rgiRowsToKeep.length;i++){
+				i1 = rgiRowsToKeep[i];
+				iLength = rgiRowPtr[i1+1]-rgiRowPtr[i1];
+				System.arraycopy(rgiColIndex, rgiRowPtr[i1], rgiColIndex, rgiPtr[i], iLength);
+				System.arraycopy(rgdRowData, rgiRowPtr[i1], rgdRowData, rgiPtr[i], iLength);
+				rgiPtr[i+1] = rgiPtr[i]+iLength;
+			}
+			rgiColIndex = Arrays.copyOf(rgiColIndex, rgiPtr[rgiRowsToKeep.length]);
+			rgdRowData = Arrays.copyOf(rgdRowData, rgiPtr[rgiRowsToKeep.length]);
+			rgiRowPtr = rgiPtr;
+			iRows = rgiRowsToKeep.length;
+			clearColumnMajor();
+		}
+		
+		/**
+		 * Creates sparse matrix from column-major arrays.
+		 * @param iRows Number of rows.
+		 * @param iCols Number of columns.
+		 * @param rgiColPtr Column pointers.
+		 * @param rgiRowIndex Row indices, sorted within columns.
+		 * @param rgdColData Values.
+		 * @return Sparse matrix object.
+		 */
+		private SparseMatrix fromColumnMajor(int iRows, int iCols, int[] rgiColPtr, int[] rgiRowIndex, double[] rgdColData){
+			
+			//spmOut = output
+			
+			SparseMatrix spmOut;
+			
+			spmOut = new SparseMatrix(iRows, iCols, new int[iRows+1], new int[rgiRowIndex.length], new double[rgdColData.length]);
+			transpose(iCols, iRows, rgiColPtr, rgiRowIndex, rgdColData, spmOut.rgiRowPtr, spmOut.rgiColIndex, spmOut.rgdRowData);
+			spmOut.rgiColPtr = rgiColPtr;
+			spmOut.rgiRowIndex = rgiRowIndex;
+			spmOut.rgdColData = rgdColData;
+			return spmOut;
 		}
 		
 		/**
 		 * Gets marginal sum.
 		 * @param sAxisName Axis for which to get marginal sum.
-		 * @param sID Axis element for which to get marginal sum.
+		 * @param iIndex Index of axis element for which to get marginal sum.
 		 * @return Marginal sum for axis element.
 		 */
-		private double getMarginalSum(String sAxisName, String sID){
-			if(mapRowSum==null || mapColSum==null){
+		private double getMarginalSum(String sAxisName, int iIndex){
+			if(rgdRowSum==null || rgdColSum==null){
 				loadMarginalSums();
 			}
 			if(sAxisName.equals("sample")){
-				if(mapColSum.containsKey(sID)){
-					return mapColSum.get(sID);
-				}else{
-					return 0.;
-				}
+				return rgdColSum[iIndex];
 			}else if(sAxisName.equals("observation")){
-				if(mapRowSum.containsKey(sID)){
-					return mapRowSum.get(sID);
-				}else{
-					return 0.;
-				}
+				return rgdRowSum[iIndex];
 			}else{
 				return Double.NaN;
 			}
 		}
 		
+		/**
+		 * Gets marginal sums.
+		 * @param sAxisName Axis for which to get marginal sums.
+		 * @return Marginal sum for each axis element; null if axis is not recognized.
+		 */
+		private double[] getMarginalSums(String sAxisName){
+			if(rgdRowSum==null || rgdColSum==null){
+				loadMarginalSums();
+			}
+			if(sAxisName.equals("sample")){
+				return rgdColSum.clone();
+			}else if(sAxisName.equals("observation")){
+				return rgdRowSum.clone();
+			}else{
+				return null;
+			}
+		}
+		
 		/**
 		 * Gets number of non-zero values.
 		 * @return Number of non-zero values.
 		 */
 		private int getNNZ(){
+			return rgiRowPtr[iRows];
+		}
+		
+		/**
+		 * Gets number of positive values in row or column.
+		 * @param sAxisName Axis along which to count.
+		 * @param iIndex Index of axis element for which to count.
+		 * @return Number of positive entries.
+		 */
+		private int getNonzeroCount(String sAxisName, int iIndex){
+			
+			//iOut = output
+			
 			int iOut;
-			iOut=0;
-			for(String s:mapValue.keySet()){
-				iOut+=mapValue.get(s).size();
+			
+			iOut = 0;
+			if(sAxisName.equals("sample")){
+				loadColumnMajor();
+				for(int k=rgiColPtr[iIndex];k<rgiColPtr[iIndex+1];k++){
+					if(rgdColData[k]>0){
+						iOut++;
+					}
+				}
+			}else if(sAxisName.equals("observation")){
+				for(int k=rgiRowPtr[iIndex];k<rgiRowPtr[iIndex+1];k++){
+					if(rgdRowData[k]>0){
+						iOut++;
+					}
+				}
 			}
 			return iOut;
 		}
-		
+	
 		/**
-		 * Gets presence or absence value.
-		 * @param sRowID Observation ID.
-		 * @param sColID Sample ID.
-		 * @return 1 for presence, 0 for absence.
+		 * Gets number of positive values in each row or column in a single pass over the row-major arrays.
+		 * @param sAxisName Axis along which to count.
+		 * @return Number of positive entries for each axis element; null if axis is not recognized.
 		 */
-		private int getPresenceAbsence(String sRowID, String sColID){
-			if(mapValue.containsKey(sRowID)){
-				if(mapValue.get(sRowID).containsKey(sColID)){
-					return 1;
-				}else{
-					return 0;
+		private int[] getNonzeroCounts(String sAxisName){
+			
+			//rgiOut = output
+			
+			int rgiOut[];
+			
+			if(sAxisName.equals("sample")){
+				rgiOut = new int[iCols];
+				for(int k=0;k<rgiRowPtr[iRows];k++){
+					if(rgdRowData[k]>0){
+						rgiOut[rgiColIndex[k]]++;
+					}
+				}
+			}else if(sAxisName.equals("observation")){
+				rgiOut = new int[iRows];
+				for(int i=0;i<iRows;i++){
+					for(int k=rgiRowPtr[i];k<rgiRowPtr[i+1];k++){
+						if(rgdRowData[k]>0){
+							rgiOut[i]++;
+						}
+					}
 				}
 			}else{
-				return 0;
+				rgiOut = null;
 			}
+			return rgiOut;
 		}
-	
+		
+		/**
+		 * Gets Shannon diversity (-sum of x*ln(x) over positive entries) of each column in a single pass over the row-major arrays.
+		 * @return Shannon diversity of each column.
+		 */
+		private double[] getShannon(){
+			
+			//rgdOut = output
+			//d1 = current value
+			
+			double rgdOut[];
+			double d1;
+			
+			rgdOut = new double[iCols];
+			for(int k=0;k<rgiRowPtr[iRows];k++){
+				d1 = rgdRowData[k];
+				if(d1>0){
+					rgdOut[rgiColIndex[k]] -= d1*Math.log(d1);
+				}
+			}
+			return rgdOut;
+		}
+		
 		/**
 		 * Returns value at specified location.
-		 * @param sRowID Observation ID.
-		 * @param sColID Sample ID.
+		 * @param iRow Observation index.
+		 * @param iCol Sample index.
 		 * @return Value in matrix.
 		 */
-		private double getValue(String sRowID, String sColID){
-			if(getPresenceAbsence(sRowID,sColID)==0){
+		private double getValue(int iRow, int iCol){
+			
+			//k = position of entry
+			
+			int k;
+			
+			k = Arrays.binarySearch(rgiColIndex, rgiRowPtr[iRow], rgiRowPtr[iRow+1], iCol);
+			if(k<0){
 				return 0;
 			}else{
-				return mapValue.get(sRowID).get(sColID);
+				return rgdRowData[k];
+			}
+		}
+		
+		/**
+		 * Builds column-major copy of matrix if it has not already been built.
+		 */
+		private void loadColumnMajor(){
+			if(rgiColPtr!=null){
+				return;
+			}
+			rgiColPtr = new int[iCols+1];
+			rgiRowIndex = new int[rgiColIndex.length];
+			rgdColData = new double[rgdRowData.length];
+			transpose(iRows, iCols, rgiRowPtr, rgiColIndex, rgdRowData, rgiColPtr, rgiRowIndex, rgdColData);
+		}
+		
+		/**
+		 * Loads column-major copy of matrix from file (BIOM 2.1 sample/matrix group). If the stored copy is unsorted or inconsistent with the row-major arrays, it is discarded and the column-major copy is instead built from the row-major arrays when needed.
+		 * @param varRowIndices Netcdf variable with row indices.
+		 * @param varColPtrs Netcdf variable with column pointers.
+		 * @param varData Netcdf variable with data.
+		 * @param rdr1 Reader for matrix arrays.
+		 */
+		private void loadColumnMajor(Variable varRowIndices, Variable varColPtrs, Variable varData, SectionReader rdr1){
+			
+			//rgiPtr = column pointers
+			//rgiIndex = row indices
+			//rgdData = values
+			
+			int rgiPtr[];
+			int rgiIndex[];
+			double rgdData[];
+			
+			if(varRowIndices==null || varColPtrs==null || varData==null){
+				return;
+			}
+			try{
+				rgiPtr = (int[]) varColPtrs.read().get1DJavaArray(int.class);
+				rgiIndex = rdr1.readInts(varRowIndices);
+				rgdData = rdr1.readDoubles(varData);
+			}catch(Exception e){
+				e.printStackTrace();
+				return;
+			}
+			if(rgiPtr.length!=iCols+1 || !compact(iCols, rgiPtr, rgiIndex, rgdData) || rgiPtr[iCols]!=getNNZ()){
+				return;
 			}
+			rgiColPtr = rgiPtr;
+			rgiRowIndex = (rgiIndex.length==rgiPtr[iCols]) ? rgiIndex : Arrays.copyOf(rgiIndex, rgiPtr[iCols]);
+			rgdColData = (rgdData.length==rgiPtr[iCols]) ? rgdData : Arrays.copyOf(rgdData, rgiPtr[iCols]);
 		}
 		
 		/**
 		 * Loads marginal sum vectors.
 		 */
 		private void loadMarginalSums(){
+			rgdRowSum = new double[iRows];
+			rgdColSum = new double[iCols];
+			for(int i=0;i<iRows;i++){
+				for(int k=rgiRowPtr[i];k<rgiRowPtr[i+1];k++){
+					rgdRowSum[i]+=rgdRowData[k];
+					rgdColSum[rgiColIndex[k]]+=rgdRowData[k];
+				}
+			}
+		}
+		
+		/**
+		 * Sums entries that share the same row and column, sorts rows by column index, and removes zeros. Rows are sorted by transposing to column-major order and back.
+		 * @return This sparse matrix object.
+		 */
+		private SparseMatrix mergeDuplicates(){
 			
-			//d1 = current value
+			//rgiPtr = column pointers
+			//rgiIndex = row indices in column-major order
+			//rgdData = values in column-major order
+			//iNNZ = number of entries kept
+			//iStart = start of current column before merging
 			
-			double d1;
+			int rgiPtr[];
+			int rgiIndex[];
+			double rgdData[];
+			int iNNZ;
+			int iStart;
 			
-			mapRowSum = new HashMap<String,Double>(mapValue.size());
-			mapColSum = new HashMap<String,Double>(mapValue.size());
+			rgiPtr = new int[iCols+1];
+			rgiIndex = new int[rgiRowPtr[iRows]];
+			rgdData = new double[rgiRowPtr[iRows]];
+			transpose(iRows, iCols, rgiRowPtr, rgiColIndex, rgdRowData, rgiPtr, rgiIndex, rgdData);
 			
-			for(String sRowID:mapValue.keySet()){
-				for(String sColID:mapValue.get(sRowID).keySet()){
-					
-					//updating row sum
-					if(!mapRowSum.containsKey(sRowID)){
-						mapRowSum.put(sRowID,0.);
-					}
-					d1=mapRowSum.get(sRowID);
-					d1+=mapValue.get(sRowID).get(sColID);
-					mapRowSum.put(sRowID, d1);
-					
-					//updating column sum
-					if(!mapColSum.containsKey(sColID)){
-						mapColSum.put(sColID, 0.);
+			//duplicates are adjacent within columns after transposing
+			iNNZ = 0;
+			iStart = 0;
+			for(int j=0;j<iCols;j++){
+				for(int k=iStart;k<rgiPtr[j+1];k++){
+					if(iNNZ>rgiPtr[j] && rgiIndex[iNNZ-1]==rgiIndex[k]){
+						rgdData[iNNZ-1]+=rgdData[k];
+					}else{
+						rgiIndex[iNNZ] = rgiIndex[k];
+						rgdData[iNNZ] = rgdData[k];
+						iNNZ++;
 					}
-					d1=mapColSum.get(sColID);
-					d1+=mapValue.get(sRowID).get(sColID);
-					mapColSum.put(sColID, d1);
 				}
+				iStart = rgiPtr[j+1];
+				rgiPtr[j+1] = iNNZ;
 			}
+			rgiRowPtr = new int[iRows+1];
+			rgiColIndex = new int[iNNZ];
+			rgdRowData = new double[iNNZ];
+			transpose(iCols, iRows, rgiPtr, rgiIndex, rgdData, rgiRowPtr, rgiColIndex, rgdRowData);
+			return removeZeros();
 		}
 		
 		/**
-		 * Sets value at specified location.
-		 * @param sRowID Observation ID.
-		 * @param sColID Sample ID.
-		 * @param Value in matrix.
+		 * Normalizes columns so that they sum to 1. Columns that sum to 0 are unchanged.
 		 */
-		private void setValue(String sRowID, String sColID, double dValue){
+		private void normalizeColumns(){
+			
+			//rgdSum = column sums
 			
-			//initializing sums if appropriate
-			if(mapRowSum==null || mapColSum==null){
+			double rgdSum[];
+			
+			if(rgdColSum==null){
 				loadMarginalSums();
 			}
+			rgdSum = rgdColSum;
+			for(int k=0;k<rgdRowData.length;k++){
+				if(rgdSum[rgiColIndex[k]]!=0){
+					rgdRowData[k]/=rgdSum[rgiColIndex[k]];
+				}
+			}
+			clearColumnMajor();
+		}
+		
+		/**
+		 * Removes entries that equal zero.
+		 * @return This sparse matrix object.
+		 */
+		private SparseMatrix removeZeros(){
 			
-			//updating row sum
-			if(!mapRowSum.containsKey(sRowID)){
-				mapRowSum.put(sRowID, dValue);
-			}else{
-				mapRowSum.put(sRowID, mapRowSum.get(sRowID)-getValue(sRowID,sColID) + dValue);
+			//iNNZ = number of entries kept
+			//iStart = start of current row before removal
+			
+			int iNNZ;
+			int iStart;
+			
+			iNNZ = 0;
+			iStart = 0;
+			for(int i=0;i<iRows;i++){
+				for(int k=iStart;k<rgiRowPtr[i+1];k++){
+					if(rgdRowData[k]!=0){
+						rgiColIndex[iNNZ] = rgiColIndex[k];
+						rgdRowData[iNNZ] = rgdRowData[k];
+						iNNZ++;
+					}
+				}
+				iStart = rgiRowPtr[i+1];
+				rgiRowPtr[i+1] = iNNZ;
 			}
-			if(mapRowSum.get(sRowID)==0){
-				mapRowSum.remove(sRowID);
+			if(iNNZ<rgiColIndex.length){
+				rgiColIndex = Arrays.copyOf(rgiColIndex, iNNZ);
+				rgdRowData = Arrays.copyOf(rgdRowData, iNNZ);
 			}
+			clearColumnMajor();
+			return this;
+		}
+		
+		/**
+		 * Transposes compressed sparse arrays (row-major to column-major or vice versa). Output indices are sorted within each major element.
+		 * @param iMajor Number of major elements (rows for row-major input).
+		 * @param iMinor Number of minor elements (columns for row-major input).
+		 * @param rgiPtr Input pointers.
+		 * @param rgiIndex Input minor indices.
+		 * @param rgdData Input values.
+		 * @param rgiPtrOut Output pointers; length iMinor+1.
+		 * @param rgiIndexOut Output major indices; same length as input indices.
+		 * @param rgdDataOut Output values; same length as input values.
+		 */
+		private void transpose(int iMajor, int iMinor, int[] rgiPtr, int[] rgiIndex, double[] rgdData, int[] rgiPtrOut, int[] rgiIndexOut, double[] rgdDataOut){
 			
-			//updating column sum
-			if(!mapColSum.containsKey(sColID)){
-				mapColSum.put(sColID, dValue);
-			}else{
-				mapColSum.put(sColID, mapColSum.get(sColID)-getValue(sRowID,sColID) + dValue);
+			//rgiPos = current insertion position for each output element
+			//i1 = current output element
+			
+			int rgiPos[];
+			int i1;
+			
+			for(int k=0;k<rgiPtr[iMajor];k++){
+				rgiPtrOut[rgiIndex[k]+1]++;
+			}
+			for(int j=0;j<iMinor;j++){
+				rgiPtrOut[j+1]+=rgiPtrOut[j];
 			}
-			if(mapColSum.get(sColID)==0){
-				mapColSum.remove(sColID);
+			rgiPos = Arrays.copyOf(rgiPtrOut, iMinor);
+			for(int i=0;i<iMajor;i++){
+				for(int k=rgiPtr[i];k<rgiPtr[i+1];k++){
+					i1 = rgiIndex[k];
+					rgiIndexOut[rgiPos[i1]] = i;
+					rgdDataOut[rgiPos[i1]] = rgdData[k];
+					rgiPos[i1]++;
+				}
 			}
+		}
+	}
+
+	/**
+	 * Trie of taxonomic lineages. Node depth gives rank (1 for kingdom through 7 for species); the root has depth 0. Each distinct lineage prefix is stored once, and lineage strings ("k__...;p__...;...") are produced from node paths when needed.
+	 */
+	private class TaxonomyTrie{
+		
+		/**Parent of each node; -1 for root.**/
+		private int[] rgiParent;
+		
+		/**Depth of each node.**/
+		private int[] rgiDepth;
+		
+		/**Taxon (e.g., "p__Proteobacteria", or "p__" if missing) of each node.**/
+		private ArrayList<String> lstTaxa;
+		
+		/**Returns the children of each node, keyed by taxon.**/
+		private ArrayList<HashMap<String,Integer>> lstChildren;
+		
+		/**
+		 * Constructor. Creates trie with root only.
+		 */
+		private TaxonomyTrie(){
+			rgiParent = new int[64];
+			rgiDepth = new int[64];
+			lstTaxa = new ArrayList<String>();
+			lstChildren = new ArrayList<HashMap<String,Integer>>();
+			rgiParent[0] = -1;
+			rgiDepth[0] = 0;
+			lstTaxa.add("");
+			lstChildren.add(null);
+		}
+		
+		/**
+		 * Adds lineage to trie.
+		 * @param rgsTaxa Taxon at each rank, from kingdom to species.
+		 * @return Leaf node of lineage.
+		 */
+		private int add(String[] rgsTaxa){
+			
+			//iNode = current node
+			//i1 = child node
 			
-			if(dValue==0){
-				if(this.getPresenceAbsence(sRowID, sColID)==1){
-					mapValue.get(sRowID).remove(sColID);
-					if(mapValue.get(sRowID).size()==0){
-						mapValue.remove(sRowID);
-					}	
+			int iNode;
+			Integer i1;
+			
+			iNode = 0;
+			for(int j=0;j<rgsTaxa.length;j++){
+				if(lstChildren.get(iNode)==null){
+					lstChildren.set(iNode, new HashMap<String,Integer>());
 				}
-			}else{
-				if(!mapValue.containsKey(sRowID)){
-					mapValue.put(sRowID, new HashMap<String,Double>());
+				i1 = lstChildren.get(iNode).get(rgsTaxa[j]);
+				if(i1==null){
+					i1 = lstTaxa.size();
+					if(i1==rgiParent.length){
+						rgiParent = Arrays.copyOf(rgiParent, 2*rgiParent.length);
+						rgiDepth = Arrays.copyOf(rgiDepth, 2*rgiDepth.length);
+					}
+					rgiParent[i1] = iNode;
+					rgiDepth[i1] = j+1;
+					lstTaxa.add(rgsTaxa[j]);
+					lstChildren.add(null);
+					lstChildren.get(iNode).put(rgsTaxa[j], i1);
+				}
+				iNode = i1;
+			}
+			return iNode;
+		}
+		
+		/**
+		 * Gets ancestor of node at given depth.
+		 * @param iNode Node.
+		 * @param iDepth Depth of ancestor; nodes at or above this depth are returned unchanged.
+		 * @return Ancestor node.
+		 */
+		private int getAncestor(int iNode, int iDepth){
+			while(rgiDepth[iNode]>iDepth){
+				iNode = rgiParent[iNode];
+			}
+			return iNode;
+		}
+		
+		/**
+		 * Gets lineage string of node.
+		 * @param iNode Node.
+		 * @return Taxa from kingdom to rank of node, separated by semicolons.
+		 */
+		private String getLineage(int iNode){
+			
+			//rgsTaxa = taxa on path
+			//sbl1 = output
+			
+			String rgsTaxa[];
+			StringBuilder sbl1;
+			
+			rgsTaxa = new String[rgiDepth[iNode]];
+			for(int j=rgsTaxa.length-1;j>=0;j--){
+				rgsTaxa[j] = lstTaxa.get(iNode);
+				iNode = rgiParent[iNode];
+			}
+			sbl1 = new StringBuilder();
+			for(int j=0;j<rgsTaxa.length;j++){
+				if(j>0){
+					sbl1.append(";");
 				}
-				mapValue.get(sRowID).put(sColID, dValue);
+				sbl1.append(rgsTaxa[j]);
 			}
+			return sbl1.toString();
+		}
+		
+		/**
+		 * Checks whether node has a taxon (rather than a missing-taxon alias such as "g__").
+		 * @param iNode Node.
+		 * @return True if taxon is present; false otherwise.
+		 */
+		private boolean isClassified(int iNode){
+			return lstTaxa.get(iNode).length()>3;
+		}
+		
+		/**
+		 * Gets number of nodes.
+		 * @return Number of nodes, including root.
+		 */
+		private int size(){
+			return lstTaxa.size();
 		}
 	}
 }
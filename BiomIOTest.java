@@ -1,6 +1,7 @@
 package edu.ucsf.io;
 
 import static org.junit.Assert.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -40,6 +41,94 @@ public class BiomIOTest {
 		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
 	}
 
+	@Test
+	public void BiomIO_TableIsLoadedFromCache_TableIsCorrect(){
+		
+		//mapOptions = options
+		//bio2 = table loaded from file and written to cache
+		//bio3 = table loaded from cache
+		
+		HashMap<String,String> mapOptions;
+		BiomIO bio2 = null;
+		BiomIO bio3 = null;
+		
+		mapOptions = new HashMap<String,String>();
+		try{
+			mapOptions.put("sCacheDirectory", Files.createTempDirectory("BiomIOCache").toString());
+			bio2 = new BiomIO(sTestDataDir + "/" + sTestFile, mapOptions);
+			bio3 = new BiomIO(sTestDataDir + "/" + sTestFile, mapOptions);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertTrue(bio1.equals(bio2));
+		assertTrue(bio1.equals(bio3));
+		assertEquals(bio1.axsSample.getMetadataKeys(),bio3.axsSample.getMetadataKeys());
+		assertEquals(bio1.axsObservation.getMetadata("GG_OTU_3"),bio3.axsObservation.getMetadata("GG_OTU_3"));
+		assertEquals(bio1.lstFormatVersion,bio3.lstFormatVersion);
+		assertEquals(bio1.axsObservation.getIndex("GG_OTU_4"),bio3.axsObservation.getIndex("GG_OTU_4"));
+		assertEquals(bio1.axsSample.getMetadata("Sample5"),bio3.axsSample.getMetadata("Sample5"));
+	}
+	
+	@Test
+	public void BiomIO_MatrixIsReadOnSeveralThreads_TableIsCorrect(){
+		
+		//mapOptions = options
+		//bio2 = table read on several threads
+		
+		HashMap<String,String> mapOptions;
+		BiomIO bio2 = null;
+		
+		mapOptions = new HashMap<String,String>();
+		mapOptions.put("iLoadThreads", "4");
+		mapOptions.put("bLoadSampleMatrix", "true");
+		try{
+			bio2 = new BiomIO(sTestDataDir + "/" + sTestFile, mapOptions);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertTrue(bio1.equals(bio2));
+		assertTrue(bio2.equals(bio1));
+		assertEquals(bio1.getItem(bio1.axsSample, "Sample4"),bio2.getItem(bio2.axsSample, "Sample4"));
+	}
+	
+	@Test
+	public void BiomIO_SamplesAndObservationsFilteredWhileLoading_TableIsCorrect(){
+		
+		//mapOptions = options
+		//lstOut = current filter output
+		
+		HashMap<String,String> mapOptions;
+		ArrayList<String> lstOut;
+		
+		rgsCorrectSampleIDs=new String[]{"Sample1","Sample3","Sample4"};
+		rgsCorrectObservationIDs=new String[]{"GG_OTU_2","GG_OTU_3","GG_OTU_4"};
+		rgdCorrectData = new double[][]{
+				{5,0,2},
+				{0,1,4},
+				{2,1,0}};
+		try{
+			lstOut = new ArrayList<String>();
+			lstOut.add("Sample1");
+			lstOut.add("Sample3");
+			lstOut.add("Sample4");
+			DataIO.writeToFile(lstOut, "/tmp/SampleFilter.txt");
+			lstOut = new ArrayList<String>();
+			lstOut.add("GG_OTU_2");
+			lstOut.add("GG_OTU_3");
+			lstOut.add("GG_OTU_4");
+			DataIO.writeToFile(lstOut, "/tmp/ObservationFilter.txt");
+			mapOptions = new HashMap<String,String>();
+			mapOptions.put("sSamplesToKeepPath", "/tmp/SampleFilter.txt");
+			mapOptions.put("sObservationsToKeepPath", "/tmp/ObservationFilter.txt");
+			bio1 = new BiomIO(sTestDataDir + "/" + sTestFile, mapOptions);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		this.checkTableIsCorrect();
+		assertEquals(6,bio1.iNNZ);
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
 	@Test
 	public void checkRarefied_TableIsRarefied_ReturnsTrue(){
 		try {
@@ -83,6 +172,64 @@ public class BiomIOTest {
 		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
 	}
 	
+	@Test
+	public void collapse_TableIsCollapsedBySampleMetadataOnSeveralThreads_TableIsCorrect(){
+		
+		//bio2 = original table
+		
+		BiomIO bio2;
+		
+		bio2 = bio1;
+		try{
+			bio1 = bio2.collapse("BODY_SITE", bio2.axsSample, "mean", 4, true);
+		}catch(Exception e){
+			e.printStackTrace();
+			fail();
+		}
+		rgsCorrectObservationIDs=new String[]{"GG_OTU_1","GG_OTU_2","GG_OTU_3","GG_OTU_4","GG_OTU_5"};
+		rgsCorrectSampleIDs = new String[]{"gut", "skin"};
+		rgdCorrectData=new double[][]{{1./3.,0},{2,2},{1./3.,2},{4./3.,1./3.},{2./3.,0}};
+		this.checkTableIsCorrect();
+		assertEquals(6,bio2.axsSample.size());
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
+	@Test
+	public void collapse_TableIsCollapsedWithReducers_TableIsCorrect(){
+		
+		//bio2 = original table
+		
+		BiomIO bio2;
+		
+		bio2 = bio1;
+		rgsCorrectObservationIDs = new String[]{"k__Bacteria", "k__Archaea"};
+		rgsCorrectSampleIDs=new String[]{"Sample1","Sample2","Sample3","Sample4","Sample5","Sample6"};
+		try{
+			bio1 = bio2.collapse("kingdom", bio2.axsObservation, "sum", 2, true);
+			rgdCorrectData=new double[][]{{7,3,3,2,3,2},{0,0,1,4,0,2}};
+			this.checkTableIsCorrect();
+			bio1 = bio2.collapse("kingdom", bio2.axsObservation, "mean", 2, true);
+			rgdCorrectData=new double[][]{{7./4.,3./4.,3./4.,2./4.,3./4.,2./4.},{0,0,1,4,0,2}};
+			this.checkTableIsCorrect();
+			bio1 = bio2.collapse("kingdom", bio2.axsObservation, "max", 2, true);
+			rgdCorrectData=new double[][]{{5,1,1,2,3,1},{0,0,1,4,0,2}};
+			this.checkTableIsCorrect();
+			bio1 = bio2.collapse("kingdom", bio2.axsObservation, "count", 2, true);
+			rgdCorrectData=new double[][]{{2,3,3,1,1,2},{0,0,1,1,0,1}};
+			this.checkTableIsCorrect();
+		}catch(Exception e){
+			e.printStackTrace();
+			fail();
+		}
+		try{
+			bio2.collapse("kingdom", bio2.axsObservation, "median", 2, true);
+			fail();
+		}catch(Exception e){
+			assertEquals("Unknown collapse reducer: median",e.getMessage());
+		}
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
 	@Test
 	public void convertToPresenceAbsence_TableIsPresenceAbsence_TableIsCorrect(){
 		
@@ -123,11 +270,73 @@ public class BiomIOTest {
 		}
 	}
 	
+	@Test
+	public void getRichnessByIndex_RichnessGotten_RichnessCorrect(){
+		assertArrayEquals(new double[]{2,3,4,2,1,3},bio1.getRichnessByIndex(),0.0000000001);
+	}
+	
 	@Test
 	public void equals_TablesAreEquals_ReturnsTrue(){
 		assertTrue(bio1.equals(bio1));
 	}
 	
+	@Test
+	public void forEachNonzero_EntriesVisited_EntriesAreCorrect(){
+		
+		//rgd1 = values visited
+		//rgi1 = number of entries visited
+		
+		final double rgd1[][];
+		final int rgi1[];
+		
+		rgd1 = new double[5][6];
+		rgi1 = new int[1];
+		bio1.forEachNonzero(new BiomIO.NonzeroVisitor(){
+			public void visit(int iRow, int iCol, double dValue){
+				rgd1[iRow][iCol]=dValue;
+				rgi1[0]++;
+			}
+		});
+		assertEquals(bio1.iNNZ,rgi1[0]);
+		for(int i=0;i<5;i++){
+			for(int j=0;j<6;j++){
+				assertEquals(bio1.getValueByIndices(i, j),rgd1[i][j],0.0000001);
+			}
+		}
+	}
+	
+	@Test
+	public void getCursor_RowsAndColumnsIterated_ValuesAreCorrect(){
+		
+		//cur1 = current cursor
+		//i1 = number of entries visited
+		
+		BiomIO.NonzeroCursor cur1;
+		int i1;
+		
+		cur1 = bio1.getCursor(bio1.axsObservation);
+		i1 = 0;
+		for(int i=0;i<bio1.axsObservation.size();i++){
+			cur1.seek(i);
+			assertEquals(bio1.getNonzeroCount(bio1.axsObservation, bio1.axsObservation.getID(i)),cur1.getCount());
+			while(cur1.next()){
+				assertEquals(bio1.getValueByIndices(i, cur1.getIndex()),cur1.getValue(),0.0000001);
+				i1++;
+			}
+		}
+		assertEquals(bio1.iNNZ,i1);
+		cur1 = bio1.getCursor(bio1.axsSample);
+		i1 = 0;
+		for(int j=0;j<bio1.axsSample.size();j++){
+			cur1.seek(j);
+			while(cur1.next()){
+				assertEquals(bio1.getValueByIndices(cur1.getIndex(), j),cur1.getValue(),0.0000001);
+				i1++;
+			}
+		}
+		assertEquals(bio1.iNNZ,i1);
+	}
+	
 	@Test
 	public void filter_SamplesAreFiltered_TableIsCorrect(){
 		
@@ -309,6 +518,34 @@ public class BiomIOTest {
 		this.checkTableMapIsCorrect(map1, bio1.getItem(bio1.axsSample, "Sample4"));
 	}
 	
+	@Test
+	public void getItem_SampleIsGottenFromSampleMatrix_ColumnIsCorrect(){
+		
+		//map1 = correct column
+		//mapOptions = options
+		//bio2 = table with column-major copy loaded from file
+		
+		HashMap<String,Double> map1;
+		HashMap<String,String> mapOptions;
+		BiomIO bio2 = null;
+		
+		map1 = new HashMap<String,Double>();
+		map1.put("GG_OTU_1", 0.);
+		map1.put("GG_OTU_2", 2.);
+		map1.put("GG_OTU_3", 4.);
+		map1.put("GG_OTU_4", 0.);
+		map1.put("GG_OTU_5", 0.);
+		mapOptions = new HashMap<String,String>();
+		mapOptions.put("bLoadSampleMatrix", "true");
+		try{
+			bio2 = new BiomIO(sTestDataDir + "/" + sTestFile, mapOptions);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		this.checkTableMapIsCorrect(map1, bio2.getItem(bio2.axsSample, "Sample4"));
+		assertTrue(bio1.equals(bio2));
+	}
+	
 	@Test
 	public void getMean_ObservationMeanIsTaken_ValueIsCorrect(){
 		assertEquals(2.,bio1.getMean(bio1.axsObservation, "GG_OTU_2"),0.00000001);
@@ -353,6 +590,11 @@ public class BiomIOTest {
 		this.checkTableMapIsCorrect(map1, bio1.getMeans(bio1.axsSample));
 	}
 	
+	@Test
+	public void getMeansByIndex_SampleMeansAreTaken_ValuesAreCorrect(){
+		assertArrayEquals(new double[]{1.4,0.6,0.8,1.2,0.6,0.8},bio1.getMeansByIndex(bio1.axsSample),0.00000001);
+	}
+	
 	@Test
 	public void getNonzeroCount_ObservationCountIsTaken_ValueIsCorrect(){
 		assertEquals(5.,bio1.getNonzeroCount(bio1.axsObservation, "GG_OTU_2"),0.00000001);
@@ -414,6 +656,12 @@ public class BiomIOTest {
 		this.checkTableMapIsCorrect(map1, map2);
 	}
 	
+	@Test
+	public void getNonzeroCountsByIndex_CountsAreTaken_ValuesAreCorrect(){
+		assertArrayEquals(new int[]{1,5,3,4,2},bio1.getNonzeroCountsByIndex(bio1.axsObservation));
+		assertArrayEquals(new int[]{2,3,4,2,1,3},bio1.getNonzeroCountsByIndex(bio1.axsSample));
+	}
+	
 	@Test
 	public void getShape_IsRun_ValueIsCorrect(){
 		assertArrayEquals(new int[]{5,6},bio1.getShape());
@@ -477,6 +725,13 @@ public class BiomIOTest {
 		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
 	}
 	
+	@Test
+	public void getShannonByIndex_ShannonGotten_ShannonCorrect(){
+		bio1.normalize();
+		assertArrayEquals(new double[]{0.59826958858526,1.09861228866811,1.38629436111989,0.63651416829481,0.,1.03972077083992},bio1.getShannonByIndex(),0.0000000001);
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
 	//TODO add test for printMetadata
 	
 	@Test
@@ -523,6 +778,24 @@ public class BiomIOTest {
 		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
 	}
 	
+	@Test
+	public void rarefy_TableIsRarefiedOnSeveralThreads_TableMatchesSingleThread(){
+		
+		//bio2 = table rarefied on one thread
+		
+		BiomIO bio2;
+		
+		bio2 = new BiomIO(sTestDataDir + "/" + sTestFile);
+		try {
+			bio1.rarefy(3,1234,4);
+			bio2.rarefy(3,1234,1);
+		} catch (Exception e) {
+			fail(e.getMessage());
+		}
+		assertTrue(bio1.equals(bio2));
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
 	@Test
 	public void subsample_TableIsSubsampled_TableIsCorrect(){
 		
@@ -574,6 +847,12 @@ public class BiomIOTest {
 			assertEquals(mapSumCorrect.get(s),mapSum.get(s),0.0000000001);
 		}
 	}
+	
+	@Test
+	public void sumByIndex_TableIsSummed_SumsAreCorrect(){
+		assertArrayEquals(new double[]{1,12,7,5,2},bio1.sumByIndex(bio1.axsObservation),0.0000000001);
+		assertArrayEquals(new double[]{7,3,4,6,3,4},bio1.sumByIndex(bio1.axsSample),0.0000000001);
+	}
 	@Test
 	public void takeRandomSubset_SubsetIsTaken_TableHasCorrectSize(){
 		
@@ -612,6 +891,79 @@ public class BiomIOTest {
 		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);	
 	}
 	
+	@Test
+	public void AxisaddMetadata_MetadataWithMissingValuesIsAdded_ValuesRoundTripAndMissingValuesAreSkipped(){
+		
+		addSiteMetadata(bio1);
+		assertTrue(bio1.axsSample.hasMetadataField("site"));
+		assertEquals("a",bio1.axsSample.getMetadata("Sample1").get("site"));
+		assertEquals("b",bio1.axsSample.getMetadata("Sample4").get("site"));
+		assertEquals("a",bio1.axsSample.getMetadata("Sample5").get("site"));
+		assertFalse(bio1.axsSample.getMetadata("Sample2").containsKey("site"));
+		assertFalse(bio1.axsSample.getMetadata("Sample3").containsKey("site"));
+		assertFalse(bio1.axsSample.getMetadata("Sample6").containsKey("site"));
+		
+		//missing value replaced by a value
+		bio1.axsSample.addMetadata(getMetadataMap("Sample2", "site", "c"));
+		assertEquals("c",bio1.axsSample.getMetadata("Sample2").get("site"));
+		assertEquals("a",bio1.axsSample.getMetadata("Sample1").get("site"));
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
+	@Test
+	public void AxisaddMetadata_TableIsCollapsedByAddedMetadata_TableIsCorrect(){
+		
+		addSiteMetadata(bio1);
+		bio1.collapse("site", bio1.axsSample, false);
+		assertEquals(3,bio1.axsSample.size());
+		rgdCorrectData = new double[][]{{0,0},{8,2},{0,4},{2,0},{0,0}};
+		for(int i=0;i<5;i++){
+			assertEquals(rgdCorrectData[i][0],bio1.getValueByIndices(i, bio1.axsSample.getIndex("a")),0.);
+			assertEquals(rgdCorrectData[i][1],bio1.getValueByIndices(i, bio1.axsSample.getIndex("b")),0.);
+		}
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
+	@Test
+	public void AxisaddMetadata_TableIsFilteredAfterMetadataAdded_MetadataIsCorrect(){
+		
+		addSiteMetadata(bio1);
+		try{
+			bio1.filter(new HashSet<String>(java.util.Arrays.asList("Sample2","Sample4","Sample5")), bio1.axsSample);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(3,bio1.axsSample.size());
+		assertFalse(bio1.axsSample.getMetadata("Sample2").containsKey("site"));
+		assertEquals("b",bio1.axsSample.getMetadata("Sample4").get("site"));
+		assertEquals("a",bio1.axsSample.getMetadata("Sample5").get("site"));
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
+	@Test
+	@SuppressWarnings("deprecation")
+	public void AxisaddMetadata_MetadataIsSetOnResampledTable_SourceTableIsUnchanged(){
+		
+		//bio2 = resampled table
+		//s1 = ID of a resampled sample
+		
+		BiomIO bio2;
+		String s1;
+		
+		addSiteMetadata(bio1);
+		bio2 = bio1.resampleWithReplacement0(1234);
+		s1 = bio2.axsSample.getID(0);
+		bio2.axsSample.addMetadata(getMetadataMap(s1, "site", "resampled"));
+		bio1.axsSample.addMetadata(getMetadataMap("Sample6", "site", "source"));
+		assertEquals("resampled",bio2.axsSample.getMetadata(s1).get("site"));
+		assertEquals("source",bio1.axsSample.getMetadata("Sample6").get("site"));
+		assertEquals("a",bio1.axsSample.getMetadata("Sample1").get("site"));
+		for(int j=0;j<bio2.axsSample.size();j++){
+			assertFalse("source".equals(bio2.axsSample.getMetadata(j).get("site")));
+		}
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
 	//TODO need to add test for AxisaddMetadataFromTextFile
 	
 	@Test
@@ -641,7 +993,31 @@ public class BiomIOTest {
 			assertEquals(i-1,bio1.axsObservation.getIndex("GG_OTU_"+i));
 		}
 	}
-	
+
+	@Test
+	public void AxisgetIndex_IndexGottenAfterFiltering_IndexCorrect(){
+		
+		//bio2 = filtered table
+		//setKeep = observations to keep
+		
+		BiomIO bio2;
+		HashSet<String> setKeep;
+		
+		bio2 = new BiomIO(sTestDataDir + "/" + sTestFile);
+		setKeep = new HashSet<String>();
+		setKeep.add("GG_OTU_2");
+		setKeep.add("GG_OTU_5");
+		try{
+			bio2.filter(setKeep, bio2.axsObservation);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(0,bio2.axsObservation.getIndex("GG_OTU_2"));
+		assertEquals(1,bio2.axsObservation.getIndex("GG_OTU_5"));
+		assertEquals(-1,bio2.axsObservation.getIndex("GG_OTU_1"));
+		assertEquals("GG_OTU_5",bio2.axsObservation.getID(1));
+	}
+
 	//TODO need to write check for AxisgetMetadata
 	
 	@Test
@@ -659,7 +1035,44 @@ public class BiomIOTest {
 		}
 	}
 	
-	//TODO need to write check for getObjects
+	@Test
+	public void AxisgetMetadata_MetadataLoadedAfterFiltering_MetadataIsCorrect(){
+		
+		//bio2 = filtered table
+		//setKeep = samples to keep
+		
+		BiomIO bio2;
+		HashSet<String> setKeep;
+		
+		bio2 = new BiomIO(sTestDataDir + "/" + sTestFile);
+		setKeep = new HashSet<String>();
+		setKeep.add("Sample2");
+		setKeep.add("Sample5");
+		try{
+			bio2.filter(setKeep, bio2.axsSample);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		for(String s:setKeep){
+			assertEquals(bio1.axsSample.getMetadata(s),bio2.axsSample.getMetadata(s));
+		}
+		assertTrue(bio2.axsObservation.hasMetadataField("phylum"));
+		assertEquals(bio1.axsObservation.getMetadata("GG_OTU_2"),bio2.axsObservation.getMetadata("GG_OTU_2"));
+	}
+	
+	@Test
+	public void AxisgetMetadata_TaxonomyRanksGotten_LineagesAreCorrect(){
+		
+		//map1 = metadata for observation
+		
+		HashMap<String,String> map1;
+		
+		map1 = bio1.axsObservation.getMetadata("GG_OTU_1");
+		assertEquals("k__Bacteria",map1.get("kingdom"));
+		assertEquals("k__Bacteria;p__Proteobacteria;c__Gammaproteobacteria",map1.get("class"));
+		assertEquals("unclassified",map1.get("species"));
+		assertEquals("k__Bacteria;p__Proteobacteria;c__Gammaproteobacteria;o__Enterobacteriales;f__Enterobacteriaceae;g__Escherichia;s__",map1.get("taxonomy"));
+	}
 	
 	@Test
 	public void AxishasMetadataField_FieldsExist_ReturnsTrue(){
@@ -704,6 +1117,33 @@ public class BiomIOTest {
 		assertEquals(5,bio1.axsObservation.size());
 	}
 	
+	private void addSiteMetadata(BiomIO bio2){
+		
+		//mapMetadata = metadata map: "NA" and empty values are missing
+		
+		HashMap<String,HashMap<String,String>> mapMetadata;
+		
+		mapMetadata = new HashMap<String,HashMap<String,String>>();
+		mapMetadata.putAll(getMetadataMap("Sample1", "site", "a"));
+		mapMetadata.putAll(getMetadataMap("Sample2", "site", "NA"));
+		mapMetadata.putAll(getMetadataMap("Sample3", "site", ""));
+		mapMetadata.putAll(getMetadataMap("Sample4", "site", "b"));
+		mapMetadata.putAll(getMetadataMap("Sample5", "site", "a"));
+		bio2.axsSample.addMetadata(mapMetadata);
+	}
+	
+	private HashMap<String,HashMap<String,String>> getMetadataMap(String sID, String sKey, String sValue){
+		
+		//mapOut = output
+		
+		HashMap<String,HashMap<String,String>> mapOut;
+		
+		mapOut = new HashMap<String,HashMap<String,String>>();
+		mapOut.put(sID, new HashMap<String,String>());
+		mapOut.get(sID).put(sKey, sValue);
+		return mapOut;
+	}
+	
 	private void checkTableIsCorrect(){
 		checkAxisIDsAreCorrect(rgsCorrectObservationIDs,bio1.axsObservation);
 		checkAxisIDsAreCorrect(rgsCorrectSampleIDs,bio1.axsSample);
@@ -0,0 +1,339 @@
+package edu.ucsf.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/**
+ * Open handle on a biom 2.1 file for random-access row and column queries. Only axis IDs and compressed pointers are loaded when the reader is opened; each query reads the slice of the index and data arrays for the requested observation (from the observation/matrix group) or sample (from the sample/matrix group). The file stays open until the reader is closed.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class BiomReader implements AutoCloseable{
+
+	//fil1 = open file
+	//rgsObservationIDs = observation IDs in file order
+	//rgsSampleIDs = sample IDs in file order
+	//mapObservationIndex(sID) = returns file index of observation
+	//mapSampleIndex(sID) = returns file index of sample
+	//rgiRowPtr = row pointers of observation/matrix group
+	//rgiColPtr = column pointers of sample/matrix group; null if group is not available
+	//varRowIndices, varRowData = observation/matrix index and data variables
+	//varColIndices, varColData = sample/matrix index and data variables; null if group is not available
+	//rgiScanColPtr, rgiScanRowIndex, rgdScanColData = column-major arrays built from the observation/matrix group if the sample/matrix group is not available; null until first column query
+
+	/**Open file.**/
+	private NetcdfFile fil1;
+
+	/**Observation IDs in file order.**/
+	private String[] rgsObservationIDs;
+
+	/**Sample IDs in file order.**/
+	private String[] rgsSampleIDs;
+
+	/**Returns the file index of the specified observation ID.**/
+	private HashMap<String,Integer> mapObservationIndex;
+
+	/**Returns the file index of the specified sample ID.**/
+	private HashMap<String,Integer> mapSampleIndex;
+
+	/**Row pointers of observation/matrix group.**/
+	private int[] rgiRowPtr;
+
+	/**Column pointers of sample/matrix group; null if group is not available.**/
+	private int[] rgiColPtr;
+
+	/**Column indices of observation/matrix group.**/
+	private Variable varRowIndices;
+
+	/**Data of observation/matrix group.**/
+	private Variable varRowData;
+
+	/**Row indices of sample/matrix group; null if group is not available.**/
+	private Variable varColIndices;
+
+	/**Data of sample/matrix group; null if group is not available.**/
+	private Variable varColData;
+
+	/**Column pointers built from observation/matrix group if sample/matrix group is not available; null until needed.**/
+	private int[] rgiScanColPtr;
+
+	/**Row indices built from observation/matrix group if sample/matrix group is not available; null until needed.**/
+	private int[] rgiScanRowIndex;
+
+	/**Values built from observation/matrix group if sample/matrix group is not available; null until needed.**/
+	private double[] rgdScanColData;
+
+	/**
+	 * Constructor. Opens file and loads axis IDs and pointers.
+	 * @param sBiomPath Absolute path to BIOM file.
+	 */
+	public BiomReader(String sBiomPath) throws IOException{
+
+		//bLoaded = true once IDs and pointers have been loaded
+
+		boolean bLoaded;
+
+		bLoaded = false;
+		fil1 = NetcdfFile.open(sBiomPath);
+		try{
+			rgsObservationIDs = (String[]) findVariable("observation/ids").read().copyToNDJavaArray();
+			rgsSampleIDs = (String[]) findVariable("sample/ids").read().copyToNDJavaArray();
+			mapObservationIndex = loadIndex(rgsObservationIDs);
+			mapSampleIndex = loadIndex(rgsSampleIDs);
+			varRowIndices = findVariable("observation/matrix/indices");
+			varRowData = findVariable("observation/matrix/data");
+			rgiRowPtr = (int[]) findVariable("observation/matrix/indptr").read().get1DJavaArray(int.class);
+			if(fil1.findVariable("sample/matrix/indptr")!=null && fil1.findVariable("sample/matrix/indices")!=null && fil1.findVariable("sample/matrix/data")!=null){
+				varColIndices = fil1.findVariable("sample/matrix/indices");
+				varColData = fil1.findVariable("sample/matrix/data");
+				rgiColPtr = (int[]) fil1.findVariable("sample/matrix/indptr").read().get1DJavaArray(int.class);
+				if(rgiColPtr.length!=rgsSampleIDs.length+1){
+					rgiColPtr = null;
+					varColIndices = null;
+					varColData = null;
+				}
+			}
+			bLoaded = true;
+		}finally{
+
+			//closing file if loading failed for any reason (missing variables, unexpected array types, read errors)
+			if(!bLoaded){
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Closes file.
+	 */
+	public synchronized void close() throws IOException{
+		if(fil1!=null){
+			fil1.close();
+			fil1 = null;
+		}
+	}
+
+	/**
+	 * Gets IDs of axis elements.
+	 * @param sAxisName Axis: either "observation" or "sample".
+	 * @return IDs in file order.
+	 */
+	public String[] getIDs(String sAxisName){
+		if(sAxisName.equals("sample")){
+			return rgsSampleIDs.clone();
+		}else if(sAxisName.equals("observation")){
+			return rgsObservationIDs.clone();
+		}else{
+			return null;
+		}
+	}
+
+	/**
+	 * Gets a single row or column. Only the slice of the compressed arrays holding the requested element is read.
+	 * @param sAxisName Axis of element: either "observation" (row) or "sample" (column).
+	 * @param sID ID of observation or sample.
+	 * @return Map from IDs along the other axis to values; all values are zero if the element is not in the table.
+	 */
+	public synchronized HashMap<String,Double> getItem(String sAxisName, String sID) throws IOException{
+
+		//mapOut = output
+		//rgsOtherIDs = IDs along other axis
+		//rgd1 = values in row or column
+
+		HashMap<String,Double> mapOut;
+		String rgsOtherIDs[];
+		double rgd1[];
+
+		if(sAxisName.equals("sample")){
+			rgsOtherIDs = rgsObservationIDs;
+			if(mapSampleIndex.containsKey(sID)){
+				rgd1 = readColumn(mapSampleIndex.get(sID));
+			}else{
+				rgd1 = new double[rgsObservationIDs.length];
+			}
+		}else if(sAxisName.equals("observation")){
+			rgsOtherIDs = rgsSampleIDs;
+			if(mapObservationIndex.containsKey(sID)){
+				rgd1 = readRow(mapObservationIndex.get(sID));
+			}else{
+				rgd1 = new double[rgsSampleIDs.length];
+			}
+		}else{
+			return null;
+		}
+		mapOut = new HashMap<String,Double>(2*rgsOtherIDs.length);
+		for(int i=0;i<rgsOtherIDs.length;i++){
+			mapOut.put(rgsOtherIDs[i], rgd1[i]);
+		}
+		return mapOut;
+	}
+
+	/**
+	 * Gets the shape of the table.
+	 * @return Number of observations and number of samples.
+	 */
+	public int[] getShape(){
+		return new int[]{rgsObservationIDs.length, rgsSampleIDs.length};
+	}
+
+	/**
+	 * Gets a single value. The slice of the row holding the observation is read.
+	 * @param sObservationID Observation ID.
+	 * @param sSampleID Sample ID.
+	 * @return Value; zero if either element is not in the table.
+	 */
+	public synchronized double getValueByIDs(String sObservationID, String sSampleID) throws IOException{
+		if(!mapObservationIndex.containsKey(sObservationID) || !mapSampleIndex.containsKey(sSampleID)){
+			return 0;
+		}
+		return readRow(mapObservationIndex.get(sObservationID))[mapSampleIndex.get(sSampleID)];
+	}
+
+	/**
+	 * Finds variable in file.
+	 * @param sName Full name of variable.
+	 * @return Variable.
+	 */
+	private Variable findVariable(String sName) throws IOException{
+
+		//var1 = output
+
+		Variable var1;
+
+		var1 = fil1.findVariable(sName);
+		if(var1==null){
+			throw new IOException("BIOM file is missing variable: " + sName);
+		}
+		return var1;
+	}
+
+	/**
+	 * Loads map from IDs to indices.
+	 * @param rgsIDs IDs.
+	 * @return Map from each ID to its index.
+	 */
+	private HashMap<String,Integer> loadIndex(String[] rgsIDs){
+
+		//mapOut = output
+
+		HashMap<String,Integer> mapOut;
+
+		mapOut = new HashMap<String,Integer>(Math.max(1000, 2*rgsIDs.length));
+		for(int i=0;i<rgsIDs.length;i++){
+			mapOut.put(rgsIDs[i], i);
+		}
+		return mapOut;
+	}
+
+	/**
+	 * Builds column-major arrays from the observation/matrix group. Used only if the sample/matrix group is not available.
+	 */
+	private void loadScanColumns() throws IOException{
+
+		//rgiIndex = column indices in row-major order
+		//rgdData = values in row-major order
+		//rgiNext = next position for each column
+
+		int rgiIndex[];
+		double rgdData[];
+		int rgiNext[];
+
+		if(fil1==null){
+			throw new IOException("Reader is closed.");
+		}
+		rgiIndex = (int[]) varRowIndices.read().get1DJavaArray(int.class);
+		rgdData = (double[]) varRowData.read().get1DJavaArray(double.class);
+		rgiScanColPtr = new int[rgsSampleIDs.length+1];
+		for(int k=rgiRowPtr[0];k<rgiRowPtr[rgsObservationIDs.length];k++){
+			rgiScanColPtr[rgiIndex[k]+1]++;
+		}
+		for(int j=0;j<rgsSampleIDs.length;j++){
+			rgiScanColPtr[j+1]+=rgiScanColPtr[j];
+		}
+		rgiNext = rgiScanColPtr.clone();
+		rgiScanRowIndex = new int[rgiScanColPtr[rgsSampleIDs.length]];
+		rgdScanColData = new double[rgiScanColPtr[rgsSampleIDs.length]];
+		for(int i=0;i<rgsObservationIDs.length;i++){
+			for(int k=rgiRowPtr[i];k<rgiRowPtr[i+1];k++){
+				rgiScanRowIndex[rgiNext[rgiIndex[k]]] = i;
+				rgdScanColData[rgiNext[rgiIndex[k]]] = rgdData[k];
+				rgiNext[rgiIndex[k]]++;
+			}
+		}
+	}
+
+	/**
+	 * Reads a column as a dense vector.
+	 * @param iCol File index of sample.
+	 * @return Value for each observation.
+	 */
+	private double[] readColumn(int iCol) throws IOException{
+
+		//rgdOut = output
+
+		double rgdOut[];
+
+		if(rgiColPtr!=null){
+			return readSlice(varColIndices, varColData, rgiColPtr[iCol], rgiColPtr[iCol+1], rgsObservationIDs.length);
+		}
+		if(rgiScanColPtr==null){
+			loadScanColumns();
+		}
+		rgdOut = new double[rgsObservationIDs.length];
+		for(int k=rgiScanColPtr[iCol];k<rgiScanColPtr[iCol+1];k++){
+			rgdOut[rgiScanRowIndex[k]]+=rgdScanColData[k];
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Reads a row as a dense vector.
+	 * @param iRow File index of observation.
+	 * @return Value for each sample.
+	 */
+	private double[] readRow(int iRow) throws IOException{
+		return readSlice(varRowIndices, varRowData, rgiRowPtr[iRow], rgiRowPtr[iRow+1], rgsSampleIDs.length);
+	}
+
+	/**
+	 * Reads a slice of compressed index and data arrays into a dense vector. Duplicate entries are summed.
+	 * @param varIndices Index variable.
+	 * @param varData Data variable.
+	 * @param iStart First position of slice.
+	 * @param iEnd Position after last position of slice.
+	 * @param iLength Length of dense vector.
+	 * @return Dense vector.
+	 */
+	private double[] readSlice(Variable varIndices, Variable varData, int iStart, int iEnd, int iLength) throws IOException{
+
+		//rgdOut = output
+		//rgiIndex = indices in slice
+		//rgdData = values in slice
+
+		double rgdOut[];
+		int rgiIndex[];
+		double rgdData[];
+
+		if(fil1==null){
+			throw new IOException("Reader is closed.");
+		}
+		rgdOut = new double[iLength];
+		if(iEnd<=iStart){
+			return rgdOut;
+		}
+		try{
+			rgiIndex = (int[]) varIndices.read(new int[]{iStart}, new int[]{iEnd-iStart}).get1DJavaArray(int.class);
+			rgdData = (double[]) varData.read(new int[]{iStart}, new int[]{iEnd-iStart}).get1DJavaArray(double.class);
+		}catch(InvalidRangeException e){
+			throw new IOException(e);
+		}
+		for(int k=0;k<rgiIndex.length;k++){
+			rgdOut[rgiIndex[k]]+=rgdData[k];
+		}
+		return rgdOut;
+	}
+}
@@ -0,0 +1,143 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.util.HashMap;
+import org.junit.Test;
+
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.BiomReader;
+
+public class BiomReaderTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+	
+	/**Test data file.**/
+	private String sTestFile;
+	
+	/**Full table, loaded into memory.**/
+	private BiomIO bio1;
+	
+	/**
+	 * Constructor.
+	 */
+	public BiomReaderTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+	
+	@Test
+	public void getItem_ObservationsAreRead_RowsAreCorrect(){
+		
+		//bdr1 = reader
+		
+		BiomReader bdr1;
+		
+		try{
+			bdr1 = new BiomReader(sTestDataDir + "/" + sTestFile);
+			for(String s:bdr1.getIDs("observation")){
+				assertEquals(bio1.getItem(bio1.axsObservation, s),bdr1.getItem("observation", s));
+			}
+			bdr1.close();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void getItem_SamplesAreRead_ColumnsAreCorrect(){
+		
+		//bdr1 = reader
+		
+		BiomReader bdr1;
+		
+		try{
+			bdr1 = new BiomReader(sTestDataDir + "/" + sTestFile);
+			for(String s:bdr1.getIDs("sample")){
+				assertEquals(bio1.getItem(bio1.axsSample, s),bdr1.getItem("sample", s));
+			}
+			bdr1.close();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void getItem_IDIsNotInTable_ValuesAreZero(){
+		
+		//bdr1 = reader
+		//map1 = values
+		
+		BiomReader bdr1;
+		HashMap<String,Double> map1;
+		
+		try{
+			bdr1 = new BiomReader(sTestDataDir + "/" + sTestFile);
+			map1 = bdr1.getItem("sample", "SampleX");
+			assertEquals(5,map1.size());
+			for(String s:map1.keySet()){
+				assertEquals(0.,map1.get(s),0.0000001);
+			}
+			bdr1.close();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void getShape_ShapeChecked_ShapeCorrect(){
+		
+		//bdr1 = reader
+		
+		BiomReader bdr1;
+		
+		try{
+			bdr1 = new BiomReader(sTestDataDir + "/" + sTestFile);
+			assertArrayEquals(new int[]{5,6},bdr1.getShape());
+			bdr1.close();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void getValueByIDs_ValuesAreRead_ValuesAreCorrect(){
+		
+		//bdr1 = reader
+		
+		BiomReader bdr1;
+		
+		try{
+			bdr1 = new BiomReader(sTestDataDir + "/" + sTestFile);
+			for(String s:bdr1.getIDs("observation")){
+				for(String t:bdr1.getIDs("sample")){
+					assertEquals(bio1.getValueByIDs(s, t),bdr1.getValueByIDs(s, t),0.0000001);
+				}
+			}
+			bdr1.close();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void close_ReaderIsClosed_QueriesFail(){
+		
+		//bdr1 = reader
+		
+		BiomReader bdr1 = null;
+		
+		try{
+			bdr1 = new BiomReader(sTestDataDir + "/" + sTestFile);
+			bdr1.close();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		try{
+			bdr1.getItem("observation", "GG_OTU_1");
+			fail("Query on closed reader succeeded.");
+		}catch(Exception e){
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package edu.ucsf.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bootstrap resampling of the samples of a BIOM table without copying the table. A replicate is a vector giving the number of times each sample is drawn (its multiplicity), and statistics of a replicate are computed by weighting the original columns by their multiplicities. Replicate r for a given seed draws from the random stream Rarefaction.getRandom(seed, r), so replicates can be generated in any order, or concurrently, with identical results. The table should not be modified while it is being resampled.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class Bootstrap{
+
+	//bio1 = table
+	//iSamples = number of samples
+
+	/**Table.**/
+	private BiomIO bio1;
+
+	/**Number of samples.**/
+	private int iSamples;
+
+	/**
+	 * Constructor.
+	 * @param bio1 Table. Samples are columns of the table.
+	 */
+	public Bootstrap(BiomIO bio1){
+		this.bio1 = bio1;
+		iSamples = bio1.axsSample.size();
+	}
+
+	/**
+	 * Computes a statistic for many replicates.
+	 * @param iReplicates Number of replicates.
+	 * @param iRandomSeed Random seed.
+	 * @param iThreads Number of threads to use.
+	 * @param sta1 Statistic; called from several threads at once if iThreads is greater than 1.
+	 * @return Value of statistic for each replicate, in order of replicate.
+	 */
+	public double[][] computeReplicates(final int iReplicates, final int iRandomSeed, int iThreads, final Statistic sta1) throws Exception{
+
+		//rgdOut = output
+		//iNext = next replicate to compute
+		//exc1 = thread pool
+		//lstFutures = task results
+
+		final double rgdOut[][];
+		final AtomicInteger iNext;
+		ExecutorService exc1;
+		ArrayList<Future<Object>> lstFutures;
+
+		rgdOut = new double[iReplicates][];
+		iNext = new AtomicInteger(0);
+
+		//computing on calling thread
+		if(iThreads<=1 || iReplicates<2){
+			computeReplicates(iReplicates, iRandomSeed, iNext, sta1, rgdOut);
+			return rgdOut;
+		}
+
+		//computing on thread pool: each thread takes replicates in turn
+		exc1 = Executors.newFixedThreadPool(Math.min(iThreads, iReplicates));
+		lstFutures = new ArrayList<Future<Object>>();
+		try{
+			for(int t=0;t<Math.min(iThreads, iReplicates);t++){
+				lstFutures.add(exc1.submit(new Callable<Object>(){
+					public Object call() throws Exception{
+						computeReplicates(iReplicates, iRandomSeed, iNext, sta1, rgdOut);
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> fut1:lstFutures){
+				fut1.get();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch(ExecutionException e){
+			throw new IOException(e.getCause());
+		}finally{
+			exc1.shutdownNow();
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Computes replicates until none remain.
+	 * @param iReplicates Number of replicates.
+	 * @param iRandomSeed Random seed.
+	 * @param iNext Next replicate to compute; shared between threads.
+	 * @param sta1 Statistic.
+	 * @param rgdOut Output.
+	 */
+	private void computeReplicates(int iReplicates, int iRandomSeed, AtomicInteger iNext, Statistic sta1, double[][] rgdOut){
+
+		//r = current replicate
+
+		int r;
+
+		while((r = iNext.getAndIncrement())<iReplicates){
+			rgdOut[r] = sta1.compute(getReplicate(iRandomSeed, r));
+		}
+	}
+
+	/**
+	 * Gets mean over pairs of drawn samples of the distance between them. Pairs of copies of the same sample have distance 0.
+	 * @param rgdDistances Distances between samples in condensed form (see BetaDiversity).
+	 * @param rgiWeights Multiplicity of each sample.
+	 * @return Weighted mean distance, sum over i less than j of w_i*w_j*d_ij divided by W*(W-1)/2, where W is the total multiplicity; NaN if fewer than two samples are drawn.
+	 */
+	public static double getMeanDistance(double[] rgdDistances, int[] rgiWeights){
+
+		//dSum = weighted sum of distances
+		//dWeight = total multiplicity
+		//lPos = position of current pair
+
+		double dSum;
+		double dWeight;
+		long lPos;
+
+		dSum = 0;
+		dWeight = 0;
+		for(int i=0;i<rgiWeights.length;i++){
+			dWeight+=rgiWeights[i];
+			if(rgiWeights[i]==0){
+				continue;
+			}
+			lPos = BetaDiversity.getCondensedIndex(i, i+1, rgiWeights.length);
+			for(int j=i+1;j<rgiWeights.length;j++){
+				if(rgiWeights[j]>0){
+					dSum+=((double) rgiWeights[i])*rgiWeights[j]*rgdDistances[(int) lPos];
+				}
+				lPos++;
+			}
+		}
+		if(dWeight<2){
+			return Double.NaN;
+		}
+		return dSum/(dWeight*(dWeight-1.)/2.);
+	}
+
+	/**
+	 * Gets mean of each observation over drawn samples.
+	 * @param rgiWeights Multiplicity of each sample.
+	 * @return Weighted mean of each observation, in observation index order.
+	 */
+	public double[] getMeans(int[] rgiWeights){
+
+		//rgdOut = output
+		//dWeight = total multiplicity
+
+		double rgdOut[];
+		double dWeight;
+
+		dWeight = 0;
+		for(int i:rgiWeights){
+			dWeight+=i;
+		}
+		rgdOut = getSums(rgiWeights);
+		for(int i=0;i<rgdOut.length;i++){
+			rgdOut[i]/=dWeight;
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Gets replicate.
+	 * @param iRandomSeed Random seed.
+	 * @param iReplicate Index of replicate.
+	 * @return Number of times each sample is drawn, in sample index order; multiplicities sum to the number of samples.
+	 */
+	public int[] getReplicate(int iRandomSeed, int iReplicate){
+
+		//rgiOut = output
+		//rnd1 = random number generator
+
+		int rgiOut[];
+		SplittableRandom rnd1;
+
+		rgiOut = new int[iSamples];
+		rnd1 = Rarefaction.getRandom(iRandomSeed, iReplicate);
+		for(int k=0;k<iSamples;k++){
+			rgiOut[rnd1.nextInt(iSamples)]++;
+		}
+		return rgiOut;
+	}
+
+	/**
+	 * Gets sum of each observation over drawn samples.
+	 * @param rgiWeights Multiplicity of each sample.
+	 * @return Weighted sum of each observation, in observation index order.
+	 */
+	public double[] getSums(int[] rgiWeights){
+
+		//rgdOut = output
+		//cur1 = cursor over observations
+
+		double rgdOut[];
+		BiomIO.NonzeroCursor cur1;
+
+		rgdOut = new double[bio1.axsObservation.size()];
+		cur1 = bio1.getCursor(bio1.axsObservation);
+		for(int i=0;i<rgdOut.length;i++){
+			cur1.seek(i);
+			while(cur1.next()){
+				rgdOut[i]+=rgiWeights[cur1.getIndex()]*cur1.getValue();
+			}
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Gets mean over drawn samples of a per-sample value, such as an alpha diversity index.
+	 * @param rgdValues Value of each sample.
+	 * @param rgiWeights Multiplicity of each sample.
+	 * @return Weighted mean.
+	 */
+	public static double getWeightedMean(double[] rgdValues, int[] rgiWeights){
+
+		//dSum = weighted sum
+		//dWeight = total multiplicity
+
+		double dSum;
+		double dWeight;
+
+		dSum = 0;
+		dWeight = 0;
+		for(int j=0;j<rgiWeights.length;j++){
+			if(rgiWeights[j]>0){
+				dSum+=rgiWeights[j]*rgdValues[j];
+				dWeight+=rgiWeights[j];
+			}
+		}
+		return dSum/dWeight;
+	}
+
+	/**
+	 * Statistic of a replicate.
+	 */
+	public interface Statistic{
+
+		/**
+		 * Computes statistic.
+		 * @param rgiWeights Multiplicity of each sample.
+		 * @return Value of statistic; may have any length.
+		 */
+		public double[] compute(int[] rgiWeights);
+	}
+}
@@ -0,0 +1,139 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import edu.ucsf.io.BetaDiversity;
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.Bootstrap;
+
+public class BootstrapTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**Bootstrap object.**/
+	private Bootstrap bts1;
+
+	/**
+	 * Constructor.
+	 */
+	public BootstrapTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+		bts1=new Bootstrap(bio1);
+	}
+
+	@Test
+	public void computeReplicates_ReplicatesComputedOnSeveralThreads_ValuesMatchSingleThread(){
+
+		//sta1 = statistic
+		//rgd1 = values on one thread
+		//rgd2 = values on several threads
+
+		Bootstrap.Statistic sta1;
+		double rgd1[][] = null;
+		double rgd2[][] = null;
+
+		sta1 = new Bootstrap.Statistic(){
+			public double[] compute(int[] rgiWeights){
+				return bts1.getMeans(rgiWeights);
+			}
+		};
+		try{
+			rgd1 = bts1.computeReplicates(200, 1234, 1, sta1);
+			rgd2 = bts1.computeReplicates(200, 1234, 4, sta1);
+		}catch(Exception e){
+			e.printStackTrace();
+			fail();
+		}
+		assertEquals(200,rgd1.length);
+		for(int r=0;r<rgd1.length;r++){
+			assertArrayEquals(bts1.getMeans(bts1.getReplicate(1234, r)),rgd1[r],0.);
+			assertArrayEquals(rgd1[r],rgd2[r],0.);
+		}
+	}
+
+	@Test
+	public void getMeanDistance_MeanDistanceGotten_MeanDistanceIsCorrect(){
+
+		//rgd1 = Bray-Curtis distances
+		//dMean = mean distance
+
+		double rgd1[] = null;
+		double dMean;
+
+		try{
+			rgd1 = new BetaDiversity(bio1, "braycurtis").compute(1);
+		}catch(Exception e){
+			e.printStackTrace();
+			fail();
+		}
+		dMean = 0;
+		for(int k=0;k<rgd1.length;k++){
+			dMean+=rgd1[k]/rgd1.length;
+		}
+		assertEquals(dMean,Bootstrap.getMeanDistance(rgd1, new int[]{1,1,1,1,1,1}),0.0000000001);
+		assertEquals(0.6*2./3.,Bootstrap.getMeanDistance(rgd1, new int[]{2,1,0,0,0,0}),0.0000000001);
+		assertTrue(Double.isNaN(Bootstrap.getMeanDistance(rgd1, new int[]{0,0,1,0,0,0})));
+	}
+
+	@Test
+	public void getMeans_MeansGotten_MeansAreCorrect(){
+		assertArrayEquals(new double[]{0,16./6.,0,7./6.,3./6.},bts1.getMeans(new int[]{2,3,0,0,1,0}),0.0000000001);
+	}
+
+	@Test
+	public void getReplicate_ReplicateGotten_ReplicateIsReproducibleAndSumsToSamples(){
+
+		//rgi1 = replicate
+		//iSum = total multiplicity
+
+		int rgi1[];
+		int iSum;
+
+		for(int r=0;r<100;r++){
+			rgi1 = bts1.getReplicate(5678, r);
+			assertEquals(6,rgi1.length);
+			iSum = 0;
+			for(int i:rgi1){
+				assertTrue(i>=0);
+				iSum+=i;
+			}
+			assertEquals(6,iSum);
+			assertArrayEquals(rgi1,bts1.getReplicate(5678, r));
+		}
+	}
+
+	@Test
+	public void getSums_SumsGotten_SumsAreCorrect(){
+
+		//rgi1 = weights
+		//dSum = expected sum
+
+		int rgi1[];
+		double dSum;
+
+		assertArrayEquals(new double[]{1,12,7,5,2},bts1.getSums(new int[]{1,1,1,1,1,1}),0.);
+		rgi1 = new int[]{0,2,1,3,0,0};
+		for(int i=0;i<5;i++){
+			dSum = 0;
+			for(int j=0;j<6;j++){
+				dSum+=rgi1[j]*bio1.getValueByIndices(i, j);
+			}
+			assertEquals(dSum,bts1.getSums(rgi1)[i],0.0000000001);
+		}
+	}
+
+	@Test
+	public void getWeightedMean_WeightedMeanGotten_WeightedMeanIsCorrect(){
+		assertEquals((2.*1.+3.*4.+6.)/6.,Bootstrap.getWeightedMean(new double[]{1,4,Double.NaN,5,6,7}, new int[]{2,3,0,0,1,0}),0.0000000001);
+	}
+}
@@ -0,0 +1,521 @@
+package edu.ucsf.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Association network between the observations of a BIOM table. A statistic is computed for every pair of observations that are present in at least a given fraction of samples, and only pairs whose statistic passes a threshold are passed on as edges, so memory use grows with the number of edges rather than with the square of the number of observations. Each statistic is written as a function of per-observation sums and of a sum of products over the samples shared by the two observations; the products are accumulated by walking, for each nonzero entry of an observation, the later observations present in the same sample. Observations are split into blocks that are taken in turn by a pool of threads. Supported statistics are:
+ * <p>
+ * <ul>
+ * <li>cooccurrence = number of samples in which both observations are present. Edges have at least the threshold number of shared samples.
+ * <li>pearson = Pearson correlation of abundances.
+ * <li>spearman = Spearman correlation of abundances, with tied values (including zeros) given their average rank.
+ * <li>proportionality = proportionality coefficient rho (Erb and Notredame 2016), 2*cov(x,y)/(var(x)+var(y)), of centered log-ratio transformed abundances. A pseudocount of 1 is added to all values before the transformation, and the geometric mean of each sample is taken over all observations of the table.
+ * </ul>
+ * <p>
+ * For the correlation statistics, edges have absolute value of at least the threshold; statistics that are undefined (for instance, correlations with observations of constant abundance) are never edges. Values are assumed to be non-negative.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class CooccurrenceNetwork{
+
+	//bio1 = table
+	//iStatistic = code of statistic
+	//iSamples = number of samples
+	//iRows = number of observations passing prevalence threshold
+	//rgiObservation = observation index of each retained row
+	//rgiRowPtr, rgiRowSample, rgdRowValue = transformed values of retained rows, by row
+	//rgiColPtr, rgiColRow, rgdColValue = transformed values of retained rows, by sample; rows are in increasing order within each sample
+	//rgdSum = sum of transformed values of each row
+	//rgdSumSquares = sum of squared transformed values of each row
+	//rgdSumShift = sum over samples of transformed value times sample shift (proportionality only)
+	//dShiftMean = mean of sample shifts (proportionality only)
+	//dShiftVariance = variance of sample shifts (proportionality only)
+
+	/**Names of supported statistics.**/
+	public static final String[] STATISTICS = new String[]{"cooccurrence","pearson","spearman","proportionality"};
+
+	/**Number of rows in each block of work.**/
+	private static final int BLOCK_SIZE = 32;
+
+	/**Table.**/
+	private BiomIO bio1;
+
+	/**Code (position in STATISTICS) of statistic.**/
+	private int iStatistic;
+
+	/**Number of samples.**/
+	private int iSamples;
+
+	/**Number of observations passing prevalence threshold.**/
+	private int iRows;
+
+	/**Observation index of each retained row.**/
+	private int[] rgiObservation;
+
+	/**Row pointers of transformed values.**/
+	private int[] rgiRowPtr;
+
+	/**Sample of each transformed value, by row.**/
+	private int[] rgiRowSample;
+
+	/**Transformed values, by row.**/
+	private double[] rgdRowValue;
+
+	/**Column pointers of transformed values.**/
+	private int[] rgiColPtr;
+
+	/**Row of each transformed value, by sample.**/
+	private int[] rgiColRow;
+
+	/**Transformed values, by sample.**/
+	private double[] rgdColValue;
+
+	/**Sum of transformed values of each row.**/
+	private double[] rgdSum;
+
+	/**Sum of squared transformed values of each row.**/
+	private double[] rgdSumSquares;
+
+	/**Sum over samples of transformed value times sample shift, for each row (proportionality only).**/
+	private double[] rgdSumShift;
+
+	/**Mean of sample shifts (proportionality only).**/
+	private double dShiftMean;
+
+	/**Variance of sample shifts (proportionality only).**/
+	private double dShiftVariance;
+
+	/**
+	 * Constructor. Loads transformed values of all observations passing the prevalence threshold.
+	 * @param bio1 Table. Observations are rows of the table.
+	 * @param sStatistic Statistic to compute; see class documentation for names.
+	 * @param dMinPrevalence Minimum fraction of samples in which an observation must be present to be included.
+	 */
+	public CooccurrenceNetwork(BiomIO bio1, String sStatistic, double dMinPrevalence) throws Exception{
+
+		this.bio1 = bio1;
+		iStatistic = -1;
+		for(int l=0;l<STATISTICS.length;l++){
+			if(STATISTICS[l].equals(sStatistic)){
+				iStatistic = l;
+			}
+		}
+		if(iStatistic==-1){
+			throw new Exception("Unknown association statistic: " + sStatistic);
+		}
+		iSamples = bio1.axsSample.size();
+		loadRows(dMinPrevalence);
+		loadColumns();
+		loadSums();
+	}
+
+	/**
+	 * Computes statistic for all pairs of retained observations and passes edges to a visitor. Calls to the visitor are made one at a time (synchronized on the visitor), so the visitor does not need to be thread-safe; edges of a block of rows are buffered and passed on together, in no particular order between blocks.
+	 * @param vis1 Visitor for edges.
+	 * @param dThreshold Threshold for edges; see class documentation.
+	 * @param iThreads Number of threads to use.
+	 * @return Number of edges.
+	 */
+	public long compute(final EdgeVisitor vis1, final double dThreshold, int iThreads) throws Exception{
+
+		//iBlocks = number of blocks
+		//iNext = next block to compute
+		//lEdges = number of edges
+		//exc1 = thread pool
+		//lstFutures = task results
+
+		int iBlocks;
+		final AtomicInteger iNext;
+		final AtomicLong lEdges;
+		ExecutorService exc1;
+		ArrayList<Future<Object>> lstFutures;
+
+		iBlocks = (iRows+BLOCK_SIZE-1)/BLOCK_SIZE;
+		iNext = new AtomicInteger(0);
+		lEdges = new AtomicLong(0);
+
+		//computing on calling thread
+		if(iThreads<=1 || iBlocks<2){
+			computeBlocks(iNext, vis1, dThreshold, lEdges);
+			return lEdges.get();
+		}
+
+		//computing on thread pool: each thread takes blocks in turn
+		exc1 = Executors.newFixedThreadPool(Math.min(iThreads, iBlocks));
+		lstFutures = new ArrayList<Future<Object>>();
+		try{
+			for(int t=0;t<Math.min(iThreads, iBlocks);t++){
+				lstFutures.add(exc1.submit(new Callable<Object>(){
+					public Object call() throws Exception{
+						computeBlocks(iNext, vis1, dThreshold, lEdges);
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> fut1:lstFutures){
+				fut1.get();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch(ExecutionException e){
+			throw new IOException(e.getCause());
+		}finally{
+			exc1.shutdownNow();
+		}
+		return lEdges.get();
+	}
+
+	/**
+	 * Computes blocks of rows until none remain. For each row, the sums of products with all later rows are accumulated in a dense array, which is cleared as the statistics are read from it.
+	 * @param iNext Next block to compute; shared between threads.
+	 * @param vis1 Visitor for edges.
+	 * @param dThreshold Threshold for edges.
+	 * @param lEdges Number of edges; shared between threads.
+	 */
+	private void computeBlocks(AtomicInteger iNext, EdgeVisitor vis1, double dThreshold, AtomicLong lEdges){
+
+		//iStart = first row of block
+		//rgdCross = sum of products of current row with each later row
+		//edb1 = buffered edges of current block
+		//j = current sample
+		//d1 = current value
+		//dValue = current statistic
+
+		int iStart;
+		double rgdCross[];
+		EdgeBuffer edb1;
+		int j;
+		double d1;
+		double dValue;
+
+		rgdCross = new double[iRows];
+		edb1 = new EdgeBuffer();
+		while((iStart = iNext.getAndIncrement()*BLOCK_SIZE)<iRows){
+			for(int p=iStart;p<Math.min(iRows, iStart+BLOCK_SIZE);p++){
+				for(int t=rgiRowPtr[p];t<rgiRowPtr[p+1];t++){
+					j = rgiRowSample[t];
+					d1 = rgdRowValue[t];
+
+					//rows within each sample are increasing, so later rows are at the end
+					for(int u=rgiColPtr[j+1]-1;u>=rgiColPtr[j] && rgiColRow[u]>p;u--){
+						rgdCross[rgiColRow[u]]+=d1*rgdColValue[u];
+					}
+				}
+				for(int q=p+1;q<iRows;q++){
+					dValue = statistic(p, q, rgdCross[q]);
+					rgdCross[q] = 0;
+					if(iStatistic==0 ? dValue>=dThreshold : Math.abs(dValue)>=dThreshold){
+						edb1.add(rgiObservation[p], rgiObservation[q], dValue);
+					}
+				}
+			}
+			lEdges.addAndGet(edb1.size());
+			synchronized(vis1){
+				edb1.flush(vis1);
+			}
+		}
+	}
+
+	/**
+	 * Gets observation indices of observations passing prevalence threshold.
+	 * @return Observation indices, in increasing order.
+	 */
+	public int[] getObservations(){
+		return rgiObservation.clone();
+	}
+
+	/**
+	 * Loads column-major copy of transformed values. Rows are added in increasing order, so they are increasing within each sample.
+	 */
+	private void loadColumns(){
+
+		//rgiNext = next position for each sample
+
+		int rgiNext[];
+
+		rgiColPtr = new int[iSamples+1];
+		for(int t=0;t<rgiRowSample.length;t++){
+			rgiColPtr[rgiRowSample[t]+1]++;
+		}
+		for(int j=0;j<iSamples;j++){
+			rgiColPtr[j+1]+=rgiColPtr[j];
+		}
+		rgiColRow = new int[rgiRowSample.length];
+		rgdColValue = new double[rgiRowSample.length];
+		rgiNext = Arrays.copyOf(rgiColPtr, iSamples);
+		for(int p=0;p<iRows;p++){
+			for(int t=rgiRowPtr[p];t<rgiRowPtr[p+1];t++){
+				rgiColRow[rgiNext[rgiRowSample[t]]] = p;
+				rgdColValue[rgiNext[rgiRowSample[t]]] = rgdRowValue[t];
+				rgiNext[rgiRowSample[t]]++;
+			}
+		}
+	}
+
+	/**
+	 * Loads transformed values of observations passing prevalence threshold. Zeros are left out: each statistic is computed from values that are transformed so that absent entries are 0.
+	 * @param dMinPrevalence Minimum fraction of samples in which an observation must be present.
+	 */
+	private void loadRows(double dMinPrevalence){
+
+		//cur1 = cursor over observations
+		//rgiPresent = number of positive entries of each observation
+		//lstObservation = retained observations
+		//iEntries = number of positive entries of retained observations
+		//iPos = current position in transformed values
+		//rgdSorted = sorted positive values of current observation
+		//rgdDistinct = distinct positive values of current observation
+		//rgdRank = average rank of each distinct value
+		//iDistinct = number of distinct values
+		//iZeros = number of samples in which current observation is absent
+		//iTie = end of current run of tied values
+
+		BiomIO.NonzeroCursor cur1;
+		int rgiPresent[];
+		ArrayList<Integer> lstObservation;
+		int iEntries;
+		int iPos;
+		double rgdSorted[];
+		double rgdDistinct[];
+		double rgdRank[];
+		int iDistinct;
+		int iZeros;
+		int iTie;
+
+		cur1 = bio1.getCursor(bio1.axsObservation);
+		rgiPresent = new int[bio1.axsObservation.size()];
+		lstObservation = new ArrayList<Integer>();
+		iEntries = 0;
+		for(int i=0;i<bio1.axsObservation.size();i++){
+			cur1.seek(i);
+			while(cur1.next()){
+				if(cur1.getValue()>0){
+					rgiPresent[i]++;
+				}
+			}
+			if(rgiPresent[i]>0 && rgiPresent[i]>=dMinPrevalence*iSamples){
+				lstObservation.add(i);
+				iEntries+=rgiPresent[i];
+			}
+		}
+		iRows = lstObservation.size();
+		rgiObservation = new int[iRows];
+		rgiRowPtr = new int[iRows+1];
+		rgiRowSample = new int[iEntries];
+		rgdRowValue = new double[iEntries];
+		iPos = 0;
+		for(int p=0;p<iRows;p++){
+			rgiObservation[p] = lstObservation.get(p);
+			cur1.seek(rgiObservation[p]);
+			while(cur1.next()){
+				if(cur1.getValue()>0){
+					rgiRowSample[iPos] = cur1.getIndex();
+					rgdRowValue[iPos] = cur1.getValue();
+					iPos++;
+				}
+			}
+			rgiRowPtr[p+1] = iPos;
+
+			//transforming values
+			switch(iStatistic){
+				case 0:
+					Arrays.fill(rgdRowValue, rgiRowPtr[p], iPos, 1.);
+					break;
+				case 2:
+
+					//ranks shifted so that absent entries (tied at the lowest rank) are 0
+					rgdSorted = Arrays.copyOfRange(rgdRowValue, rgiRowPtr[p], iPos);
+					Arrays.sort(rgdSorted);
+					rgdDistinct = new double[rgdSorted.length];
+					rgdRank = new double[rgdSorted.length];
+					iDistinct = 0;
+					iZeros = iSamples-rgdSorted.length;
+					for(int k=0;k<rgdSorted.length;k=iTie){
+						iTie = k+1;
+						while(iTie<rgdSorted.length && rgdSorted[iTie]==rgdSorted[k]){
+							iTie++;
+						}
+						rgdDistinct[iDistinct] = rgdSorted[k];
+						rgdRank[iDistinct] = iZeros+(k+iTie+1)/2.-(iZeros+1)/2.;
+						iDistinct++;
+					}
+					for(int t=rgiRowPtr[p];t<iPos;t++){
+						rgdRowValue[t] = rgdRank[Arrays.binarySearch(rgdDistinct, 0, iDistinct, rgdRowValue[t])];
+					}
+					break;
+				case 3:
+					for(int t=rgiRowPtr[p];t<iPos;t++){
+						rgdRowValue[t] = Math.log1p(rgdRowValue[t]);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Loads per-row sums of transformed values. For proportionality, the centered log-ratio of entry x in sample j is log(1+x) + h_j, where h_j is minus the mean of log(1+x) over all observations in sample j; the sample shifts h_j are loaded here as well.
+	 */
+	private void loadSums(){
+
+		//cur1 = cursor over samples
+		//rgdShift = shift of each sample
+
+		BiomIO.NonzeroCursor cur1;
+		double rgdShift[] = null;
+
+		if(iStatistic==3){
+			rgdShift = new double[iSamples];
+			cur1 = bio1.getCursor(bio1.axsSample);
+			dShiftMean = 0;
+			dShiftVariance = 0;
+			for(int j=0;j<iSamples;j++){
+				cur1.seek(j);
+				while(cur1.next()){
+					if(cur1.getValue()>0){
+						rgdShift[j]-=Math.log1p(cur1.getValue());
+					}
+				}
+				rgdShift[j]/=bio1.axsObservation.size();
+				dShiftMean+=rgdShift[j];
+				dShiftVariance+=rgdShift[j]*rgdShift[j];
+			}
+			dShiftMean/=iSamples;
+			dShiftVariance = dShiftVariance/iSamples-dShiftMean*dShiftMean;
+			rgdSumShift = new double[iRows];
+		}
+		rgdSum = new double[iRows];
+		rgdSumSquares = new double[iRows];
+		for(int p=0;p<iRows;p++){
+			for(int t=rgiRowPtr[p];t<rgiRowPtr[p+1];t++){
+				rgdSum[p]+=rgdRowValue[t];
+				rgdSumSquares[p]+=rgdRowValue[t]*rgdRowValue[t];
+				if(rgdShift!=null){
+					rgdSumShift[p]+=rgdRowValue[t]*rgdShift[rgiRowSample[t]];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes statistic for a pair of rows.
+	 * @param p First row.
+	 * @param q Second row.
+	 * @param dCross Sum over samples of products of transformed values.
+	 * @return Statistic; NaN if undefined.
+	 */
+	private double statistic(int p, int q, double dCross){
+
+		//dCov = covariance of transformed values
+		//dVarP, dVarQ = variances of transformed values
+		//dCovShiftP, dCovShiftQ = covariances of transformed values with sample shifts
+
+		double dCov;
+		double dVarP;
+		double dVarQ;
+		double dCovShiftP;
+		double dCovShiftQ;
+
+		if(iStatistic==0){
+			return dCross;
+		}
+		dCov = dCross/iSamples-rgdSum[p]*rgdSum[q]/((double) iSamples*iSamples);
+		dVarP = rgdSumSquares[p]/iSamples-rgdSum[p]*rgdSum[p]/((double) iSamples*iSamples);
+		dVarQ = rgdSumSquares[q]/iSamples-rgdSum[q]*rgdSum[q]/((double) iSamples*iSamples);
+		if(iStatistic==3){
+			dCovShiftP = rgdSumShift[p]/iSamples-rgdSum[p]/iSamples*dShiftMean;
+			dCovShiftQ = rgdSumShift[q]/iSamples-rgdSum[q]/iSamples*dShiftMean;
+			dCov+=dCovShiftP+dCovShiftQ+dShiftVariance;
+			dVarP+=2.*dCovShiftP+dShiftVariance;
+			dVarQ+=2.*dCovShiftQ+dShiftVariance;
+			if(dVarP+dVarQ<=0){
+				return Double.NaN;
+			}
+			return 2.*dCov/(dVarP+dVarQ);
+		}
+		if(dVarP<=0 || dVarQ<=0){
+			return Double.NaN;
+		}
+		return dCov/Math.sqrt(dVarP*dVarQ);
+	}
+
+	/**
+	 * Visitor for edges of a network.
+	 */
+	public interface EdgeVisitor{
+
+		/**
+		 * Called for each edge.
+		 * @param iObservation1 Observation index of first observation.
+		 * @param iObservation2 Observation index of second observation; greater than iObservation1.
+		 * @param dValue Statistic.
+		 */
+		public void visit(int iObservation1, int iObservation2, double dValue);
+	}
+
+	/**
+	 * Edges buffered by a thread before they are passed to the visitor.
+	 */
+	private static class EdgeBuffer{
+
+		/**First observation of each edge.**/
+		private int[] rgiObservation1 = new int[64];
+
+		/**Second observation of each edge.**/
+		private int[] rgiObservation2 = new int[64];
+
+		/**Statistic of each edge.**/
+		private double[] rgdValue = new double[64];
+
+		/**Number of buffered edges.**/
+		private int iSize = 0;
+
+		/**
+		 * Adds edge.
+		 * @param iObservation1 First observation.
+		 * @param iObservation2 Second observation.
+		 * @param dValue Statistic.
+		 */
+		private void add(int iObservation1, int iObservation2, double dValue){
+			if(iSize==rgdValue.length){
+				rgiObservation1 = Arrays.copyOf(rgiObservation1, 2*iSize);
+				rgiObservation2 = Arrays.copyOf(rgiObservation2, 2*iSize);
+				rgdValue = Arrays.copyOf(rgdValue, 2*iSize);
+			}
+			rgiObservation1[iSize] = iObservation1;
+			rgiObservation2[iSize] = iObservation2;
+			rgdValue[iSize] = dValue;
+			iSize++;
+		}
+
+		/**
+		 * Passes buffered edges to visitor and empties buffer.
+		 * @param vis1 Visitor.
+		 */
+		private void flush(EdgeVisitor vis1){
+			for(int k=0;k<iSize;k++){
+				vis1.visit(rgiObservation1[k], rgiObservation2[k], rgdValue[k]);
+			}
+			iSize = 0;
+		}
+
+		/**
+		 * Gets number of buffered edges.
+		 * @return Number of edges.
+		 */
+		private int size(){
+			return iSize;
+		}
+	}
+}
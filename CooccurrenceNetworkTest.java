@@ -0,0 +1,214 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.util.HashMap;
+import org.junit.Test;
+
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.CooccurrenceNetwork;
+
+public class CooccurrenceNetworkTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**
+	 * Constructor.
+	 */
+	public CooccurrenceNetworkTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+
+	@Test
+	public void CooccurrenceNetwork_UnknownStatisticGiven_ExceptionThrown(){
+		try{
+			new CooccurrenceNetwork(bio1, "kendall", 0.);
+			fail();
+		}catch(Exception e){
+		}
+	}
+
+	@Test
+	public void compute_CooccurrenceComputedWithPrevalenceThreshold_EdgesAreCorrect(){
+
+		//ntw1 = network
+		//map1 = edges
+
+		CooccurrenceNetwork ntw1;
+		HashMap<String,Double> map1;
+
+		ntw1 = null;
+		map1 = null;
+		try{
+			ntw1 = new CooccurrenceNetwork(bio1, "cooccurrence", 0.5);
+			map1 = computeEdges(ntw1, 2, 1);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+
+		//GG_OTU_1 and GG_OTU_5 are present in fewer than half of samples
+		assertArrayEquals(new int[]{1,2,3},ntw1.getObservations());
+		assertEquals(3,map1.size());
+		assertEquals(2.,map1.get("GG_OTU_2,GG_OTU_3"),0.);
+		assertEquals(3.,map1.get("GG_OTU_2,GG_OTU_4"),0.);
+		assertEquals(2.,map1.get("GG_OTU_3,GG_OTU_4"),0.);
+	}
+
+	@Test
+	public void compute_StatisticsComputed_ValuesMatchDenseComputation(){
+
+		//map1 = edges
+		//rgdX, rgdY = transformed observation vectors
+		//d1 = correct value
+
+		HashMap<String,Double> map1;
+		double rgdX[];
+		double rgdY[];
+		double d1;
+
+		for(int m=0;m<CooccurrenceNetwork.STATISTICS.length;m++){
+			map1 = null;
+			try{
+				map1 = computeEdges(new CooccurrenceNetwork(bio1, CooccurrenceNetwork.STATISTICS[m], 0.), 0., 1);
+			}catch(Exception e){
+				fail(e.getMessage());
+			}
+			for(int i=0;i<5;i++){
+				for(int k=i+1;k<5;k++){
+					rgdX = transform(i, m);
+					rgdY = transform(k, m);
+					if(m==0){
+						d1 = 0;
+						for(int j=0;j<6;j++){
+							d1+=rgdX[j]*rgdY[j];
+						}
+					}else if(m==3){
+						d1 = 2.*covariance(rgdX,rgdY)/(covariance(rgdX,rgdX)+covariance(rgdY,rgdY));
+					}else{
+						d1 = covariance(rgdX,rgdY)/Math.sqrt(covariance(rgdX,rgdX)*covariance(rgdY,rgdY));
+					}
+					assertEquals(CooccurrenceNetwork.STATISTICS[m],d1,map1.get(bio1.axsObservation.getID(i) + "," + bio1.axsObservation.getID(k)),0.0000000001);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void compute_SeveralThreadsAndThreshold_EdgesMatchSingleThread(){
+
+		//ntw1 = network
+		//map1 = edges on one thread
+		//map2 = edges on several threads
+
+		CooccurrenceNetwork ntw1;
+		HashMap<String,Double> map1;
+		HashMap<String,Double> map2;
+
+		try{
+			ntw1 = new CooccurrenceNetwork(bio1, "spearman", 0.);
+			map1 = computeEdges(ntw1, 0.5, 1);
+			map2 = computeEdges(ntw1, 0.5, 4);
+			assertEquals(map1,map2);
+			for(String s:map1.keySet()){
+				assertTrue(Math.abs(map1.get(s))>=0.5);
+			}
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Computes edges.
+	 * @param ntw1 Network.
+	 * @param dThreshold Threshold.
+	 * @param iThreads Number of threads.
+	 * @return Map from pairs of observation IDs (separated by commas) to statistics.
+	 */
+	private HashMap<String,Double> computeEdges(CooccurrenceNetwork ntw1, double dThreshold, int iThreads) throws Exception{
+
+		//mapOut = output
+
+		final HashMap<String,Double> mapOut;
+
+		mapOut = new HashMap<String,Double>();
+		assertEquals(ntw1.compute(new CooccurrenceNetwork.EdgeVisitor(){
+			public void visit(int iObservation1, int iObservation2, double dValue){
+				mapOut.put(bio1.axsObservation.getID(iObservation1) + "," + bio1.axsObservation.getID(iObservation2), dValue);
+			}
+		}, dThreshold, iThreads),mapOut.size());
+		return mapOut;
+	}
+
+	/**
+	 * Computes population covariance.
+	 * @param rgdX First vector.
+	 * @param rgdY Second vector.
+	 * @return Covariance.
+	 */
+	private double covariance(double[] rgdX, double[] rgdY){
+
+		//dX, dY, dXY = sums
+
+		double dX;
+		double dY;
+		double dXY;
+
+		dX = 0;
+		dY = 0;
+		dXY = 0;
+		for(int j=0;j<rgdX.length;j++){
+			dX+=rgdX[j];
+			dY+=rgdY[j];
+			dXY+=rgdX[j]*rgdY[j];
+		}
+		return dXY/rgdX.length-dX*dY/(rgdX.length*rgdX.length);
+	}
+
+	/**
+	 * Gets dense transformed vector of an observation.
+	 * @param i Observation index.
+	 * @param iStatistic Code of statistic.
+	 * @return Presence (co-occurrence), abundance (Pearson), rank with ties averaged (Spearman), or centered log-ratio with pseudocount 1 (proportionality) in each sample.
+	 */
+	private double[] transform(int i, int iStatistic){
+
+		//rgdOut = output
+		//d1 = rank or mean log value
+
+		double rgdOut[];
+		double d1;
+
+		rgdOut = new double[6];
+		for(int j=0;j<6;j++){
+			rgdOut[j] = bio1.getValueByIndices(i, j);
+			if(iStatistic==0){
+				rgdOut[j] = (rgdOut[j]>0) ? 1 : 0;
+			}else if(iStatistic==2){
+				d1 = 1;
+				for(int l=0;l<6;l++){
+					if(bio1.getValueByIndices(i, l)<bio1.getValueByIndices(i, j)){
+						d1++;
+					}else if(l!=j && bio1.getValueByIndices(i, l)==bio1.getValueByIndices(i, j)){
+						d1+=0.5;
+					}
+				}
+				rgdOut[j] = d1;
+			}else if(iStatistic==3){
+				d1 = 0;
+				for(int l=0;l<5;l++){
+					d1+=Math.log(1.+bio1.getValueByIndices(l, j));
+				}
+				rgdOut[j] = Math.log(1.+rgdOut[j])-d1/5.;
+			}
+		}
+		return rgdOut;
+	}
+}
@@ -0,0 +1,467 @@
+package edu.ucsf.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * File holding a sample-by-sample distance matrix in condensed form, for matrices too large for the heap. The file is read and written through memory-mapped windows, so single distances and rows can be read without loading the matrix. The file consists of:
+ * <p>
+ * <ul>
+ * <li>Header: magic number, format version, number of samples, tile size, metric name, and sample IDs (big-endian; strings are stored as a length followed by UTF-8 bytes).
+ * <li>Tile map: one byte for each tile of the matrix on or above the diagonal, in row-major order, set to 1 once the distances in the tile have been written. Used to resume an interrupted computation.
+ * <li>Distances: big-endian doubles in condensed form, starting at the first multiple of 8 bytes after the tile map. The distance between samples i and j (i less than j) is entry n*i - i*(i+1)/2 + j - i - 1, where n is the number of samples.
+ * </ul>
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class DistanceMatrixFile implements AutoCloseable{
+
+	//raf1 = open file
+	//chn1 = channel of open file
+	//bWritable = true if file is open for writing
+	//sMetric = name of metric
+	//rgsIDs = sample IDs
+	//mapIndex(sID) = returns index of sample
+	//iTileSize = number of samples along each side of a tile
+	//iTiles = number of tiles on or above the diagonal
+	//lTileMapOffset = position in file of tile map
+	//lDataOffset = position in file of first distance
+	//bbfTiles = mapped tile map
+	//rgbbWindows = mapped windows of distances
+	//rgbfWindows = mapped windows of distances, as doubles
+
+	/**Identifies distance matrix files.**/
+	private static final long MAGIC=0x42494F4D44495354L;
+
+	/**File format version.**/
+	private static final int VERSION=1;
+
+	/**Number of distances in each mapped window.**/
+	private static final int WINDOW_SIZE=1<<27;
+
+	/**Open file.**/
+	private RandomAccessFile raf1;
+
+	/**Channel of open file.**/
+	private FileChannel chn1;
+
+	/**True if file is open for writing.**/
+	private boolean bWritable;
+
+	/**Name of metric.**/
+	private String sMetric;
+
+	/**Sample IDs.**/
+	private String[] rgsIDs;
+
+	/**Returns the index of the specified sample ID.**/
+	private HashMap<String,Integer> mapIndex;
+
+	/**Number of samples along each side of a tile.**/
+	private int iTileSize;
+
+	/**Number of tiles on or above the diagonal.**/
+	private int iTiles;
+
+	/**Position in file of tile map.**/
+	private long lTileMapOffset;
+
+	/**Position in file of first distance.**/
+	private long lDataOffset;
+
+	/**Mapped tile map.**/
+	private MappedByteBuffer bbfTiles;
+
+	/**Mapped windows of distances.**/
+	private MappedByteBuffer[] rgbbWindows;
+
+	/**Mapped windows of distances, as doubles.**/
+	private DoubleBuffer[] rgbfWindows;
+
+	/**
+	 * Constructor. Opens existing file for reading.
+	 * @param sPath Path to file.
+	 */
+	public DistanceMatrixFile(String sPath) throws IOException{
+
+		raf1 = new RandomAccessFile(sPath, "r");
+		try{
+			chn1 = raf1.getChannel();
+			bWritable = false;
+			if(!readHeader()){
+				throw new IOException("Not a distance matrix file: " + sPath);
+			}
+			mapFile();
+		}catch(IOException e){
+			raf1.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Constructor. Opens file for writing. If the file already holds a matrix with the same samples, metric, and tile size (e.g., from an interrupted computation), it is reopened with its written tiles kept; otherwise a new file is created.
+	 * @param sPath Path to file.
+	 * @param sMetric Name of metric.
+	 * @param rgsIDs Sample IDs, in sample index order.
+	 * @param iTileSize Number of samples along each side of a tile.
+	 */
+	DistanceMatrixFile(String sPath, String sMetric, String[] rgsIDs, int iTileSize) throws IOException{
+
+		//bResume = true if existing file is reused
+
+		boolean bResume;
+
+		raf1 = new RandomAccessFile(sPath, "rw");
+		try{
+			chn1 = raf1.getChannel();
+			bWritable = true;
+			bResume = false;
+			if(new File(sPath).length()>0){
+				bResume = readHeader() && this.sMetric.equals(sMetric) && this.iTileSize==iTileSize && Arrays.equals(this.rgsIDs, rgsIDs) && raf1.length()==getFileLength();
+			}
+			if(!bResume){
+				this.sMetric = sMetric;
+				this.rgsIDs = rgsIDs.clone();
+				this.iTileSize = iTileSize;
+				loadIndex();
+				raf1.setLength(0);
+				writeHeader();
+				raf1.setLength(getFileLength());
+			}
+			mapFile();
+		}catch(IOException e){
+			raf1.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes file. Mapped windows of files open for writing are written to disk, distances before the tile map.
+	 */
+	public synchronized void close() throws IOException{
+		if(raf1==null){
+			return;
+		}
+		if(bWritable){
+			for(int w=0;w<rgbbWindows.length;w++){
+				rgbbWindows[w].force();
+			}
+			bbfTiles.force();
+		}
+		raf1.close();
+		raf1 = null;
+	}
+
+	/**
+	 * Gets number of distances in condensed form.
+	 * @param iSamples Number of samples.
+	 * @return Number of pairs of samples.
+	 */
+	public static long getCondensedSize(int iSamples){
+		return (long) iSamples*(iSamples-1)/2;
+	}
+
+	/**
+	 * Gets position of a pair of samples in condensed form.
+	 * @param i First sample.
+	 * @param j Second sample; must be greater than i.
+	 * @param iSamples Number of samples.
+	 * @return Position of pair.
+	 */
+	public static long getCondensedIndex(int i, int j, int iSamples){
+		return (long) iSamples*i-(long) i*(i+1)/2+j-i-1;
+	}
+
+	/**
+	 * Gets distance between two samples.
+	 * @param i First sample.
+	 * @param j Second sample.
+	 * @return Distance; 0 if samples are the same.
+	 */
+	public double getDistance(int i, int j){
+		if(i==j){
+			return 0;
+		}else if(i<j){
+			return get(getCondensedIndex(i, j, rgsIDs.length));
+		}else{
+			return get(getCondensedIndex(j, i, rgsIDs.length));
+		}
+	}
+
+	/**
+	 * Gets sample IDs.
+	 * @return Sample IDs in sample index order.
+	 */
+	public String[] getIDs(){
+		return rgsIDs.clone();
+	}
+
+	/**
+	 * Gets name of metric.
+	 * @return Name of metric.
+	 */
+	public String getMetric(){
+		return sMetric;
+	}
+
+	/**
+	 * Gets distances from one sample to all samples. Only the mapped windows holding the row are read.
+	 * @param i Sample index.
+	 * @return Distance to each sample, in sample index order.
+	 */
+	public double[] getRow(int i){
+
+		//rgdOut = output
+		//lPos = position of current distance
+
+		double rgdOut[];
+		long lPos;
+
+		rgdOut = new double[rgsIDs.length];
+		for(int j=0;j<i;j++){
+			rgdOut[j] = get(getCondensedIndex(j, i, rgsIDs.length));
+		}
+		if(i+1<rgsIDs.length){
+			lPos = getCondensedIndex(i, i+1, rgsIDs.length);
+			for(int j=i+1;j<rgsIDs.length;j++){
+				rgdOut[j] = get(lPos);
+				lPos++;
+			}
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Gets distances from one sample to all samples.
+	 * @param sID Sample ID.
+	 * @return Distance to each sample, in sample index order; null if sample is not in the matrix.
+	 */
+	public double[] getRow(String sID){
+		if(!mapIndex.containsKey(sID)){
+			return null;
+		}
+		return getRow(mapIndex.get(sID));
+	}
+
+	/**
+	 * Gets number of tiles on or above the diagonal.
+	 * @return Number of tiles.
+	 */
+	public int getTileCount(){
+		return iTiles;
+	}
+
+	/**
+	 * Checks whether all distances have been written.
+	 * @return True if all tiles are complete.
+	 */
+	public boolean isComplete(){
+		for(int t=0;t<iTiles;t++){
+			if(!isTileComplete(t)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the distances in a tile have been written.
+	 * @param iTile Tile index (tiles on or above the diagonal, in row-major order).
+	 * @return True if tile is complete.
+	 */
+	public boolean isTileComplete(int iTile){
+		return bbfTiles.get(iTile)!=0;
+	}
+
+	/**
+	 * Saves distance. Distinct positions may be written from different threads.
+	 * @param lPos Position in condensed form.
+	 * @param dValue Distance.
+	 */
+	void put(long lPos, double dValue){
+		rgbfWindows[(int) (lPos/WINDOW_SIZE)].put((int) (lPos%WINDOW_SIZE), dValue);
+	}
+
+	/**
+	 * Marks tile as complete. Distinct tiles may be marked from different threads.
+	 * @param iTile Tile index.
+	 */
+	void setTileComplete(int iTile){
+		bbfTiles.put(iTile, (byte) 1);
+	}
+
+	/**
+	 * Reads distance.
+	 * @param lPos Position in condensed form.
+	 * @return Distance.
+	 */
+	private double get(long lPos){
+		return rgbfWindows[(int) (lPos/WINDOW_SIZE)].get((int) (lPos%WINDOW_SIZE));
+	}
+
+	/**
+	 * Gets expected length of file.
+	 * @return Length in bytes.
+	 */
+	private long getFileLength(){
+		return lDataOffset+8L*getCondensedSize(rgsIDs.length);
+	}
+
+	/**
+	 * Loads tile count, offsets, and map from IDs to indices. Header must be written or read first, so that the tile map offset is known.
+	 */
+	private void loadIndex(){
+
+		//iBlocks = number of tiles along each side of the matrix
+
+		int iBlocks;
+
+		iBlocks = (rgsIDs.length+iTileSize-1)/iTileSize;
+		iTiles = iBlocks*(iBlocks+1)/2;
+		mapIndex = new HashMap<String,Integer>(Math.max(1000, 2*rgsIDs.length));
+		for(int i=0;i<rgsIDs.length;i++){
+			mapIndex.put(rgsIDs[i], i);
+		}
+	}
+
+	/**
+	 * Maps tile map and windows of distances.
+	 */
+	private void mapFile() throws IOException{
+
+		//mod1 = mapping mode
+		//lSize = number of distances
+
+		FileChannel.MapMode mod1;
+		long lSize;
+
+		mod1 = bWritable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		bbfTiles = chn1.map(mod1, lTileMapOffset, Math.max(iTiles, 1));
+		lSize = getCondensedSize(rgsIDs.length);
+		rgbbWindows = new MappedByteBuffer[(int) ((lSize+WINDOW_SIZE-1)/WINDOW_SIZE)];
+		rgbfWindows = new DoubleBuffer[rgbbWindows.length];
+		for(int w=0;w<rgbbWindows.length;w++){
+			rgbbWindows[w] = chn1.map(mod1, lDataOffset+8L*w*WINDOW_SIZE, 8L*Math.min(WINDOW_SIZE, lSize-(long) w*WINDOW_SIZE));
+			rgbfWindows[w] = rgbbWindows[w].asDoubleBuffer();
+		}
+	}
+
+	/**
+	 * Reads header.
+	 * @return True if file has a valid header; false otherwise.
+	 */
+	private boolean readHeader() throws IOException{
+
+		//dis1 = input stream positioned at start of file
+		//i1 = number of samples
+		//lHeader = length of header
+
+		DataInputStream dis1;
+		int i1;
+		long lHeader;
+
+		chn1.position(0);
+		dis1 = new DataInputStream(new BufferedInputStream(Channels.newInputStream(chn1)));
+		try{
+			if(dis1.readLong()!=MAGIC || dis1.readInt()!=VERSION){
+				return false;
+			}
+			i1 = dis1.readInt();
+			iTileSize = dis1.readInt();
+			if(i1<0 || iTileSize<=0){
+				return false;
+			}
+			lHeader = 20;
+			sMetric = readString(dis1);
+			lHeader+=4+sMetric.getBytes(StandardCharsets.UTF_8).length;
+			rgsIDs = new String[i1];
+			for(int i=0;i<i1;i++){
+				rgsIDs[i] = readString(dis1);
+				lHeader+=4+rgsIDs[i].getBytes(StandardCharsets.UTF_8).length;
+			}
+		}catch(IOException e){
+			return false;
+		}
+		loadIndex();
+		lTileMapOffset = lHeader;
+		lDataOffset = (lTileMapOffset+Math.max(iTiles, 1)+7)/8*8;
+		return true;
+	}
+
+	/**
+	 * Reads string.
+	 * @param dis1 Input stream.
+	 * @return String.
+	 */
+	private String readString(DataInputStream dis1) throws IOException{
+
+		//rgb1 = UTF-8 bytes
+
+		byte rgb1[];
+
+		rgb1 = new byte[dis1.readInt()];
+		dis1.readFully(rgb1);
+		return new String(rgb1, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes header and sets tile map and distance offsets.
+	 */
+	private void writeHeader() throws IOException{
+
+		//bos1 = header bytes
+		//dos1 = header writer
+		//bbf1 = header buffer
+
+		ByteArrayOutputStream bos1;
+		DataOutputStream dos1;
+		ByteBuffer bbf1;
+
+		bos1 = new ByteArrayOutputStream();
+		dos1 = new DataOutputStream(bos1);
+		dos1.writeLong(MAGIC);
+		dos1.writeInt(VERSION);
+		dos1.writeInt(rgsIDs.length);
+		dos1.writeInt(iTileSize);
+		writeString(dos1, sMetric);
+		for(int i=0;i<rgsIDs.length;i++){
+			writeString(dos1, rgsIDs[i]);
+		}
+		dos1.flush();
+		bbf1 = ByteBuffer.wrap(bos1.toByteArray());
+		while(bbf1.hasRemaining()){
+			chn1.write(bbf1, bbf1.position());
+		}
+		lTileMapOffset = bos1.size();
+		lDataOffset = (lTileMapOffset+Math.max(iTiles, 1)+7)/8*8;
+	}
+
+	/**
+	 * Writes string.
+	 * @param dos1 Output stream.
+	 * @param s1 String.
+	 */
+	private void writeString(DataOutputStream dos1, String s1) throws IOException{
+
+		//rgb1 = UTF-8 bytes
+
+		byte rgb1[];
+
+		rgb1 = s1.getBytes(StandardCharsets.UTF_8);
+		dos1.writeInt(rgb1.length);
+		dos1.write(rgb1);
+	}
+}
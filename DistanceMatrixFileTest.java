@@ -0,0 +1,125 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import org.junit.Test;
+
+import edu.ucsf.io.BetaDiversity;
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.DistanceMatrixFile;
+
+public class DistanceMatrixFileTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**Path of distance matrix file.**/
+	private String sPath;
+
+	/**Tile size used by BetaDiversity.**/
+	private int iTileSize;
+
+	/**
+	 * Constructor.
+	 */
+	public DistanceMatrixFileTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+		sPath="/tmp/DistanceMatrixFileTest.dist";
+		iTileSize=64;
+	}
+
+	@Test
+	public void getRow_RowsRead_RowsAreCorrect(){
+
+		//rgd1 = distances in memory
+		//dmf1 = distance matrix file
+		//rgd2 = current row
+
+		double rgd1[];
+		DistanceMatrixFile dmf1;
+		double rgd2[];
+
+		try{
+			new File(sPath).delete();
+			rgd1 = new BetaDiversity(bio1, "braycurtis").compute(1);
+			new BetaDiversity(bio1, "braycurtis").compute(sPath, 1);
+			dmf1 = new DistanceMatrixFile(sPath);
+			assertEquals(6,dmf1.getIDs().length);
+			for(int i=0;i<6;i++){
+				rgd2 = dmf1.getRow(dmf1.getIDs()[i]);
+				for(int j=0;j<6;j++){
+					if(i==j){
+						assertEquals(0.,rgd2[j],0.);
+					}else{
+						assertEquals(rgd1[(int) BetaDiversity.getCondensedIndex(Math.min(i, j), Math.max(i, j), 6)],rgd2[j],0.);
+					}
+				}
+			}
+			assertNull(dmf1.getRow("Sample7"));
+			dmf1.close();
+			new File(sPath).delete();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void DistanceMatrixFile_InterruptedFileResumed_OnlyIncompleteTilesComputed(){
+
+		//rgsIDs = sample IDs
+		//rgd1 = distances in memory
+		//dmf1 = distance matrix file
+
+		String rgsIDs[];
+		double rgd1[];
+		DistanceMatrixFile dmf1;
+
+		rgsIDs = new String[6];
+		for(int j=0;j<6;j++){
+			rgsIDs[j] = bio1.axsSample.getID(j);
+		}
+		try{
+			new File(sPath).delete();
+			rgd1 = new BetaDiversity(bio1, "braycurtis").compute(1);
+
+			//file with no complete tiles: all distances are computed
+			dmf1 = new DistanceMatrixFile(sPath, "braycurtis", rgsIDs, iTileSize);
+			dmf1.put(0, -1.);
+			assertFalse(dmf1.isComplete());
+			dmf1.close();
+			new BetaDiversity(bio1, "braycurtis").compute(sPath, 1);
+			dmf1 = new DistanceMatrixFile(sPath);
+			assertTrue(dmf1.isComplete());
+			assertEquals(rgd1[0],dmf1.getDistance(0, 1),0.);
+			dmf1.close();
+
+			//file with complete tile: tile is not recomputed
+			dmf1 = new DistanceMatrixFile(sPath, "braycurtis", rgsIDs, iTileSize);
+			assertTrue(dmf1.isComplete());
+			dmf1.put(0, -1.);
+			dmf1.close();
+			new BetaDiversity(bio1, "braycurtis").compute(sPath, 1);
+			dmf1 = new DistanceMatrixFile(sPath);
+			assertEquals(-1.,dmf1.getDistance(1, 0),0.);
+			dmf1.close();
+
+			//file for different metric: file is replaced
+			new BetaDiversity(bio1, "jaccard").compute(sPath, 1);
+			dmf1 = new DistanceMatrixFile(sPath);
+			assertEquals("jaccard",dmf1.getMetric());
+			assertEquals(1./3.,dmf1.getDistance(0, 1),0.0000000001);
+			dmf1.close();
+			new File(sPath).delete();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+}
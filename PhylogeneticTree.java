@@ -0,0 +1,393 @@
+package edu.ucsf.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Rooted phylogenetic tree read from a Newick string. Nodes are numbered in postorder (children before parents; the root is the last node). Tip names are linked to observations of a BIOM table with linkTips(). Names may be quoted with single quotes; unquoted names are used as written (underscores are not converted to spaces), so that tips match observation IDs. Comments in square brackets are ignored, and missing branch lengths are taken to be 0.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class PhylogeneticTree{
+
+	//rgiParent = parent of each node; -1 for root
+	//rgdLength = length of branch above each node
+	//rgsNames = name of each node; null if unnamed
+	//rgiChildPtr = children of node i are rgiChildren[rgiChildPtr[i]] through rgiChildren[rgiChildPtr[i+1]-1]
+	//rgiChildren = children of each node, in the order given in the Newick string
+
+	/**Parent of each node; -1 for root.**/
+	private int[] rgiParent;
+
+	/**Length of branch above each node.**/
+	private double[] rgdLength;
+
+	/**Name of each node; null if unnamed.**/
+	private String[] rgsNames;
+
+	/**Children pointers: children of node i are stored in positions rgiChildPtr[i] through rgiChildPtr[i+1]-1 of rgiChildren.**/
+	private int[] rgiChildPtr;
+
+	/**Children of each node.**/
+	private int[] rgiChildren;
+
+	/**
+	 * Constructor.
+	 * @param lstParent Parent of each node, in postorder.
+	 * @param lstLength Branch length of each node.
+	 * @param lstNames Name of each node.
+	 */
+	private PhylogeneticTree(ArrayList<Integer> lstParent, ArrayList<Double> lstLength, ArrayList<String> lstNames){
+
+		//rgiNext = next position for children of each node
+
+		int rgiNext[];
+
+		rgiParent = new int[lstParent.size()];
+		rgdLength = new double[lstParent.size()];
+		rgsNames = lstNames.toArray(new String[lstNames.size()]);
+		rgiChildPtr = new int[lstParent.size()+1];
+		for(int i=0;i<rgiParent.length;i++){
+			rgiParent[i] = lstParent.get(i);
+			rgdLength[i] = lstLength.get(i);
+			if(rgiParent[i]!=-1){
+				rgiChildPtr[rgiParent[i]+1]++;
+			}
+		}
+		for(int i=0;i<rgiParent.length;i++){
+			rgiChildPtr[i+1]+=rgiChildPtr[i];
+		}
+		rgiChildren = new int[rgiChildPtr[rgiParent.length]];
+		rgiNext = Arrays.copyOf(rgiChildPtr, rgiParent.length);
+		for(int i=0;i<rgiParent.length;i++){
+			if(rgiParent[i]!=-1){
+				rgiChildren[rgiNext[rgiParent[i]]] = i;
+				rgiNext[rgiParent[i]]++;
+			}
+		}
+	}
+
+	/**
+	 * Gets children of node.
+	 * @param iNode Node.
+	 * @return Children, in the order given in the Newick string.
+	 */
+	public int[] getChildren(int iNode){
+		return Arrays.copyOfRange(rgiChildren, rgiChildPtr[iNode], rgiChildPtr[iNode+1]);
+	}
+
+	/**
+	 * Gets length of branch above node.
+	 * @param iNode Node.
+	 * @return Branch length.
+	 */
+	public double getLength(int iNode){
+		return rgdLength[iNode];
+	}
+
+	/**
+	 * Gets name of node.
+	 * @param iNode Node.
+	 * @return Name; null if node is unnamed.
+	 */
+	public String getName(int iNode){
+		return rgsNames[iNode];
+	}
+
+	/**
+	 * Gets parent of node.
+	 * @param iNode Node.
+	 * @return Parent; -1 for root.
+	 */
+	public int getParent(int iNode){
+		return rgiParent[iNode];
+	}
+
+	/**
+	 * Gets nodes in postorder, visiting at each node the child with the largest subtree first. Computing values for nodes in this order with a stack of child values keeps at most about log2(number of tips) values on the stack.
+	 * @return Nodes in heavy-first postorder.
+	 */
+	public int[] getHeavyFirstPostorder(){
+
+		//rgiSize = number of nodes in subtree of each node
+		//rgiOut = output
+		//rgiStack = nodes whose children have not yet been visited (positive) or that are ready to be output (encoded as -node-1)
+		//iTop = size of stack
+		//rgi1 = children of current node, sorted by decreasing subtree size (ties in Newick order)
+		//iCount = number of nodes output
+		//i1 = current node
+
+		int rgiSize[];
+		int rgiOut[];
+		int rgiStack[];
+		int iTop;
+		Integer rgi1[];
+		int iCount;
+		int i1;
+
+		rgiSize = new int[rgiParent.length];
+		for(int i=0;i<rgiParent.length;i++){
+			rgiSize[i]++;
+			if(rgiParent[i]!=-1){
+				rgiSize[rgiParent[i]]+=rgiSize[i];
+			}
+		}
+		rgiOut = new int[rgiParent.length];
+		rgiStack = new int[2*rgiParent.length];
+		iTop = 0;
+		iCount = 0;
+		rgiStack[iTop++] = getRoot();
+		while(iTop>0){
+			i1 = rgiStack[--iTop];
+			if(i1<0){
+				rgiOut[iCount++] = -i1-1;
+				continue;
+			}
+			rgiStack[iTop++] = -i1-1;
+			rgi1 = new Integer[rgiChildPtr[i1+1]-rgiChildPtr[i1]];
+			for(int k=0;k<rgi1.length;k++){
+				rgi1[k] = rgiChildren[rgiChildPtr[i1]+k];
+			}
+			Arrays.sort(rgi1, new SubtreeSizeComparator(rgiSize));
+
+			//pushing largest subtree last so that it is visited first
+			for(int k=rgi1.length-1;k>=0;k--){
+				rgiStack[iTop++] = rgi1[k];
+			}
+		}
+		return rgiOut;
+	}
+
+	/**
+	 * Gets root node.
+	 * @return Root node (the last node in postorder).
+	 */
+	public int getRoot(){
+		return rgiParent.length-1;
+	}
+
+	/**
+	 * Checks whether node is a tip.
+	 * @param iNode Node.
+	 * @return True if node has no children.
+	 */
+	public boolean isTip(int iNode){
+		return rgiChildPtr[iNode+1]==rgiChildPtr[iNode];
+	}
+
+	/**
+	 * Links tips to elements of an axis by name, using Axis.getIndex.
+	 * @param axs1 Axis (usually the observation axis).
+	 * @return Index in axis of each node; -1 for internal nodes and for tips that are not in the axis.
+	 */
+	public int[] linkTips(BiomIO.Axis axs1) throws Exception{
+
+		//rgiOut = output
+		//rgbLinked = true for axis elements that have been linked
+
+		int rgiOut[];
+		boolean rgbLinked[];
+
+		rgiOut = new int[rgiParent.length];
+		rgbLinked = new boolean[axs1.size()];
+		for(int i=0;i<rgiParent.length;i++){
+			rgiOut[i] = -1;
+			if(isTip(i) && rgsNames[i]!=null){
+				rgiOut[i] = axs1.getIndex(rgsNames[i]);
+				if(rgiOut[i]!=-1){
+					if(rgbLinked[rgiOut[i]]){
+						throw new Exception("Tip name occurs more than once in tree: " + rgsNames[i]);
+					}
+					rgbLinked[rgiOut[i]] = true;
+				}
+			}
+		}
+		return rgiOut;
+	}
+
+	/**
+	 * Reads tree from Newick file.
+	 * @param sPath Path to Newick file.
+	 * @return Tree.
+	 */
+	public static PhylogeneticTree load(String sPath) throws Exception{
+		return parse(new String(Files.readAllBytes(Paths.get(sPath)), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Parses Newick string. The string is parsed without recursion, so that deep trees can be read.
+	 * @param sNewick Newick string.
+	 * @return Tree.
+	 */
+	public static PhylogeneticTree parse(String sNewick) throws Exception{
+
+		//lstParent = parent of each node, in postorder
+		//lstLength = branch length of each node
+		//lstNames = name of each node
+		//lstOpen = for each open parenthesis, list of completed child nodes
+		//iPos = current position in string
+		//iLast = last completed node, to which a following name or length applies; -1 if none
+		//c1 = current character
+		//sbl1 = current token
+		//iNode = current node
+
+		ArrayList<Integer> lstParent;
+		ArrayList<Double> lstLength;
+		ArrayList<String> lstNames;
+		ArrayList<ArrayList<Integer>> lstOpen;
+		int iPos;
+		int iLast;
+		char c1;
+		StringBuilder sbl1;
+		int iNode;
+
+		lstParent = new ArrayList<Integer>();
+		lstLength = new ArrayList<Double>();
+		lstNames = new ArrayList<String>();
+		lstOpen = new ArrayList<ArrayList<Integer>>();
+		iLast = -1;
+		iPos = 0;
+		while(iPos<sNewick.length()){
+			c1 = sNewick.charAt(iPos);
+			if(Character.isWhitespace(c1)){
+				iPos++;
+			}else if(c1=='['){
+				iPos = sNewick.indexOf(']', iPos);
+				if(iPos==-1){
+					throw new Exception("Invalid Newick string: unclosed comment.");
+				}
+				iPos++;
+			}else if(c1=='('){
+				if(iLast!=-1){
+					throw new Exception("Invalid Newick string: unexpected '(' at position " + iPos + ".");
+				}
+				lstOpen.add(new ArrayList<Integer>());
+				iPos++;
+			}else if(c1==',' || c1==')'){
+				if(lstOpen.size()==0){
+					throw new Exception("Invalid Newick string: unexpected '" + c1 + "' at position " + iPos + ".");
+				}
+
+				//unnamed tip (e.g., "(,)")
+				if(iLast==-1){
+					iLast = addNode(lstParent, lstLength, lstNames);
+				}
+				lstOpen.get(lstOpen.size()-1).add(iLast);
+				iLast = -1;
+				if(c1==')'){
+					iNode = addNode(lstParent, lstLength, lstNames);
+					for(int k:lstOpen.remove(lstOpen.size()-1)){
+						lstParent.set(k, iNode);
+					}
+					iLast = iNode;
+				}
+				iPos++;
+			}else if(c1==':'){
+				if(iLast==-1){
+					iLast = addNode(lstParent, lstLength, lstNames);
+				}
+				sbl1 = new StringBuilder();
+				iPos++;
+				while(iPos<sNewick.length() && "(),:;[".indexOf(sNewick.charAt(iPos))==-1 && !Character.isWhitespace(sNewick.charAt(iPos))){
+					sbl1.append(sNewick.charAt(iPos));
+					iPos++;
+				}
+				try{
+					lstLength.set(iLast, Double.parseDouble(sbl1.toString()));
+				}catch(NumberFormatException e){
+					throw new Exception("Invalid Newick string: branch length '" + sbl1 + "' is not a number.");
+				}
+			}else if(c1==';'){
+				break;
+			}else{
+
+				//name of tip or of node that was just closed
+				sbl1 = new StringBuilder();
+				if(c1=='\''){
+					iPos++;
+					while(true){
+						if(iPos>=sNewick.length()){
+							throw new Exception("Invalid Newick string: unclosed quote.");
+						}
+						if(sNewick.charAt(iPos)=='\''){
+							if(iPos+1<sNewick.length() && sNewick.charAt(iPos+1)=='\''){
+								sbl1.append('\'');
+								iPos+=2;
+								continue;
+							}
+							iPos++;
+							break;
+						}
+						sbl1.append(sNewick.charAt(iPos));
+						iPos++;
+					}
+				}else{
+					while(iPos<sNewick.length() && "(),:;[".indexOf(sNewick.charAt(iPos))==-1 && !Character.isWhitespace(sNewick.charAt(iPos))){
+						sbl1.append(sNewick.charAt(iPos));
+						iPos++;
+					}
+				}
+				if(iLast==-1){
+					iLast = addNode(lstParent, lstLength, lstNames);
+				}else if(lstNames.get(iLast)!=null){
+					throw new Exception("Invalid Newick string: unexpected name '" + sbl1 + "'.");
+				}
+				lstNames.set(iLast, sbl1.toString());
+			}
+		}
+		if(lstOpen.size()>0){
+			throw new Exception("Invalid Newick string: unbalanced parentheses.");
+		}
+		if(iLast==-1 || iLast!=lstParent.size()-1){
+			throw new Exception("Invalid Newick string: no tree found.");
+		}
+		return new PhylogeneticTree(lstParent, lstLength, lstNames);
+	}
+
+	/**
+	 * Gets number of nodes.
+	 * @return Number of nodes.
+	 */
+	public int size(){
+		return rgiParent.length;
+	}
+
+	/**
+	 * Adds node with no parent, length 0, and no name.
+	 * @param lstParent Parents.
+	 * @param lstLength Branch lengths.
+	 * @param lstNames Names.
+	 * @return Index of new node.
+	 */
+	private static int addNode(ArrayList<Integer> lstParent, ArrayList<Double> lstLength, ArrayList<String> lstNames){
+		lstParent.add(-1);
+		lstLength.add(0.);
+		lstNames.add(null);
+		return lstParent.size()-1;
+	}
+
+	/**
+	 * Orders nodes by decreasing subtree size.
+	 */
+	private static class SubtreeSizeComparator implements java.util.Comparator<Integer>{
+
+		/**Number of nodes in subtree of each node.**/
+		private int[] rgiSize;
+
+		/**
+		 * Constructor.
+		 * @param rgiSize Number of nodes in subtree of each node.
+		 */
+		private SubtreeSizeComparator(int[] rgiSize){
+			this.rgiSize = rgiSize;
+		}
+
+		public int compare(Integer i1, Integer i2){
+			return Integer.compare(rgiSize[i2], rgiSize[i1]);
+		}
+	}
+}
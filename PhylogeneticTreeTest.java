@@ -0,0 +1,142 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import org.junit.Test;
+
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.PhylogeneticTree;
+
+public class PhylogeneticTreeTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**
+	 * Constructor.
+	 */
+	public PhylogeneticTreeTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+
+	@Test
+	public void getHeavyFirstPostorder_OrderFound_ChildrenPrecedeParentsAndLargerSubtreesComeFirst(){
+
+		//tre1 = tree
+		//rgi1 = order
+		//rgiPosition = position of each node in order
+
+		PhylogeneticTree tre1;
+		int rgi1[];
+		int rgiPosition[];
+
+		try{
+			tre1 = PhylogeneticTree.parse("(a,(b,(c,d)));");
+			rgi1 = tre1.getHeavyFirstPostorder();
+			assertEquals(tre1.size(),rgi1.length);
+			assertEquals(tre1.getRoot(),rgi1[rgi1.length-1]);
+			rgiPosition = new int[rgi1.length];
+			for(int k=0;k<rgi1.length;k++){
+				rgiPosition[rgi1[k]] = k;
+			}
+			for(int i=0;i<tre1.size();i++){
+				if(tre1.getParent(i)!=-1){
+					assertTrue(rgiPosition[i]<rgiPosition[tre1.getParent(i)]);
+				}
+			}
+			assertEquals("c",tre1.getName(rgi1[0]));
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void linkTips_TipsLinked_IndicesAreCorrect(){
+
+		//tre1 = tree
+		//rgi1 = axis index of each node
+
+		PhylogeneticTree tre1;
+		int rgi1[];
+
+		try{
+			tre1 = PhylogeneticTree.parse("((GG_OTU_1,GG_OTU_2)GG_OTU_4,(GG_OTU_3,OTU_X));");
+			rgi1 = tre1.linkTips(bio1.axsObservation);
+			for(int i=0;i<tre1.size();i++){
+				if(tre1.isTip(i) && !tre1.getName(i).equals("OTU_X")){
+					assertEquals(tre1.getName(i),bio1.axsObservation.getID(rgi1[i]));
+				}else{
+					assertEquals(-1,rgi1[i]);
+				}
+			}
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void linkTips_TipRepeated_ExceptionThrown(){
+		try{
+			PhylogeneticTree.parse("((GG_OTU_1,GG_OTU_2),GG_OTU_1);").linkTips(bio1.axsObservation);
+			fail();
+		}catch(Exception e){
+		}
+	}
+
+	@Test
+	public void parse_InvalidStringsGiven_ExceptionThrown(){
+		for(String s:new String[]{"((a,b);","(a,b));","(a:x,b);","('a,b);","(a,b)c d;"}){
+			try{
+				PhylogeneticTree.parse(s);
+				fail(s);
+			}catch(Exception e){
+			}
+		}
+	}
+
+	@Test
+	public void parse_NewickParsed_TreeIsCorrect(){
+
+		//tre1 = tree
+		//lst1 = names of children of root
+
+		PhylogeneticTree tre1;
+		ArrayList<String> lst1;
+
+		try{
+			tre1 = PhylogeneticTree.parse(" ('A''s tip':0.1,(B_1:0.2, C:3e-1)95:0.4[comment], )root;");
+			assertEquals(6,tre1.size());
+			assertEquals("root",tre1.getName(tre1.getRoot()));
+			assertEquals(-1,tre1.getParent(tre1.getRoot()));
+			lst1 = new ArrayList<String>();
+			for(int i:tre1.getChildren(tre1.getRoot())){
+				lst1.add(tre1.getName(i));
+			}
+			assertEquals("A's tip",lst1.get(0));
+			assertEquals("95",lst1.get(1));
+			assertNull(lst1.get(2));
+			assertEquals(0.1,tre1.getLength(tre1.getChildren(tre1.getRoot())[0]),0.);
+			assertEquals(0.4,tre1.getLength(tre1.getChildren(tre1.getRoot())[1]),0.);
+			for(int i=0;i<tre1.size();i++){
+				if("C".equals(tre1.getName(i))){
+					assertEquals(0.3,tre1.getLength(i),0.);
+					assertTrue(tre1.isTip(i));
+					assertEquals("95",tre1.getName(tre1.getParent(i)));
+				}
+				if("B_1".equals(tre1.getName(i))){
+					assertEquals(0.2,tre1.getLength(i),0.);
+				}
+			}
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package edu.ucsf.io;
+
+import java.util.Arrays;
+
+/**
+ * Presence-absence (incidence) version of a BIOM table, stored as one set of present samples for each observation and one set of present observations for each sample. Each set is held in whichever of two containers is smaller, as in roaring bitmaps: a sorted array of indices for sparse sets, or a bitmap of 64-bit words for dense sets. Counts of shared elements are computed with Long.bitCount over AND-ed words when both sets are bitmaps, by probing the bitmap when one set is an array, and by a merge when both are arrays. The table is a snapshot: later changes to the BIOM table are not reflected.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class PresenceAbsenceTable{
+
+	//rgbcRows = samples present in each observation
+	//rgbcCols = observations present in each sample
+
+	/**Samples present in each observation.**/
+	private BitContainer[] rgbcRows;
+
+	/**Observations present in each sample.**/
+	private BitContainer[] rgbcCols;
+
+	/**
+	 * Constructor. Entries with positive values are taken to be present.
+	 * @param bio1 Table.
+	 */
+	public PresenceAbsenceTable(BiomIO bio1){
+		rgbcRows = loadContainers(bio1.getCursor(bio1.axsObservation), bio1.axsObservation.size(), bio1.axsSample.size());
+		rgbcCols = loadContainers(bio1.getCursor(bio1.axsSample), bio1.axsSample.size(), bio1.axsObservation.size());
+	}
+
+	/**
+	 * Gets number of present entries of each element of an axis: prevalence (number of samples) of each observation, or richness (number of observations) of each sample.
+	 * @param axs1 Axis.
+	 * @return Number of present entries, by index.
+	 */
+	public int[] getCounts(BiomIO.Axis axs1){
+
+		//rgbc1 = containers of axis
+		//rgiOut = output
+
+		BitContainer rgbc1[];
+		int rgiOut[];
+
+		rgbc1 = getContainers(axs1);
+		rgiOut = new int[rgbc1.length];
+		for(int i=0;i<rgbc1.length;i++){
+			rgiOut[i] = rgbc1[i].iCardinality;
+		}
+		return rgiOut;
+	}
+
+	/**
+	 * Gets Jaccard distance between two elements of an axis, 1 - |A and B|/|A or B|.
+	 * @param axs1 Axis.
+	 * @param i1 Index of first element.
+	 * @param i2 Index of second element.
+	 * @return Jaccard distance; NaN if both elements are empty.
+	 */
+	public double getJaccard(BiomIO.Axis axs1, int i1, int i2){
+
+		//rgbc1 = containers of axis
+		//iShared = number of shared entries
+
+		BitContainer rgbc1[];
+		int iShared;
+
+		rgbc1 = getContainers(axs1);
+		iShared = BitContainer.intersectionSize(rgbc1[i1], rgbc1[i2]);
+		return 1.-iShared/((double) rgbc1[i1].iCardinality+rgbc1[i2].iCardinality-iShared);
+	}
+
+	/**
+	 * Gets number of entries present in both of two elements of an axis: number of shared samples for two observations, or number of shared observations for two samples.
+	 * @param axs1 Axis.
+	 * @param i1 Index of first element.
+	 * @param i2 Index of second element.
+	 * @return Number of shared entries.
+	 */
+	public int getOverlap(BiomIO.Axis axs1, int i1, int i2){
+
+		//rgbc1 = containers of axis
+
+		BitContainer rgbc1[];
+
+		rgbc1 = getContainers(axs1);
+		return BitContainer.intersectionSize(rgbc1[i1], rgbc1[i2]);
+	}
+
+	/**
+	 * Gets numbers of entries shared by one element of an axis with every element of the axis.
+	 * @param axs1 Axis.
+	 * @param i1 Index of element.
+	 * @return Number of shared entries with each element, by index; the entry for i1 itself is its number of present entries.
+	 */
+	public int[] getOverlaps(BiomIO.Axis axs1, int i1){
+
+		//rgbc1 = containers of axis
+		//rgiOut = output
+
+		BitContainer rgbc1[];
+		int rgiOut[];
+
+		rgbc1 = getContainers(axs1);
+		rgiOut = new int[rgbc1.length];
+		for(int i=0;i<rgbc1.length;i++){
+			rgiOut[i] = BitContainer.intersectionSize(rgbc1[i1], rgbc1[i]);
+		}
+		return rgiOut;
+	}
+
+	/**
+	 * Checks whether an entry is present.
+	 * @param iRow Observation index.
+	 * @param iCol Sample index.
+	 * @return True if entry is present.
+	 */
+	public boolean isPresent(int iRow, int iCol){
+		return rgbcRows[iRow].contains(iCol);
+	}
+
+	/**
+	 * Gets containers of an axis.
+	 * @param axs1 Axis.
+	 * @return Containers of observations or of samples.
+	 */
+	private BitContainer[] getContainers(BiomIO.Axis axs1){
+		if(axs1.sName.equals("sample")){
+			return rgbcCols;
+		}else{
+			return rgbcRows;
+		}
+	}
+
+	/**
+	 * Loads containers of an axis from a cursor.
+	 * @param cur1 Cursor over elements of axis.
+	 * @param iElements Number of elements of axis.
+	 * @param iUniverse Number of elements of other axis.
+	 * @return Container for each element.
+	 */
+	private static BitContainer[] loadContainers(BiomIO.NonzeroCursor cur1, int iElements, int iUniverse){
+
+		//rgbcOut = output
+		//rgi1 = present indices of current element
+		//iCount = number of present indices of current element
+
+		BitContainer rgbcOut[];
+		int rgi1[];
+		int iCount;
+
+		rgbcOut = new BitContainer[iElements];
+		rgi1 = new int[iUniverse];
+		for(int i=0;i<iElements;i++){
+			cur1.seek(i);
+			iCount = 0;
+			while(cur1.next()){
+				if(cur1.getValue()>0){
+					rgi1[iCount] = cur1.getIndex();
+					iCount++;
+				}
+			}
+			rgbcOut[i] = new BitContainer(rgi1, iCount, iUniverse);
+		}
+		return rgbcOut;
+	}
+
+	/**
+	 * Set of indices, held as a sorted array or as a bitmap.
+	 */
+	private static class BitContainer{
+
+		/**Bitmap of indices; null if indices are held as an array.**/
+		private long[] rgwBits = null;
+
+		/**Sorted indices; null if indices are held as a bitmap.**/
+		private int[] rgiIndices = null;
+
+		/**Number of indices.**/
+		private int iCardinality;
+
+		/**
+		 * Constructor. The bitmap is used if it takes no more memory than the array.
+		 * @param rgiIndices Sorted indices; only the first iCount are used.
+		 * @param iCount Number of indices.
+		 * @param iUniverse Number of possible indices.
+		 */
+		private BitContainer(int[] rgiIndices, int iCount, int iUniverse){
+
+			//iWords = number of words in bitmap
+
+			int iWords;
+
+			iCardinality = iCount;
+			iWords = (iUniverse+63)>>>6;
+			if(4L*iCount<8L*iWords){
+				this.rgiIndices = Arrays.copyOf(rgiIndices, iCount);
+			}else{
+				rgwBits = new long[iWords];
+				for(int k=0;k<iCount;k++){
+					rgwBits[rgiIndices[k]>>>6]|=1L<<rgiIndices[k];
+				}
+			}
+		}
+
+		/**
+		 * Checks whether index is in set.
+		 * @param iIndex Index.
+		 * @return True if index is in set.
+		 */
+		private boolean contains(int iIndex){
+			if(rgwBits!=null){
+				return (rgwBits[iIndex>>>6] & (1L<<iIndex))!=0;
+			}else{
+				return Arrays.binarySearch(rgiIndices, iIndex)>=0;
+			}
+		}
+
+		/**
+		 * Gets number of indices in both of two sets.
+		 * @param bcn1 First set.
+		 * @param bcn2 Second set.
+		 * @return Size of intersection.
+		 */
+		private static int intersectionSize(BitContainer bcn1, BitContainer bcn2){
+
+			//iOut = output
+			//k1, k2 = positions in arrays
+
+			int iOut;
+			int k1;
+			int k2;
+
+			iOut = 0;
+			if(bcn1.rgwBits!=null && bcn2.rgwBits!=null){
+				for(int k=0;k<bcn1.rgwBits.length;k++){
+					iOut+=Long.bitCount(bcn1.rgwBits[k] & bcn2.rgwBits[k]);
+				}
+			}else if(bcn1.rgwBits!=null){
+				for(int i:bcn2.rgiIndices){
+					if((bcn1.rgwBits[i>>>6] & (1L<<i))!=0){
+						iOut++;
+					}
+				}
+			}else if(bcn2.rgwBits!=null){
+				return intersectionSize(bcn2, bcn1);
+			}else{
+				k1 = 0;
+				k2 = 0;
+				while(k1<bcn1.rgiIndices.length && k2<bcn2.rgiIndices.length){
+					if(bcn1.rgiIndices[k1]<bcn2.rgiIndices[k2]){
+						k1++;
+					}else if(bcn2.rgiIndices[k2]<bcn1.rgiIndices[k1]){
+						k2++;
+					}else{
+						iOut++;
+						k1++;
+						k2++;
+					}
+				}
+			}
+			return iOut;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import edu.ucsf.io.BetaDiversity;
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.PresenceAbsenceTable;
+
+public class PresenceAbsenceTableTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**Presence-absence table.**/
+	private PresenceAbsenceTable pat1;
+
+	/**
+	 * Constructor.
+	 */
+	public PresenceAbsenceTableTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+		pat1=new PresenceAbsenceTable(bio1);
+	}
+
+	@Test
+	public void getCounts_CountsGotten_PrevalenceAndRichnessAreCorrect(){
+		assertArrayEquals(new int[]{1,5,3,4,2},pat1.getCounts(bio1.axsObservation));
+		assertArrayEquals(new int[]{2,3,4,2,1,3},pat1.getCounts(bio1.axsSample));
+	}
+
+	@Test
+	public void getJaccard_DistancesGotten_MatchBetaDiversity(){
+
+		//rgd1 = Jaccard distances from BetaDiversity
+
+		double rgd1[] = null;
+
+		try{
+			rgd1 = new BetaDiversity(bio1, "jaccard").compute(1);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		for(int i=0;i<6;i++){
+			for(int j=i+1;j<6;j++){
+				assertEquals(rgd1[(int) BetaDiversity.getCondensedIndex(i, j, 6)],pat1.getJaccard(bio1.axsSample, i, j),0.0000000001);
+			}
+		}
+	}
+
+	@Test
+	public void getOverlap_OverlapsGotten_MatchDenseCounts(){
+
+		//iCorrect = correct overlap
+
+		int iCorrect;
+
+		for(int i=0;i<5;i++){
+			for(int k=0;k<5;k++){
+				iCorrect = 0;
+				for(int j=0;j<6;j++){
+					if(bio1.getValueByIndices(i, j)>0 && bio1.getValueByIndices(k, j)>0){
+						iCorrect++;
+					}
+				}
+				assertEquals(iCorrect,pat1.getOverlap(bio1.axsObservation, i, k));
+				assertEquals(iCorrect,pat1.getOverlaps(bio1.axsObservation, i)[k]);
+			}
+		}
+		for(int j=0;j<6;j++){
+			for(int l=0;l<6;l++){
+				iCorrect = 0;
+				for(int i=0;i<5;i++){
+					if(bio1.getValueByIndices(i, j)>0 && bio1.getValueByIndices(i, l)>0){
+						iCorrect++;
+					}
+				}
+				assertEquals(iCorrect,pat1.getOverlap(bio1.axsSample, j, l));
+			}
+		}
+	}
+
+	@Test
+	public void isPresent_EntriesChecked_MatchTable(){
+		for(int i=0;i<5;i++){
+			for(int j=0;j<6;j++){
+				assertEquals(bio1.getValueByIndices(i, j)>0,pat1.isPresent(i, j));
+			}
+		}
+	}
+}
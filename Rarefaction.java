@@ -0,0 +1,794 @@
+package edu.ucsf.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rarefaction (subsampling without replacement) of vectors of counts. A vector is rarefied by sequential conditional hypergeometric draws: the number of draws falling on each entry is drawn from the hypergeometric distribution given the draws and population remaining after the previous entries. This gives exactly the distribution of drawing individuals one at a time without replacement, with one random number per nonzero entry (on average) rather than one per individual. Hypergeometric variates are drawn by inversion, searching outward from the mode, with the probability at the mode computed from log-factorials; when there are few successes or few draws, the individuals are instead drawn one at a time.
+ * <p>
+ * Instances run repeated rarefactions of the samples of a table. The counts of the samples are copied once when the instance is created, and each iteration is rarefied into a single reused buffer, with samples split across threads; the source table is not modified. Each iteration can be passed to a visitor, or iterations can be accumulated into a mean table or into mean alpha diversity. Iteration i of sample j draws from the random stream getRandom(seed + i*2^32, j), so the first iteration matches BiomIO.rarefy() with the same seed, and results do not depend on the number of threads.
+ * <p>
+ * Rarefaction curves (expected richness, and its variance, at a list of depths) are computed without resampling, from the hypergeometric probability that each observation is missed (Heck et al. 1975). Observations of a sample with equal counts have equal probabilities, so the sums run over the distinct counts of each sample.
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class Rarefaction{
+
+	//bio1 = source table
+	//iTotal = total to which to rarefy
+	//rgiSample = index in source table of each sample with enough data for rarefaction
+	//rgiColPtr = column pointers of counts, by retained sample
+	//rgiRowIndex = observation index of each count
+	//rgiCounts = counts
+
+	/**Largest number of successes or draws for which hypergeometric variates are drawn one individual at a time.**/
+	private static final int DIRECT_DRAW_LIMIT = 16;
+
+	/**Number of cached log-factorials.**/
+	private static final int LOG_FACTORIAL_CACHE_SIZE = 256;
+
+	/**Cached log-factorials of 0 through LOG_FACTORIAL_CACHE_SIZE-1.**/
+	private static final double[] LOG_FACTORIALS = loadLogFactorials();
+
+	/**Number of samples rarefied together by one thread.**/
+	private static final int BLOCK_SIZE = 64;
+
+	/**Largest sample total for which a table of log-factorials is built for rarefaction curves.**/
+	private static final int MAX_CURVE_TABLE_SIZE = 1<<22;
+
+	/**Source table.**/
+	private BiomIO bio1;
+
+	/**Total to which to rarefy.**/
+	private int iTotal;
+
+	/**Index in source table of each sample with enough data for rarefaction.**/
+	private int[] rgiSample;
+
+	/**Column pointers of counts, by retained sample.**/
+	private int[] rgiColPtr;
+
+	/**Observation index of each count.**/
+	private int[] rgiRowIndex;
+
+	/**Counts.**/
+	private int[] rgiCounts;
+
+	/**
+	 * Constructor. Copies the counts of all samples whose totals are at least the rarefaction total; values are taken to be integer counts.
+	 * @param bio1 Source table.
+	 * @param iTotal Total to which to rarefy.
+	 */
+	public Rarefaction(BiomIO bio1, int iTotal){
+
+		//cur1 = cursor over samples
+		//rglTotal = total of each sample
+		//rgiPositive = number of positive entries of each sample
+		//iEntries = number of positive entries of retained samples
+		//iSamples = number of retained samples
+		//iPos = current position in counts
+
+		BiomIO.NonzeroCursor cur1;
+		long rglTotal[];
+		int rgiPositive[];
+		int iEntries;
+		int iSamples;
+		int iPos;
+
+		this.bio1 = bio1;
+		this.iTotal = iTotal;
+		cur1 = bio1.getCursor(bio1.axsSample);
+		rglTotal = new long[bio1.axsSample.size()];
+		rgiPositive = new int[rglTotal.length];
+		iEntries = 0;
+		iSamples = 0;
+		for(int j=0;j<rglTotal.length;j++){
+			cur1.seek(j);
+			while(cur1.next()){
+				if(cur1.getValue()>0){
+					rglTotal[j]+=(int) cur1.getValue();
+					rgiPositive[j]++;
+				}
+			}
+			if(rglTotal[j]>=iTotal){
+				iSamples++;
+				iEntries+=rgiPositive[j];
+			}
+		}
+		rgiSample = new int[iSamples];
+		rgiColPtr = new int[iSamples+1];
+		rgiRowIndex = new int[iEntries];
+		rgiCounts = new int[iEntries];
+		iSamples = 0;
+		iPos = 0;
+		for(int j=0;j<rglTotal.length;j++){
+			if(rglTotal[j]>=iTotal){
+				rgiSample[iSamples] = j;
+				cur1.seek(j);
+				while(cur1.next()){
+					if(cur1.getValue()>0){
+						rgiRowIndex[iPos] = cur1.getIndex();
+						rgiCounts[iPos] = (int) cur1.getValue();
+						iPos++;
+					}
+				}
+				iSamples++;
+				rgiColPtr[iSamples] = iPos;
+			}
+		}
+	}
+
+	/**
+	 * Computes expected richness of each sample when rarefied to each of a list of depths.
+	 * @param bio1 Table; values are taken to be integer counts.
+	 * @param rgiDepths Depths.
+	 * @param iThreads Number of threads to use.
+	 * @return Expected number of observations with positive counts for each sample (first dimension) and depth (second dimension); NaN for depths greater than the total of a sample.
+	 */
+	public static double[][] computeExpectedRichness(BiomIO bio1, int[] rgiDepths, int iThreads) throws Exception{
+		return computeCurves(bio1, rgiDepths, false, iThreads);
+	}
+
+	/**
+	 * Computes rarefaction curves for all samples.
+	 * @param bio1 Table.
+	 * @param rgiDepths Depths.
+	 * @param bVariance True to compute variance of richness; false to compute expected richness.
+	 * @param iThreads Number of threads to use.
+	 * @return Expected richness or variance for each sample and depth.
+	 */
+	private static double[][] computeCurves(final BiomIO bio1, final int[] rgiDepths, final boolean bVariance, int iThreads) throws Exception{
+
+		//rgdOut = output
+		//cur1 = cursor over samples
+		//lTotal = total of positive counts of current sample
+		//lMax = largest sample total
+		//rgdLogFactorial = log-factorials of 0 through largest sample total; null if largest total is too large for a table
+		//iBlocks = number of blocks of samples
+		//iNext = next block to compute
+		//exc1 = thread pool
+		//lstFutures = task results
+
+		final double rgdOut[][];
+		BiomIO.NonzeroCursor cur1;
+		long lTotal;
+		long lMax;
+		final double rgdLogFactorial[];
+		int iBlocks;
+		final AtomicInteger iNext;
+		ExecutorService exc1;
+		ArrayList<Future<Object>> lstFutures;
+
+		rgdOut = new double[bio1.axsSample.size()][rgiDepths.length];
+
+		//finding largest total of positive counts, as totaled by computeCurveBlocks; also builds column-major copy of table before threads read it
+		cur1 = bio1.getCursor(bio1.axsSample);
+		lMax = 0;
+		for(int j=0;j<rgdOut.length;j++){
+			cur1.seek(j);
+			lTotal = 0;
+			while(cur1.next()){
+				if(((int) cur1.getValue())>0){
+					lTotal+=(int) cur1.getValue();
+				}
+			}
+			lMax = Math.max(lMax, lTotal);
+		}
+		if(lMax<MAX_CURVE_TABLE_SIZE){
+			rgdLogFactorial = new double[(int) lMax+1];
+			for(int i=0;i<rgdLogFactorial.length;i++){
+				rgdLogFactorial[i] = logFactorial(i);
+			}
+		}else{
+			rgdLogFactorial = null;
+		}
+
+		iBlocks = (rgdOut.length+BLOCK_SIZE-1)/BLOCK_SIZE;
+		iNext = new AtomicInteger(0);
+
+		//computing on calling thread
+		if(iThreads<=1 || iBlocks<2){
+			computeCurveBlocks(bio1, rgiDepths, bVariance, rgdLogFactorial, iNext, rgdOut);
+			return rgdOut;
+		}
+
+		//computing on thread pool: each thread takes blocks in turn
+		exc1 = Executors.newFixedThreadPool(Math.min(iThreads, iBlocks));
+		lstFutures = new ArrayList<Future<Object>>();
+		try{
+			for(int t=0;t<Math.min(iThreads, iBlocks);t++){
+				lstFutures.add(exc1.submit(new Callable<Object>(){
+					public Object call() throws Exception{
+						computeCurveBlocks(bio1, rgiDepths, bVariance, rgdLogFactorial, iNext, rgdOut);
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> fut1:lstFutures){
+				fut1.get();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch(ExecutionException e){
+			throw new IOException(e.getCause());
+		}finally{
+			exc1.shutdownNow();
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Computes rarefaction curves for blocks of samples until none remain.
+	 * @param bio1 Table.
+	 * @param rgiDepths Depths.
+	 * @param bVariance True to compute variance of richness; false to compute expected richness.
+	 * @param rgdLogFactorial Table of log-factorials; null to compute log-factorials directly.
+	 * @param iNext Next block to compute; shared between threads.
+	 * @param rgdOut Output.
+	 */
+	private static void computeCurveBlocks(BiomIO bio1, int[] rgiDepths, boolean bVariance, double[] rgdLogFactorial, AtomicInteger iNext, double[][] rgdOut){
+
+		//cur1 = cursor over samples
+		//iStart = first sample of block
+		//rgiCounts = positive counts of current sample
+		//iCount = number of positive counts
+		//lTotal = total of current sample
+		//rgiValue = distinct counts of current sample
+		//rgiMultiplicity = number of observations with each distinct count
+		//iDistinct = number of distinct counts
+		//rgdMiss = probability that an observation with each distinct count is missed
+		//n = current depth
+		//dLogAll = log of number of subsamples of current depth
+		//dOut = current output value
+		//dPair = probability that two observations are both missed
+
+		BiomIO.NonzeroCursor cur1;
+		int iStart;
+		int rgiCounts[];
+		int iCount;
+		long lTotal;
+		int rgiValue[];
+		int rgiMultiplicity[];
+		int iDistinct;
+		double rgdMiss[];
+		int n;
+		double dLogAll;
+		double dOut;
+		double dPair;
+
+		cur1 = bio1.getCursor(bio1.axsSample);
+		rgiCounts = new int[bio1.axsObservation.size()];
+		rgiValue = new int[bio1.axsObservation.size()];
+		rgiMultiplicity = new int[bio1.axsObservation.size()];
+		rgdMiss = new double[bio1.axsObservation.size()];
+		while((iStart = iNext.getAndIncrement()*BLOCK_SIZE)<rgdOut.length){
+			for(int j=iStart;j<Math.min(rgdOut.length, iStart+BLOCK_SIZE);j++){
+
+				//loading distinct counts
+				cur1.seek(j);
+				iCount = 0;
+				lTotal = 0;
+				while(cur1.next()){
+					if(((int) cur1.getValue())>0){
+						rgiCounts[iCount] = (int) cur1.getValue();
+						lTotal+=rgiCounts[iCount];
+						iCount++;
+					}
+				}
+				Arrays.sort(rgiCounts, 0, iCount);
+				iDistinct = 0;
+				for(int k=0;k<iCount;k++){
+					if(iDistinct==0 || rgiValue[iDistinct-1]!=rgiCounts[k]){
+						rgiValue[iDistinct] = rgiCounts[k];
+						rgiMultiplicity[iDistinct] = 0;
+						iDistinct++;
+					}
+					rgiMultiplicity[iDistinct-1]++;
+				}
+
+				for(int l=0;l<rgiDepths.length;l++){
+					n = rgiDepths[l];
+					if(n>lTotal || n<0){
+						rgdOut[j][l] = Double.NaN;
+						continue;
+					}
+					dLogAll = getLogFactorial(lTotal, rgdLogFactorial)-getLogFactorial(lTotal-n, rgdLogFactorial);
+					dOut = 0;
+					for(int d=0;d<iDistinct;d++){
+						rgdMiss[d] = getMissProbability(lTotal-rgiValue[d], n, dLogAll, rgdLogFactorial);
+						if(bVariance){
+							dOut+=rgiMultiplicity[d]*rgdMiss[d]*(1.-rgdMiss[d]);
+						}else{
+							dOut+=rgiMultiplicity[d]*(1.-rgdMiss[d]);
+						}
+					}
+
+					//adding covariances of pairs of observations
+					if(bVariance){
+						for(int d=0;d<iDistinct;d++){
+							dPair = getMissProbability(lTotal-2L*rgiValue[d], n, dLogAll, rgdLogFactorial);
+							dOut+=((double) rgiMultiplicity[d])*(rgiMultiplicity[d]-1.)*(dPair-rgdMiss[d]*rgdMiss[d]);
+							for(int e=d+1;e<iDistinct;e++){
+								dPair = getMissProbability(lTotal-rgiValue[d]-rgiValue[e], n, dLogAll, rgdLogFactorial);
+								dOut+=2.*rgiMultiplicity[d]*rgiMultiplicity[e]*(dPair-rgdMiss[d]*rgdMiss[e]);
+							}
+						}
+					}
+					rgdOut[j][l] = dOut;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes variance of richness of each sample when rarefied to each of a list of depths.
+	 * @param bio1 Table; values are taken to be integer counts.
+	 * @param rgiDepths Depths.
+	 * @param iThreads Number of threads to use.
+	 * @return Variance of number of observations with positive counts for each sample (first dimension) and depth (second dimension); NaN for depths greater than the total of a sample.
+	 */
+	public static double[][] computeRichnessVariance(BiomIO bio1, int[] rgiDepths, int iThreads) throws Exception{
+		return computeCurves(bio1, rgiDepths, true, iThreads);
+	}
+
+	/**
+	 * Computes mean of alpha diversity indices over rarefaction iterations.
+	 * @param rgsIndices Indices to compute; see AlphaDiversity for names.
+	 * @param iIterations Number of iterations.
+	 * @param iRandomSeed Random seed.
+	 * @param iThreads Number of threads to use.
+	 * @return Mean of each index (first dimension, in the order given) for each retained sample (second dimension, in the order of getSamples()).
+	 */
+	public double[][] computeMeanAlpha(String[] rgsIndices, int iIterations, int iRandomSeed, int iThreads) throws Exception{
+
+		//alp1 = alpha diversity engine
+		//rgdOut = output
+
+		AlphaDiversity alp1;
+		double rgdOut[][];
+
+		alp1 = new AlphaDiversity(bio1, rgsIndices);
+		rgdOut = new double[rgsIndices.length][rgiSample.length];
+		runIterations(iIterations, iRandomSeed, iThreads, null, null, alp1, rgdOut);
+		for(int k=0;k<rgdOut.length;k++){
+			for(int j=0;j<rgiSample.length;j++){
+				rgdOut[k][j]/=iIterations;
+			}
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Computes mean table over rarefaction iterations. Counts are summed as integers, so the mean is exact up to the final division.
+	 * @param iIterations Number of iterations.
+	 * @param iRandomSeed Random seed.
+	 * @param iThreads Number of threads to use.
+	 * @return Mean table, with the retained samples; the observation axis is shared with the source table, and sample metadata is not copied.
+	 */
+	public BiomIO computeMeanTable(int iIterations, int iRandomSeed, int iThreads) throws Exception{
+
+		//rglSum = sum of each count over iterations
+		//rgdMean = mean of each count
+
+		long rglSum[];
+		double rgdMean[];
+
+		rglSum = new long[rgiCounts.length];
+		runIterations(iIterations, iRandomSeed, iThreads, null, rglSum, null, null);
+		rgdMean = new double[rglSum.length];
+		for(int t=0;t<rglSum.length;t++){
+			rgdMean[t] = ((double) rglSum[t])/iIterations;
+		}
+		return bio1.fromSampleColumns(rgiSample.clone(), rgiColPtr.clone(), rgiRowIndex.clone(), rgdMean);
+	}
+
+	/**
+	 * Gets log-factorial from a table, or directly if there is no table.
+	 * @param n Integer.
+	 * @param rgdLogFactorial Table of log-factorials; may be null.
+	 * @return ln(n!).
+	 */
+	private static double getLogFactorial(long n, double[] rgdLogFactorial){
+		if(rgdLogFactorial!=null){
+			return rgdLogFactorial[(int) n];
+		}else{
+			return logFactorial(n);
+		}
+	}
+
+	/**
+	 * Gets probability that a subsample misses a set of individuals: C(lRemaining, n)/C(total, n).
+	 * @param lRemaining Number of individuals not in the set.
+	 * @param n Depth.
+	 * @param dLogAll ln(total!) - ln((total-n)!).
+	 * @param rgdLogFactorial Table of log-factorials; may be null.
+	 * @return Probability.
+	 */
+	private static double getMissProbability(long lRemaining, int n, double dLogAll, double[] rgdLogFactorial){
+		if(lRemaining<n){
+			return 0;
+		}
+		return Math.exp(getLogFactorial(lRemaining, rgdLogFactorial)-getLogFactorial(lRemaining-n, rgdLogFactorial)-dLogAll);
+	}
+
+	/**
+	 * Gets random number generator for one vector of a table. Streams are keyed by the seed and the index of the vector, so that vectors can be rarefied in any order, or concurrently, with identical results.
+	 * @param lSeed Random seed.
+	 * @param iIndex Index of vector.
+	 * @return Random number generator.
+	 */
+	public static SplittableRandom getRandom(long lSeed, int iIndex){
+
+		//l1 = key
+
+		long l1;
+
+		//mixing seed and index (variant 13 of Stafford's 64-bit finalizer), so that nearby seeds and indices give unrelated streams
+		l1 = lSeed*0x9E3779B97F4A7C15L+iIndex;
+		l1 = (l1^(l1>>>30))*0xBF58476D1CE4E5B9L;
+		l1 = (l1^(l1>>>27))*0x94D049BB133111EBL;
+		return new SplittableRandom(l1^(l1>>>31));
+	}
+
+	/**
+	 * Gets samples with enough data for rarefaction.
+	 * @return Index in source table of each retained sample.
+	 */
+	public int[] getSamples(){
+		return rgiSample.clone();
+	}
+
+	/**
+	 * Runs rarefaction iterations and passes each to a visitor. The visitor is called on the calling thread, in order of iteration.
+	 * @param iIterations Number of iterations.
+	 * @param iRandomSeed Random seed.
+	 * @param iThreads Number of threads to use.
+	 * @param vis1 Visitor.
+	 */
+	public void iterate(int iIterations, int iRandomSeed, int iThreads, IterationVisitor vis1) throws Exception{
+		runIterations(iIterations, iRandomSeed, iThreads, vis1, null, null, null);
+	}
+
+	/**
+	 * Gets log-factorial, ln(n!). Values of small integers are cached; larger values use Stirling's series, which is accurate to double precision beyond the cache.
+	 * @param n Integer; must be non-negative.
+	 * @return ln(n!).
+	 */
+	public static double logFactorial(long n){
+
+		//d1 = n as double
+		//d2 = 1/n^2
+
+		double d1;
+		double d2;
+
+		if(n<LOG_FACTORIAL_CACHE_SIZE){
+			return LOG_FACTORIALS[(int) n];
+		}
+		d1 = n;
+		d2 = 1./(d1*d1);
+		return d1*Math.log(d1)-d1+0.5*Math.log(2.*Math.PI*d1)+(1./12.-d2*(1./360.-d2/1260.))/d1;
+	}
+
+	/**
+	 * Rarefies vector of counts.
+	 * @param rgiCounts Counts; must be non-negative.
+	 * @param iTotal Total to which to rarefy.
+	 * @param rnd1 Random number generator.
+	 * @return Rarefied count of each entry; null if total of vector is less than iTotal.
+	 */
+	public static int[] rarefy(int[] rgiCounts, int iTotal, SplittableRandom rnd1){
+
+		//rgiOut = output
+
+		int rgiOut[];
+
+		rgiOut = new int[rgiCounts.length];
+		if(rarefy(rgiCounts, 0, rgiCounts.length, iTotal, rnd1, rgiOut)){
+			return rgiOut;
+		}else{
+			return null;
+		}
+	}
+
+	/**
+	 * Rarefies range of a vector of counts into an output array.
+	 * @param rgiCounts Counts; must be non-negative.
+	 * @param iStart First entry of range.
+	 * @param iEnd Entry after last entry of range.
+	 * @param iTotal Total to which to rarefy.
+	 * @param rnd1 Random number generator.
+	 * @param rgiOut Output: rarefied counts are written to the same range as the counts.
+	 * @return True if vector was rarefied; false if total of range is less than iTotal, in which case output is not changed.
+	 */
+	public static boolean rarefy(int[] rgiCounts, int iStart, int iEnd, int iTotal, SplittableRandom rnd1, int[] rgiOut){
+
+		//lPopulation = remaining population
+		//iDraws = remaining draws
+
+		long lPopulation;
+		int iDraws;
+
+		lPopulation = 0;
+		for(int k=iStart;k<iEnd;k++){
+			lPopulation+=rgiCounts[k];
+		}
+		if(lPopulation<iTotal){
+			return false;
+		}
+		iDraws = iTotal;
+		for(int k=iStart;k<iEnd;k++){
+			rgiOut[k] = sampleHypergeometric(lPopulation, rgiCounts[k], iDraws, rnd1);
+			iDraws-=rgiOut[k];
+			lPopulation-=rgiCounts[k];
+		}
+		return true;
+	}
+
+	/**
+	 * Draws from hypergeometric distribution: the number of successes in iDraws draws without replacement from a population of size lPopulation with lSuccesses successes.
+	 * @param lPopulation Population size.
+	 * @param lSuccesses Number of successes in population.
+	 * @param iDraws Number of draws; must not exceed population size.
+	 * @param rnd1 Random number generator.
+	 * @return Number of successes drawn.
+	 */
+	public static int sampleHypergeometric(long lPopulation, long lSuccesses, int iDraws, SplittableRandom rnd1){
+
+		//lFailures = number of failures in population
+		//iOut = number of successes drawn, for direct draws
+		//iLow, iHigh = bounds of support
+		//iMode = mode
+		//dU = uniform random number, reduced by probabilities of outcomes visited
+		//iDown, iUp = lowest and highest outcomes visited
+		//dDown, dUp = probabilities of lowest and highest outcomes visited
+
+		long lFailures;
+		int iOut;
+		int iLow;
+		int iHigh;
+		int iMode;
+		double dU;
+		int iDown;
+		int iUp;
+		double dDown;
+		double dUp;
+
+		if(iDraws==0 || lSuccesses==0){
+			return 0;
+		}
+		if(lSuccesses==lPopulation){
+			return iDraws;
+		}
+		lFailures = lPopulation-lSuccesses;
+		iLow = (int) Math.max(0, iDraws-lFailures);
+		iHigh = (int) Math.min(lSuccesses, iDraws);
+		if(iLow==iHigh){
+			return iLow;
+		}
+
+		//drawing successes (or draws) one at a time: each is kept with probability (draws or successes remaining)/(population remaining)
+		if(lSuccesses<=DIRECT_DRAW_LIMIT){
+			iOut = 0;
+			for(int i=0;i<lSuccesses;i++){
+				if(rnd1.nextDouble()*(lPopulation-i)<iDraws-iOut){
+					iOut++;
+				}
+			}
+			return iOut;
+		}
+		if(iDraws<=DIRECT_DRAW_LIMIT){
+			iOut = 0;
+			for(int i=0;i<iDraws;i++){
+				if(rnd1.nextDouble()*(lPopulation-i)<lSuccesses-iOut){
+					iOut++;
+				}
+			}
+			return iOut;
+		}
+		iMode = (int) Math.floor((iDraws+1.)*(lSuccesses+1.)/(lPopulation+2.));
+		iMode = Math.max(iLow, Math.min(iHigh, iMode));
+
+		//probability of mode
+		dDown = Math.exp(
+				logFactorial(lSuccesses)-logFactorial(iMode)-logFactorial(lSuccesses-iMode)
+				+logFactorial(lFailures)-logFactorial(iDraws-iMode)-logFactorial(lFailures-iDraws+iMode)
+				-logFactorial(lPopulation)+logFactorial(iDraws)+logFactorial(lPopulation-iDraws));
+		dUp = dDown;
+
+		//inverting, alternating between outcomes above and below mode
+		dU = rnd1.nextDouble()-dDown;
+		if(dU<0){
+			return iMode;
+		}
+		iDown = iMode;
+		iUp = iMode;
+		while(iDown>iLow || iUp<iHigh){
+			if(iUp<iHigh){
+				dUp*=((double) (lSuccesses-iUp))*(iDraws-iUp)/(((double) iUp+1.)*(lFailures-iDraws+iUp+1.));
+				iUp++;
+				dU-=dUp;
+				if(dU<0){
+					return iUp;
+				}
+			}
+			if(iDown>iLow){
+				dDown*=((double) iDown)*(lFailures-iDraws+iDown)/(((double) lSuccesses-iDown+1.)*(iDraws-iDown+1.));
+				iDown--;
+				dU-=dDown;
+				if(dU<0){
+					return iDown;
+				}
+			}
+		}
+
+		//reached only through rounding error in the total probability
+		return iMode;
+	}
+
+	/**
+	 * Loads cached log-factorials.
+	 * @return Log-factorials of 0 through LOG_FACTORIAL_CACHE_SIZE-1.
+	 */
+	private static double[] loadLogFactorials(){
+
+		//rgdOut = output
+
+		double rgdOut[];
+
+		rgdOut = new double[LOG_FACTORIAL_CACHE_SIZE];
+		for(int i=1;i<rgdOut.length;i++){
+			rgdOut[i] = rgdOut[i-1]+Math.log(i);
+		}
+		return rgdOut;
+	}
+
+	/**
+	 * Rarefies blocks of samples for one iteration until none remain, and adds them to accumulators.
+	 * @param iIteration Iteration.
+	 * @param iRandomSeed Random seed.
+	 * @param iNext Next block to rarefy; shared between threads.
+	 * @param rgiOut Output: rarefied counts.
+	 * @param rglSum Sums of counts to update; null if not needed.
+	 * @param alp1 Alpha diversity engine; null if not needed.
+	 * @param rgdAlphaSum Sums of alpha diversity indices to update; null if not needed.
+	 */
+	private void rarefyBlocks(int iIteration, int iRandomSeed, AtomicInteger iNext, int[] rgiOut, long[] rglSum, AlphaDiversity alp1, double[][] rgdAlphaSum){
+
+		//iStart = first sample of block
+		//lSeed = seed of iteration
+		//sms1 = sums of current sample
+		//rgd1 = alpha diversity of current sample
+
+		int iStart;
+		long lSeed;
+		AlphaDiversity.SampleSums sms1 = null;
+		double rgd1[] = null;
+
+		lSeed = iRandomSeed+(((long) iIteration)<<32);
+		if(alp1!=null){
+			sms1 = new AlphaDiversity.SampleSums();
+			rgd1 = new double[alp1.getIndexCount()];
+		}
+		while((iStart = iNext.getAndIncrement()*BLOCK_SIZE)<rgiSample.length){
+			for(int j=iStart;j<Math.min(rgiSample.length, iStart+BLOCK_SIZE);j++){
+				rarefy(rgiCounts, rgiColPtr[j], rgiColPtr[j+1], iTotal, getRandom(lSeed, rgiSample[j]), rgiOut);
+				if(rglSum!=null){
+					for(int t=rgiColPtr[j];t<rgiColPtr[j+1];t++){
+						rglSum[t]+=rgiOut[t];
+					}
+				}
+				if(alp1!=null){
+					sms1.clear();
+					for(int t=rgiColPtr[j];t<rgiColPtr[j+1];t++){
+						sms1.add(rgiOut[t]);
+					}
+					alp1.computeIndices(sms1, rgd1);
+					for(int k=0;k<rgd1.length;k++){
+						rgdAlphaSum[k][j]+=rgd1[k];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs rarefaction iterations. Iterations are run in turn, and the samples of each iteration are split between threads; each sample is rarefied and accumulated by a single thread, so results do not depend on the number of threads.
+	 * @param iIterations Number of iterations.
+	 * @param iRandomSeed Random seed.
+	 * @param iThreads Number of threads to use.
+	 * @param vis1 Visitor for iterations; null if not needed.
+	 * @param rglSum Sums of counts to update; null if not needed.
+	 * @param alp1 Alpha diversity engine; null if not needed.
+	 * @param rgdAlphaSum Sums of alpha diversity indices to update; null if not needed.
+	 */
+	private void runIterations(int iIterations, final int iRandomSeed, int iThreads, IterationVisitor vis1, final long[] rglSum, final AlphaDiversity alp1, final double[][] rgdAlphaSum) throws Exception{
+
+		//rgiOut = rarefied counts of current iteration; reused between iterations
+		//iBlocks = number of blocks of samples
+		//iThreadsUsed = number of threads used
+		//exc1 = thread pool
+		//lstFutures = task results
+		//iNext = next block to rarefy
+		//iIteration = current iteration; shared with threads
+
+		final int rgiOut[];
+		int iBlocks;
+		int iThreadsUsed;
+		ExecutorService exc1 = null;
+		ArrayList<Future<Object>> lstFutures;
+		final AtomicInteger iNext;
+		final AtomicInteger iIteration;
+
+		rgiOut = new int[rgiCounts.length];
+		iBlocks = (rgiSample.length+BLOCK_SIZE-1)/BLOCK_SIZE;
+		iThreadsUsed = Math.max(1, Math.min(iThreads, iBlocks));
+		iNext = new AtomicInteger(0);
+		iIteration = new AtomicInteger(0);
+		try{
+			if(iThreadsUsed>1){
+				exc1 = Executors.newFixedThreadPool(iThreadsUsed);
+			}
+			for(int i=0;i<iIterations;i++){
+				iNext.set(0);
+				iIteration.set(i);
+
+				//rarefying on calling thread
+				if(exc1==null){
+					rarefyBlocks(i, iRandomSeed, iNext, rgiOut, rglSum, alp1, rgdAlphaSum);
+
+				//rarefying on thread pool: each thread takes blocks in turn
+				}else{
+					lstFutures = new ArrayList<Future<Object>>();
+					for(int t=0;t<iThreadsUsed;t++){
+						lstFutures.add(exc1.submit(new Callable<Object>(){
+							public Object call() throws Exception{
+								rarefyBlocks(iIteration.get(), iRandomSeed, iNext, rgiOut, rglSum, alp1, rgdAlphaSum);
+								return null;
+							}
+						}));
+					}
+					for(Future<Object> fut1:lstFutures){
+						fut1.get();
+					}
+				}
+				if(vis1!=null){
+					vis1.visit(i, rgiColPtr, rgiRowIndex, rgiOut);
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch(ExecutionException e){
+			throw new IOException(e.getCause());
+		}finally{
+			if(exc1!=null){
+				exc1.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Visitor for rarefaction iterations.
+	 */
+	public interface IterationVisitor{
+
+		/**
+		 * Called for each iteration. Arrays are shared between iterations and must not be modified or kept: rarefied counts are overwritten by the next iteration.
+		 * @param iIteration Iteration, from 0.
+		 * @param rgiColPtr Column pointers: counts of retained sample j (see getSamples()) are in positions rgiColPtr[j] through rgiColPtr[j+1]-1.
+		 * @param rgiRowIndex Observation index of each count.
+		 * @param rgiCounts Rarefied counts; may be 0.
+		 */
+		public void visit(int iIteration, int[] rgiColPtr, int[] rgiRowIndex, int[] rgiCounts);
+	}
+}
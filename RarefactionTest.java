@@ -0,0 +1,304 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.Rarefaction;
+
+public class RarefactionTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**
+	 * Constructor.
+	 */
+	public RarefactionTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+
+	@Test
+	public void computeExpectedRichness_CurvesComputed_ValuesAreCorrect(){
+
+		//rgd1 = expected richness
+
+		double rgd1[][] = null;
+
+		try{
+			rgd1 = Rarefaction.computeExpectedRichness(bio1, new int[]{0,1,2,7,8}, 1);
+			assertArrayEquals(rgd1,Rarefaction.computeExpectedRichness(bio1, new int[]{0,1,2,7,8}, 4));
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+
+		//Sample1 has counts 5 and 2
+		assertArrayEquals(new double[]{0,1,2.-11./21.,2,Double.NaN},rgd1[0],0.0000000001);
+	}
+
+	@Test
+	public void computeRichnessVariance_VariancesComputed_MatchExactAndSimulatedValues(){
+
+		//rgd1 = variances at depth 2 and 7
+		//rgd2 = variances at depth 3
+		//rgdSum, rgdSum2 = sums and sums of squares of simulated richness
+
+		double rgd1[][] = null;
+		double rgd2[][] = null;
+		final double rgdSum[];
+		final double rgdSum2[];
+
+		rgdSum = new double[6];
+		rgdSum2 = new double[6];
+		try{
+			rgd1 = Rarefaction.computeRichnessVariance(bio1, new int[]{2,7}, 1);
+			rgd2 = Rarefaction.computeRichnessVariance(bio1, new int[]{3}, 2);
+			new Rarefaction(bio1, 3).iterate(20000, 1234, 2, new Rarefaction.IterationVisitor(){
+				public void visit(int iIteration, int[] rgiColPtr, int[] rgiRowIndex, int[] rgiCounts){
+
+					//d1 = richness
+
+					double d1;
+
+					for(int j=0;j<rgiColPtr.length-1;j++){
+						d1 = 0;
+						for(int t=rgiColPtr[j];t<rgiColPtr[j+1];t++){
+							if(rgiCounts[t]>0){
+								d1++;
+							}
+						}
+						rgdSum[j]+=d1;
+						rgdSum2[j]+=d1*d1;
+					}
+				}
+			});
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+
+		//Sample1 has counts 5 and 2: richness is 2 with probability 10/21 at depth 2, and always 2 at depth 7
+		assertEquals(110./441.,rgd1[0][0],0.0000000001);
+		assertEquals(0.,rgd1[0][1],0.0000000001);
+		for(int j=0;j<6;j++){
+			assertEquals(rgd2[j][0],rgdSum2[j]/20000.-(rgdSum[j]/20000.)*(rgdSum[j]/20000.),0.02);
+		}
+	}
+
+	@Test
+	public void computeMeanAlpha_RichnessAveraged_MatchesMeanOfIterations(){
+
+		//rar1 = rarefaction
+		//rgd1 = mean richness
+		//rgdCorrect = mean richness from iterations
+
+		Rarefaction rar1;
+		double rgd1[][] = null;
+		final double rgdCorrect[];
+
+		rar1 = new Rarefaction(bio1, 3);
+		rgdCorrect = new double[6];
+		try{
+			rgd1 = rar1.computeMeanAlpha(new String[]{"richness","shannon"}, 50, 1234, 4);
+			assertArrayEquals(rgd1,rar1.computeMeanAlpha(new String[]{"richness","shannon"}, 50, 1234, 1));
+			rar1.iterate(50, 1234, 1, new Rarefaction.IterationVisitor(){
+				public void visit(int iIteration, int[] rgiColPtr, int[] rgiRowIndex, int[] rgiCounts){
+					for(int j=0;j<rgiColPtr.length-1;j++){
+						for(int t=rgiColPtr[j];t<rgiColPtr[j+1];t++){
+							if(rgiCounts[t]>0){
+								rgdCorrect[j]++;
+							}
+						}
+					}
+				}
+			});
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		for(int j=0;j<6;j++){
+			assertEquals(rgdCorrect[j]/50.,rgd1[0][j],0.0000000001);
+		}
+	}
+
+	@Test
+	public void computeMeanTable_TableAveraged_TotalsAreCorrectAndSourceIsUnchanged(){
+
+		//rar1 = rarefaction
+		//bio2 = mean table
+		//rgd1 = sample totals of mean table
+
+		Rarefaction rar1;
+		BiomIO bio2 = null;
+		double rgd1[];
+
+		rar1 = new Rarefaction(bio1, 5);
+		assertArrayEquals(new int[]{0,3},rar1.getSamples());
+		try{
+			bio2 = rar1.computeMeanTable(100, 1234, 4);
+			assertTrue(bio2.equals(rar1.computeMeanTable(100, 1234, 1)));
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals("Sample1",bio2.axsSample.getID(0));
+		assertEquals("Sample4",bio2.axsSample.getID(1));
+		rgd1 = bio2.sumByIndex(bio2.axsSample);
+		assertEquals(5.,rgd1[0],0.0000000001);
+		assertEquals(5.,rgd1[1],0.0000000001);
+		assertEquals(7.,bio1.sumByIndex(bio1.axsSample)[0],0.);
+	}
+
+	@Test
+	public void getRandom_StreamsGotten_StreamsDependOnlyOnSeedAndIndex(){
+		assertEquals(Rarefaction.getRandom(1234, 7).nextLong(),Rarefaction.getRandom(1234, 7).nextLong());
+		assertNotEquals(Rarefaction.getRandom(1234, 7).nextLong(),Rarefaction.getRandom(1234, 8).nextLong());
+		assertNotEquals(Rarefaction.getRandom(1234, 7).nextLong(),Rarefaction.getRandom(1235, 7).nextLong());
+	}
+
+	@Test
+	public void iterate_IterationsRun_FirstIterationMatchesRarefy(){
+
+		//rar1 = rarefaction
+		//rgi1 = rarefied counts of first iteration
+		//rgiIterations = number of iterations visited
+
+		Rarefaction rar1;
+		final int rgi1[][];
+		final int rgiIterations[];
+
+		rar1 = new Rarefaction(bio1, 3);
+		rgi1 = new int[1][];
+		rgiIterations = new int[1];
+		try{
+			rar1.iterate(10, 1234, 2, new Rarefaction.IterationVisitor(){
+				public void visit(int iIteration, int[] rgiColPtr, int[] rgiRowIndex, int[] rgiCounts){
+
+					//iSum = total of current sample
+
+					int iSum;
+
+					assertEquals(rgiIterations[0],iIteration);
+					rgiIterations[0]++;
+					for(int j=0;j<rgiColPtr.length-1;j++){
+						iSum = 0;
+						for(int t=rgiColPtr[j];t<rgiColPtr[j+1];t++){
+							iSum+=rgiCounts[t];
+						}
+						assertEquals(3,iSum);
+					}
+					if(iIteration==0){
+						rgi1[0] = new int[bio1.axsObservation.size()*bio1.axsSample.size()];
+						for(int j=0;j<rgiColPtr.length-1;j++){
+							for(int t=rgiColPtr[j];t<rgiColPtr[j+1];t++){
+								rgi1[0][rgiRowIndex[t]*bio1.axsSample.size()+j] = rgiCounts[t];
+							}
+						}
+					}
+				}
+			});
+			bio1.rarefy(3, 1234);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		assertEquals(10,rgiIterations[0]);
+		for(int i=0;i<5;i++){
+			for(int j=0;j<6;j++){
+				assertEquals(bio1.getValueByIndices(i, j),rgi1[0][i*6+j],0.);
+			}
+		}
+		bio1 = new BiomIO(sTestDataDir + "/" + sTestFile);
+	}
+
+	@Test
+	public void logFactorial_ValuesComputed_MatchSums(){
+
+		//d1 = sum of logs
+
+		double d1;
+
+		d1 = 0;
+		for(int i=1;i<=5000;i++){
+			d1+=Math.log(i);
+			if(i==10 || i==255 || i==256 || i==300 || i==5000){
+				assertEquals(d1,Rarefaction.logFactorial(i),0.000000001*Math.max(1., d1));
+			}
+		}
+		assertEquals(0.,Rarefaction.logFactorial(0),0.);
+	}
+
+	@Test
+	public void rarefy_TotalTooLarge_NullReturned(){
+		assertNull(Rarefaction.rarefy(new int[]{3,0,4}, 8, new SplittableRandom(1234)));
+	}
+
+	@Test
+	public void rarefy_VectorRarefied_TotalsAndMeansAreCorrect(){
+
+		//rgi1 = counts
+		//rgi2 = rarefied counts
+		//rgd1 = sums of rarefied counts
+		//rnd1 = random number generator
+		//iTotal = current total
+
+		int rgi1[];
+		int rgi2[];
+		double rgd1[];
+		SplittableRandom rnd1;
+		int iTotal;
+
+		rgi1 = new int[]{500,0,3,1200,40,1,7256};
+		rgd1 = new double[rgi1.length];
+		rnd1 = new SplittableRandom(1234);
+		for(int r=0;r<20000;r++){
+			rgi2 = Rarefaction.rarefy(rgi1, 1000, rnd1);
+			iTotal = 0;
+			for(int k=0;k<rgi1.length;k++){
+				assertTrue(rgi2[k]>=0 && rgi2[k]<=rgi1[k]);
+				iTotal+=rgi2[k];
+				rgd1[k]+=rgi2[k];
+			}
+			assertEquals(1000,iTotal);
+		}
+		for(int k=0;k<rgi1.length;k++){
+			assertEquals(1000.*rgi1[k]/9000.,rgd1[k]/20000.,0.02*Math.max(1., 1000.*rgi1[k]/9000.));
+		}
+		assertArrayEquals(rgi1,Rarefaction.rarefy(rgi1, 9000, rnd1));
+	}
+
+	@Test
+	public void sampleHypergeometric_ValuesDrawn_FrequenciesMatchProbabilities(){
+
+		//rgi1 = frequency of each outcome
+		//rnd1 = random number generator
+		//rgi2 = population, successes, and draws of each case
+		//dP = probability of current outcome
+
+		int rgi1[];
+		SplittableRandom rnd1;
+		int rgi2[][];
+		double dP;
+
+		//first case is drawn one individual at a time, second by inversion from mode
+		rgi2 = new int[][]{{20,7,9},{100,40,30}};
+		rnd1 = new SplittableRandom(1234);
+		for(int[] rgi3:rgi2){
+			rgi1 = new int[rgi3[1]+1];
+			for(int r=0;r<200000;r++){
+				rgi1[Rarefaction.sampleHypergeometric(rgi3[0], rgi3[1], rgi3[2], rnd1)]++;
+			}
+			for(int x=0;x<=Math.min(rgi3[1], rgi3[2]);x++){
+				dP = Math.exp(Rarefaction.logFactorial(rgi3[1])-Rarefaction.logFactorial(x)-Rarefaction.logFactorial(rgi3[1]-x)
+						+Rarefaction.logFactorial(rgi3[0]-rgi3[1])-Rarefaction.logFactorial(rgi3[2]-x)-Rarefaction.logFactorial(rgi3[0]-rgi3[1]-rgi3[2]+x)
+						-Rarefaction.logFactorial(rgi3[0])+Rarefaction.logFactorial(rgi3[2])+Rarefaction.logFactorial(rgi3[0]-rgi3[2]));
+				assertEquals(dP,rgi1[x]/200000.,0.004);
+			}
+		}
+	}
+}
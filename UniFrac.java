@@ -0,0 +1,452 @@
+package edu.ucsf.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UniFrac distances between all samples of a BIOM table, given a phylogenetic tree whose tips are observation IDs. Distances are computed with the stripe layout of Striped UniFrac (McDonald et al. 2018): stripe s holds the pairs of samples k and k+s+1 (modulo n) for all samples k, so that the n/2 stripes together hold every pair. For each branch of the tree, the proportion of each sample below the branch is computed as a dense vector, and each stripe is updated with a contiguous pass over this vector. Stripes are processed in blocks of bounded size, and blocks are taken in turn by a pool of threads; each thread walks the tree separately, so memory use is bounded by the block size and the tree depth rather than by the square of the number of samples. Supported metrics are:
+ * <p>
+ * <ul>
+ * <li>unweighted = unweighted UniFrac, sum b*|I(u>0) - I(v>0)| / sum b*max(I(u>0), I(v>0)).
+ * <li>weighted_normalized = normalized weighted UniFrac, sum b*|u - v| / sum b*(u + v).
+ * <li>weighted_unnormalized = weighted UniFrac, sum b*|u - v|.
+ * <li>generalized = generalized UniFrac (Chen et al. 2012), sum b*(u + v)^alpha*|(u - v)/(u + v)| / sum b*(u + v)^alpha.
+ * </ul>
+ * <p>
+ * Here b is the length of a branch and u and v are the proportions of the counts of the two samples that fall on tips below the branch. Values are assumed to be non-negative; every observation with positive counts must be a tip of the tree. Distances between two samples that are both empty are NaN for the normalized metrics. Output is in condensed form (see BetaDiversity).
+ * @author Joshua Ladau <br/>
+ * 		   jladau@gmail.com
+ */
+public class UniFrac{
+
+	//bio1 = table
+	//tre1 = tree
+	//iMetric = code of metric
+	//dAlpha = alpha parameter for generalized UniFrac
+	//iSamples = number of samples
+	//iStripes = number of stripes
+	//rgiTipIndex = observation index of each node; -1 for internal nodes and tips that are not in the table
+	//rgiOrder = nodes in heavy-first postorder
+	//rgdSum = sum of each sample
+
+	/**Names of supported metrics.**/
+	public static final String[] METRICS = new String[]{"unweighted","weighted_normalized","weighted_unnormalized","generalized"};
+
+	/**Maximum number of entries held by each block of stripes, per accumulator.**/
+	private static final int MAX_BLOCK_ENTRIES = 1<<22;
+
+	/**Tile size used for distance matrix files.**/
+	private static final int FILE_TILE_SIZE = 64;
+
+	/**Table.**/
+	private BiomIO bio1;
+
+	/**Tree.**/
+	private PhylogeneticTree tre1;
+
+	/**Code (position in METRICS) of metric.**/
+	private int iMetric;
+
+	/**Alpha parameter for generalized UniFrac.**/
+	private double dAlpha;
+
+	/**Number of samples.**/
+	private int iSamples;
+
+	/**Number of stripes.**/
+	private int iStripes;
+
+	/**Observation index of each node; -1 for internal nodes and tips that are not in the table.**/
+	private int[] rgiTipIndex;
+
+	/**Nodes in heavy-first postorder.**/
+	private int[] rgiOrder;
+
+	/**Sum of each sample.**/
+	private double[] rgdSum;
+
+	/**
+	 * Constructor.
+	 * @param bio1 Table. Samples are columns of the table; observations are rows.
+	 * @param tre1 Tree. Tips are linked to observations by name.
+	 * @param sMetric Metric to compute; see class documentation for names. For generalized UniFrac, alpha is 0.5.
+	 */
+	public UniFrac(BiomIO bio1, PhylogeneticTree tre1, String sMetric) throws Exception{
+		this(bio1, tre1, sMetric, 0.5);
+	}
+
+	/**
+	 * Constructor.
+	 * @param bio1 Table. Samples are columns of the table; observations are rows.
+	 * @param tre1 Tree. Tips are linked to observations by name.
+	 * @param sMetric Metric to compute; see class documentation for names.
+	 * @param dAlpha Alpha parameter for generalized UniFrac; ignored for other metrics.
+	 */
+	public UniFrac(BiomIO bio1, PhylogeneticTree tre1, String sMetric, double dAlpha) throws Exception{
+
+		//rgbLinked = true for observations that are tips of the tree
+		//rgi1 = numbers of nonzero entries of observations
+
+		boolean rgbLinked[];
+		int rgi1[];
+
+		this.bio1 = bio1;
+		this.tre1 = tre1;
+		this.dAlpha = dAlpha;
+		iMetric = -1;
+		for(int l=0;l<METRICS.length;l++){
+			if(METRICS[l].equals(sMetric)){
+				iMetric = l;
+			}
+		}
+		if(iMetric==-1){
+			throw new Exception("Unknown UniFrac metric: " + sMetric);
+		}
+		iSamples = bio1.axsSample.size();
+		iStripes = iSamples/2;
+
+		//linking tips and checking that all observations in table are in tree
+		rgiTipIndex = tre1.linkTips(bio1.axsObservation);
+		rgbLinked = new boolean[bio1.axsObservation.size()];
+		for(int i=0;i<rgiTipIndex.length;i++){
+			if(rgiTipIndex[i]!=-1){
+				rgbLinked[rgiTipIndex[i]] = true;
+			}
+		}
+		rgi1 = bio1.getNonzeroCountsByIndex(bio1.axsObservation);
+		for(int i=0;i<rgbLinked.length;i++){
+			if(!rgbLinked[i] && rgi1[i]>0){
+				throw new Exception("Observation not found in tree: " + bio1.axsObservation.getID(i));
+			}
+		}
+		rgiOrder = tre1.getHeavyFirstPostorder();
+	}
+
+	/**
+	 * Adds vector to another vector.
+	 * @param rgd1 Vector that is updated.
+	 * @param rgd2 Vector to add.
+	 */
+	private void addTo(double[] rgd1, double[] rgd2){
+		for(int k=0;k<rgd1.length;k++){
+			rgd1[k]+=rgd2[k];
+		}
+	}
+
+	/**
+	 * Computes distances between all pairs of samples.
+	 * @param iThreads Number of threads to use.
+	 * @return Distances in condensed form (see BetaDiversity).
+	 */
+	public double[] compute(int iThreads) throws Exception{
+
+		//rgdOut = output
+
+		double rgdOut[];
+
+		if(BetaDiversity.getCondensedSize(iSamples)>Integer.MAX_VALUE-8){
+			throw new Exception("Too many samples for in-memory distance matrix: " + iSamples + ". Write distances to a file instead.");
+		}
+		rgdOut = new double[(int) BetaDiversity.getCondensedSize(iSamples)];
+		compute(rgdOut, null, iThreads);
+		return rgdOut;
+	}
+
+	/**
+	 * Computes distances between all pairs of samples and writes them to a distance matrix file (see DistanceMatrixFile). Stripes do not correspond to tiles of the file, so tiles are marked complete only once all distances are written: if the file already holds a complete matrix for the same samples and metric, nothing is computed; otherwise, all distances are computed.
+	 * @param sPath Path to output file.
+	 * @param iThreads Number of threads to use.
+	 */
+	public void compute(String sPath, int iThreads) throws Exception{
+
+		//rgsIDs = sample IDs
+		//dmf1 = output file
+
+		String rgsIDs[];
+		DistanceMatrixFile dmf1;
+
+		rgsIDs = new String[iSamples];
+		for(int j=0;j<iSamples;j++){
+			rgsIDs[j] = bio1.axsSample.getID(j);
+		}
+		dmf1 = new DistanceMatrixFile(sPath, getMetricName(), rgsIDs, FILE_TILE_SIZE);
+		try{
+			if(dmf1.isComplete()){
+				return;
+			}
+			compute(null, dmf1, iThreads);
+			for(int t=0;t<dmf1.getTileCount();t++){
+				dmf1.setTileComplete(t);
+			}
+		}finally{
+			dmf1.close();
+		}
+	}
+
+	/**
+	 * Computes distances for all blocks of stripes.
+	 * @param rgdOut Output array; null if output is a file.
+	 * @param dmf1 Output file; null if output is an array.
+	 * @param iThreads Number of threads to use.
+	 */
+	private void compute(final double[] rgdOut, final DistanceMatrixFile dmf1, int iThreads) throws Exception{
+
+		//iBlockSize = number of stripes in each block
+		//iBlocks = number of blocks
+		//iNext = next block to compute
+		//exc1 = thread pool
+		//lstFutures = task results
+
+		final int iBlockSize;
+		final int iBlocks;
+		final AtomicInteger iNext;
+		ExecutorService exc1;
+		ArrayList<Future<Object>> lstFutures;
+
+		if(iStripes==0){
+			return;
+		}
+		rgdSum = bio1.sumByIndex(bio1.axsSample);
+
+		//using blocks small enough to bound memory and numerous enough to keep threads busy
+		iBlockSize = Math.max(1, Math.min(MAX_BLOCK_ENTRIES/Math.max(1, iSamples), (iStripes+Math.max(1, iThreads)-1)/Math.max(1, iThreads)));
+		iBlocks = (iStripes+iBlockSize-1)/iBlockSize;
+		iNext = new AtomicInteger(0);
+
+		//computing on calling thread
+		if(iThreads<=1 || iBlocks<2){
+			computeBlocks(iBlockSize, iNext, rgdOut, dmf1);
+			return;
+		}
+
+		//computing on thread pool: each thread takes blocks in turn
+		exc1 = Executors.newFixedThreadPool(Math.min(iThreads, iBlocks));
+		lstFutures = new ArrayList<Future<Object>>();
+		try{
+			for(int t=0;t<Math.min(iThreads, iBlocks);t++){
+				lstFutures.add(exc1.submit(new Callable<Object>(){
+					public Object call() throws Exception{
+						computeBlocks(iBlockSize, iNext, rgdOut, dmf1);
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> fut1:lstFutures){
+				fut1.get();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch(ExecutionException e){
+			throw new IOException(e.getCause());
+		}finally{
+			exc1.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes blocks of stripes until none remain. For each block, the tree is walked in heavy-first postorder, keeping the proportion vectors of completed children on a stack.
+	 * @param iBlockSize Number of stripes in each block.
+	 * @param iNext Next block to compute; shared between threads.
+	 * @param rgdOut Output array; null if output is a file.
+	 * @param dmf1 Output file; null if output is an array.
+	 */
+	private void computeBlocks(int iBlockSize, AtomicInteger iNext, double[] rgdOut, DistanceMatrixFile dmf1){
+
+		//cur1 = cursor over observations
+		//iStart = first stripe of block
+		//iEnd = stripe after last stripe of block
+		//rgdNum = numerator for each stripe of block (first dimension) and sample (second dimension)
+		//rgdDen = denominator for each stripe of block and sample
+		//lstStack = proportion vectors of completed nodes whose parents have not been completed
+		//lstNonzero = true for vectors in lstStack with a positive entry
+		//lstFree = unused vectors
+		//rgd1 = vector for current node
+		//b1 = true if current vector has a positive entry
+		//iChildren = number of children of current node
+
+		BiomIO.NonzeroCursor cur1;
+		int iStart;
+		int iEnd;
+		double rgdNum[][];
+		double rgdDen[][];
+		ArrayList<double[]> lstStack;
+		ArrayList<Boolean> lstNonzero;
+		ArrayList<double[]> lstFree;
+		double rgd1[];
+		boolean b1;
+		int iChildren;
+
+		cur1 = bio1.getCursor(bio1.axsObservation);
+		lstStack = new ArrayList<double[]>();
+		lstNonzero = new ArrayList<Boolean>();
+		lstFree = new ArrayList<double[]>();
+		while((iStart = iNext.getAndIncrement()*iBlockSize)<iStripes){
+			iEnd = Math.min(iStripes, iStart+iBlockSize);
+			rgdNum = new double[iEnd-iStart][iSamples];
+			rgdDen = new double[iEnd-iStart][iSamples];
+			for(int i:rgiOrder){
+
+				//loading vector: tips from table, internal nodes as sums of children
+				if(tre1.isTip(i)){
+					rgd1 = (lstFree.size()>0) ? lstFree.remove(lstFree.size()-1) : new double[iSamples];
+					Arrays.fill(rgd1, 0.);
+					b1 = false;
+					if(rgiTipIndex[i]!=-1){
+						cur1.seek(rgiTipIndex[i]);
+						while(cur1.next()){
+							if(cur1.getValue()>0){
+								rgd1[cur1.getIndex()] = cur1.getValue()/rgdSum[cur1.getIndex()];
+								b1 = true;
+							}
+						}
+					}
+				}else{
+					iChildren = tre1.getChildren(i).length;
+					rgd1 = lstStack.get(lstStack.size()-iChildren);
+					b1 = lstNonzero.get(lstStack.size()-iChildren);
+					for(int k=lstStack.size()-iChildren+1;k<lstStack.size();k++){
+						if(lstNonzero.get(k)){
+							addTo(rgd1, lstStack.get(k));
+							b1 = true;
+						}
+						lstFree.add(lstStack.get(k));
+					}
+					for(int k=0;k<iChildren;k++){
+						lstStack.remove(lstStack.size()-1);
+						lstNonzero.remove(lstNonzero.size()-1);
+					}
+				}
+
+				//updating stripes with branch above node
+				if(b1 && i!=tre1.getRoot() && tre1.getLength(i)>0){
+					for(int s=iStart;s<iEnd;s++){
+						updateStripe(rgd1, tre1.getLength(i), s+1, rgdNum[s-iStart], rgdDen[s-iStart]);
+					}
+				}
+				lstStack.add(rgd1);
+				lstNonzero.add(b1);
+			}
+			lstFree.addAll(lstStack);
+			lstStack.clear();
+			lstNonzero.clear();
+			saveBlock(iStart, iEnd, rgdNum, rgdDen, rgdOut, dmf1);
+		}
+	}
+
+	/**
+	 * Gets name of metric, as written to distance matrix files.
+	 * @return Name of metric; includes alpha for generalized UniFrac.
+	 */
+	private String getMetricName(){
+		if(iMetric==3){
+			return "unifrac_" + METRICS[iMetric] + "_" + dAlpha;
+		}else{
+			return "unifrac_" + METRICS[iMetric];
+		}
+	}
+
+	/**
+	 * Saves distances of a block of stripes.
+	 * @param iStart First stripe of block.
+	 * @param iEnd Stripe after last stripe of block.
+	 * @param rgdNum Numerator for each stripe of block and sample.
+	 * @param rgdDen Denominator for each stripe of block and sample.
+	 * @param rgdOut Output array; null if output is a file.
+	 * @param dmf1 Output file; null if output is an array.
+	 */
+	private void saveBlock(int iStart, int iEnd, double[][] rgdNum, double[][] rgdDen, double[] rgdOut, DistanceMatrixFile dmf1){
+
+		//iOffset = offset between samples of stripe
+		//j = second sample of pair
+		//lPos = position of pair in condensed form
+		//dValue = distance
+
+		int iOffset;
+		int j;
+		long lPos;
+		double dValue;
+
+		for(int s=iStart;s<iEnd;s++){
+			iOffset = s+1;
+			for(int k=0;k<iSamples;k++){
+
+				//when n is even, the last stripe holds each pair twice
+				if(2*iOffset==iSamples && k>=iOffset){
+					break;
+				}
+				j = (k+iOffset)%iSamples;
+				lPos = (k<j) ? BetaDiversity.getCondensedIndex(k, j, iSamples) : BetaDiversity.getCondensedIndex(j, k, iSamples);
+				if(iMetric==2){
+					dValue = rgdNum[s-iStart][k];
+				}else{
+					dValue = rgdNum[s-iStart][k]/rgdDen[s-iStart][k];
+				}
+				if(rgdOut!=null){
+					rgdOut[(int) lPos] = dValue;
+				}else{
+					dmf1.put(lPos, dValue);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the contribution of one branch to one stripe.
+	 * @param rgd1 Proportion of each sample below branch.
+	 * @param dLength Branch length.
+	 * @param iOffset Offset between samples of stripe: sample k is paired with sample k+iOffset (modulo number of samples).
+	 * @param rgdNum Numerator of stripe, by first sample of pair.
+	 * @param rgdDen Denominator of stripe, by first sample of pair.
+	 */
+	private void updateStripe(double[] rgd1, double dLength, int iOffset, double[] rgdNum, double[] rgdDen){
+
+		//u, v = proportions of first and second samples
+		//dTotal = u + v
+		//dWeight = (u + v)^alpha
+
+		double u;
+		double v;
+		double dTotal;
+		double dWeight;
+
+		for(int k=0;k<iSamples;k++){
+			u = rgd1[k];
+			v = (k+iOffset<iSamples) ? rgd1[k+iOffset] : rgd1[k+iOffset-iSamples];
+			switch(iMetric){
+				case 0:
+					if(u>0 || v>0){
+						rgdDen[k]+=dLength;
+						if(u==0 || v==0){
+							rgdNum[k]+=dLength;
+						}
+					}
+					break;
+				case 1:
+					rgdNum[k]+=dLength*Math.abs(u-v);
+					rgdDen[k]+=dLength*(u+v);
+					break;
+				case 2:
+					rgdNum[k]+=dLength*Math.abs(u-v);
+					break;
+				case 3:
+					dTotal = u+v;
+					if(dTotal>0){
+						dWeight = Math.pow(dTotal, dAlpha);
+						rgdNum[k]+=dLength*dWeight*Math.abs(u-v)/dTotal;
+						rgdDen[k]+=dLength*dWeight;
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+}
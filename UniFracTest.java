@@ -0,0 +1,199 @@
+package edu.ucsf.io;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import org.junit.Test;
+
+import edu.ucsf.io.BiomIO;
+import edu.ucsf.io.DistanceMatrixFile;
+import edu.ucsf.io.PhylogeneticTree;
+import edu.ucsf.io.UniFrac;
+
+public class UniFracTest {
+
+	/**Directory with test data sets.**/
+	private String sTestDataDir;
+
+	/**Test data file.**/
+	private String sTestFile;
+
+	/**Full table.**/
+	private BiomIO bio1;
+
+	/**Tree with all observations of test data as tips.**/
+	private PhylogeneticTree tre1;
+
+	/**Length of each branch of tree.**/
+	private double[] rgdLength;
+
+	/**Observations below each branch of tree.**/
+	private String[][] rgsBelow;
+
+	/**
+	 * Constructor.
+	 */
+	public UniFracTest(){
+		sTestDataDir="/home/jladau/Documents/Research/Data/Microbial_Community_Samples/BiomIOTestData";
+		sTestFile="/rich_sparse_otu_table_hdf5.biom";
+		bio1=new BiomIO(sTestDataDir + "/" + sTestFile);
+		try{
+			tre1=PhylogeneticTree.parse("((GG_OTU_1:0.5,GG_OTU_2:0.5):0.25,(GG_OTU_3:1.0,(GG_OTU_4:0.25,GG_OTU_5:0.75):0.5):0.5);");
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		rgdLength=new double[]{0.5,0.5,0.25,1.0,0.25,0.75,0.5,0.5};
+		rgsBelow=new String[][]{
+			{"GG_OTU_1"},
+			{"GG_OTU_2"},
+			{"GG_OTU_1","GG_OTU_2"},
+			{"GG_OTU_3"},
+			{"GG_OTU_4"},
+			{"GG_OTU_5"},
+			{"GG_OTU_4","GG_OTU_5"},
+			{"GG_OTU_3","GG_OTU_4","GG_OTU_5"}};
+	}
+
+	@Test
+	public void UniFrac_ObservationMissingFromTree_ExceptionThrown(){
+		try{
+			new UniFrac(bio1, PhylogeneticTree.parse("((GG_OTU_1:0.5,GG_OTU_2:0.5):0.25,(GG_OTU_3:1.0,GG_OTU_4:0.25):0.5);"), "unweighted");
+			fail();
+		}catch(Exception e){
+		}
+	}
+
+	@Test
+	public void UniFrac_UnknownMetricGiven_ExceptionThrown(){
+		try{
+			new UniFrac(bio1, tre1, "variance_adjusted");
+			fail();
+		}catch(Exception e){
+		}
+	}
+
+	@Test
+	public void compute_MetricsComputed_ValuesMatchBranchByBranchComputation(){
+
+		//rgd1 = distances
+		//dU, dV = proportions of first and second samples below current branch
+		//dNum, dDen = numerator and denominator of correct distance
+		//dCorrect = correct distance
+
+		double rgd1[];
+		double dU;
+		double dV;
+		double dNum;
+		double dDen;
+		double dCorrect;
+
+		for(int m=0;m<UniFrac.METRICS.length;m++){
+			rgd1 = null;
+			try{
+				rgd1 = new UniFrac(bio1, tre1, UniFrac.METRICS[m], 0.5).compute(1);
+			}catch(Exception e){
+				fail(e.getMessage());
+			}
+			assertEquals(15,rgd1.length);
+			for(int i=0;i<6;i++){
+				for(int j=i+1;j<6;j++){
+					dNum = 0;
+					dDen = 0;
+					for(int b=0;b<rgdLength.length;b++){
+						dU = proportionBelow(i, rgsBelow[b]);
+						dV = proportionBelow(j, rgsBelow[b]);
+						if(m==0){
+							dNum+=rgdLength[b]*Math.abs((dU>0 ? 1 : 0)-(dV>0 ? 1 : 0));
+							dDen+=rgdLength[b]*((dU>0 || dV>0) ? 1 : 0);
+						}else if(m==1 || m==2){
+							dNum+=rgdLength[b]*Math.abs(dU-dV);
+							dDen+=rgdLength[b]*(dU+dV);
+						}else if(dU+dV>0){
+							dNum+=rgdLength[b]*Math.sqrt(dU+dV)*Math.abs(dU-dV)/(dU+dV);
+							dDen+=rgdLength[b]*Math.sqrt(dU+dV);
+						}
+					}
+					dCorrect = (m==2) ? dNum : dNum/dDen;
+					assertEquals(dCorrect,rgd1[(int) BetaDiversity.getCondensedIndex(i, j, 6)],0.0000000001);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void compute_UnweightedComputed_ValuesAreCorrect(){
+
+		//rgd1 = distances
+
+		double rgd1[] = null;
+
+		try{
+			rgd1 = new UniFrac(bio1, tre1, "unweighted").compute(1);
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+
+		//Sample1 = {GG_OTU_2,GG_OTU_4}, Sample2 = {GG_OTU_2,GG_OTU_4,GG_OTU_5}: only branch to GG_OTU_5 is unique
+		assertEquals(0.75/2.75,rgd1[(int) BetaDiversity.getCondensedIndex(0, 1, 6)],0.0000000001);
+	}
+
+	@Test
+	public void compute_SeveralThreadsAndFileOutput_ValuesMatchSingleThread(){
+
+		//uni1 = UniFrac engine
+		//rgd1 = distances on one thread
+		//sPath = output path
+		//dmf1 = output file
+
+		UniFrac uni1;
+		double rgd1[];
+		String sPath;
+		DistanceMatrixFile dmf1;
+
+		sPath = "/tmp/UniFracTest.dmf";
+		new File(sPath).delete();
+		try{
+			uni1 = new UniFrac(bio1, tre1, "weighted_normalized");
+			rgd1 = uni1.compute(1);
+			assertArrayEquals(rgd1,uni1.compute(4),0.);
+			uni1.compute(sPath, 3);
+			dmf1 = new DistanceMatrixFile(sPath);
+			assertTrue(dmf1.isComplete());
+			for(int i=0;i<6;i++){
+				for(int j=i+1;j<6;j++){
+					assertEquals(rgd1[(int) BetaDiversity.getCondensedIndex(i, j, 6)],dmf1.getDistance(i, j),0.);
+				}
+			}
+			dmf1.close();
+		}catch(Exception e){
+			fail(e.getMessage());
+		}
+		new File(sPath).delete();
+	}
+
+	/**
+	 * Gets proportion of sample below a branch.
+	 * @param j Sample index.
+	 * @param rgsObservations Observations below branch.
+	 * @return Proportion of sample total.
+	 */
+	private double proportionBelow(int j, String[] rgsObservations){
+
+		//dBelow = total below branch
+		//dTotal = sample total
+
+		double dBelow;
+		double dTotal;
+
+		dBelow = 0;
+		dTotal = 0;
+		for(int i=0;i<bio1.axsObservation.size();i++){
+			dTotal+=bio1.getValueByIndices(i, j);
+			for(String s:rgsObservations){
+				if(s.equals(bio1.axsObservation.getID(i))){
+					dBelow+=bio1.getValueByIndices(i, j);
+				}
+			}
+		}
+		return dBelow/dTotal;
+	}
+}